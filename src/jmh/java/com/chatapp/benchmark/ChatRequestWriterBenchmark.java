@@ -0,0 +1,91 @@
+package com.chatapp.benchmark;
+
+import com.chatapp.dto.AiApiRequest;
+import com.chatapp.model.ChatMessage;
+import com.chatapp.service.impl.ChatRequestWriter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the request body for a chat history of 10, 50 and 200 turns, comparing the
+ * streaming writer (into a pooled Netty buffer) with the previous approach (a request DTO
+ * graph serialized by an ObjectMapper). As across turns of a chat, the history messages'
+ * encoded fragments are cached after the first request. The gc profiler's
+ * gc.alloc.rate.norm is the allocation per request.
+ *
+ * Run with: mvn -Pbenchmark test-compile exec:exec -Djmh.args=ChatRequestWriterBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatRequestWriterBenchmark {
+
+    private static final String SYSTEM_PROMPT = "You are a helpful assistant. Answer briefly.";
+
+    @Param({"10", "50", "200"})
+    private int turns;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final NettyDataBufferFactory pooledBuffers = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    private List<ChatMessage> history;
+
+    @Setup
+    public void buildHistory() {
+        history = new ArrayList<>();
+        for (int i = 0; i < turns; i++) {
+            history.add(new ChatMessage("Question " + i + ": how does a \"streaming\" JSON writer avoid building an object graph?",
+                    ChatMessage.MessageType.USER));
+            history.add(new ChatMessage("Answer " + i + ": it writes each field as it is read from the source objects, "
+                    + "so nothing but the output buffer has to be allocated. ".repeat(4), ChatMessage.MessageType.AI));
+        }
+    }
+
+    @Benchmark
+    public int streamingWriter() {
+        DataBuffer buffer = ChatRequestWriter.write(pooledBuffers, "openai/gpt-4o-mini", SYSTEM_PROMPT, history,
+                "Next question", 1000, 0.7, true);
+        int size = buffer.readableByteCount();
+        DataBufferUtils.release(buffer);
+        return size;
+    }
+
+    @Benchmark
+    public byte[] dtoGraph() throws JsonProcessingException {
+        List<AiApiRequest.Message> messages = new ArrayList<>();
+        List<AiApiRequest.Message.Part> systemParts = new ArrayList<>();
+        systemParts.add(new AiApiRequest.Message.Part("text", SYSTEM_PROMPT, null));
+        messages.add(new AiApiRequest.Message("system", systemParts));
+        for (ChatMessage message : history) {
+            String role = message.getType() == ChatMessage.MessageType.USER ? "user" : "assistant";
+            List<AiApiRequest.Message.Part> parts = new ArrayList<>();
+            parts.add(new AiApiRequest.Message.Part("text", message.getContent(), null));
+            messages.add(new AiApiRequest.Message(role, parts));
+        }
+        List<AiApiRequest.Message.Part> parts = new ArrayList<>();
+        parts.add(new AiApiRequest.Message.Part("text", "Next question", null));
+        messages.add(new AiApiRequest.Message("user", parts));
+        return objectMapper.writeValueAsBytes(new AiApiRequest("openai/gpt-4o-mini", messages, 1000, 0.7, null, null, true));
+    }
+}
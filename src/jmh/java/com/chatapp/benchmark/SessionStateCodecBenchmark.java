@@ -0,0 +1,149 @@
+package com.chatapp.benchmark;
+
+import com.chatapp.model.ChatConfig;
+import com.chatapp.model.ChatMessage;
+import com.chatapp.model.SessionStateCodec;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes and reads a session's state (its settings and a chat of 10 and 100 turns) with
+ * {@link SessionStateCodec}, with default Java serialization of the same fields (as the
+ * model classes were serialized before they used the codec) and with Jackson JSON, as in
+ * exports. The sizes of the three forms are printed at setup.
+ *
+ * Run with: mvn -Pbenchmark test-compile exec:exec -Djmh.args=SessionStateCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionStateCodecBenchmark {
+
+    private record SerializedMessage(String id, String content, ChatMessage.MessageType type,
+                                     LocalDateTime timestamp, boolean editing, String imageBase64) implements Serializable {
+    }
+
+    private record SerializedConfig(boolean historyEnabled, int maxHistoryTurns, String aiModel, double temperature,
+                                    int maxTokens, boolean streamingEnabled, int streamingUpdateRate,
+                                    boolean liveStreamingEnabled, String systemPrompt, ArrayList<String> fallbackModels,
+                                    boolean hedgingEnabled) implements Serializable {
+    }
+
+    public record SessionState(ChatConfig config, List<ChatMessage> messages) {
+    }
+
+    @Param({"10", "100"})
+    private int turns;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private ChatConfig config;
+    private List<ChatMessage> history;
+    private SerializedConfig serializedConfig;
+    private ArrayList<SerializedMessage> serializedHistory;
+    private byte[] codecBytes;
+    private byte[] javaBytes;
+    private byte[] jsonBytes;
+
+    @Setup
+    public void buildState() throws IOException {
+        config = new ChatConfig(true, 10, "openai/gpt-4o-mini");
+        config.setSystemPrompt("You are a helpful assistant. Answer briefly.");
+        config.setFallbackModels(List.of("anthropic/claude-3-haiku", "google/gemini-flash-1.5-8b"));
+        history = new ArrayList<>();
+        for (int i = 0; i < turns; i++) {
+            history.add(new ChatMessage("Question " + i + ": how much smaller is a binary session than a JSON one?",
+                    ChatMessage.MessageType.USER));
+            history.add(new ChatMessage("Answer " + i + ": field names, quotes and Base64 are left out, "
+                    + "and numbers take only the bytes they need. ".repeat(4), ChatMessage.MessageType.AI));
+        }
+        serializedConfig = new SerializedConfig(config.isHistoryEnabled(), config.getMaxHistoryTurns(), config.getAiModel(),
+                config.getTemperature(), config.getMaxTokens(), config.isStreamingEnabled(), config.getStreamingUpdateRate(),
+                config.isLiveStreamingEnabled(), config.getSystemPrompt(), new ArrayList<>(config.getFallbackModels()),
+                config.isHedgingEnabled());
+        serializedHistory = new ArrayList<>();
+        for (ChatMessage message : history) {
+            serializedHistory.add(new SerializedMessage(message.getId(), message.getContent(), message.getType(),
+                    message.getTimestamp(), message.isEditing(), message.getImageBase64()));
+        }
+        codecBytes = codecWrite();
+        javaBytes = javaSerializationWrite();
+        jsonBytes = jacksonWrite();
+        System.out.printf("%d turns: codec %d bytes, Java serialization %d bytes, Jackson %d bytes%n",
+                turns, codecBytes.length, javaBytes.length, jsonBytes.length);
+    }
+
+    @Benchmark
+    public byte[] codecWrite() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(SessionStateCodec.VERSION);
+            SessionStateCodec.writeConfig(out, config);
+            SessionStateCodec.writeMessages(out, history);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public SessionState codecRead() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(codecBytes));
+        SessionStateCodec.checkVersion(in.readByte());
+        return new SessionState(SessionStateCodec.readConfig(in), SessionStateCodec.readMessages(in, image -> null));
+    }
+
+    @Benchmark
+    public byte[] javaSerializationWrite() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(serializedConfig);
+            out.writeObject(serializedHistory);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object javaSerializationRead() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBytes))) {
+            return new Object[]{in.readObject(), in.readObject()};
+        }
+    }
+
+    @Benchmark
+    public byte[] jacksonWrite() throws IOException {
+        return objectMapper.writeValueAsBytes(new SessionState(config, history));
+    }
+
+    @Benchmark
+    public SessionState jacksonRead() throws IOException {
+        return objectMapper.readValue(jsonBytes, SessionState.class);
+    }
+}
@@ -0,0 +1,92 @@
+package com.chatapp.benchmark;
+
+import com.chatapp.dto.TokenEvent;
+import com.chatapp.service.impl.SseDeltaDecoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes a recorded OpenRouter stream chunk by chunk, comparing the streaming decoder
+ * with the previous approach (a new ObjectMapper and a full tree per chunk).
+ *
+ * Run with: mvn -Pbenchmark test-compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SseDeltaDecoderBenchmark {
+
+    private List<String> chunks;
+
+    @Setup
+    public void loadStream() throws IOException {
+        chunks = new ArrayList<>();
+        try (InputStream in = SseDeltaDecoderBenchmark.class.getResourceAsStream("/sse/openrouter-stream.txt")) {
+            for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                if (!line.isEmpty()) {
+                    chunks.add(line);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void streamingDecoder(Blackhole blackhole) {
+        for (String chunk : chunks) {
+            blackhole.consume(SseDeltaDecoder.decode(chunk));
+        }
+    }
+
+    @Benchmark
+    public void treePerChunk(Blackhole blackhole) {
+        for (String chunk : chunks) {
+            blackhole.consume(decodeWithTree(chunk));
+        }
+    }
+
+    private static TokenEvent decodeWithTree(String chunk) {
+        if ("[DONE]".equals(chunk.trim()) || chunk.startsWith(": ")) {
+            return null;
+        }
+        String jsonData = chunk.startsWith("data: ") ? chunk.substring(6).trim() : chunk;
+        try {
+            ObjectMapper mapper = new ObjectMapper();
+            JsonNode jsonNode = mapper.readTree(jsonData);
+            JsonNode choices = jsonNode.get("choices");
+            if (choices != null && choices.isArray() && choices.size() > 0) {
+                JsonNode choice = choices.get(0);
+                JsonNode delta = choice.get("delta");
+                String content = (delta != null && delta.has("content")) ? delta.get("content").asText() : null;
+                JsonNode finishReasonNode = choice.get("finish_reason");
+                String finishReason = (finishReasonNode != null && !finishReasonNode.isNull()) ? finishReasonNode.asText() : null;
+                if ((content != null && !content.isEmpty()) || finishReason != null) {
+                    return new TokenEvent(content, finishReason, null);
+                }
+            }
+        } catch (Exception e) {
+            return null;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,231 @@
+package com.chatapp.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load test of the no-JS form flow. N virtual users ({@link VirtualUser}) hold
+ * conversations against a running app while its /api/health JVM figures are sampled; the
+ * run reports throughput, per-step latency percentiles, error rates, and peak heap and
+ * thread counts, and exits non-zero when a gate is exceeded so it can guard releases.
+ *
+ * The app must run with CHATAPP_NO_AUTH=1, and should talk to the mock upstream (see the
+ * README) so the run measures the app rather than OpenRouter.
+ *
+ * Run with: mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--sessions=50 --max-turn-p95-ms=20000"
+ */
+public class ChatLoadTest {
+
+    private static final List<String> STEPS = List.of("turn", "first-token", "stream-start", "frame", "chat", "page", "config");
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Command line options, each given as --name=value.
+     */
+    static final class Options {
+        String url = "http://localhost:8080";
+        int sessions = 20;
+        int rampUpSeconds = 10;
+        int minTurns = 3;
+        int maxTurns = 12;
+        double streamRatio = 0.8;
+        double imageRatio = 0.05;
+        int imageBytes = 200_000;
+        int thinkMillis = 2000;
+        // Meta refresh delays are multiplied by this; below 1 polls harder than a browser
+        double refreshScale = 1.0;
+        int turnTimeoutSeconds = 120;
+        String model = "";
+        long seed = 1;
+        // Gates, 0 disables
+        long maxTurnP95Millis = 0;
+        long maxFirstTokenP95Millis = 0;
+        double maxErrorRate = 0.01;
+        long maxThreads = 0;
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            // exec:exec passes ${loadtest.args} as a single argument
+            for (String arg : String.join(" ", args).trim().split("\\s+")) {
+                if (arg.isEmpty()) {
+                    continue;
+                }
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+                }
+                String[] pair = arg.substring(2).split("=", 2);
+                values.put(pair[0], pair[1]);
+            }
+            Options options = new Options();
+            options.url = stripTrailingSlash(values.getOrDefault("url", options.url));
+            options.sessions = Integer.parseInt(values.getOrDefault("sessions", String.valueOf(options.sessions)));
+            options.rampUpSeconds = Integer.parseInt(values.getOrDefault("ramp-up-seconds", String.valueOf(options.rampUpSeconds)));
+            options.minTurns = Integer.parseInt(values.getOrDefault("min-turns", String.valueOf(options.minTurns)));
+            options.maxTurns = Math.max(options.minTurns, Integer.parseInt(values.getOrDefault("max-turns", String.valueOf(options.maxTurns))));
+            options.streamRatio = Double.parseDouble(values.getOrDefault("stream-ratio", String.valueOf(options.streamRatio)));
+            options.imageRatio = Double.parseDouble(values.getOrDefault("image-ratio", String.valueOf(options.imageRatio)));
+            options.imageBytes = Math.max(2, Integer.parseInt(values.getOrDefault("image-bytes", String.valueOf(options.imageBytes))));
+            options.thinkMillis = Integer.parseInt(values.getOrDefault("think-ms", String.valueOf(options.thinkMillis)));
+            options.refreshScale = Double.parseDouble(values.getOrDefault("refresh-scale", String.valueOf(options.refreshScale)));
+            options.turnTimeoutSeconds = Integer.parseInt(values.getOrDefault("turn-timeout-seconds", String.valueOf(options.turnTimeoutSeconds)));
+            options.model = values.getOrDefault("model", options.model);
+            options.seed = Long.parseLong(values.getOrDefault("seed", String.valueOf(options.seed)));
+            options.maxTurnP95Millis = Long.parseLong(values.getOrDefault("max-turn-p95-ms", "0"));
+            options.maxFirstTokenP95Millis = Long.parseLong(values.getOrDefault("max-first-token-p95-ms", "0"));
+            options.maxErrorRate = Double.parseDouble(values.getOrDefault("max-error-rate", String.valueOf(options.maxErrorRate)));
+            options.maxThreads = Long.parseLong(values.getOrDefault("max-threads", "0"));
+            return options;
+        }
+
+        private static String stripTrailingSlash(String url) {
+            return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        HttpClient client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        LatencyStats stats = new LatencyStats();
+
+        JsonNode before = health(client, options);
+        if (before == null) {
+            System.err.println("No app answering at " + options.url + "/api/health");
+            System.exit(2);
+        }
+        AtomicLong peakHeap = new AtomicLong(before.path("jvm").path("heapUsedBytes").asLong());
+        AtomicLong peakThreads = new AtomicLong(before.path("jvm").path("threads").asLong());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> {
+            JsonNode sample = health(client, options);
+            if (sample != null) {
+                peakHeap.accumulateAndGet(sample.path("jvm").path("heapUsedBytes").asLong(), Math::max);
+                peakThreads.accumulateAndGet(sample.path("jvm").path("threads").asLong(), Math::max);
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+
+        System.out.printf("Load test: %d sessions, %d-%d turns each, %.0f%% streamed, %.0f%% with images, against %s%n",
+                options.sessions, options.minTurns, options.maxTurns, options.streamRatio * 100, options.imageRatio * 100, options.url);
+        ExecutorService users = Executors.newFixedThreadPool(options.sessions);
+        long start = System.nanoTime();
+        long rampUpStepMillis = options.sessions > 1 ? options.rampUpSeconds * 1000L / (options.sessions - 1) : 0;
+        for (int i = 0; i < options.sessions; i++) {
+            users.execute(new VirtualUser(options, client, stats, options.seed + i));
+            Thread.sleep(rampUpStepMillis);
+        }
+        users.shutdown();
+        long budgetSeconds = options.rampUpSeconds + (long) options.maxTurns * (options.turnTimeoutSeconds + options.thinkMillis / 1000 + 1);
+        if (!users.awaitTermination(budgetSeconds, TimeUnit.SECONDS)) {
+            users.shutdownNow();
+            System.err.println("Sessions still running after " + budgetSeconds + "s were interrupted");
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        sampler.shutdown();
+        JsonNode after = health(client, options);
+
+        List<String> failures = report(options, stats, elapsedSeconds, peakHeap.get(), peakThreads.get(), before, after);
+        if (!failures.isEmpty()) {
+            failures.forEach(failure -> System.out.println("GATE FAILED: " + failure));
+            System.exit(1);
+        }
+        System.out.println("All gates passed");
+        System.exit(0);
+    }
+
+    /**
+     * Print the results and check the gates.
+     *
+     * @return the gates that failed
+     */
+    private static List<String> report(Options options, LatencyStats stats, double elapsedSeconds,
+                                       long peakHeap, long peakThreads, JsonNode before, JsonNode after) {
+        Map<String, LatencyStats.Step> steps = new TreeMap<>(stats.steps());
+        long requests = 0;
+        System.out.printf("%n%-14s %8s %7s %8s %8s %8s %8s%n", "step", "count", "errors", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        for (String name : ordered(steps)) {
+            LatencyStats.Step step = steps.get(name);
+            long[] sorted = step.sorted();
+            if (!"turn".equals(name) && !"first-token".equals(name)) {
+                requests += sorted.length + step.errors();
+            }
+            System.out.printf("%-14s %8d %7d %8d %8d %8d %8d%n", name, sorted.length, step.errors(),
+                    LatencyStats.percentile(sorted, 50), LatencyStats.percentile(sorted, 95),
+                    LatencyStats.percentile(sorted, 99), sorted.length > 0 ? sorted[sorted.length - 1] : 0);
+        }
+
+        LatencyStats.Step turns = stats.step("turn");
+        long turnCount = turns.count() + turns.errors();
+        double errorRate = turnCount > 0 ? (double) turns.errors() / turnCount : 1.0;
+        System.out.printf("%nElapsed %.1fs, %.2f turns/s, %.1f requests/s, turn error rate %.2f%%%n",
+                elapsedSeconds, turns.count() / elapsedSeconds, requests / elapsedSeconds, errorRate * 100);
+        System.out.printf("Peak heap %d MiB (max %d MiB), peak threads %d (before %d, after %d)%n",
+                peakHeap >> 20, before.path("jvm").path("heapMaxBytes").asLong() >> 20, peakThreads,
+                before.path("jvm").path("threads").asLong(), after != null ? after.path("jvm").path("threads").asLong() : -1);
+
+        List<String> failures = new ArrayList<>();
+        long turnP95 = LatencyStats.percentile(turns.sorted(), 95);
+        long firstTokenP95 = LatencyStats.percentile(stats.step("first-token").sorted(), 95);
+        if (options.maxTurnP95Millis > 0 && turnP95 > options.maxTurnP95Millis) {
+            failures.add("turn p95 " + turnP95 + "ms > " + options.maxTurnP95Millis + "ms");
+        }
+        if (options.maxFirstTokenP95Millis > 0 && firstTokenP95 > options.maxFirstTokenP95Millis) {
+            failures.add("first-token p95 " + firstTokenP95 + "ms > " + options.maxFirstTokenP95Millis + "ms");
+        }
+        if (errorRate > options.maxErrorRate) {
+            failures.add(String.format("turn error rate %.2f%% > %.2f%%", errorRate * 100, options.maxErrorRate * 100));
+        }
+        if (options.maxThreads > 0 && peakThreads > options.maxThreads) {
+            failures.add("peak threads " + peakThreads + " > " + options.maxThreads);
+        }
+        return failures;
+    }
+
+    /**
+     * The known steps first, in flow order, then any others (sessions, timeouts, busy frames).
+     */
+    private static List<String> ordered(Map<String, LatencyStats.Step> steps) {
+        List<String> ordered = new ArrayList<>();
+        for (String step : STEPS) {
+            if (steps.containsKey(step)) {
+                ordered.add(step);
+            }
+        }
+        for (String step : steps.keySet()) {
+            if (!ordered.contains(step)) {
+                ordered.add(step);
+            }
+        }
+        return ordered;
+    }
+
+    private static JsonNode health(HttpClient client, Options options) {
+        try {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(options.url + "/api/health"))
+                    .timeout(Duration.ofSeconds(5)).GET().build(), HttpResponse.BodyHandlers.ofString());
+            return response.statusCode() == 200 ? objectMapper.readTree(response.body()) : null;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.chatapp.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and failures of each step of the load test, keyed by step name.
+ * Samples are kept in full so percentiles are exact; a run records a few hundred
+ * thousand at most.
+ */
+class LatencyStats {
+
+    private final Map<String, Step> steps = new ConcurrentHashMap<>();
+
+    /**
+     * The samples of one step.
+     */
+    static final class Step {
+        private long[] millis = new long[1024];
+        private int count;
+        private final LongAdder errors = new LongAdder();
+
+        private synchronized void add(long sample) {
+            if (count == millis.length) {
+                millis = Arrays.copyOf(millis, count * 2);
+            }
+            millis[count++] = sample;
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(millis, count);
+            Arrays.sort(copy);
+            return copy;
+        }
+
+        synchronized int count() {
+            return count;
+        }
+
+        long errors() {
+            return errors.sum();
+        }
+    }
+
+    void record(String step, long millis) {
+        step(step).add(millis);
+    }
+
+    void error(String step) {
+        step(step).errors.increment();
+    }
+
+    Step step(String step) {
+        return steps.computeIfAbsent(step, k -> new Step());
+    }
+
+    Map<String, Step> steps() {
+        return steps;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted samples, 0 when there are none.
+     */
+    static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
@@ -0,0 +1,223 @@
+package com.chatapp.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One browser session going through the no-JS form flow: it opens the chat page, switches
+ * to polling frames, then has a conversation of a few turns. A turn either posts the
+ * blocking form (POST /chat, then the redirect to GET /) or the streaming one
+ * (POST /chat/stream, then GET /chat/stream-frame, following each frame's meta refresh
+ * until the answer is complete). Some prompts carry an image.
+ */
+class VirtualUser implements Runnable {
+
+    private static final Pattern STREAM_ID = Pattern.compile("/chat/stream-(?:frame|live)\\?s=([^&\"]+)");
+    private static final Pattern META_REFRESH = Pattern.compile("http-equiv=\"refresh\" content=\"(\\d+);url=([^\"#]+)");
+    private static final Pattern STREAM_TEXT = Pattern.compile("<div id=\"ai-stream\">\\s*(\\S)");
+    private static final String BUSY_FRAME = "The server is busy";
+    private static final String[] WORDS = {
+            "explain", "the", "difference", "between", "a", "cache", "and", "buffer", "in", "simple",
+            "terms", "why", "does", "my", "query", "take", "so", "long", "on", "large", "tables",
+            "write", "short", "poem", "about", "autumn", "summarize", "this", "paragraph", "for", "me",
+            "what", "is", "best", "way", "to", "learn", "rust", "compare", "two", "approaches"
+    };
+
+    private final ChatLoadTest.Options options;
+    private final HttpClient client;
+    private final LatencyStats stats;
+    private final Random random;
+    private String sessionCookie;
+
+    VirtualUser(ChatLoadTest.Options options, HttpClient client, LatencyStats stats, long seed) {
+        this.options = options;
+        this.client = client;
+        this.stats = stats;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public void run() {
+        try {
+            open();
+            int turns = options.minTurns + random.nextInt(options.maxTurns - options.minTurns + 1);
+            for (int turn = 0; turn < turns && !Thread.currentThread().isInterrupted(); turn++) {
+                String prompt = prompt();
+                byte[] image = random.nextDouble() < options.imageRatio ? image() : null;
+                long start = System.nanoTime();
+                boolean answered = random.nextDouble() < options.streamRatio ? streamTurn(prompt, image) : blockingTurn(prompt, image);
+                if (answered) {
+                    stats.record("turn", elapsedMillis(start));
+                } else {
+                    stats.error("turn");
+                }
+                Thread.sleep(thinkMillis());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | IllegalStateException e) {
+            stats.error("session");
+            System.err.println("Session failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Open the chat page, which starts the session, and switch to polling frames.
+     */
+    private void open() throws IOException, InterruptedException {
+        HttpResponse<String> page = send("page", get("/"));
+        if (page == null || page.statusCode() != 200) {
+            throw new IllegalStateException("GET / did not render the chat page; run the app with CHATAPP_NO_AUTH=1");
+        }
+        StringJoiner form = new StringJoiner("&")
+                .add("liveStreamingEnabled=false");
+        if (!options.model.isEmpty()) {
+            form.add("aiModel=" + URLEncoder.encode(options.model, StandardCharsets.UTF_8));
+        }
+        send("config", post("/config/ai", "application/x-www-form-urlencoded", form.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private boolean blockingTurn(String prompt, byte[] image) throws IOException, InterruptedException {
+        HttpResponse<String> submitted = send("chat", form("/chat", prompt, image));
+        if (submitted == null || submitted.statusCode() != 302) {
+            return false;
+        }
+        HttpResponse<String> page = send("page", get("/"));
+        return page != null && page.statusCode() == 200;
+    }
+
+    private boolean streamTurn(String prompt, byte[] image) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        HttpResponse<String> page = send("stream-start", form("/chat/stream", prompt, image));
+        if (page == null || page.statusCode() != 200) {
+            return false;
+        }
+        Matcher streamId = STREAM_ID.matcher(page.body());
+        if (!streamId.find()) {
+            stats.error("stream-start");
+            return false;
+        }
+        String url = "/chat/stream-frame?s=" + streamId.group(1) + "&o=0";
+        long deadline = start + options.turnTimeoutSeconds * 1_000_000_000L;
+        boolean firstToken = false;
+        while (System.nanoTime() < deadline) {
+            HttpResponse<String> frame = send("frame", get(url));
+            if (frame == null || frame.statusCode() != 200) {
+                return false;
+            }
+            boolean busy = frame.body().contains(BUSY_FRAME);
+            if (busy) {
+                stats.error("busy");
+            } else if (!firstToken && STREAM_TEXT.matcher(frame.body()).find()) {
+                firstToken = true;
+                stats.record("first-token", elapsedMillis(start));
+            }
+            Matcher refresh = META_REFRESH.matcher(frame.body());
+            if (!refresh.find()) {
+                return true;
+            }
+            url = refresh.group(2);
+            Thread.sleep((long) (Long.parseLong(refresh.group(1)) * 1000 * options.refreshScale));
+        }
+        stats.error("stream-timeout");
+        return false;
+    }
+
+    /**
+     * Send a request with the session cookie, keeping any new one, and time it as the given step.
+     *
+     * @return the response, null (counted as an error of the step) if it failed
+     */
+    private HttpResponse<String> send(String step, HttpRequest.Builder request) throws InterruptedException {
+        if (sessionCookie != null) {
+            request.header("Cookie", sessionCookie);
+        }
+        long start = System.nanoTime();
+        try {
+            HttpResponse<String> response = client.send(request.timeout(Duration.ofSeconds(options.turnTimeoutSeconds)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            response.headers().allValues("Set-Cookie").stream()
+                    .filter(cookie -> cookie.startsWith("JSESSIONID="))
+                    .findFirst()
+                    .ifPresent(cookie -> sessionCookie = cookie.split(";", 2)[0]);
+            if (response.statusCode() >= 400) {
+                stats.error(step);
+                return null;
+            }
+            stats.record(step, elapsedMillis(start));
+            return response;
+        } catch (IOException e) {
+            stats.error(step);
+            return null;
+        }
+    }
+
+    private HttpRequest.Builder get(String path) {
+        return HttpRequest.newBuilder(URI.create(options.url + path)).GET();
+    }
+
+    private HttpRequest.Builder post(String path, String contentType, byte[] body) {
+        return HttpRequest.newBuilder(URI.create(options.url + path))
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+    }
+
+    /**
+     * The prompt form, multipart like the page's own form when an image is attached.
+     */
+    private HttpRequest.Builder form(String path, String prompt, byte[] image) throws IOException {
+        if (image == null) {
+            return post(path, "application/x-www-form-urlencoded",
+                    ("prompt=" + URLEncoder.encode(prompt, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+        }
+        String boundary = "----loadtest" + Long.toHexString(random.nextLong());
+        ByteArrayOutputStream body = new ByteArrayOutputStream(image.length + 512);
+        body.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"prompt\"\r\n\r\n"
+                + prompt + "\r\n--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"image\"; filename=\"image.png\"\r\n"
+                + "Content-Type: image/png\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(image);
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return post(path, "multipart/form-data; boundary=" + boundary, body.toByteArray());
+    }
+
+    /**
+     * A prompt of a few to about a hundred words, most of them short.
+     */
+    private String prompt() {
+        int words = 3 + (int) Math.min(100, Math.abs(random.nextGaussian() * 25));
+        StringJoiner prompt = new StringJoiner(" ");
+        for (int i = 0; i < words; i++) {
+            prompt.add(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return prompt + "?";
+    }
+
+    /**
+     * Random bytes of about the configured size; the app forwards images without decoding them.
+     */
+    private byte[] image() {
+        byte[] image = new byte[options.imageBytes / 2 + random.nextInt(options.imageBytes)];
+        random.nextBytes(image);
+        return image;
+    }
+
+    private long thinkMillis() {
+        return options.thinkMillis == 0 ? 0 : options.thinkMillis / 2 + random.nextInt(options.thinkMillis);
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
@@ -0,0 +1,120 @@
+package com.chatapp.config;
+
+import io.netty.channel.ChannelOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.Http2SslContextSpec;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * The HTTP client used for all upstream (OpenRouter) calls.
+ * One pooled connection provider is shared by every service, so connections and TLS
+ * sessions are reused across the chat, streaming and model-list requests instead of each
+ * service opening its own. HTTP/2 is negotiated via ALPN where the upstream supports it,
+ * multiplexing concurrent streams over few connections. A plain-HTTP upstream (such as the
+ * mock upstream) is spoken to over HTTP/1.1 without TLS.
+ */
+@Configuration
+public class UpstreamHttpClientConfig {
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamHttpClientConfig.class);
+
+    @Value("${app.upstream.max-connections:200}")
+    private int maxConnections;
+
+    @Value("${app.upstream.pending-acquire-max:1000}")
+    private int pendingAcquireMax;
+
+    @Value("${app.upstream.pending-acquire-timeout-ms:5000}")
+    private long pendingAcquireTimeoutMillis;
+
+    @Value("${app.upstream.max-idle-seconds:30}")
+    private long maxIdleSeconds;
+
+    @Value("${app.upstream.max-life-seconds:300}")
+    private long maxLifeSeconds;
+
+    @Value("${app.upstream.connect-timeout-ms:5000}")
+    private int connectTimeoutMillis;
+
+    @Value("${app.upstream.response-timeout-seconds:60}")
+    private long responseTimeoutSeconds;
+
+    @Value("${app.upstream.http2:true}")
+    private boolean http2Enabled;
+
+    @Value("${ai.api.url:https://openrouter.ai/api/v1/chat/completions}")
+    private String apiUrl;
+
+    @Value("${ai.models.url:https://openrouter.ai/api/v1/models}")
+    private String modelsUrl;
+
+    @Value("${app.upstream.tls-session-cache-size:256}")
+    private long tlsSessionCacheSize;
+
+    @Value("${app.upstream.tls-session-timeout-seconds:3600}")
+    private long tlsSessionTimeoutSeconds;
+
+    @Bean
+    public UpstreamPoolMetrics upstreamPoolMetrics() {
+        return new UpstreamPoolMetrics();
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider upstreamConnectionProvider(UpstreamPoolMetrics upstreamPoolMetrics) {
+        return ConnectionProvider.builder("upstream")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMax)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMillis))
+                // Close idle connections before the upstream or a proxy silently drops them
+                .maxIdleTime(Duration.ofSeconds(maxIdleSeconds))
+                .maxLifeTime(Duration.ofSeconds(maxLifeSeconds))
+                .evictInBackground(Duration.ofSeconds(Math.max(1, maxIdleSeconds / 2)))
+                .metrics(true, () -> upstreamPoolMetrics)
+                .build();
+    }
+
+    @Bean
+    public WebClient upstreamWebClient(ConnectionProvider upstreamConnectionProvider) {
+        HttpClient httpClient = HttpClient.create(upstreamConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                // Maximum gap between reads; streams are kept alive by the upstream's comments
+                .responseTimeout(Duration.ofSeconds(responseTimeoutSeconds));
+        // TLS and ALPN only apply to https:// upstreams; the client is shared, so all must be
+        boolean http2 = http2Enabled && isHttps(apiUrl) && isHttps(modelsUrl);
+        if (http2) {
+            // Built once, so its TLS session cache is shared by all connections
+            Http2SslContextSpec sslContextSpec = Http2SslContextSpec.forClient()
+                    .configure(builder -> builder
+                            .sessionCacheSize(tlsSessionCacheSize)
+                            .sessionTimeout(tlsSessionTimeoutSeconds));
+            httpClient = httpClient
+                    .protocol(HttpProtocol.H2, HttpProtocol.HTTP11)
+                    .secure(spec -> spec.sslContext(sslContextSpec));
+        }
+        logger.info("Upstream HTTP client: {} max connections, HTTP/2 {}", maxConnections, http2 ? "enabled" : "disabled");
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .exchangeStrategies(ExchangeStrategies.builder()
+                        .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(2 * 1024 * 1024)) // 2 MB
+                        .build())
+                .build();
+    }
+
+    private static boolean isHttps(String url) {
+        return url != null && url.regionMatches(true, 0, "https://", 0, "https://".length());
+    }
+}
@@ -0,0 +1,50 @@
+package com.chatapp.config;
+
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.SocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the metrics of the upstream connection pools (one pool per remote address)
+ * without a metrics library, for the health endpoint.
+ */
+public class UpstreamPoolMetrics implements ConnectionProvider.MeterRegistrar {
+
+    private final Map<String, ConnectionPoolMetrics> pools = new ConcurrentHashMap<>();
+
+    @Override
+    public void registerMetrics(String poolName, String id, SocketAddress remoteAddress, ConnectionPoolMetrics metrics) {
+        pools.put(key(poolName, remoteAddress), metrics);
+    }
+
+    @Override
+    public void deRegisterMetrics(String poolName, String id, SocketAddress remoteAddress) {
+        pools.remove(key(poolName, remoteAddress));
+    }
+
+    /**
+     * Snapshot of every pool: connections acquired, idle and allocated, and pending acquires.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        pools.forEach((pool, metrics) -> {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("acquired", metrics.acquiredSize());
+            values.put("idle", metrics.idleSize());
+            values.put("allocated", metrics.allocatedSize());
+            values.put("maxAllocated", metrics.maxAllocatedSize());
+            values.put("pendingAcquire", metrics.pendingAcquireSize());
+            values.put("maxPendingAcquire", metrics.maxPendingAcquireSize());
+            snapshot.put(pool, values);
+        });
+        return snapshot;
+    }
+
+    private static String key(String poolName, SocketAddress remoteAddress) {
+        return poolName + "@" + remoteAddress;
+    }
+}
@@ -1,31 +1,72 @@
 package com.chatapp.controller;
 
+import com.chatapp.config.UpstreamPoolMetrics;
 import com.chatapp.model.ChatMessage;
 import com.chatapp.model.ChatConfig;
+import com.chatapp.model.Conversation;
+import com.chatapp.model.ConversationHandle;
+import com.chatapp.model.ImageBlob;
+import com.chatapp.model.SessionStateCodec;
+import com.chatapp.model.StreamState;
 import com.chatapp.service.ChatService;
 import com.chatapp.service.OpenRouterModelService;
 import com.chatapp.model.OpenRouterModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.InputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.util.WebUtils;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.IOException;
+import com.chatapp.dto.TokenEvent;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import java.time.Duration;
 import com.chatapp.service.AiService;
+import com.chatapp.service.BlobStore;
+import com.chatapp.service.ConversationRepository;
+import com.chatapp.service.StreamingJobScheduler;
+import com.chatapp.service.ModelRouter;
+import com.chatapp.service.ResponseCache;
+import com.chatapp.service.StreamCoalescer;
+import com.chatapp.service.StreamRegistry;
+import com.chatapp.service.UpstreamResilience;
+import com.chatapp.service.UsageAccounting;
 
 /**
  * Controller for handling HTMX requests in the chat application.
@@ -39,16 +80,66 @@ public class ChatController {
     private final ChatService chatService;
     private final OpenRouterModelService openRouterModelService;
     private final AiService aiService;
+    private final StreamingJobScheduler streamingJobScheduler;
+    private final StreamRegistry streamRegistry;
+    private final UpstreamPoolMetrics upstreamPoolMetrics;
+    private final UpstreamResilience upstreamResilience;
+    private final ModelRouter modelRouter;
+    private final StreamCoalescer streamCoalescer;
+    private final ResponseCache responseCache;
+    private final UsageAccounting usageAccounting;
+    private final BlobStore blobStore;
+    private final ConversationRepository conversationRepository;
     private static final String SESSION_CONFIG_KEY = "chatConfig";
     private static final String SESSION_MESSAGES_KEY = "chatMessages";
+    private static final long LIVE_STREAM_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+    private static final MediaType STREAM_HTML = new MediaType("text", "html", java.nio.charset.StandardCharsets.UTF_8);
+    private static final int BUSY_RETRY_SECONDS = 3;
+    private static final int TOKENS_PER_REFRESH = 8;
+    private static final long MAX_REFRESH_SECONDS = 10;
+    // One pending send per live frame at most, so this only bounds a burst of new frames
+    private static final int LIVE_SEND_QUEUE_CAPACITY = 100_000;
     private final boolean noAuthMode;
     
+    @Value("${app.streaming.idle-timeout-seconds:60}")
+    private long streamIdleTimeoutSeconds = 60;
+    
+    @Value("${app.streaming.live-send-threads:32}")
+    private int liveSendThreads = 32;
+    
+    private Scheduler liveFrameSender;
+    
     @Autowired
-    public ChatController(ChatService chatService, OpenRouterModelService openRouterModelService, AiService aiService) {
+    public ChatController(ChatService chatService, OpenRouterModelService openRouterModelService, AiService aiService,
+                          StreamingJobScheduler streamingJobScheduler, StreamRegistry streamRegistry,
+                          UpstreamPoolMetrics upstreamPoolMetrics, UpstreamResilience upstreamResilience,
+                          ModelRouter modelRouter, StreamCoalescer streamCoalescer,
+                          ResponseCache responseCache, UsageAccounting usageAccounting, BlobStore blobStore,
+                          ConversationRepository conversationRepository) {
         this.chatService = chatService;
         this.openRouterModelService = openRouterModelService;
         this.noAuthMode = "1".equals(System.getenv("CHATAPP_NO_AUTH"));
         this.aiService = aiService;
+        this.streamingJobScheduler = streamingJobScheduler;
+        this.streamRegistry = streamRegistry;
+        this.upstreamPoolMetrics = upstreamPoolMetrics;
+        this.upstreamResilience = upstreamResilience;
+        this.modelRouter = modelRouter;
+        this.streamCoalescer = streamCoalescer;
+        this.responseCache = responseCache;
+        this.usageAccounting = usageAccounting;
+        this.blobStore = blobStore;
+        this.conversationRepository = conversationRepository;
+    }
+    
+    @PostConstruct
+    public void init() {
+        liveFrameSender = Schedulers.newBoundedElastic(liveSendThreads, LIVE_SEND_QUEUE_CAPACITY, "live-frame-send");
+    }
+    
+    @PreDestroy
+    public void close() {
+        liveFrameSender.dispose();
     }
     
     private ChatConfig getSessionConfig(HttpSession session) {
@@ -60,15 +151,55 @@ public class ChatController {
         return config;
     }
 
-    private List<ChatMessage> getSessionMessages(HttpSession session) {
-        List<ChatMessage> messages = (List<ChatMessage>) session.getAttribute(SESSION_MESSAGES_KEY);
-        if (messages == null) {
-            messages = new java.util.ArrayList<>();
-            session.setAttribute(SESSION_MESSAGES_KEY, messages);
+    /**
+     * The session's conversation, from the repository; the session itself only keeps a handle,
+     * so a conversation gone cold can leave memory while its session lives on.
+     */
+    private Conversation getSessionMessages(HttpSession session) {
+        Object messages = session.getAttribute(SESSION_MESSAGES_KEY);
+        // By session only: the email given at sign-in is not verified, so it must not reach
+        // a conversation kept under that email
+        String key = conversationRepository.key(session.getId(), null);
+        // A handle read back with a persisted session is unbound, and is replaced below
+        if (messages instanceof ConversationHandle && ((ConversationHandle) messages).getKey().equals(key)
+                && ((ConversationHandle) messages).isBound()) {
+            return ((ConversationHandle) messages).resolve();
         }
-        return messages;
+        Conversation conversation;
+        if (messages instanceof Conversation) {
+            conversation = conversationRepository.adopt(key, (Conversation) messages);
+        } else if (messages instanceof List && !(messages instanceof ConversationHandle)) {
+            // A plain list (from before the conversation was indexed) is indexed once
+            List<ChatMessage> plain = new java.util.ArrayList<>();
+            for (Object message : (List<?>) messages) {
+                if (message instanceof ChatMessage) {
+                    plain.add((ChatMessage) message);
+                }
+            }
+            conversation = conversationRepository.adopt(key, new Conversation(plain));
+        } else {
+            conversation = conversationRepository.open(key);
+        }
+        session.setAttribute(SESSION_MESSAGES_KEY, new ConversationHandle(key, conversationRepository::open));
+        return conversation;
     }
-    
+
+    /**
+     * Who the session's completions are counted against: by session only, as the email
+     * given at sign-in is not verified, so it is no identity to bill.
+     */
+    private static UsageAccounting.Account account(HttpSession session) {
+        return new UsageAccounting.Account(session.getId(), null);
+    }
+
+    /**
+     * The lock every change to the session's conversation is made under, by a request or by
+     * a streaming job; the conversation itself is not thread-safe.
+     */
+    private static Object conversationLock(HttpSession session) {
+        return WebUtils.getSessionMutex(session);
+    }
+
     private boolean isAuthenticated(HttpSession session) {
         if (noAuthMode) {
             // If not authenticated, treat as new user and set session attribute
@@ -95,6 +226,18 @@ public class ChatController {
         model.addAttribute("config", config);
         model.addAttribute("showConfigMenu", false);
         model.addAttribute("showDataMenu", false);
+        // A reload during a stream renders what has arrived so far in the page and
+        // resumes the frame after it, so the frame doesn't resend the prefix
+        StreamState streamState = streamRegistry.latestActive(session.getId());
+        if (streamState != null) {
+            String progress = streamState.getBuffer().toString();
+            model.addAttribute("streamingActive", true);
+            model.addAttribute("streamId", streamState.getId());
+            model.addAttribute("streamingPrompt", streamState.getPrompt());
+            model.addAttribute("streamingProgress", progress);
+            model.addAttribute("streamingOffset", progress.length());
+            model.addAttribute("streamingComplete", false);
+        }
         // Determine if images are accepted for the current model
         boolean imagesAccepted = false;
         String aiModel = config.getAiModel();
@@ -192,6 +335,8 @@ public class ChatController {
         model.addAttribute("config", config);
         model.addAttribute("showConfigMenu", false);
         model.addAttribute("showDataMenu", true);
+        model.addAttribute("sessionUsage", usageAccounting.getSessionSummary(session.getId()));
+        model.addAttribute("modelUsage", usageAccounting.getModelSummaries());
         // Determine if images are accepted for the current model
         boolean imagesAccepted = false;
         String aiModel = config.getAiModel();
@@ -227,15 +372,12 @@ public class ChatController {
             return "redirect:/#chat-bottom";
         }
         try {
-            String imageBase64 = null;
-            if (image != null && !image.isEmpty()) {
-                byte[] imageBytes = image.getBytes();
-                imageBase64 = java.util.Base64.getEncoder().encodeToString(imageBytes);
-                logger.info("Received image with size: {} bytes", imageBytes.length);
-            }
+            ImageBlob imageBlob = storeImage(image);
             ChatConfig config = getSessionConfig(session);
             List<ChatMessage> messages = getSessionMessages(session);
-            chatService.processUserMessage(prompt, config, imageBase64, messages);
+            synchronized (conversationLock(session)) {
+                chatService.processUserMessage(prompt, config, imageBlob, messages, account(session));
+            }
             logger.info("Successfully processed message and generated response");
             return "redirect:/#chat-bottom";
         } catch (Exception e) {
@@ -252,20 +394,14 @@ public class ChatController {
     @GetMapping({"/chat/message/{messageId}/edit", "/chat/message/{messageId}/edit/"})
     public String editMessage(@PathVariable String messageId, Model model, HttpSession session) {
         logger.info("Switching message {} to edit mode", messageId);
-        List<ChatMessage> messages = getSessionMessages(session);
-        ChatMessage message = messages.stream().filter(m -> m.getId().equals(messageId)).findFirst().orElse(null);
-        if (message == null) {
+        Conversation messages = getSessionMessages(session);
+        int turn = messages.indexOfId(messageId);
+        if (turn < 0) {
             logger.warn("Message not found: {}", messageId);
             model.addAttribute("error", "Message not found");
             return "redirect:/#chat-bottom";
         }
-        int turn = -1;
-        for (int i = 0; i < messages.size(); i++) {
-            if (messages.get(i).getId().equals(messageId)) {
-                turn = i;
-                break;
-            }
-        }
+        ChatMessage message = messages.get(turn);
         ChatConfig config = getSessionConfig(session);
         model.addAttribute("messages", messages);
         model.addAttribute("config", config);
@@ -287,23 +423,15 @@ public class ChatController {
                               Model model, HttpSession session) {
         logger.info("Saving edited message: {}", messageId);
         try {
-            String imageBase64 = null;
-            if (image != null && !image.isEmpty()) {
-                byte[] imageBytes = image.getBytes();
-                imageBase64 = java.util.Base64.getEncoder().encodeToString(imageBytes);
-                logger.info("Received new image for edit with size: {} bytes", imageBytes.length);
+            ImageBlob imageBlob = storeImage(image);
+            Conversation messages = getSessionMessages(session);
+            int turn;
+            synchronized (conversationLock(session)) {
+                chatService.updateMessage(messageId, prompt, imageBlob, messages);
+                // Find turn for anchor
+                turn = messages.indexOfId(messageId);
             }
-            List<ChatMessage> messages = getSessionMessages(session);
-            chatService.updateMessage(messageId, prompt, imageBase64, messages);
             logger.info("Successfully saved message");
-            // Find turn for anchor
-            int turn = -1;
-            for (int i = 0; i < messages.size(); i++) {
-                if (messages.get(i).getId().equals(messageId)) {
-                    turn = i;
-                    break;
-                }
-            }
             if (turn >= 0) {
                 return "redirect:/#turn-" + turn;
             } else {
@@ -323,25 +451,78 @@ public class ChatController {
     @GetMapping({"/chat/message/{messageId}/view", "/chat/message/{messageId}/view/"})
     public String viewMessage(@PathVariable String messageId, Model model, HttpSession session) {
         logger.info("Switching message {} to view mode", messageId);
-        List<ChatMessage> messages = getSessionMessages(session);
+        Conversation messages = getSessionMessages(session);
         ChatConfig config = getSessionConfig(session);
         model.addAttribute("messages", messages);
         model.addAttribute("config", config);
         model.addAttribute("showConfigMenu", false);
         model.addAttribute("showDataMenu", false);
         // Find turn for anchor
-        int turn = -1;
-        for (int i = 0; i < messages.size(); i++) {
-            if (messages.get(i).getId().equals(messageId)) {
-                turn = i;
-                break;
-            }
-        }
+        int turn = messages.indexOfId(messageId);
         model.addAttribute("editingMessageId", null);
         model.addAttribute("editingMessageTurn", turn);
         return "chat";
     }
     
+    /**
+     * An uploaded image, by the SHA-256 of its content. Only images of the session's own
+     * conversation are served: a hash is no secret once the image was sent anywhere. The
+     * content never changes, so the browser may keep it for good and revalidates with the
+     * hash as ETag.
+     */
+    @GetMapping("/blob/{hash}")
+    public void blob(@PathVariable String hash, HttpSession session,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ImageBlob blob = isAuthenticated(session) && referencesImage(session, hash) ? blobStore.get(hash) : null;
+        if (blob == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+        if (new ServletWebRequest(request, response).checkNotModified("\"" + blob.getHash() + "\"")) {
+            return;
+        }
+        response.setContentType(blob.getContentType());
+        response.setContentLengthLong(blob.getSize());
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        // Copied from the mapped file; the image is never on the heap as a whole
+        ByteBuffer contents = blob.contents();
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        while (contents.hasRemaining()) {
+            out.write(contents);
+        }
+    }
+    
+    /**
+     * Whether a message of the session's conversation holds the image.
+     */
+    private boolean referencesImage(HttpSession session, String hash) {
+        List<ChatMessage> messages = getSessionMessages(session);
+        synchronized (conversationLock(session)) {
+            for (ChatMessage message : messages) {
+                ImageBlob image = message.getImage();
+                if (image != null && image.getHash().equals(hash)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Store an upload in the blob store.
+     *
+     * @return the stored image, null if there was no upload
+     */
+    private ImageBlob storeImage(MultipartFile image) throws IOException {
+        if (image == null || image.isEmpty()) {
+            return null;
+        }
+        ImageBlob blob = blobStore.put(image.getBytes(), image.getContentType());
+        logger.info("Received image with size: {} bytes ({})", blob.getSize(), blob.getHash());
+        return blob;
+    }
+    
     /**
      * Health check endpoint to validate API configuration.
      */
@@ -361,10 +542,34 @@ public class ChatController {
             response.put("openrouter_api_key", "CONFIGURED");
             response.put("message", "API key is configured");
         }
+        response.put("streams", streamingJobScheduler.getMetrics());
+        response.put("sse", aiService.getStreamMetrics());
+        response.put("upstreamPool", upstreamPoolMetrics.snapshot());
+        response.put("upstreamResilience", upstreamResilience.getMetrics());
+        response.put("routing", modelRouter.getMetrics());
+        response.put("coalescing", streamCoalescer.getMetrics());
+        response.put("responseCache", responseCache.getMetrics());
+        response.put("blobs", blobStore.getMetrics());
+        response.put("conversations", conversationRepository.getMetrics());
+        response.put("jvm", jvmMetrics());
         
         return response;
     }
     
+    /**
+     * Heap and thread counts, sampled by load tests while they run.
+     */
+    private static Map<String, Object> jvmMetrics() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Map<String, Object> metrics = new java.util.LinkedHashMap<>();
+        metrics.put("heapUsedBytes", heap.getUsed());
+        metrics.put("heapMaxBytes", heap.getMax());
+        metrics.put("threads", threads.getThreadCount());
+        metrics.put("peakThreads", threads.getPeakThreadCount());
+        return metrics;
+    }
+    
     /**
      * Handle AI configuration updates.
      */
@@ -376,7 +581,10 @@ public class ChatController {
                                 @RequestParam(required = false) Integer maxTokens,
                                 @RequestParam(required = false) String streamingEnabled,
                                 @RequestParam(required = false) Integer streamingUpdateRate,
+                                @RequestParam(required = false) String liveStreamingEnabled,
                                 @RequestParam(required = false) String systemPrompt,
+                                @RequestParam(required = false) String fallbackModels,
+                                @RequestParam(required = false) String hedgingEnabled,
                                 HttpSession session) {
         logger.info("Updating AI configuration");
         ChatConfig config = getSessionConfig(session);
@@ -401,14 +609,47 @@ public class ChatController {
         if (streamingUpdateRate != null) {
             config.setStreamingUpdateRate(streamingUpdateRate);
         }
+        if (liveStreamingEnabled != null) {
+            config.setLiveStreamingEnabled("true".equals(liveStreamingEnabled));
+        }
         if (systemPrompt != null) {
             config.setSystemPrompt(systemPrompt);
         }
+        if (fallbackModels != null) {
+            config.setFallbackModels(parseFallbackModels(fallbackModels));
+        }
+        if (hedgingEnabled != null) {
+            config.setHedgingEnabled("true".equals(hedgingEnabled));
+        }
         logger.info("AI configuration updated: historyEnabled={}, maxHistoryTurns={}, aiModel={}, temperature={}, maxTokens={}, streamingEnabled={}, systemPrompt={}",
                    config.isHistoryEnabled(), config.getMaxHistoryTurns(), config.getAiModel(), config.getTemperature(), config.getMaxTokens(), config.isStreamingEnabled(), config.getSystemPrompt());
         return "redirect:/#chat-bottom";
     }
     
+    /**
+     * Parse a comma-separated, ordered list of fallback model ids, keeping only known models.
+     */
+    private List<String> parseFallbackModels(String fallbackModels) {
+        java.util.Set<String> knownModels = new java.util.HashSet<>();
+        for (OpenRouterModel m : openRouterModelService.getCachedModels()) {
+            knownModels.add(m.getId());
+        }
+        List<String> parsed = new java.util.ArrayList<>();
+        for (String id : fallbackModels.split(",")) {
+            String trimmed = id.trim();
+            if (trimmed.isEmpty() || parsed.contains(trimmed)) {
+                continue;
+            }
+            // Without a model list (e.g. the API is unreachable) ids are taken as entered
+            if (knownModels.isEmpty() || knownModels.contains(trimmed)) {
+                parsed.add(trimmed);
+            } else {
+                logger.warn("Ignoring unknown fallback model: {}", trimmed);
+            }
+        }
+        return parsed;
+    }
+    
     /**
      * Handle chat data clearing.
      */
@@ -419,33 +660,49 @@ public class ChatController {
         }
         logger.info("Clearing all chat messages");
         List<ChatMessage> messages = getSessionMessages(session);
-        messages.clear();
+        synchronized (conversationLock(session)) {
+            messages.clear();
+        }
         return "redirect:/#chat-bottom";
     }
     
     /**
-     * Handle chat data export (JSON file download).
+     * Handle chat data export (file download): JSON, or with format=binary the compact
+     * {@link SessionStateCodec} form, which carries images as bytes rather than Base64.
      */
     @PostMapping("/chat/export")
-    public ResponseEntity<byte[]> exportChat(HttpSession session) {
+    public ResponseEntity<byte[]> exportChat(@RequestParam(value = "format", defaultValue = "json") String format,
+                                             HttpSession session) {
         if (!isAuthenticated(session)) {
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.TEXT_PLAIN);
             headers.add(HttpHeaders.LOCATION, "/magic-link/request");
             return ResponseEntity.status(302).headers(headers).body(new byte[0]);
         }
-        logger.info("Exporting chat history");
+        logger.info("Exporting chat history ({})", format);
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.registerModule(new JavaTimeModule());
             List<ChatMessage> messages = getSessionMessages(session);
-            byte[] jsonBytes = mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(messages);
+            byte[] exportBytes;
+            String filename;
+            if ("binary".equals(format)) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (DataOutputStream out = new DataOutputStream(bytes)) {
+                    SessionStateCodec.writeConversation(out, messages);
+                }
+                exportBytes = bytes.toByteArray();
+                filename = "chat-export.chat";
+            } else {
+                ObjectMapper mapper = new ObjectMapper();
+                mapper.registerModule(new JavaTimeModule());
+                exportBytes = mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(messages);
+                filename = "chat-export.json";
+            }
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"chat-export.json\"");
+            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
             return ResponseEntity.ok()
                     .headers(headers)
-                    .body(jsonBytes);
+                    .body(exportBytes);
         } catch (Exception e) {
             logger.error("Failed to export chat history", e);
             return ResponseEntity.status(500).body(("Failed to export chat history: " + e.getMessage()).getBytes());
@@ -453,7 +710,7 @@ public class ChatController {
     }
     
     /**
-     * Handle chat data import (JSON file upload).
+     * Handle chat data import (file upload), of either export format.
      */
     @PostMapping("/chat/import")
     public String importChat(@RequestParam("file") MultipartFile file, Model model, HttpSession session) {
@@ -462,13 +719,27 @@ public class ChatController {
             model.addAttribute("error", "No file selected for import.");
             return "redirect:/#chat-bottom";
         }
-        try (InputStream is = file.getInputStream()) {
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.registerModule(new JavaTimeModule());
-            List<ChatMessage> importedMessages = mapper.readValue(is, mapper.getTypeFactory().constructCollectionType(List.class, ChatMessage.class));
+        try (BufferedInputStream is = new BufferedInputStream(file.getInputStream())) {
+            List<ChatMessage> importedMessages;
+            if (SessionStateCodec.isConversation(is)) {
+                importedMessages = SessionStateCodec.readConversation(new DataInputStream(is), this::storeImportedImage);
+            } else {
+                ObjectMapper mapper = new ObjectMapper();
+                mapper.registerModule(new JavaTimeModule());
+                importedMessages = mapper.readValue(is, mapper.getTypeFactory().constructCollectionType(List.class, ChatMessage.class));
+                // JSON exports carry images as Base64; keep them in the blob store like uploads
+                for (ChatMessage importedMessage : importedMessages) {
+                    String imageBase64 = importedMessage.getImageBase64();
+                    if (imageBase64 != null && !imageBase64.isEmpty()) {
+                        importedMessage.setImage(blobStore.put(java.util.Base64.getDecoder().decode(imageBase64), null));
+                    }
+                }
+            }
             List<ChatMessage> messages = getSessionMessages(session);
-            messages.clear();
-            messages.addAll(importedMessages);
+            synchronized (conversationLock(session)) {
+                messages.clear();
+                messages.addAll(importedMessages);
+            }
             logger.info("Successfully imported chat history ({} messages)", importedMessages.size());
         } catch (Exception e) {
             logger.error("Failed to import chat history", e);
@@ -476,6 +747,14 @@ public class ChatController {
         }
         return "redirect:/#chat-bottom";
     }
+
+    private ImageBlob storeImportedImage(byte[] bytes) {
+        try {
+            return blobStore.put(bytes, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
     
     /**
      * Handle message deletion by ID.
@@ -484,7 +763,10 @@ public class ChatController {
     public String deleteMessage(@PathVariable String messageId, Model model, HttpSession session) {
         logger.info("Deleting message: {}", messageId);
         List<ChatMessage> messages = getSessionMessages(session);
-        boolean deleted = chatService.deleteMessage(messageId, messages);
+        boolean deleted;
+        synchronized (conversationLock(session)) {
+            deleted = chatService.deleteMessage(messageId, messages);
+        }
         if (!deleted) {
             model.addAttribute("error", "Message not found or could not be deleted.");
         }
@@ -502,7 +784,9 @@ public class ChatController {
         try {
             ChatConfig config = getSessionConfig(session);
             List<ChatMessage> messages = getSessionMessages(session);
-            chatService.regenerateAiMessage(messageId, config, messages);
+            synchronized (conversationLock(session)) {
+                chatService.regenerateAiMessage(messageId, config, messages, account(session));
+            }
             logger.info("Successfully regenerated AI message");
         } catch (Exception e) {
             logger.error("Error regenerating AI message", e);
@@ -532,36 +816,38 @@ public class ChatController {
         List<ChatMessage> messages = getSessionMessages(session);
         logger.info("Current messages count: {}", messages.size());
         
-        // Check if this exact message already exists to prevent duplication
-        boolean messageExists = messages.stream()
-            .anyMatch(msg -> msg.getType() == ChatMessage.MessageType.USER && 
-                           msg.getContent().equals(prompt));
-        if (messageExists) {
-            logger.warn("User message already exists, skipping duplicate: {}", prompt);
-        } else {
-            ChatMessage userMessage = new ChatMessage(prompt, ChatMessage.MessageType.USER);
-            if (image != null && !image.isEmpty()) {
+        // A resubmitted form (double click, reload of the POST) repeats the last, still
+        // unanswered prompt: it is not added again, and a stream still running for it is
+        // shown instead of starting another. Identical upstream requests that do get
+        // started are coalesced by the StreamCoalescer.
+        boolean resubmitted;
+        synchronized (conversationLock(session)) {
+            ChatMessage lastMessage = messages.isEmpty() ? null : messages.get(messages.size() - 1);
+            resubmitted = lastMessage != null && lastMessage.getType() == ChatMessage.MessageType.USER
+                    && prompt.equals(lastMessage.getContent());
+            if (!resubmitted) {
+                ChatMessage userMessage = new ChatMessage(prompt, ChatMessage.MessageType.USER);
                 try {
-                    byte[] imageBytes = image.getBytes();
-                    String imageBase64 = java.util.Base64.getEncoder().encodeToString(imageBytes);
-                    userMessage.setImageBase64(imageBase64);
-                    logger.info("Received image with size: {} bytes", imageBytes.length);
+                    userMessage.setImage(storeImage(image));
                 } catch (IOException e) {
                     logger.error("Error processing image", e);
                 }
+                messages.add(userMessage);
+                logger.info("Added user message, new count: {}", messages.size());
             }
-            messages.add(userMessage);
-            logger.info("Added user message, new count: {}", messages.size());
+        }
+        StreamState streamState = resubmitted ? streamRegistry.latestActive(session.getId()) : null;
+        if (streamState != null && !prompt.equals(streamState.getPrompt())) {
+            streamState = null;
+        }
+        if (resubmitted) {
+            logger.warn("Resubmitted prompt, not adding it again: {}", prompt);
         }
         
-        // Initialize streaming session data - DON'T start streaming here
-        session.setAttribute("streamingPrompt", prompt);
-        session.setAttribute("streamingProgress", "");
-        session.setAttribute("streamingComplete", false);
-        session.setAttribute("streamingStartTime", System.currentTimeMillis());
-        session.setAttribute("streamingTokenCount", 0);
-        session.setAttribute("streamingInProgress", false); // Start as false, iframe will start it
-        session.setAttribute("streamingStarted", false); // Flag to track if streaming has started
+        // Register the stream once - DON'T start streaming here, the iframe will start it
+        if (streamState == null) {
+            streamState = streamRegistry.register(session.getId(), prompt);
+        }
         
         // Set up model attributes for the chat page
         model.addAttribute("messages", messages);
@@ -569,8 +855,10 @@ public class ChatController {
         model.addAttribute("showConfigMenu", false);
         model.addAttribute("showDataMenu", false);
         model.addAttribute("streamingActive", true); // Flag to show streaming content
+        model.addAttribute("streamId", streamState.getId());
         model.addAttribute("streamingPrompt", prompt); // Pass the prompt for display
         model.addAttribute("streamingProgress", "");
+        model.addAttribute("streamingOffset", 0);
         model.addAttribute("streamingComplete", false);
         
         // Determine if images are accepted for the current model
@@ -590,18 +878,46 @@ public class ChatController {
         return "chat";
     }
     
+    /**
+     * Stop generating the current stream. The upstream request is aborted, the partial
+     * answer is saved as the AI message and the stream's slot is freed.
+     */
+    @PostMapping("/chat/stream/cancel")
+    public String cancelStream(@RequestParam(value = "s", required = false) String streamId, HttpSession session) {
+        if (!isAuthenticated(session)) {
+            return "redirect:/magic-link/request";
+        }
+        StreamState streamState = streamRegistry.get(session.getId(), streamId);
+        if (streamState != null && streamState.cancel()) {
+            logger.info("Cancelled stream for prompt: {}", streamState.getPrompt());
+            // A stream no frame has started yet has no job to finish it
+            if (streamState.tryStart()) {
+                streamState.markComplete();
+            }
+        }
+        return "redirect:/#chat-bottom";
+    }
+    
+    /**
+     * Polling stream frame - renders the stream so far and refreshes itself.
+     * The refresh delay follows the stream's token rate (d, in seconds, is the delay the
+     * client last used): it shrinks while tokens flow and doubles while a refresh brings
+     * nothing new since the client's character count (c). Each response carries an ETag
+     * that includes the refresh delay it would render, since a 304 Not Modified makes the
+     * browser reuse the cached refresh: only once the delay has settled at its maximum and
+     * the stream is unchanged is the frame answered with a 304 instead of a re-render.
+     */
     @GetMapping(value = "/chat/stream-frame", produces = MediaType.TEXT_HTML_VALUE)
-    public void streamFrame(@RequestParam(value = "t", required = false) String timestamp,
+    public void streamFrame(@RequestParam(value = "s", required = false) String streamId,
+                           @RequestParam(value = "t", required = false) String timestamp,
                            @RequestParam(value = "c", required = false) String charCount,
-                           @RequestParam(value = "p", required = false) String promptLengthParam,
-                           HttpSession session, HttpServletResponse response) throws IOException {
-        logger.info("=== STREAM FRAME CALLED ===");
-        String streamingPrompt = (String) session.getAttribute("streamingPrompt");
-        String streamingProgress = (String) session.getAttribute("streamingProgress");
-        Boolean streamingComplete = (Boolean) session.getAttribute("streamingComplete");
-        Boolean streamingStarted = (Boolean) session.getAttribute("streamingStarted");
+                           @RequestParam(value = "d", required = false) String delayParam,
+                           @RequestParam(value = "o", required = false) String offsetParam,
+                           HttpSession session, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        logger.debug("=== STREAM FRAME CALLED ===");
+        StreamState streamState = streamRegistry.get(session.getId(), streamId);
         
-        if (streamingPrompt == null) {
+        if (streamState == null) {
             response.setContentType("text/html");
             PrintWriter writer = response.getWriter();
             writer.println("<!DOCTYPE html>");
@@ -610,83 +926,335 @@ public class ChatController {
             return;
         }
         
+        streamState.touch();
         // Start streaming if not already started
-        if (streamingStarted == null || !streamingStarted) {
-            logger.info("Starting streaming for prompt: {}", streamingPrompt);
-            session.setAttribute("streamingStarted", true);
-            session.setAttribute("streamingInProgress", true);
-            
-            // Start streaming in a separate thread to avoid blocking
-            new Thread(() -> {
-                try {
-                    logger.info("Background thread: Starting streaming for prompt: {}", streamingPrompt);
-                    ChatConfig config = getSessionConfig(session);
-                    List<ChatMessage> messages = getSessionMessages(session);
-                    logger.info("Background thread: Current messages count: {}", messages.size());
-                    List<ChatMessage> conversationHistory = new java.util.ArrayList<>();
-                    if (config != null && config.isHistoryEnabled()) {
-                        int maxTurns = config.getMaxHistoryTurns();
-                        // Exclude the current user message from conversation history since streamResponseReal will add it
-                        int startIndex = Math.max(0, messages.size() - (maxTurns * 2));
-                        int endIndex = messages.size() - 1; // Exclude the last message (current user message)
-                        if (endIndex > startIndex) {
-                            conversationHistory = messages.subList(startIndex, endIndex);
-                        }
-                    }
-                    StringBuilder progress = new StringBuilder();
-                    aiService.streamResponseReal(streamingPrompt, conversationHistory, config.getAiModel(), config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt(),
-                        token -> {
-                            progress.append(token);
-                            session.setAttribute("streamingProgress", progress.toString());
-                        });
-                    session.setAttribute("streamingProgress", progress.toString());
-                    session.setAttribute("streamingComplete", true);
-                    session.setAttribute("streamingInProgress", false);
-                    if (progress.length() > 0) {
-                        ChatMessage aiMessage = new ChatMessage(progress.toString(), ChatMessage.MessageType.AI);
-                        messages.add(aiMessage);
-                        logger.info("Background thread: Added AI message, new count: {}", messages.size());
-                    }
-                } catch (Exception e) {
-                    logger.error("Background thread: Error during streaming", e);
-                    String currentProgress = (String) session.getAttribute("streamingProgress");
-                    if (currentProgress == null) currentProgress = "";
-                    currentProgress += "Error: " + e.getMessage();
-                    session.setAttribute("streamingProgress", currentProgress);
-                    session.setAttribute("streamingComplete", true);
-                    session.setAttribute("streamingInProgress", false);
-                }
-            }).start();
+        if (streamState.tryStart() && !startStreamingJob(streamState, session)) {
+            writeStreamBusyFrame(response, "/chat/stream-frame?s=" + streamState.getId() + "&t=" + System.currentTimeMillis() + "&o=" + (offsetParam != null ? offsetParam : "0"));
+            return;
+        }
+        
+        // The parent page already shows everything before the offset
+        long baseOffset = parseStreamOffset(offsetParam, streamState);
+        // Read completion before the length so the rendered text is never behind a "complete" frame
+        boolean complete = streamState.isComplete();
+        long progressLength = streamState.getBuffer().length();
+        
+        long delaySeconds = 0;
+        if (!complete) {
+            boolean progressed = charCount == null || parseLong(charCount, -1) < progressLength;
+            delaySeconds = nextRefreshSeconds(streamState, progressed, delayParam, getSessionConfig(session));
         }
         
-        if (streamingProgress == null) streamingProgress = "";
-        if (streamingComplete == null) streamingComplete = false;
+        // Frames are per session: cacheable by the browser only, and always revalidated
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+        String etag = "W/\"" + streamState.getId() + "-" + baseOffset + "-" + progressLength + (complete ? "-done" : "-" + delaySeconds) + "\"";
+        if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+            return;
+        }
         
         response.setContentType("text/html");
         PrintWriter writer = response.getWriter();
         writer.println("<!DOCTYPE html>");
         writer.println("<html><head>");
-        if (!streamingComplete) {
-            // Get the streaming update rate from config
-            ChatConfig config = getSessionConfig(session);
-            int updateRate = config != null ? config.getStreamingUpdateRate() : 1;
-            String currentProgress = (String) session.getAttribute("streamingProgress");
-            int progressLength = currentProgress != null ? currentProgress.length() : 0;
-            String prompt = (String) session.getAttribute("streamingPrompt");
-            int promptLength = prompt != null ? prompt.length() : 0;
-            writer.println("<meta http-equiv=\"refresh\" content=\"" + updateRate + ";url=/chat/stream-frame?t=" + System.currentTimeMillis() + "&c=" + progressLength + "&p=" + promptLength + "#stream-bottom\">\n");
+        if (!complete) {
+            writer.println("<meta http-equiv=\"refresh\" content=\"" + delaySeconds + ";url=/chat/stream-frame?s=" + streamState.getId() + "&o=" + baseOffset + "&c=" + progressLength + "&d=" + delaySeconds + "#stream-bottom\">\n");
         }
-        writer.println("<style>");
-        writer.println("body{margin:0;padding:0;font:inherit;background:transparent;}");
-        writer.println("#ai-stream{white-space:pre-wrap;word-wrap:break-word;}");
-        writer.println("</style>");
+        writeStreamFrameStyle(writer);
         writer.println("</head><body>");
         writer.println("<div id=\"ai-stream\">");
-        writer.println(streamingProgress.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\n", "<br/>") );
+        streamState.getBuffer().forEachSince(baseOffset, progressLength, token -> writer.print(escapeStreamHtml(token)));
+        writer.println();
         writer.println("</div>");
         // Add scroll anchor at the bottom
         writer.println("<div id=\"stream-bottom\"></div>");
         writer.println("</body></html>");
         writer.flush();
     }
+    
+    /**
+     * Seconds until the polling frame refreshes again. While tokens flow the delay is
+     * sized so a refresh brings about TOKENS_PER_REFRESH new tokens at the stream's
+     * observed rate; after a refresh that brought nothing new it doubles. Meta refresh
+     * only honours whole seconds, so the result is clamped to 1..MAX_REFRESH_SECONDS.
+     */
+    private static long nextRefreshSeconds(StreamState streamState, boolean progressed, String previousDelayParam, ChatConfig config) {
+        long initial = config != null ? config.getStreamingUpdateRate() : 1;
+        long delay;
+        if (!progressed) {
+            delay = parseLong(previousDelayParam, initial) * 2;
+        } else if (streamState.getTokenIntervalMillis() > 0) {
+            delay = Math.round(streamState.getTokenIntervalMillis() * TOKENS_PER_REFRESH / 1000.0);
+        } else {
+            delay = initial;
+        }
+        return Math.max(1, Math.min(delay, MAX_REFRESH_SECONDS));
+    }
+    
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * Live stream frame - a single long-lived chunked HTML response.
+     * The iframe request stays open and only the new HTML-escaped tokens are flushed
+     * as they arrive from the upstream SSE stream, so nothing is re-sent and the first
+     * token shows up as soon as the upstream produces it. The document is closed when
+     * the stream finishes. A frame resumed with an offset (o) only receives the text
+     * after it. Generation runs as a non-blocking job and the response is
+     * written asynchronously from its progress notifications, so an open frame holds
+     * no servlet thread.
+     */
+    @GetMapping(value = "/chat/stream-live", produces = MediaType.TEXT_HTML_VALUE)
+    public ResponseEntity<ResponseBodyEmitter> streamLive(@RequestParam(value = "s", required = false) String streamId,
+                                                          @RequestParam(value = "o", required = false) String offsetParam,
+                                                          HttpSession session, HttpServletRequest request,
+                                                          HttpServletResponse response) throws IOException {
+        logger.info("=== STREAM LIVE CALLED ===");
+        StreamState streamState = streamRegistry.get(session.getId(), streamId);
+        if (streamState == null) {
+            // Nothing to stream: the polling frame renders an empty document
+            streamFrame(null, null, null, null, null, session, request, response);
+            return null;
+        }
+        // A reloaded frame attaches to the running stream instead of starting a new one
+        if (streamState.tryStart()) {
+            logger.info("Starting live streaming for prompt: {}", streamState.getPrompt());
+            if (!startStreamingJob(streamState, session)) {
+                writeStreamBusyFrame(response, "/chat/stream-live?s=" + streamState.getId() + "&o=" + (offsetParam != null ? offsetParam : "0"));
+                return null;
+            }
+        }
+        
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(LIVE_STREAM_TIMEOUT_MILLIS);
+        StringWriter head = new StringWriter();
+        PrintWriter writer = new PrintWriter(head);
+        writer.println("<!DOCTYPE html>");
+        writer.println("<html><head>");
+        writeStreamFrameStyle(writer);
+        writer.println("</head><body>");
+        writer.print("<div id=\"ai-stream\">");
+        writer.flush();
+        emitter.send(head.toString(), STREAM_HTML);
+        
+        LiveStreamTail tail = new LiveStreamTail(streamState, emitter, parseStreamOffset(offsetParam, streamState), liveFrameSender);
+        emitter.onCompletion(tail::detach);
+        emitter.onTimeout(tail::detach);
+        emitter.onError(error -> tail.detach());
+        streamState.attachViewer();
+        streamState.addProgressListener(tail);
+        // Catch up on whatever was produced before the listener was registered
+        tail.drain();
+        
+        return ResponseEntity.ok()
+                .contentType(STREAM_HTML)
+                // Ask reverse proxies not to buffer the chunked response
+                .header("X-Accel-Buffering", "no")
+                .body(emitter);
+    }
+    
+    /**
+     * Forwards stream progress to a live frame. Progress is reported on the producer's thread,
+     * an upstream IO thread, so the blocking sends are handed to the sender; at most one is
+     * pending per frame and it sends whatever is new by the time it runs. The document is
+     * closed once the stream is complete and fully sent.
+     */
+    private static final class LiveStreamTail implements Runnable {
+        private final StreamState streamState;
+        private final ResponseBodyEmitter emitter;
+        private final Scheduler sender;
+        private final AtomicBoolean sendPending = new AtomicBoolean();
+        private long offset;
+        private boolean closed;
+        
+        private LiveStreamTail(StreamState streamState, ResponseBodyEmitter emitter, long offset, Scheduler sender) {
+            this.streamState = streamState;
+            this.emitter = emitter;
+            this.offset = offset;
+            this.sender = sender;
+        }
+        
+        @Override
+        public void run() {
+            if (!sendPending.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                sender.schedule(this::drain);
+            } catch (RejectedExecutionException e) {
+                // The client can reload the frame and resume from what it has shown
+                logger.warn("Live stream sender at capacity, closing a live frame");
+                detach();
+                emitter.complete();
+            }
+        }
+        
+        private synchronized void drain() {
+            sendPending.set(false);
+            if (closed) {
+                return;
+            }
+            // Read completion first so the tokens appended before it are included below
+            boolean complete = streamState.isComplete();
+            StringBuilder chunk = new StringBuilder();
+            offset = streamState.getBuffer().forEachSince(offset, token -> chunk.append(escapeStreamHtml(token)));
+            try {
+                if (chunk.length() > 0) {
+                    emitter.send(chunk.toString(), STREAM_HTML);
+                }
+                if (complete) {
+                    emitter.send("</div>\n<div id=\"stream-bottom\"></div>\n"
+                            + "<a href=\"/#chat-bottom\" target=\"_top\">Show conversation</a>\n"
+                            + "</body></html>\n", STREAM_HTML);
+                    detach();
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The job keeps running, so the answer is still saved to the conversation
+                logger.info("Live stream client disconnected, generation continues in the background");
+                detach();
+            }
+        }
+        
+        private synchronized void detach() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            streamState.removeProgressListener(this);
+            streamState.detachViewer();
+        }
+    }
+    
+    /**
+     * Submit the generation for a stream to the job scheduler.
+     * The job is a non-blocking pipeline that appends tokens to the stream buffer as they
+     * are decoded and saves the AI message when the upstream completes or the stream is
+     * stopped (by the user or because no frame is watching it any more).
+     *
+     * @return false if the scheduler is at capacity; the stream can then be started again later
+     */
+    private boolean startStreamingJob(StreamState streamState, HttpSession session) {
+        boolean accepted = streamingJobScheduler.submit(session.getId(), () -> {
+            logger.info("Streaming job: Starting streaming for prompt: {}", streamState.getPrompt());
+            ChatConfig config = getSessionConfig(session);
+            List<ChatMessage> messages = getSessionMessages(session);
+            logger.info("Streaming job: Current messages count: {}", messages.size());
+            List<ChatMessage> conversationHistory;
+            synchronized (conversationLock(session)) {
+                conversationHistory = buildStreamingHistory(config, messages);
+            }
+            return modelRouter.streamTokens(config, streamState.getPrompt(), conversationHistory, account(session))
+                    // Cancelling the upstream subscription closes the connection to the API
+                    .takeUntilOther(stopSignal(streamState))
+                    .filter(TokenEvent::hasContent)
+                    // Off the upstream's IO thread: appending notifies the frames, and completing
+                    // takes the session's lock and writes the conversation
+                    .publishOn(Schedulers.boundedElastic())
+                    .doOnNext(event -> streamState.append(event.getContent()))
+                    .then(Mono.fromRunnable(() -> {
+                        if (streamState.getBuffer().length() > 0) {
+                            ChatMessage aiMessage = new ChatMessage(streamState.getBuffer().toString(), ChatMessage.MessageType.AI);
+                            synchronized (conversationLock(session)) {
+                                messages.add(aiMessage);
+                                logger.info("Streaming job: Added AI message, new count: {}", messages.size());
+                            }
+                        }
+                        streamState.markComplete();
+                    }))
+                    .onErrorResume(e -> {
+                        logger.error("Streaming job: Error during streaming", e);
+                        streamState.append("Error: " + e.getMessage());
+                        streamState.markComplete();
+                        return Mono.empty();
+                    })
+                    .then();
+        }, () -> {
+            // Still queued at shutdown: the frames show this rather than wait for good
+            streamState.append("Error: The server is shutting down, please try again later.");
+            streamState.markComplete();
+        });
+        if (!accepted) {
+            streamState.resetStart();
+        }
+        return accepted;
+    }
+    
+    /**
+     * Emits when the stream is cancelled or has been idle (no frame attached or polling)
+     * for longer than the idle timeout.
+     */
+    private Mono<Boolean> stopSignal(StreamState streamState) {
+        long idleTimeoutMillis = streamIdleTimeoutSeconds * 1000L;
+        Duration checkInterval = Duration.ofMillis(Math.max(1000L, idleTimeoutMillis / 4));
+        Mono<Boolean> cancelled = Mono.create(sink -> streamState.addCancelListener(() -> sink.success(Boolean.TRUE)));
+        Mono<Boolean> idle = Flux.interval(checkInterval)
+                .filter(tick -> streamState.isIdle(idleTimeoutMillis))
+                .next()
+                .map(tick -> {
+                    logger.info("Stopping stream idle for more than {}s: {}", streamIdleTimeoutSeconds, streamState.getPrompt());
+                    return Boolean.TRUE;
+                });
+        return Mono.firstWithValue(cancelled, idle);
+    }
+    
+    /**
+     * Render the "busy" fragment shown when the scheduler rejects a stream.
+     * The frame retries by refreshing itself.
+     */
+    private void writeStreamBusyFrame(HttpServletResponse response, String retryUrl) throws IOException {
+        response.setContentType("text/html");
+        PrintWriter writer = response.getWriter();
+        writer.println("<!DOCTYPE html>");
+        writer.println("<html><head>");
+        writer.println("<meta http-equiv=\"refresh\" content=\"" + BUSY_RETRY_SECONDS + ";url=" + retryUrl + "\">");
+        writeStreamFrameStyle(writer);
+        writer.println("</head><body>");
+        writer.println("<div id=\"ai-stream\">The server is busy with other responses. Retrying in " + BUSY_RETRY_SECONDS + " seconds...</div>");
+        writer.println("</body></html>");
+        writer.flush();
+    }
+    
+    /**
+     * Parse a frame's resume offset, clamped to the text produced so far.
+     */
+    private static long parseStreamOffset(String offsetParam, StreamState streamState) {
+        return Math.max(0, Math.min(parseLong(offsetParam, 0), streamState.getBuffer().length()));
+    }
+    
+    /**
+     * Build the history sent with a streaming prompt. The last message (the current
+     * user prompt) is excluded since streamResponseReal adds it. It is a copy, not a view
+     * of the conversation: the request body is written from it lazily, and again on every
+     * retry or hedge, while the conversation may have changed since.
+     */
+    private List<ChatMessage> buildStreamingHistory(ChatConfig config, List<ChatMessage> messages) {
+        List<ChatMessage> conversationHistory = new java.util.ArrayList<>();
+        if (config != null && config.isHistoryEnabled()) {
+            int maxTurns = config.getMaxHistoryTurns();
+            int startIndex = Math.max(0, messages.size() - (maxTurns * 2));
+            int endIndex = messages.size() - 1; // Exclude the last message (current user message)
+            if (endIndex > startIndex) {
+                conversationHistory = new java.util.ArrayList<>(messages.subList(startIndex, endIndex));
+            }
+        }
+        return conversationHistory;
+    }
+    
+    private static void writeStreamFrameStyle(PrintWriter writer) {
+        writer.println("<style>");
+        writer.println("body{margin:0;padding:0;font:inherit;background:transparent;}");
+        writer.println("#ai-stream{white-space:pre-wrap;word-wrap:break-word;}");
+        writer.println("</style>");
+    }
+    
+    private static String escapeStreamHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\n", "<br/>");
+    }
 } 
\ No newline at end of file
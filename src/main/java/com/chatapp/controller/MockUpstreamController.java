@@ -0,0 +1,297 @@
+package com.chatapp.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stand-in for the OpenRouter API, for load tests and offline benchmarks (profile
+ * "mock-upstream"). Serves chat completions, streamed or not, and a model catalog of any
+ * size. The time to first token follows a configurable distribution, tokens arrive at a
+ * configurable rate, the SSE stream can be cut into chunks in several ways, and 429s, 500s
+ * and mid-stream disconnects can be injected at given rates. Waiting is done on timers, so
+ * an open stream holds no thread. Answers are made of words picked by the prompt's hash,
+ * so the same request always gets the same answer.
+ */
+@RestController
+@Profile("mock-upstream")
+public class MockUpstreamController {
+    private static final Logger logger = LoggerFactory.getLogger(MockUpstreamController.class);
+
+    private static final MediaType EVENT_STREAM = MediaType.TEXT_EVENT_STREAM;
+    private static final long STREAM_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+    private static final String[] WORDS = {
+            "the", "model", "stream", "token", "answer", "request", "latency", "server", "quickly", "because",
+            "every", "chunk", "arrives", "in", "order", "and", "is", "rendered", "without", "JavaScript"
+    };
+
+    // Time to first token: "fixed" (mean), "uniform" (mean +- jitter) or "lognormal" (median mean, sigma)
+    @Value("${app.mock-upstream.latency.distribution:lognormal}")
+    private String latencyDistribution = "lognormal";
+
+    @Value("${app.mock-upstream.latency.mean-ms:400}")
+    private long latencyMeanMillis = 400;
+
+    @Value("${app.mock-upstream.latency.jitter-ms:200}")
+    private long latencyJitterMillis = 200;
+
+    @Value("${app.mock-upstream.latency.sigma:0.5}")
+    private double latencySigma = 0.5;
+
+    @Value("${app.mock-upstream.tokens-per-second:50}")
+    private double tokensPerSecond = 50;
+
+    @Value("${app.mock-upstream.answer-tokens:200}")
+    private int answerTokens = 200;
+
+    // "event" (one event per write), "batched" (events-per-chunk events per write) or
+    // "split" (every event cut in two writes, the way proxies sometimes deliver them)
+    @Value("${app.mock-upstream.chunking:event}")
+    private String chunking = "event";
+
+    @Value("${app.mock-upstream.events-per-chunk:4}")
+    private int eventsPerChunk = 4;
+
+    // Keep-alive comments sent while the first token is pending; 0 disables them
+    @Value("${app.mock-upstream.keep-alive-ms:0}")
+    private long keepAliveMillis = 0;
+
+    @Value("${app.mock-upstream.errors.rate-429:0}")
+    private double rate429 = 0;
+
+    @Value("${app.mock-upstream.errors.rate-500:0}")
+    private double rate500 = 0;
+
+    @Value("${app.mock-upstream.errors.disconnect-rate:0}")
+    private double disconnectRate = 0;
+
+    @Value("${app.mock-upstream.model-count:50}")
+    private int modelCount = 50;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @PostMapping("/mock-upstream/api/v1/chat/completions")
+    public ResponseEntity<ResponseBodyEmitter> chatCompletions(@RequestBody Map<String, Object> request) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double roll = random.nextDouble();
+        if (roll < rate429) {
+            return emit(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1"),
+                    MediaType.APPLICATION_JSON, Flux.just(json(error(429, "Injected rate limit"))));
+        }
+        if (roll < rate429 + rate500) {
+            return emit(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR),
+                    MediaType.APPLICATION_JSON, Flux.just(json(error(500, "Injected server error"))));
+        }
+        String model = String.valueOf(request.getOrDefault("model", "mock/model"));
+        List<String> tokens = answer(request);
+        int promptTokens = promptTokens(request);
+        Duration firstToken = Duration.ofMillis(sampleLatencyMillis(random));
+        if (!Boolean.TRUE.equals(request.get("stream"))) {
+            Duration total = firstToken.plus(tokenInterval().multipliedBy(tokens.size()));
+            return emit(ResponseEntity.ok(), MediaType.APPLICATION_JSON, Mono.delay(total)
+                    .map(tick -> json(completion(model, String.join("", tokens), promptTokens, tokens.size())))
+                    .flux());
+        }
+        boolean includeUsage = request.get("stream_options") instanceof Map<?, ?> options && Boolean.TRUE.equals(options.get("include_usage"));
+        boolean disconnect = random.nextDouble() < disconnectRate;
+        return emit(ResponseEntity.ok(), EVENT_STREAM, chunks(model, tokens, promptTokens, includeUsage, firstToken, disconnect));
+    }
+
+    @GetMapping("/mock-upstream/api/v1/models")
+    public Map<String, Object> models() {
+        List<Map<String, Object>> data = new ArrayList<>(modelCount);
+        for (int i = 0; i < modelCount; i++) {
+            Map<String, Object> model = new LinkedHashMap<>();
+            model.put("id", "mock/model-" + i);
+            model.put("name", "Mock Model " + i);
+            model.put("description", "Synthetic model " + i + " served by the mock upstream.");
+            model.put("context_length", 8192 << (i % 5));
+            model.put("created", 1700000000L + i);
+            Map<String, Object> architecture = new LinkedHashMap<>();
+            List<String> inputModalities = i % 3 == 0 ? List.of("text", "image") : List.of("text");
+            architecture.put("modality", String.join("+", inputModalities) + "->text");
+            architecture.put("input_modalities", inputModalities);
+            architecture.put("output_modalities", List.of("text"));
+            architecture.put("tokenizer", "Mock");
+            model.put("architecture", architecture);
+            model.put("pricing", Map.of("prompt", "0", "completion", "0"));
+            model.put("supported_parameters", List.of("max_tokens", "temperature", "stream"));
+            data.add(model);
+        }
+        return Map.of("data", data);
+    }
+
+    /**
+     * The raw writes of a streamed answer: optional keep-alive comments until the first
+     * token, then the token events at the token rate, cut into writes by the chunking mode,
+     * then the finish and usage events and [DONE]. A disconnect fails the stream halfway.
+     */
+    Flux<String> chunks(String model, List<String> tokens, int promptTokens, boolean includeUsage, Duration firstToken, boolean disconnect) {
+        List<String> events = new ArrayList<>(tokens.size() + 3);
+        for (String token : tokens) {
+            events.add(event(chunk(model, Map.of("content", token), null, null)));
+        }
+        events.add(event(chunk(model, Map.of(), "stop", null)));
+        if (includeUsage) {
+            events.add(event(chunk(model, null, null, usage(promptTokens, tokens.size()))));
+        }
+        events.add("data: [DONE]\n\n");
+
+        List<String> writes = new ArrayList<>();
+        int perWrite = "batched".equals(chunking) ? Math.max(1, eventsPerChunk) : 1;
+        for (int i = 0; i < events.size(); i += perWrite) {
+            String write = String.join("", events.subList(i, Math.min(events.size(), i + perWrite)));
+            if ("split".equals(chunking) && write.length() > 1) {
+                writes.add(write.substring(0, write.length() / 2));
+                writes.add(write.substring(write.length() / 2));
+            } else {
+                writes.add(write);
+            }
+        }
+
+        Duration interval = tokenInterval().multipliedBy(perWrite).dividedBy("split".equals(chunking) ? 2 : 1);
+        Flux<String> answer = Flux.fromIterable(writes).delayElements(interval);
+        if (disconnect) {
+            answer = answer.take(writes.size() / 2)
+                    .concatWith(Flux.error(new IOException("Injected disconnect")));
+        }
+        if (keepAliveMillis > 0) {
+            return Flux.interval(Duration.ofMillis(keepAliveMillis))
+                    .map(tick -> ": OPENROUTER PROCESSING\n\n")
+                    .take(firstToken)
+                    .concatWith(answer);
+        }
+        return Mono.delay(firstToken).thenMany(answer);
+    }
+
+    long sampleLatencyMillis(Random random) {
+        double millis = switch (latencyDistribution) {
+            case "fixed" -> latencyMeanMillis;
+            case "uniform" -> latencyMeanMillis + (random.nextDouble() * 2 - 1) * latencyJitterMillis;
+            default -> latencyMeanMillis * Math.exp(random.nextGaussian() * latencySigma);
+        };
+        return Math.max(0, Math.round(millis));
+    }
+
+    /**
+     * Write each element as it is emitted, flushing it; a failure aborts the response.
+     */
+    private static ResponseEntity<ResponseBodyEmitter> emit(ResponseEntity.BodyBuilder response, MediaType contentType, Flux<String> writes) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(STREAM_TIMEOUT_MILLIS);
+        Disposable subscription = writes.subscribe(write -> {
+            try {
+                emitter.send(write, contentType);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Client went away", e);
+            }
+        }, failure -> {
+            logger.debug("Mock response ended early: {}", failure.getMessage());
+            emitter.completeWithError(failure);
+        }, emitter::complete);
+        emitter.onCompletion(subscription::dispose);
+        emitter.onTimeout(subscription::dispose);
+        emitter.onError(failure -> subscription.dispose());
+        return response.contentType(contentType).body(emitter);
+    }
+
+    private static Map<String, Object> error(int code, String message) {
+        return Map.of("error", Map.of("code", code, "message", message));
+    }
+
+    private Duration tokenInterval() {
+        return tokensPerSecond > 0 ? Duration.ofNanos(Math.round(1_000_000_000L / tokensPerSecond)) : Duration.ZERO;
+    }
+
+    /**
+     * The answer's tokens, words picked by a generator seeded with the request's messages.
+     */
+    private List<String> answer(Map<String, Object> request) {
+        Random words = new Random(String.valueOf(request.get("messages")).hashCode());
+        int count = answerTokens;
+        if (request.get("max_tokens") instanceof Number maxTokens) {
+            count = Math.min(count, maxTokens.intValue());
+        }
+        List<String> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add((i == 0 ? "" : " ") + WORDS[words.nextInt(WORDS.length)]);
+        }
+        return tokens;
+    }
+
+    /**
+     * Roughly four characters per token, as with English text.
+     */
+    private static int promptTokens(Map<String, Object> request) {
+        return Math.max(1, String.valueOf(request.get("messages")).length() / 4);
+    }
+
+    private static Map<String, Object> usage(int promptTokens, int completionTokens) {
+        return Map.of("prompt_tokens", promptTokens, "completion_tokens", completionTokens, "total_tokens", promptTokens + completionTokens);
+    }
+
+    private static Map<String, Object> completion(String model, String content, int promptTokens, int completionTokens) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", "mock-" + System.nanoTime());
+        response.put("object", "chat.completion");
+        response.put("model", model);
+        response.put("choices", List.of(Map.of("index", 0, "message", Map.of("role", "assistant", "content", content), "finish_reason", "stop")));
+        response.put("usage", usage(promptTokens, completionTokens));
+        return response;
+    }
+
+    private static Map<String, Object> chunk(String model, Map<String, Object> delta, String finishReason, Map<String, Object> usage) {
+        Map<String, Object> chunk = new LinkedHashMap<>();
+        chunk.put("object", "chat.completion.chunk");
+        chunk.put("model", model);
+        if (delta != null) {
+            Map<String, Object> choice = new LinkedHashMap<>();
+            choice.put("index", 0);
+            choice.put("delta", delta);
+            choice.put("finish_reason", finishReason);
+            chunk.put("choices", List.of(choice));
+        } else {
+            chunk.put("choices", List.of());
+        }
+        if (usage != null) {
+            chunk.put("usage", usage);
+        }
+        return chunk;
+    }
+
+    private String event(Map<String, Object> chunk) {
+        return "data: " + json(chunk) + "\n\n";
+    }
+
+    private String json(Map<String, Object> value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode mock response", e);
+        }
+    }
+}
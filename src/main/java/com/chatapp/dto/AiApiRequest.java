@@ -30,6 +30,9 @@ public class AiApiRequest {
     @JsonProperty("stream")
     private Boolean stream;
 
+    @JsonProperty("stream_options")
+    private StreamOptions streamOptions;
+
     public AiApiRequest() {}
 
     public AiApiRequest(String model, List<Message> messages, Integer maxTokens, Double temperature, Double topP, List<String> stop) {
@@ -72,6 +75,26 @@ public class AiApiRequest {
     public Boolean getStream() { return this.stream; }
     public void setStream(Boolean stream) { this.stream = stream; }
 
+    public StreamOptions getStreamOptions() { return this.streamOptions; }
+    public void setStreamOptions(StreamOptions streamOptions) { this.streamOptions = streamOptions; }
+
+    /**
+     * Options of a streaming request; include_usage makes the last chunk carry the token usage.
+     */
+    public static class StreamOptions {
+        @JsonProperty("include_usage")
+        private Boolean includeUsage;
+
+        public StreamOptions() {}
+
+        public StreamOptions(Boolean includeUsage) {
+            this.includeUsage = includeUsage;
+        }
+
+        public Boolean getIncludeUsage() { return includeUsage; }
+        public void setIncludeUsage(Boolean includeUsage) { this.includeUsage = includeUsage; }
+    }
+
     public static class Message {
         @JsonProperty("role")
         private String role;
@@ -0,0 +1,39 @@
+package com.chatapp.dto;
+
+/**
+ * A single event decoded from a streaming (SSE) completion.
+ * Carries the content delta and, on the final chunks, the finish reason and token usage.
+ */
+public class TokenEvent {
+    private final String content;
+    private final String finishReason;
+    private final AiApiResponse.Usage usage;
+
+    public TokenEvent(String content, String finishReason, AiApiResponse.Usage usage) {
+        this.content = content;
+        this.finishReason = finishReason;
+        this.usage = usage;
+    }
+
+    public static TokenEvent token(String content) {
+        return new TokenEvent(content, null, null);
+    }
+
+    public String getContent() { return content; }
+
+    public String getFinishReason() { return finishReason; }
+
+    public AiApiResponse.Usage getUsage() { return usage; }
+
+    public boolean hasContent() {
+        return content != null && !content.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "TokenEvent{" +
+                "content='" + content + '\'' +
+                ", finishReason='" + finishReason + '\'' +
+                '}';
+    }
+}
@@ -1,11 +1,22 @@
 package com.chatapp.model;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Configuration model for chat settings.
  * This class holds AI configuration and chat behavior settings.
+ * Serialized (e.g. with a persisted session) in the form written by {@link SessionStateCodec}.
  */
-public class ChatConfig {
-    
+public class ChatConfig implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
     private boolean historyEnabled = true;
     private int maxHistoryTurns = 10;
     private String aiModel = "google/gemini-flash-1.5-8b";
@@ -13,7 +24,10 @@ public class ChatConfig {
     private int maxTokens = 4096;
     private boolean streamingEnabled = false;
     private int streamingUpdateRate = 1; // Update rate in seconds
+    private boolean liveStreamingEnabled = true; // Single long-lived frame instead of meta-refresh polling
     private String systemPrompt = ""; // System prompt for AI behavior
+    private List<String> fallbackModels = new ArrayList<>(); // Tried in order when the model fails
+    private boolean hedgingEnabled = false; // Race a fallback model when the model is slow to start
     
     public ChatConfig() {
         // Default constructor
@@ -81,6 +95,14 @@ public class ChatConfig {
         this.streamingUpdateRate = streamingUpdateRate;
     }
     
+    public boolean isLiveStreamingEnabled() {
+        return liveStreamingEnabled;
+    }
+    
+    public void setLiveStreamingEnabled(boolean liveStreamingEnabled) {
+        this.liveStreamingEnabled = liveStreamingEnabled;
+    }
+    
     public String getSystemPrompt() {
         return systemPrompt;
     }
@@ -88,4 +110,52 @@ public class ChatConfig {
     public void setSystemPrompt(String systemPrompt) {
         this.systemPrompt = systemPrompt;
     }
-} 
\ No newline at end of file
+    
+    public List<String> getFallbackModels() {
+        return fallbackModels;
+    }
+    
+    public void setFallbackModels(List<String> fallbackModels) {
+        this.fallbackModels = fallbackModels != null ? fallbackModels : new ArrayList<>();
+    }
+    
+    public boolean isHedgingEnabled() {
+        return hedgingEnabled;
+    }
+    
+    public void setHedgingEnabled(boolean hedgingEnabled) {
+        this.hedgingEnabled = hedgingEnabled;
+    }
+    
+    /**
+     * @return the model followed by its fallback models, without duplicates
+     */
+    public List<String> getModelChain() {
+        Set<String> chain = new LinkedHashSet<>();
+        if (aiModel != null && !aiModel.isBlank()) {
+            chain.add(aiModel);
+        }
+        for (String fallbackModel : fallbackModels) {
+            if (fallbackModel != null && !fallbackModel.isBlank()) {
+                chain.add(fallbackModel);
+            }
+        }
+        if (chain.isEmpty()) {
+            // Let the upstream reject a missing model as before
+            chain.add(aiModel);
+        }
+        return new ArrayList<>(chain);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(SessionStateCodec.VERSION);
+        SessionStateCodec.writeConfig(out, this);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        SessionStateCodec.checkVersion(in.readByte());
+        SessionStateCodec.readConfig(in, this);
+    }
+}
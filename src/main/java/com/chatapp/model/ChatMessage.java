@@ -1,19 +1,36 @@
 package com.chatapp.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.UUID;
+import java.util.function.Function;
 
 /**
  * Model class representing a chat message in the conversation.
  * This can be either a user message or an AI response.
+ * Serialized (e.g. with a persisted session) in the form written by {@link SessionStateCodec}.
  */
-public class ChatMessage {
+public class ChatMessage implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
     private String id;
     private String content;
     private MessageType type;
     private LocalDateTime timestamp;
     private boolean isEditing = false;
     private String imageBase64;
+    // An uploaded image; when set, imageBase64 is only produced on demand from it
+    private ImageBlob image;
+
+    // Encoded form of this message in chat requests, built on first use and dropped on change
+    private transient volatile byte[] requestFragment;
+    private transient long requestFragmentVersion;
 
     public enum MessageType {
         USER, AI
@@ -21,7 +38,8 @@ public class ChatMessage {
 
     public ChatMessage() {
         this.id = UUID.randomUUID().toString();
-        this.timestamp = LocalDateTime.now();
+        // Milliseconds are what stored and exported conversations keep
+        this.timestamp = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
     }
 
     public ChatMessage(String content, MessageType type) {
@@ -45,6 +63,7 @@ public class ChatMessage {
 
     public void setContent(String content) {
         this.content = content;
+        invalidateRequestFragment();
     }
 
     public MessageType getType() {
@@ -53,6 +72,7 @@ public class ChatMessage {
 
     public void setType(MessageType type) {
         this.type = type;
+        invalidateRequestFragment();
     }
 
     public LocalDateTime getTimestamp() {
@@ -71,12 +91,73 @@ public class ChatMessage {
         isEditing = editing;
     }
 
+    /**
+     * The image as Base64, encoded on each call when the message holds an {@link ImageBlob}.
+     * Exports carry the image this way.
+     */
     public String getImageBase64() {
-        return imageBase64;
+        return image != null ? image.toBase64() : imageBase64;
     }
 
     public void setImageBase64(String imageBase64) {
         this.imageBase64 = imageBase64;
+        this.image = null;
+        invalidateRequestFragment();
+    }
+
+    @JsonIgnore
+    public ImageBlob getImage() {
+        return image;
+    }
+
+    @JsonIgnore
+    public void setImage(ImageBlob image) {
+        this.image = image;
+        this.imageBase64 = null;
+        invalidateRequestFragment();
+    }
+
+    /**
+     * The encoded form of this message in chat requests, encoded once and reused until the
+     * content, image or type changes. For an {@link ImageBlob} the encoder leaves the image
+     * out, so its Base64 is not kept on the heap.
+     *
+     * @param encoder encodes the message when there is no cached fragment
+     */
+    public byte[] requestFragment(Function<ChatMessage, byte[]> encoder) {
+        byte[] fragment = requestFragment;
+        if (fragment != null) {
+            return fragment;
+        }
+        long version;
+        synchronized (this) {
+            version = requestFragmentVersion;
+        }
+        fragment = encoder.apply(this);
+        synchronized (this) {
+            // A change while encoding makes this fragment stale: use it once, don't cache it
+            if (version == requestFragmentVersion) {
+                requestFragment = fragment;
+            }
+        }
+        return fragment;
+    }
+
+    private synchronized void invalidateRequestFragment() {
+        requestFragmentVersion++;
+        requestFragment = null;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(SessionStateCodec.VERSION);
+        SessionStateCodec.writeMessage(out, this);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        SessionStateCodec.checkVersion(in.readByte());
+        SessionStateCodec.readMessage(in, this, bytes -> ImageBlob.of(bytes, null));
     }
 
     @Override
@@ -91,6 +172,7 @@ public class ChatMessage {
         if (content != null ? !content.equals(that.content) : that.content != null) return false;
         if (type != that.type) return false;
         if (timestamp != null ? !timestamp.equals(that.timestamp) : that.timestamp != null) return false;
+        if (image != null ? !image.equals(that.image) : that.image != null) return false;
         return imageBase64 != null ? imageBase64.equals(that.imageBase64) : that.imageBase64 == null;
     }
 
@@ -102,6 +184,7 @@ public class ChatMessage {
         result = 31 * result + (timestamp != null ? timestamp.hashCode() : 0);
         result = 31 * result + (isEditing ? 1 : 0);
         result = 31 * result + (imageBase64 != null ? imageBase64.hashCode() : 0);
+        result = 31 * result + (image != null ? image.hashCode() : 0);
         return result;
     }
 
@@ -114,6 +197,7 @@ public class ChatMessage {
                 ", timestamp=" + timestamp +
                 ", isEditing=" + isEditing +
                 ", imageBase64='" + imageBase64 + '\'' +
+                ", image=" + image +
                 '}';
     }
 } 
\ No newline at end of file
@@ -0,0 +1,232 @@
+package com.chatapp.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+/**
+ * The messages of one chat, in order, indexed by message id.
+ * It is a list, so the templates, the export and the request writer use it as before,
+ * and an id-to-position map is kept in step with every insert, removal and replacement:
+ * finding a message or its turn (its position) by id takes constant time, as does
+ * appending and taking the last turns for a history window. Inserting or removing in
+ * the middle renumbers the messages after that point.
+ *
+ * Message ids must be unique and must not change while the message is in the
+ * conversation. Like the list it replaces, it is not thread-safe.
+ *
+ * A {@link Listener} is told of every change after it is made, which is how a stored
+ * conversation is persisted; a message edited in place is reported by setting it again
+ * at its position.
+ */
+public class Conversation extends AbstractList<ChatMessage> implements RandomAccess {
+
+    private final ArrayList<ChatMessage> messages;
+    private final Map<String, Integer> indexById;
+    private Listener listener;
+
+    /**
+     * Told of each change to a conversation, on the thread that made it.
+     */
+    public interface Listener {
+        /**
+         * A message was inserted at this position, or replaced the one there with the same id.
+         */
+        void put(int index, ChatMessage message);
+
+        void removed(ChatMessage message);
+
+        void cleared();
+    }
+
+    public Conversation() {
+        messages = new ArrayList<>();
+        indexById = new HashMap<>();
+    }
+
+    public Conversation(Collection<? extends ChatMessage> messages) {
+        this.messages = new ArrayList<>(messages);
+        indexById = new HashMap<>(Math.max(16, this.messages.size() * 2));
+        reindexFrom(0);
+    }
+
+    /**
+     * @param listener told of every later change, or null to stop
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public ChatMessage get(int index) {
+        return messages.get(index);
+    }
+
+    @Override
+    public int size() {
+        return messages.size();
+    }
+
+    @Override
+    public ChatMessage set(int index, ChatMessage message) {
+        ChatMessage replaced = messages.set(index, message);
+        indexById.remove(replaced.getId(), index);
+        indexById.put(message.getId(), index);
+        if (listener != null) {
+            if (!replaced.getId().equals(message.getId())) {
+                listener.removed(replaced);
+            }
+            listener.put(index, message);
+        }
+        return replaced;
+    }
+
+    @Override
+    public void add(int index, ChatMessage message) {
+        messages.add(index, message);
+        modCount++;
+        if (index == messages.size() - 1) {
+            indexById.put(message.getId(), index);
+        } else {
+            reindexFrom(index);
+        }
+        if (listener != null) {
+            listener.put(index, message);
+        }
+    }
+
+    @Override
+    public ChatMessage remove(int index) {
+        ChatMessage removed = messages.remove(index);
+        modCount++;
+        indexById.remove(removed.getId(), index);
+        reindexFrom(index);
+        if (listener != null) {
+            listener.removed(removed);
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        messages.clear();
+        indexById.clear();
+        modCount++;
+        if (listener != null) {
+            listener.cleared();
+        }
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        List<ChatMessage> removed = new ArrayList<>(messages.subList(fromIndex, toIndex));
+        for (ChatMessage message : removed) {
+            indexById.remove(message.getId());
+        }
+        messages.subList(fromIndex, toIndex).clear();
+        modCount++;
+        reindexFrom(fromIndex);
+        notifyRemoved(removed);
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super ChatMessage> filter) {
+        // One pass and one renumbering, rather than one per removed message
+        int first = -1;
+        for (int i = 0; i < messages.size() && first < 0; i++) {
+            if (filter.test(messages.get(i))) {
+                first = i;
+            }
+        }
+        if (first < 0) {
+            return false;
+        }
+        List<ChatMessage> removed = new ArrayList<>();
+        int kept = first;
+        for (int i = first; i < messages.size(); i++) {
+            ChatMessage message = messages.get(i);
+            indexById.remove(message.getId());
+            if (i == first || filter.test(message)) {
+                removed.add(message);
+            } else {
+                messages.set(kept++, message);
+            }
+        }
+        messages.subList(kept, messages.size()).clear();
+        modCount++;
+        reindexFrom(first);
+        notifyRemoved(removed);
+        return true;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (o instanceof ChatMessage) {
+            int index = indexOfId(((ChatMessage) o).getId());
+            if (index >= 0 && o.equals(messages.get(index))) {
+                return index;
+            }
+        }
+        return super.indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    /**
+     * @return the position (turn) of the message with this id, or -1
+     */
+    public int indexOfId(String messageId) {
+        Integer index = messageId != null ? indexById.get(messageId) : null;
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @return the message with this id, or null
+     */
+    public ChatMessage findById(String messageId) {
+        int index = indexOfId(messageId);
+        return index >= 0 ? messages.get(index) : null;
+    }
+
+    /**
+     * @return whether a message with this id was removed
+     */
+    public boolean removeById(String messageId) {
+        int index = indexOfId(messageId);
+        if (index < 0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    /**
+     * The last turns (a user message and its answer each) as a view of this conversation.
+     */
+    public List<ChatMessage> lastTurns(int turns) {
+        int size = messages.size();
+        return subList(Math.max(0, size - Math.max(0, turns) * 2), size);
+    }
+
+    private void notifyRemoved(List<ChatMessage> removed) {
+        if (listener != null) {
+            for (ChatMessage message : removed) {
+                listener.removed(message);
+            }
+        }
+    }
+
+    private void reindexFrom(int fromIndex) {
+        for (int i = fromIndex; i < messages.size(); i++) {
+            indexById.put(messages.get(i).getId(), i);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.chatapp.model;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.function.Function;
+
+/**
+ * What a session keeps of its conversation: the key it is stored under. The conversation
+ * is looked up on each use, so one that has gone cold can be dropped from memory while
+ * the session lives on, and is read back from storage when the session next needs it.
+ * Reads and writes as the list of messages it stands for. Serialized (with a persisted
+ * session) by its key alone; a handle read back is unbound until it is replaced by one
+ * bound to the repository.
+ */
+public final class ConversationHandle extends AbstractList<ChatMessage> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String key;
+    private final transient Function<String, Conversation> lookup;
+
+    public ConversationHandle(String key, Function<String, Conversation> lookup) {
+        this.key = key;
+        this.lookup = lookup;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return whether the handle can look its conversation up; false once read back
+     */
+    public boolean isBound() {
+        return lookup != null;
+    }
+
+    public Conversation resolve() {
+        if (lookup == null) {
+            throw new IllegalStateException("Conversation handle " + key + " is not bound to a repository");
+        }
+        return lookup.apply(key);
+    }
+
+    @Override
+    public ChatMessage get(int index) {
+        return resolve().get(index);
+    }
+
+    @Override
+    public int size() {
+        return resolve().size();
+    }
+
+    @Override
+    public ChatMessage set(int index, ChatMessage message) {
+        return resolve().set(index, message);
+    }
+
+    @Override
+    public void add(int index, ChatMessage message) {
+        resolve().add(index, message);
+    }
+
+    @Override
+    public ChatMessage remove(int index) {
+        return resolve().remove(index);
+    }
+}
@@ -0,0 +1,93 @@
+package com.chatapp.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.function.Supplier;
+
+/**
+ * An uploaded image, referenced by messages in place of the image itself.
+ * It is named by the SHA-256 of its bytes, and the bytes are only read when the image
+ * is served or sent upstream; images in the {@link com.chatapp.service.BlobStore} are
+ * kept there (memory-mapped files, off the heap) for as long as a message references
+ * this object.
+ */
+public final class ImageBlob {
+    private final String hash;
+    private final long size;
+    private final String contentType;
+    private final Supplier<ByteBuffer> contents;
+
+    public ImageBlob(String hash, long size, String contentType, Supplier<ByteBuffer> contents) {
+        this.hash = hash;
+        this.size = size;
+        this.contentType = contentType;
+        this.contents = contents;
+    }
+
+    /**
+     * An image held on the heap, for images outside a store.
+     */
+    public static ImageBlob of(byte[] bytes, String contentType) {
+        byte[] copy = bytes.clone();
+        return new ImageBlob(sha256(copy), copy.length, contentType, () -> ByteBuffer.wrap(copy).asReadOnlyBuffer());
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the bytes, as a new read-only buffer positioned at the start
+     */
+    public ByteBuffer contents() {
+        return contents.get();
+    }
+
+    /**
+     * Encode the image; the string is built on each call and not kept.
+     */
+    public String toBase64() {
+        ByteBuffer encoded = Base64.getEncoder().encode(contents());
+        return new String(encoded.array(), encoded.arrayOffset(), encoded.remaining(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the lower-case hex SHA-256 of the bytes
+     */
+    public static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return hash.equals(((ImageBlob) o).hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ImageBlob{hash='" + hash + "', size=" + size + ", contentType='" + contentType + "'}";
+    }
+}
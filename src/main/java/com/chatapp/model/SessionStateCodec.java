@@ -0,0 +1,351 @@
+package com.chatapp.model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Binary form of session state (messages and chat settings), for session persistence,
+ * conversation snapshots and exports. Numbers are varints (zigzag for signed ones),
+ * strings are a varint length and UTF-8, enums their ordinal, timestamps epoch
+ * milliseconds (UTC), message ids 16 bytes when they are UUIDs, and images their raw
+ * bytes. Model ids read back are interned, so sessions share one string per model.
+ *
+ * The encodings carry no version themselves; whatever contains them writes
+ * {@link #VERSION} first. Stateless and thread-safe.
+ */
+public final class SessionStateCodec {
+
+    public static final byte VERSION = 1;
+
+    // "CHCV", then the version and the messages: an exported conversation
+    private static final int CONVERSATION_MAGIC = 0x43484356;
+
+    private static final int EDITING = 1;
+    private static final int HAS_TIMESTAMP = 1 << 1;
+    private static final int UUID_ID = 1 << 2;
+    private static final int IMAGE_BYTES = 1 << 3;
+    private static final int IMAGE_BASE64 = 1 << 4;
+
+    private static final int HISTORY_ENABLED = 1;
+    private static final int STREAMING_ENABLED = 1 << 1;
+    private static final int LIVE_STREAMING_ENABLED = 1 << 2;
+    private static final int HEDGING_ENABLED = 1 << 3;
+
+    private static final ChatMessage.MessageType[] TYPES = ChatMessage.MessageType.values();
+
+    // Lengths are checked against what is actually there before buffers this large are made
+    private static final int CHUNK = 1 << 20;
+    private static final int MAX_MODEL_IDS = 1024;
+    private static final Map<String, String> MODEL_IDS = new ConcurrentHashMap<>();
+
+    private SessionStateCodec() {
+    }
+
+    public static void writeMessage(DataOutput out, ChatMessage message) throws IOException {
+        String id = message.getId();
+        UUID uuid = asUuid(id);
+        ImageBlob image = message.getImage();
+        String imageBase64 = image == null ? message.getImageBase64() : null;
+        int flags = (message.isEditing() ? EDITING : 0)
+                | (message.getTimestamp() != null ? HAS_TIMESTAMP : 0)
+                | (uuid != null ? UUID_ID : 0)
+                | (image != null ? IMAGE_BYTES : 0)
+                | (imageBase64 != null ? IMAGE_BASE64 : 0);
+        writeVarint(out, flags);
+        if (uuid != null) {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        } else {
+            writeString(out, id);
+        }
+        writeVarint(out, message.getType() != null ? message.getType().ordinal() + 1 : 0);
+        writeString(out, message.getContent());
+        if (message.getTimestamp() != null) {
+            writeSignedVarint(out, message.getTimestamp().toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+        if (image != null) {
+            ByteBuffer contents = image.contents();
+            writeVarint(out, contents.remaining());
+            byte[] chunk = new byte[Math.min(contents.remaining(), 8192)];
+            while (contents.hasRemaining()) {
+                int length = Math.min(chunk.length, contents.remaining());
+                contents.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        } else if (imageBase64 != null) {
+            writeString(out, imageBase64);
+        }
+    }
+
+    /**
+     * @param images stores an image's bytes, or returns null to keep the image as Base64
+     */
+    public static ChatMessage readMessage(DataInput in, Function<byte[], ImageBlob> images) throws IOException {
+        ChatMessage message = new ChatMessage();
+        readMessage(in, message, images);
+        return message;
+    }
+
+    /**
+     * Read a message into an existing one, replacing all its fields.
+     */
+    public static void readMessage(DataInput in, ChatMessage message, Function<byte[], ImageBlob> images) throws IOException {
+        int flags = (int) readVarint(in);
+        message.setId((flags & UUID_ID) != 0 ? new UUID(in.readLong(), in.readLong()).toString() : readString(in));
+        int type = (int) readVarint(in);
+        message.setType(type > 0 && type <= TYPES.length ? TYPES[type - 1] : null);
+        message.setContent(readString(in));
+        message.setTimestamp((flags & HAS_TIMESTAMP) != 0
+                ? LocalDateTime.ofInstant(Instant.ofEpochMilli(readSignedVarint(in)), ZoneOffset.UTC) : null);
+        message.setEditing((flags & EDITING) != 0);
+        message.setImageBase64(null);
+        if ((flags & IMAGE_BYTES) != 0) {
+            byte[] bytes = readBytes(in, readLength(in));
+            ImageBlob image = images.apply(bytes);
+            if (image != null) {
+                message.setImage(image);
+            } else {
+                message.setImageBase64(Base64.getEncoder().encodeToString(bytes));
+            }
+        } else if ((flags & IMAGE_BASE64) != 0) {
+            message.setImageBase64(readString(in));
+        }
+    }
+
+    public static void writeMessages(DataOutput out, List<ChatMessage> messages) throws IOException {
+        writeVarint(out, messages.size());
+        for (ChatMessage message : messages) {
+            writeMessage(out, message);
+        }
+    }
+
+    public static List<ChatMessage> readMessages(DataInput in, Function<byte[], ImageBlob> images) throws IOException {
+        int count = readLength(in);
+        List<ChatMessage> messages = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            messages.add(readMessage(in, images));
+        }
+        return messages;
+    }
+
+    public static void writeConfig(DataOutput out, ChatConfig config) throws IOException {
+        int flags = (config.isHistoryEnabled() ? HISTORY_ENABLED : 0)
+                | (config.isStreamingEnabled() ? STREAMING_ENABLED : 0)
+                | (config.isLiveStreamingEnabled() ? LIVE_STREAMING_ENABLED : 0)
+                | (config.isHedgingEnabled() ? HEDGING_ENABLED : 0);
+        writeVarint(out, flags);
+        writeSignedVarint(out, config.getMaxHistoryTurns());
+        writeString(out, config.getAiModel());
+        out.writeDouble(config.getTemperature());
+        writeSignedVarint(out, config.getMaxTokens());
+        writeSignedVarint(out, config.getStreamingUpdateRate());
+        writeString(out, config.getSystemPrompt());
+        List<String> fallbackModels = config.getFallbackModels();
+        writeVarint(out, fallbackModels.size());
+        for (String fallbackModel : fallbackModels) {
+            writeString(out, fallbackModel);
+        }
+    }
+
+    public static ChatConfig readConfig(DataInput in) throws IOException {
+        ChatConfig config = new ChatConfig();
+        readConfig(in, config);
+        return config;
+    }
+
+    /**
+     * Read settings into an existing config, replacing all of them.
+     */
+    public static void readConfig(DataInput in, ChatConfig config) throws IOException {
+        int flags = (int) readVarint(in);
+        config.setHistoryEnabled((flags & HISTORY_ENABLED) != 0);
+        config.setStreamingEnabled((flags & STREAMING_ENABLED) != 0);
+        config.setLiveStreamingEnabled((flags & LIVE_STREAMING_ENABLED) != 0);
+        config.setHedgingEnabled((flags & HEDGING_ENABLED) != 0);
+        config.setMaxHistoryTurns((int) readSignedVarint(in));
+        config.setAiModel(internModelId(readString(in)));
+        config.setTemperature(in.readDouble());
+        config.setMaxTokens((int) readSignedVarint(in));
+        config.setStreamingUpdateRate((int) readSignedVarint(in));
+        config.setSystemPrompt(readString(in));
+        int count = readLength(in);
+        List<String> fallbackModels = new ArrayList<>(Math.min(count, 16));
+        for (int i = 0; i < count; i++) {
+            fallbackModels.add(internModelId(readString(in)));
+        }
+        config.setFallbackModels(fallbackModels);
+    }
+
+    /**
+     * Write a conversation as a self-describing export.
+     */
+    public static void writeConversation(DataOutput out, List<ChatMessage> messages) throws IOException {
+        out.writeInt(CONVERSATION_MAGIC);
+        out.writeByte(VERSION);
+        writeMessages(out, messages);
+    }
+
+    /**
+     * @throws IOException if the input is not an export in a version this reads
+     */
+    public static List<ChatMessage> readConversation(DataInput in, Function<byte[], ImageBlob> images) throws IOException {
+        if (in.readInt() != CONVERSATION_MAGIC) {
+            throw new IOException("Not a conversation export");
+        }
+        checkVersion(in.readByte());
+        return readMessages(in, images);
+    }
+
+    /**
+     * Whether the input starts like an export from {@link #writeConversation}; leaves it unread.
+     */
+    public static boolean isConversation(BufferedInputStream in) throws IOException {
+        in.mark(4);
+        try {
+            return new DataInputStream(in).readInt() == CONVERSATION_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * @throws IOException if state was written by a version this doesn't read
+     */
+    public static void checkVersion(byte version) throws IOException {
+        if (version != VERSION) {
+            throw new IOException("Unsupported session state version " + version);
+        }
+    }
+
+    /**
+     * The one shared instance of a model id, for the first ids seen; others are kept as they are.
+     */
+    static String internModelId(String modelId) {
+        if (modelId == null) {
+            return null;
+        }
+        String interned = MODEL_IDS.get(modelId);
+        if (interned != null) {
+            return interned;
+        }
+        if (MODEL_IDS.size() >= MAX_MODEL_IDS) {
+            return modelId;
+        }
+        interned = MODEL_IDS.putIfAbsent(modelId, modelId);
+        return interned != null ? interned : modelId;
+    }
+
+    static void writeVarint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarint(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeSignedVarint(DataOutput out, long value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static long readSignedVarint(DataInput in) throws IOException {
+        long value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Null is written as length zero, other strings as their length plus one.
+     */
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        long length = readVarint(in);
+        if (length == 0) {
+            return null;
+        }
+        if (length - 1 > Integer.MAX_VALUE) {
+            throw new IOException("String too long");
+        }
+        return new String(readBytes(in, (int) (length - 1)), StandardCharsets.UTF_8);
+    }
+
+    private static int readLength(DataInput in) throws IOException {
+        long length = readVarint(in);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Length too large");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Read bytes a chunk at a time past the first, so a bad length fails at the end of the
+     * input instead of allocating it up front.
+     */
+    private static byte[] readBytes(DataInput in, int length) throws IOException {
+        if (length <= CHUNK) {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(CHUNK);
+        byte[] chunk = new byte[CHUNK];
+        for (int remaining = length; remaining > 0; ) {
+            int read = Math.min(remaining, CHUNK);
+            in.readFully(chunk, 0, read);
+            bytes.write(chunk, 0, read);
+            remaining -= read;
+        }
+        return bytes.toByteArray();
+    }
+
+    private static UUID asUuid(String id) {
+        if (id == null || id.length() != 36) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(id);
+            // Only ids that read back as the same string
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.chatapp.model;
+
+import java.util.function.Consumer;
+
+/**
+ * Append-only token buffer for a single streaming response.
+ * Tokens are stored by reference in fixed-size chunks, so appending never copies
+ * previously received text and readers can fetch everything after a given character
+ * offset without materializing the whole answer.
+ *
+ * One writer (the upstream stream) and any number of concurrent readers are supported.
+ * The writer publishes a token by bumping the volatile token count after the slot is filled,
+ * so a reader that observes the count also observes every token below it.
+ */
+public class StreamBuffer {
+
+    private static final int CHUNK_SIZE = 256;
+
+    private volatile String[][] tokenChunks = new String[4][];
+    // End offset (exclusive) of each token, parallel to tokenChunks
+    private volatile long[][] endChunks = new long[4][];
+    private volatile int tokenCount;
+    private volatile long length;
+
+    /**
+     * Append a token. Must only be called by the single writer of this buffer.
+     */
+    public void append(String token) {
+        if (token == null || token.isEmpty()) {
+            return;
+        }
+        int index = tokenCount;
+        int chunk = index / CHUNK_SIZE;
+        int slot = index % CHUNK_SIZE;
+        if (slot == 0) {
+            ensureChunk(chunk);
+        }
+        long newLength = length + token.length();
+        tokenChunks[chunk][slot] = token;
+        endChunks[chunk][slot] = newLength;
+        tokenCount = index + 1;
+        length = newLength;
+    }
+
+    private void ensureChunk(int chunk) {
+        String[][] tokens = tokenChunks;
+        long[][] ends = endChunks;
+        if (chunk >= tokens.length) {
+            String[][] grownTokens = new String[tokens.length * 2][];
+            long[][] grownEnds = new long[ends.length * 2][];
+            System.arraycopy(tokens, 0, grownTokens, 0, tokens.length);
+            System.arraycopy(ends, 0, grownEnds, 0, ends.length);
+            tokens = grownTokens;
+            ends = grownEnds;
+        }
+        tokens[chunk] = new String[CHUNK_SIZE];
+        ends[chunk] = new long[CHUNK_SIZE];
+        tokenChunks = tokens;
+        endChunks = ends;
+    }
+
+    /**
+     * @return total number of characters appended so far
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return number of tokens appended so far
+     */
+    public int tokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * Hand every token (or token tail) after the given character offset to the sink.
+     * Only the first token may be split, so at most that one substring is allocated.
+     *
+     * @param offset character offset the reader has already seen
+     * @param sink receives the text after the offset, token by token
+     * @return the offset up to which text was delivered, to be passed on the next read
+     */
+    public long forEachSince(long offset, Consumer<String> sink) {
+        return forEachSince(offset, Long.MAX_VALUE, sink);
+    }
+
+    /**
+     * Like {@link #forEachSince(long, Consumer)}, but stops at the given limit, so a reader
+     * can render exactly the text up to a length it observed earlier; the last token may
+     * then be split as well.
+     *
+     * @param limit character offset to stop at (exclusive)
+     * @return the offset up to which text was delivered
+     */
+    public long forEachSince(long offset, long limit, Consumer<String> sink) {
+        int count = tokenCount;
+        if (count == 0) {
+            return 0;
+        }
+        String[][] tokens = tokenChunks;
+        long[][] ends = endChunks;
+        long end = Math.min(limit, ends[(count - 1) / CHUNK_SIZE][(count - 1) % CHUNK_SIZE]);
+        if (offset >= end) {
+            return end;
+        }
+        int index = firstTokenEndingAfter(Math.max(0, offset), count, ends);
+        for (int i = index; i < count; i++) {
+            String token = tokens[i / CHUNK_SIZE][i % CHUNK_SIZE];
+            long tokenEnd = ends[i / CHUNK_SIZE][i % CHUNK_SIZE];
+            long tokenStart = tokenEnd - token.length();
+            if (tokenStart >= end) {
+                break;
+            }
+            int from = tokenStart < offset ? (int) (offset - tokenStart) : 0;
+            int to = tokenEnd > end ? (int) (end - tokenStart) : token.length();
+            sink.accept(from == 0 && to == token.length() ? token : token.substring(from, to));
+        }
+        return end;
+    }
+
+    // Binary search over the cumulative end offsets
+    private static int firstTokenEndingAfter(long offset, int count, long[][] ends) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid / CHUNK_SIZE][mid % CHUNK_SIZE] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the text after the given offset as a new String
+     */
+    public String contentSince(long offset) {
+        StringBuilder builder = new StringBuilder((int) Math.max(0, length - offset));
+        forEachSince(offset, builder::append);
+        return builder.toString();
+    }
+
+    /**
+     * @return the whole buffered text as a new String
+     */
+    @Override
+    public String toString() {
+        return contentSince(0);
+    }
+}
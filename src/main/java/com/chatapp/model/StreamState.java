@@ -0,0 +1,189 @@
+package com.chatapp.model;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State of a single streaming AI response.
+ * Registered once per stream under its id; the producer appends tokens to the
+ * buffer and the stream frames read from it by offset.
+ */
+public class StreamState {
+
+    private final String id;
+    private final String prompt;
+    private final StreamBuffer buffer = new StreamBuffer();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final long createdAt = System.currentTimeMillis();
+    private volatile boolean complete = false;
+    private volatile long completedAt;
+    // Notified on the producer's thread after every append and on completion
+    private final List<Runnable> progressListeners = new CopyOnWriteArrayList<>();
+    // Notified once when the stream is cancelled
+    private final List<Runnable> cancelListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled = false;
+    // Last time a frame asked for this stream, and the live frames currently attached to it
+    private volatile long lastSeenAt = createdAt;
+    private final AtomicInteger liveViewers = new AtomicInteger();
+    // Smoothed time between appended tokens; written by the producer only
+    private volatile double tokenIntervalMillis;
+    private volatile long lastAppendAt;
+
+    public StreamState(String id, String prompt) {
+        this.id = id;
+        this.prompt = prompt;
+    }
+
+    /**
+     * Claim the right to start generating this stream.
+     *
+     * @return true for exactly one caller, false if the stream was already started
+     */
+    public boolean tryStart() {
+        return started.compareAndSet(false, true);
+    }
+
+    /**
+     * Give up a claimed start (e.g. the job was rejected), so a later frame can retry.
+     */
+    public void resetStart() {
+        started.set(false);
+    }
+
+    public boolean isStarted() {
+        return started.get();
+    }
+
+    public boolean isInProgress() {
+        return started.get() && !complete;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void markComplete() {
+        this.completedAt = System.currentTimeMillis();
+        this.complete = true;
+        signalProgress();
+    }
+
+    /**
+     * Append a token from the producer and notify progress listeners.
+     */
+    public void append(String token) {
+        buffer.append(token);
+        long now = System.currentTimeMillis();
+        if (lastAppendAt != 0) {
+            long interval = now - lastAppendAt;
+            tokenIntervalMillis = tokenIntervalMillis == 0 ? interval : tokenIntervalMillis * 0.8 + interval * 0.2;
+        }
+        lastAppendAt = now;
+        signalProgress();
+    }
+
+    /**
+     * @return the smoothed interval between tokens in milliseconds, or 0 until two tokens arrived
+     */
+    public double getTokenIntervalMillis() {
+        return tokenIntervalMillis;
+    }
+
+    /**
+     * Register a listener called whenever the buffer grows or the stream completes.
+     * Listeners run on the producer's thread and must not block.
+     */
+    public void addProgressListener(Runnable listener) {
+        progressListeners.add(listener);
+    }
+
+    public void removeProgressListener(Runnable listener) {
+        progressListeners.remove(listener);
+    }
+
+    private void signalProgress() {
+        for (Runnable listener : progressListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Ask the producer to stop generating. The partial answer is kept.
+     *
+     * @return false if the stream already completed or was already cancelled
+     */
+    public boolean cancel() {
+        if (complete || cancelled) {
+            return false;
+        }
+        cancelled = true;
+        for (Runnable listener : cancelListeners) {
+            listener.run();
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Register a listener called when the stream is cancelled; called immediately if it
+     * already was.
+     */
+    public void addCancelListener(Runnable listener) {
+        cancelListeners.add(listener);
+        if (cancelled) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Record that a frame asked for this stream.
+     */
+    public void touch() {
+        lastSeenAt = System.currentTimeMillis();
+    }
+
+    public void attachViewer() {
+        liveViewers.incrementAndGet();
+        touch();
+    }
+
+    public void detachViewer() {
+        liveViewers.decrementAndGet();
+        touch();
+    }
+
+    /**
+     * @return true if no live frame is attached and no frame asked for the stream within the timeout
+     */
+    public boolean isIdle(long timeoutMillis) {
+        return liveViewers.get() <= 0 && System.currentTimeMillis() - lastSeenAt > timeoutMillis;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public StreamBuffer getBuffer() {
+        return buffer;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return when the stream completed, or 0 while it is still running
+     */
+    public long getCompletedAt() {
+        return completedAt;
+    }
+}
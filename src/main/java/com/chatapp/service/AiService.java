@@ -2,6 +2,9 @@ package com.chatapp.service;
 
 import com.chatapp.dto.AiApiRequest;
 import com.chatapp.dto.AiApiResponse;
+import com.chatapp.dto.TokenEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  * Service interface for AI integration.
@@ -19,6 +22,14 @@ public interface AiService {
      */
     AiApiResponse callAiApi(AiApiRequest request);
     
+    /**
+     * Send a request to the AI API without blocking the calling thread.
+     * 
+     * @param request The AI API request
+     * @return A Mono emitting the AI API response, or an error if the call fails
+     */
+    Mono<AiApiResponse> callAiApiReactive(AiApiRequest request);
+    
     /**
      * Generate an AI response for a user prompt.
      * This method constructs the appropriate request and calls the AI API.
@@ -32,6 +43,15 @@ public interface AiService {
      * @throws RuntimeException if the AI API call fails
      */
     String generateResponse(String userPrompt, String model, int maxTokens, double temperature, String systemPrompt);
+
+    /**
+     * Generate an AI response as above, counting its usage against the account.
+     *
+     * @param account who the response is for, may be null
+     */
+    default String generateResponse(String userPrompt, String model, int maxTokens, double temperature, String systemPrompt, UsageAccounting.Account account) {
+        return generateResponse(userPrompt, model, maxTokens, temperature, systemPrompt);
+    }
     
     /**
      * Generate an AI response for a user prompt with chat history context.
@@ -47,6 +67,15 @@ public interface AiService {
      * @throws RuntimeException if the AI API call fails
      */
     String generateResponseWithHistory(String userPrompt, java.util.List<com.chatapp.model.ChatMessage> conversationHistory, String model, int maxTokens, double temperature, String systemPrompt);
+
+    /**
+     * Generate an AI response with history as above, counting its usage against the account.
+     *
+     * @param account who the response is for, may be null
+     */
+    default String generateResponseWithHistory(String userPrompt, java.util.List<com.chatapp.model.ChatMessage> conversationHistory, String model, int maxTokens, double temperature, String systemPrompt, UsageAccounting.Account account) {
+        return generateResponseWithHistory(userPrompt, conversationHistory, model, maxTokens, temperature, systemPrompt);
+    }
     
     /**
      * Stream an AI response using the real streaming API and handle each token with a consumer.
@@ -61,4 +90,24 @@ public interface AiService {
      * @param tokenConsumer Consumer to handle each token as it arrives
      */
     void streamResponseReal(String userPrompt, java.util.List<com.chatapp.model.ChatMessage> conversationHistory, String model, int maxTokens, double temperature, String systemPrompt, java.util.function.Consumer<String> tokenConsumer);
-} 
\ No newline at end of file
+    
+    /**
+     * Stream an AI response as a non-blocking Flux of token events.
+     * Nothing happens until the Flux is subscribed, and no thread is held while waiting
+     * for the upstream; cancelling the subscription aborts the upstream request.
+     *
+     * @param userPrompt The user's message
+     * @param conversationHistory List of previous messages in the conversation
+     * @param model The AI model to use
+     * @param maxTokens The maximum number of tokens to generate
+     * @param temperature The temperature for the AI model
+     * @param systemPrompt Optional system prompt to guide AI behavior
+     * @return Flux of token events in arrival order
+     */
+    Flux<TokenEvent> streamTokens(String userPrompt, java.util.List<com.chatapp.model.ChatMessage> conversationHistory, String model, int maxTokens, double temperature, String systemPrompt);
+
+    /**
+     * Counters for the server-sent event streams decoded so far (events, comments, malformed frames).
+     */
+    java.util.Map<String, Object> getStreamMetrics();
+}
@@ -0,0 +1,261 @@
+package com.chatapp.service;
+
+import com.chatapp.model.ImageBlob;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store for uploaded images, so sessions hold a small {@link ImageBlob}
+ * per image instead of its Base64 string. Each image is a file named by its SHA-256 and is
+ * read memory-mapped, off the heap; the same image uploaded twice is stored once.
+ *
+ * A blob is referenced while some message holds its ImageBlob (the store only keeps a weak
+ * reference). When storing a new blob would go over the size quota, the least recently
+ * used unreferenced blobs are deleted; if only referenced blobs are left, the upload is
+ * refused. Blobs whose messages are gone count as unreferenced once the garbage collector
+ * has noticed. Sessions don't survive a restart, so neither do blobs.
+ */
+@Service
+public class BlobStore {
+    private static final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+    // Image types browsers render without running anything; others are served as bytes
+    private static final Set<String> SERVABLE_TYPES = Set.of(
+            "image/png", "image/jpeg", "image/gif", "image/webp", "image/avif", "image/bmp");
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    // Empty uses a temporary directory, deleted on shutdown
+    @Value("${app.blobs.dir:}")
+    private String dir = "";
+
+    @Value("${app.blobs.max-bytes:1073741824}")
+    private long maxBytes = 1L << 30;
+
+    private Path root;
+    private boolean temporary;
+
+    // In least recently used order; guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long storedBytes;
+
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private static final class Entry {
+        private final long size;
+        private final String contentType;
+        private WeakReference<ImageBlob> blob;
+
+        private Entry(long size, String contentType) {
+            this.size = size;
+            this.contentType = contentType;
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (dir == null || dir.isBlank()) {
+            root = Files.createTempDirectory("chatapp-blobs");
+            temporary = true;
+        } else {
+            root = Files.createDirectories(Path.of(dir));
+            // Left over from a previous run, so no message references them
+            try (Stream<Path> leftovers = Files.list(root)) {
+                for (Path leftover : (Iterable<Path>) leftovers::iterator) {
+                    if (isBlobFile(leftover)) {
+                        Files.deleteIfExists(leftover);
+                    }
+                }
+            }
+        }
+        logger.info("Storing uploaded images in {} (quota {} bytes)", root, maxBytes);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!temporary) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(root)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(root);
+        } catch (IOException e) {
+            logger.warn("Could not delete image store {}: {}", root, e.getMessage());
+        }
+    }
+
+    /**
+     * Store an image, or find it already stored.
+     *
+     * @param contentType the type the upload declared, may be null; used when the bytes don't
+     *                    tell, and anything but a plain image type is served as bytes
+     * @throws IOException if it could not be written, or the quota is taken by referenced images
+     */
+    public ImageBlob put(byte[] bytes, String contentType) throws IOException {
+        String hash = ImageBlob.sha256(bytes);
+        ImageBlob existing = get(hash);
+        if (existing != null) {
+            deduplicated.increment();
+            return existing;
+        }
+        if (bytes.length > maxBytes) {
+            rejected.increment();
+            throw new IOException("Image is larger than the image store");
+        }
+        // Written outside the lock; a concurrent upload of the same image is resolved below
+        Path temp = Files.createTempFile(root, hash, ".tmp");
+        try {
+            Files.write(temp, bytes);
+            synchronized (this) {
+                existing = get(hash);
+                if (existing != null) {
+                    deduplicated.increment();
+                    return existing;
+                }
+                makeRoom(bytes.length);
+                Files.move(temp, path(hash), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                Entry entry = new Entry(bytes.length, servableType(bytes, contentType));
+                entries.put(hash, entry);
+                storedBytes += bytes.length;
+                stored.increment();
+                return blob(hash, entry);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return the stored image with this hash, or null
+     */
+    public synchronized ImageBlob get(String hash) {
+        if (hash == null || !HASH.matcher(hash).matches()) {
+            return null;
+        }
+        Entry entry = entries.get(hash);
+        if (entry == null) {
+            return null;
+        }
+        ImageBlob blob = entry.blob.get();
+        return blob != null ? blob : blob(hash, entry);
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (this) {
+            metrics.put("blobs", entries.size());
+            metrics.put("storedBytes", storedBytes);
+        }
+        metrics.put("maxBytes", maxBytes);
+        metrics.put("stored", stored.sum());
+        metrics.put("deduplicated", deduplicated.sum());
+        metrics.put("evicted", evicted.sum());
+        metrics.put("rejected", rejected.sum());
+        return metrics;
+    }
+
+    /**
+     * The one ImageBlob of an entry while it is referenced; messages share it.
+     */
+    private ImageBlob blob(String hash, Entry entry) {
+        ImageBlob blob = new ImageBlob(hash, entry.size, entry.contentType, () -> read(hash));
+        entry.blob = new WeakReference<>(blob);
+        return blob;
+    }
+
+    /**
+     * Delete unreferenced blobs, least recently used first, until the size fits the quota.
+     */
+    private void makeRoom(long size) throws IOException {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (storedBytes + size > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> candidate = iterator.next();
+            if (candidate.getValue().blob.get() != null) {
+                continue;
+            }
+            Files.deleteIfExists(path(candidate.getKey()));
+            storedBytes -= candidate.getValue().size;
+            iterator.remove();
+            evicted.increment();
+        }
+        if (storedBytes + size > maxBytes) {
+            rejected.increment();
+            throw new IOException("The image store is full");
+        }
+    }
+
+    private ByteBuffer read(String hash) {
+        try (FileChannel channel = FileChannel.open(path(hash), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read image " + hash, e);
+        }
+    }
+
+    private Path path(String hash) {
+        return root.resolve(hash);
+    }
+
+    private static boolean isBlobFile(Path file) {
+        String name = file.getFileName().toString();
+        return HASH.matcher(name).matches() || (name.endsWith(".tmp") && name.length() > 64 && HASH.matcher(name.substring(0, 64)).matches());
+    }
+
+    /**
+     * The type of an image from its first bytes, else the declared type if it is servable.
+     */
+    static String servableType(byte[] bytes, String contentType) {
+        if (startsWith(bytes, 0, 0x89, 'P', 'N', 'G')) {
+            return "image/png";
+        }
+        if (startsWith(bytes, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(bytes, 0, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(bytes, 0, 'R', 'I', 'F', 'F') && startsWith(bytes, 8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        String type = contentType != null ? contentType.toLowerCase().trim() : "";
+        return SERVABLE_TYPES.contains(type) ? type : DEFAULT_CONTENT_TYPE;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, int... signature) {
+        if (bytes.length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((bytes[offset + i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
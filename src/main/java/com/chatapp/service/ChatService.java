@@ -1,6 +1,7 @@
 package com.chatapp.service;
 
 import com.chatapp.model.ChatMessage;
+import com.chatapp.model.ImageBlob;
 import java.util.List;
 
 /**
@@ -109,18 +110,28 @@ public interface ChatService {
     
     /**
      * Process a user message and generate an AI response, storing both in the provided message list.
+     * @param image The uploaded image (optional)
      */
-    default void processUserMessage(String userPrompt, com.chatapp.model.ChatConfig config, String imageBase64, List<ChatMessage> messages) {
+    default void processUserMessage(String userPrompt, com.chatapp.model.ChatConfig config, ImageBlob image, List<ChatMessage> messages) {
         // Default implementation for backward compatibility
-        processUserMessage(userPrompt, config, imageBase64);
+        processUserMessage(userPrompt, config, image != null ? image.toBase64() : null);
+    }
+
+    /**
+     * Process a user message as above, counting the completion's usage against the account.
+     * @param account who the message is from (optional)
+     */
+    default void processUserMessage(String userPrompt, com.chatapp.model.ChatConfig config, ImageBlob image, List<ChatMessage> messages, UsageAccounting.Account account) {
+        processUserMessage(userPrompt, config, image, messages);
     }
 
     /**
      * Update a message in the provided message list.
+     * @param image The new uploaded image (optional, null to keep existing)
      */
-    default ChatMessage updateMessage(String messageId, String newContent, String imageBase64, List<ChatMessage> messages) {
+    default ChatMessage updateMessage(String messageId, String newContent, ImageBlob image, List<ChatMessage> messages) {
         // Default implementation for backward compatibility
-        return updateMessage(messageId, newContent, imageBase64);
+        return updateMessage(messageId, newContent, image != null ? image.toBase64() : null);
     }
 
     /**
@@ -138,4 +149,12 @@ public interface ChatService {
         // Default implementation for backward compatibility
         regenerateAiMessage(messageId, config);
     }
+
+    /**
+     * Regenerate an AI message as above, counting the completion's usage against the account.
+     * @param account who asked for it (optional)
+     */
+    default void regenerateAiMessage(String messageId, com.chatapp.model.ChatConfig config, List<ChatMessage> messages, UsageAccounting.Account account) {
+        regenerateAiMessage(messageId, config, messages);
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,68 @@
+package com.chatapp.service;
+
+/**
+ * Circuit breaker for one upstream model.
+ * After a number of consecutive failures the circuit opens and calls fail fast for the
+ * open period; then a single trial call is let through (half-open), whose outcome closes
+ * or re-opens the circuit. A trial that never reports back re-arms after another open period.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return true if a call may go upstream now
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now - openedAt < openMillis) {
+            return false;
+        }
+        // Let one trial through; re-arming openedAt keeps others out until it reports
+        state = State.HALF_OPEN;
+        openedAt = now;
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return milliseconds until the next trial call is allowed, 0 if calls are allowed now
+     */
+    public synchronized long getRetryInMillis() {
+        if (state == State.CLOSED) {
+            return 0;
+        }
+        return Math.max(0, openMillis - (System.currentTimeMillis() - openedAt));
+    }
+}
@@ -0,0 +1,42 @@
+package com.chatapp.service;
+
+import com.chatapp.model.Conversation;
+
+import java.util.Map;
+
+/**
+ * Where conversations live, by key. A conversation returned here is kept up to date in
+ * storage as it changes, so callers just change it; the same key gives the same instance
+ * for as long as it stays in memory.
+ */
+public interface ConversationRepository {
+
+    /**
+     * The key of a session's conversation: the signed-in user's, if conversations are kept
+     * beyond a session, else the session's own, which is forgotten when the session ends.
+     *
+     * @param user the signed-in user, or null; must be a verified identity, since whoever
+     *             claims it gets the conversation kept under it
+     */
+    String key(String sessionId, String user);
+
+    /**
+     * @return the conversation stored under this key, read back from storage if it is not
+     *         in memory, or a new empty one
+     */
+    Conversation open(String key);
+
+    /**
+     * Store this conversation under the key, replacing whatever was there.
+     *
+     * @return the conversation, now stored
+     */
+    Conversation adopt(String key, Conversation conversation);
+
+    /**
+     * Forget the conversation under this key, in memory and in storage.
+     */
+    void delete(String key);
+
+    Map<String, Object> getMetrics();
+}
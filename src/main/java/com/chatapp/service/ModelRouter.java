@@ -0,0 +1,288 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.AiApiResponse;
+import com.chatapp.dto.TokenEvent;
+import com.chatapp.model.ChatConfig;
+import com.chatapp.model.ChatMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Routes a streaming request over the config's model chain.
+ * Without hedging, a model that fails before its first token falls back to the next model.
+ * With hedging, the first fallback model is also started when the model has not produced a
+ * token by its usual time to first token (a percentile of recent streams); whichever model
+ * produces a token first wins and the other request is cancelled.
+ */
+@Service
+public class ModelRouter {
+    private static final Logger logger = LoggerFactory.getLogger(ModelRouter.class);
+
+    // Recent times to first token kept per model, and how many are needed to trust a percentile
+    private static final int LATENCY_WINDOW = 128;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    @Value("${app.hedging.percentile:95}")
+    private double hedgePercentile = 95;
+
+    @Value("${app.hedging.initial-delay-ms:3000}")
+    private long initialHedgeDelayMillis = 3000;
+
+    @Value("${app.hedging.min-delay-ms:500}")
+    private long minHedgeDelayMillis = 500;
+
+    @Value("${app.hedging.max-delay-ms:10000}")
+    private long maxHedgeDelayMillis = 10000;
+
+    private final StreamCoalescer streams;
+    private final UsageAccounting usageAccounting;
+    private final Map<String, LatencyWindow> firstTokenLatencies = new ConcurrentHashMap<>();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+
+    public ModelRouter(AiService aiService) {
+        this(new StreamCoalescer(aiService), new UsageAccounting());
+    }
+
+    /**
+     * @param streams the AI service's streams, with identical in-flight requests coalesced
+     * @param usageAccounting where the token usage of completed streams is counted
+     */
+    @Autowired
+    public ModelRouter(StreamCoalescer streams, UsageAccounting usageAccounting) {
+        this.streams = streams;
+        this.usageAccounting = usageAccounting;
+    }
+
+    /**
+     * Stream a response for the prompt using the config's model chain.
+     */
+    public Flux<TokenEvent> streamTokens(ChatConfig config, String prompt, List<ChatMessage> history) {
+        return streamTokens(config, prompt, history, null);
+    }
+
+    /**
+     * Stream a response for the prompt using the config's model chain, counting the usage
+     * of the model that answers against the account.
+     */
+    public Flux<TokenEvent> streamTokens(ChatConfig config, String prompt, List<ChatMessage> history, UsageAccounting.Account account) {
+        List<String> models = config.getModelChain();
+        Function<String, Flux<TokenEvent>> call = model -> Flux.defer(() -> {
+            // Set by the coalescer on subscription, before the first event
+            AtomicReference<StreamCoalescer.Source> source = new AtomicReference<>(StreamCoalescer.Source.UPSTREAM);
+            return measured(model, account, source, streams.streamTokens(prompt, history, model,
+                    config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt(), source::set));
+        });
+        if (config.isHedgingEnabled() && models.size() > 1) {
+            return hedged(models, call);
+        }
+        return withFallback(models, call);
+    }
+
+    /**
+     * Make a blocking completion with the config's model chain, falling back to the next
+     * model while one fails, as a stream does before its first token.
+     *
+     * @param generate makes the completion with the given model
+     */
+    public String complete(ChatConfig config, Function<String, String> generate) {
+        return withFallback(config.getModelChain(), model -> Mono.fromCallable(() -> generate.apply(model)).flux())
+                .blockLast();
+    }
+
+    /**
+     * @return the delay after which a slow stream of the model is hedged
+     */
+    public Duration hedgeDelay(String model) {
+        LatencyWindow window = firstTokenLatencies.get(model);
+        long percentile = window != null ? window.percentile(hedgePercentile) : -1;
+        long delay = percentile < 0 ? initialHedgeDelayMillis : percentile;
+        return Duration.ofMillis(Math.max(minHedgeDelayMillis, Math.min(maxHedgeDelayMillis, delay)));
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("fallbacks", fallbacks.sum());
+        metrics.put("hedges", hedges.sum());
+        metrics.put("hedgesWon", hedgesWon.sum());
+        return metrics;
+    }
+
+    private <T> Flux<T> withFallback(List<String> models, Function<String, Flux<T>> call) {
+        return Flux.defer(() -> {
+            AtomicBoolean produced = new AtomicBoolean();
+            Flux<T> attempt = call.apply(models.get(0))
+                    .doOnNext(event -> produced.set(true));
+            if (models.size() == 1) {
+                return attempt;
+            }
+            // Output already shown to the user is never mixed with another model's answer
+            return attempt.onErrorResume(error -> !produced.get(), error -> {
+                fallbacks.increment();
+                logger.warn("Model {} failed before its first token, falling back to {}: {}", models.get(0), models.get(1), error.getMessage());
+                return withFallback(models.subList(1, models.size()), call);
+            });
+        });
+    }
+
+    private Flux<TokenEvent> hedged(List<String> models, Function<String, Flux<TokenEvent>> call) {
+        return Flux.defer(() -> {
+            String model = models.get(0);
+            Sinks.Empty<Void> failedEarly = Sinks.empty();
+            Sinks.One<Boolean> primaryCompleted = Sinks.one();
+            AtomicBoolean produced = new AtomicBoolean();
+            AtomicBoolean completed = new AtomicBoolean();
+            Flux<TokenEvent> primary = firstContentFirst(call.apply(model))
+                    .doOnNext(event -> produced.set(true))
+                    .doOnError(error -> {
+                        if (!produced.get()) {
+                            failedEarly.tryEmitEmpty();
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        completed.set(true);
+                        primaryCompleted.tryEmitValue(Boolean.TRUE);
+                    });
+            Duration delay = hedgeDelay(model);
+            AtomicBoolean hedgeProduced = new AtomicBoolean();
+            // The hedge starts when the model is slow, or right away if it fails before its first token
+            Flux<TokenEvent> hedge = Mono.firstWithSignal(Mono.delay(delay).then(), failedEarly.asMono())
+                    .doOnSuccess(ignored -> {
+                        hedges.increment();
+                        logger.info("Hedging model {} after {} ms with {}", model, delay.toMillis(), models.get(1));
+                    })
+                    .thenMany(firstContentFirst(withFallback(models.subList(1, models.size()), call)))
+                    .doOnNext(event -> {
+                        if (hedgeProduced.compareAndSet(false, true)) {
+                            hedgesWon.increment();
+                        }
+                    })
+                    // A model that completes, even with an empty answer, has answered: no hedge
+                    .takeUntilOther(primaryCompleted.asMono());
+            // The first to produce a token wins; the other subscription is cancelled
+            return Flux.firstWithValue(primary, hedge)
+                    // Neither produced a value: an empty answer, unless every model failed
+                    .onErrorResume(NoSuchElementException.class, error -> completed.get()
+                            ? Flux.empty()
+                            : Flux.error(lastCause(error)));
+        });
+    }
+
+    /**
+     * Hold back events without content until the first content, so the race is decided by
+     * the first real token rather than by an empty role or keep-alive delta.
+     */
+    private static Flux<TokenEvent> firstContentFirst(Flux<TokenEvent> events) {
+        return events.bufferUntil(TokenEvent::hasContent).flatMapIterable(batch -> batch);
+    }
+
+    /**
+     * When every model fails, report the last failure rather than the race's own error.
+     */
+    private static Throwable lastCause(NoSuchElementException raceError) {
+        List<Throwable> causes = raceError.getCause() != null
+                ? Exceptions.unwrapMultiple(raceError.getCause())
+                : Arrays.asList(raceError.getSuppressed());
+        return causes.isEmpty() ? raceError : causes.get(causes.size() - 1);
+    }
+
+    /**
+     * Record the model's time to first token, and its usage and latency once it completes.
+     * A stream cancelled before completing (a losing hedge, or a stop) has no usage report,
+     * so it is recorded with one completion token per content event seen, an estimate of
+     * what the upstream generated before the cancel. Only a stream that made its own
+     * upstream request is measured: a cached or joined one arrives at replay speed, and its
+     * tokens are paid for by the request that made them.
+     */
+    private Flux<TokenEvent> measured(String model, UsageAccounting.Account account,
+                                      AtomicReference<StreamCoalescer.Source> source, Flux<TokenEvent> events) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            AtomicBoolean recorded = new AtomicBoolean();
+            AtomicReference<AiApiResponse.Usage> usage = new AtomicReference<>();
+            AtomicInteger contentEvents = new AtomicInteger();
+            return events.doOnNext(event -> {
+                if (source.get() != StreamCoalescer.Source.UPSTREAM) {
+                    return;
+                }
+                if (event.hasContent()) {
+                    contentEvents.incrementAndGet();
+                    if (first.compareAndSet(true, false)) {
+                        firstTokenLatencies.computeIfAbsent(model, k -> new LatencyWindow(LATENCY_WINDOW))
+                                .record(Duration.ofNanos(System.nanoTime() - start).toMillis());
+                    }
+                }
+                if (event.getUsage() != null) {
+                    usage.set(event.getUsage());
+                }
+            }).doOnComplete(() -> {
+                if (source.get() == StreamCoalescer.Source.UPSTREAM && recorded.compareAndSet(false, true)) {
+                    usageAccounting.record(account, model, usage.get(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+                }
+            }).doOnCancel(() -> {
+                if (source.get() == StreamCoalescer.Source.UPSTREAM && recorded.compareAndSet(false, true)) {
+                    AiApiResponse.Usage seen = usage.get();
+                    if (seen == null) {
+                        seen = new AiApiResponse.Usage();
+                        seen.setCompletionTokens(contentEvents.get());
+                    }
+                    usageAccounting.record(account, model, seen, Duration.ofNanos(System.nanoTime() - start).toMillis());
+                }
+            });
+        });
+    }
+
+    /**
+     * The last samples of a latency, for percentiles.
+     */
+    static final class LatencyWindow {
+        private final long[] samples;
+        private int count;
+        private int next;
+
+        LatencyWindow(int size) {
+            this.samples = new long[size];
+        }
+
+        synchronized void record(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        /**
+         * @return the percentile of the recorded samples, or -1 if there are too few to tell
+         */
+        synchronized long percentile(double percentile) {
+            if (count < MIN_LATENCY_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+}
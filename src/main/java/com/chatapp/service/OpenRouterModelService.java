@@ -3,6 +3,7 @@ package com.chatapp.service;
 import com.chatapp.model.OpenRouterModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -24,15 +25,30 @@ public class OpenRouterModelService {
     @Value("${ai.api.key:}")
     private String apiKey;
 
-    private final WebClient webClient = WebClient.builder()
-            .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-            .exchangeStrategies(ExchangeStrategies.builder()
-                .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(2 * 1024 * 1024)) // 2 MB
-                .build())
-            .build();
+    @Value("${ai.models.url:https://openrouter.ai/api/v1/models}")
+    private String modelsUrl = "https://openrouter.ai/api/v1/models";
+
+    private final WebClient webClient;
 
     private volatile List<OpenRouterModel> cachedModels = new ArrayList<>();
 
+    public OpenRouterModelService() {
+        this(WebClient.builder()
+                .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .exchangeStrategies(ExchangeStrategies.builder()
+                    .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(2 * 1024 * 1024)) // 2 MB
+                    .build())
+                .build());
+    }
+
+    /**
+     * @param upstreamWebClient the shared, pooled upstream client
+     */
+    @Autowired
+    public OpenRouterModelService(WebClient upstreamWebClient) {
+        this.webClient = upstreamWebClient;
+    }
+
     @PostConstruct
     public void init() {
         fetchAndCacheModels();
@@ -47,11 +63,12 @@ public class OpenRouterModelService {
         return Collections.unmodifiableList(cachedModels);
     }
 
+    @SuppressWarnings("unchecked") // The models endpoint's JSON is read as untyped maps
     private void fetchAndCacheModels() {
         logger.info("Fetching OpenRouter models list...");
         try {
             Map<String, Object> response = webClient.get()
-                    .uri("https://openrouter.ai/api/v1/models")
+                    .uri(modelsUrl)
                     .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
                     .retrieve()
                     .bodyToMono(Map.class)
@@ -80,6 +97,7 @@ public class OpenRouterModelService {
     }
 
     // Fallback manual mapping
+    @SuppressWarnings("unchecked") // Untyped JSON maps, as the models endpoint returns them
     private OpenRouterModel mapToModel(Map<String, Object> map) {
         OpenRouterModel model = new OpenRouterModel();
         model.setId((String) map.get("id"));
@@ -0,0 +1,121 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.TokenEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import jakarta.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opt-in cache of complete answers to temperature-0 requests, which are (near)
+ * deterministic for the same model, system prompt and history. Keyed by the request's
+ * content hash; bounded by total cached characters and a time to live, with Caffeine's
+ * W-TinyLFU eviction. A hit is replayed token by token, so it goes through the same
+ * streaming path as an upstream answer.
+ */
+@Service
+public class ResponseCache {
+
+    @Value("${app.response-cache.enabled:false}")
+    private boolean enabled = false;
+
+    @Value("${app.response-cache.max-chars:20000000}")
+    private long maxChars = 20_000_000;
+
+    @Value("${app.response-cache.ttl-minutes:60}")
+    private long ttlMinutes = 60;
+
+    private Cache<String, CachedResponse> cache;
+
+    /**
+     * A complete answer: its tokens as they arrived and the finish reason.
+     */
+    private static final class CachedResponse {
+        private final String[] tokens;
+        private final String finishReason;
+        private final int chars;
+
+        private CachedResponse(List<String> tokens, String finishReason) {
+            this.tokens = tokens.toArray(new String[0]);
+            this.finishReason = finishReason;
+            this.chars = tokens.stream().mapToInt(String::length).sum();
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxChars)
+                .weigher((String key, CachedResponse response) -> key.length() + response.chars)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return whether answers to a request with this temperature are cached
+     */
+    public boolean isCacheable(double temperature) {
+        return enabled && cache != null && temperature == 0;
+    }
+
+    /**
+     * @return the cached answer replayed as token events, or null on a miss
+     */
+    public Flux<TokenEvent> replay(String key) {
+        CachedResponse response = cache.getIfPresent(key);
+        if (response == null) {
+            return null;
+        }
+        return Flux.fromArray(response.tokens)
+                .map(TokenEvent::token)
+                .concatWith(Flux.just(new TokenEvent(null, response.finishReason, null)));
+    }
+
+    /**
+     * Cache the answer of an upstream stream once it completes normally with a finish
+     * reason; failed, cancelled and upstream-reported error streams are not cached.
+     */
+    public Flux<TokenEvent> recording(String key, Flux<TokenEvent> upstream) {
+        return Flux.defer(() -> {
+            List<String> tokens = new ArrayList<>();
+            String[] finishReason = new String[1];
+            return upstream
+                    .doOnNext(event -> {
+                        if (event.hasContent()) {
+                            tokens.add(event.getContent());
+                        }
+                        if (event.getFinishReason() != null) {
+                            finishReason[0] = event.getFinishReason();
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        if (finishReason[0] != null && !"error".equals(finishReason[0]) && !tokens.isEmpty()) {
+                            cache.put(key, new CachedResponse(tokens, finishReason[0]));
+                        }
+                    });
+        });
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        if (cache != null) {
+            CacheStats stats = cache.stats();
+            metrics.put("hits", stats.hitCount());
+            metrics.put("misses", stats.missCount());
+            metrics.put("evictions", stats.evictionCount());
+            metrics.put("size", cache.estimatedSize());
+        }
+        return metrics;
+    }
+}
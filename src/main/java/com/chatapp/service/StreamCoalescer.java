@@ -0,0 +1,180 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.TokenEvent;
+import com.chatapp.model.ChatMessage;
+import com.chatapp.model.ImageBlob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Single-flight layer in front of the AI service's streams.
+ * Identical requests (same model, parameters, system prompt, history and prompt) that are
+ * in flight at the same time share one upstream stream: the first starts it, later ones
+ * join it and get every token from the start. The upstream is cancelled only when every
+ * subscriber has cancelled, and a request arriving after the stream has ended starts a
+ * new one, unless its answer is in the response cache.
+ */
+@Service
+public class StreamCoalescer {
+    private static final Logger logger = LoggerFactory.getLogger(StreamCoalescer.class);
+
+    private final AiService aiService;
+    private final ResponseCache responseCache;
+    private final Map<String, Flux<TokenEvent>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Where the events of a stream come from.
+     */
+    public enum Source {
+        /** A new upstream request, started for this stream */
+        UPSTREAM,
+        /** An identical upstream request already in flight, joined */
+        JOINED,
+        /** The response cache */
+        CACHE
+    }
+
+    public StreamCoalescer(AiService aiService) {
+        this(aiService, new ResponseCache());
+    }
+
+    /**
+     * @param responseCache answers to temperature-0 requests, if enabled
+     */
+    @Autowired
+    public StreamCoalescer(AiService aiService, ResponseCache responseCache) {
+        this.aiService = aiService;
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Stream a response, joining an identical request already in flight if there is one.
+     * Arguments are those of {@link AiService#streamTokens}.
+     */
+    public Flux<TokenEvent> streamTokens(String userPrompt, List<ChatMessage> conversationHistory, String model,
+                                         int maxTokens, double temperature, String systemPrompt) {
+        return streamTokens(userPrompt, conversationHistory, model, maxTokens, temperature, systemPrompt, source -> { });
+    }
+
+    /**
+     * Stream a response as above, telling the source on each subscription, before any event.
+     */
+    public Flux<TokenEvent> streamTokens(String userPrompt, List<ChatMessage> conversationHistory, String model,
+                                         int maxTokens, double temperature, String systemPrompt, Consumer<Source> source) {
+        return Flux.defer(() -> {
+            String key = requestKey(userPrompt, conversationHistory, model, maxTokens, temperature, systemPrompt);
+            requests.increment();
+            boolean cacheable = responseCache.isCacheable(temperature);
+            if (cacheable) {
+                Flux<TokenEvent> cached = responseCache.replay(key);
+                if (cached != null) {
+                    logger.info("Answering from the response cache for model {}", model);
+                    source.accept(Source.CACHE);
+                    return cached;
+                }
+            }
+            AtomicBoolean started = new AtomicBoolean();
+            Flux<TokenEvent> shared = inFlight.computeIfAbsent(key, k -> {
+                started.set(true);
+                Flux<TokenEvent> upstream = aiService.streamTokens(userPrompt, conversationHistory, model, maxTokens, temperature, systemPrompt);
+                return share(k, cacheable ? responseCache.recording(k, upstream) : upstream);
+            });
+            source.accept(started.get() ? Source.UPSTREAM : Source.JOINED);
+            if (!started.get()) {
+                coalesced.increment();
+                logger.info("Joining an identical in-flight request to model {}", model);
+                // The tokens were paid for once, by the request that started the stream
+                return shared.map(event -> event.getUsage() == null ? event
+                        : new TokenEvent(event.getContent(), event.getFinishReason(), null));
+            }
+            return shared;
+        });
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("requests", requests.sum());
+        metrics.put("coalesced", coalesced.sum());
+        metrics.put("inFlight", inFlight.size());
+        return metrics;
+    }
+
+    /**
+     * One upstream subscription for all subscribers, replaying the stream so far to late
+     * ones; the entry is dropped as soon as the upstream terminates or is cancelled.
+     */
+    private Flux<TokenEvent> share(String key, Flux<TokenEvent> upstream) {
+        AtomicReference<Flux<TokenEvent>> self = new AtomicReference<>();
+        self.set(upstream
+                .doFinally(signal -> inFlight.remove(key, self.get()))
+                .replay()
+                .refCount());
+        return self.get();
+    }
+
+    /**
+     * A digest of everything that goes into the request body. History messages are hashed by
+     * what their request fragment is made of, without encoding them: an uploaded image by its
+     * SHA-256, so its bytes are neither read nor encoded to Base64.
+     */
+    static String requestKey(String userPrompt, List<ChatMessage> conversationHistory, String model,
+                             int maxTokens, double temperature, String systemPrompt) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        update(digest, model);
+        update(digest, systemPrompt);
+        update(digest, maxTokens + ":" + Double.toString(temperature));
+        int historySize = conversationHistory != null ? conversationHistory.size() : 0;
+        update(digest, Integer.toString(historySize));
+        for (int i = 0; i < historySize; i++) {
+            ChatMessage message = conversationHistory.get(i);
+            update(digest, message.getType() != null ? message.getType().name() : null);
+            update(digest, message.getContent());
+            ImageBlob image = message.getImage();
+            if (image != null) {
+                update(digest, "blob:" + image.getContentType() + ":" + image.getHash());
+            } else {
+                update(digest, message.getImageBase64());
+            }
+        }
+        update(digest, userPrompt);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        update(digest, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    /**
+     * Length-prefixed, so adjacent fields cannot run into each other; null differs from empty.
+     */
+    private static void update(MessageDigest digest, byte[] value) {
+        int length = value != null ? value.length : -1;
+        digest.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        if (value != null) {
+            digest.update(value);
+        }
+    }
+}
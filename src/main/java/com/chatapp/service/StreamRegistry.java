@@ -0,0 +1,142 @@
+package com.chatapp.service;
+
+import com.chatapp.model.StreamState;
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the streaming responses of all sessions.
+ * Every stream gets an unguessable id that the stream frames reference, so several
+ * streams (e.g. two tabs) of one session never share state. A stream can only be looked
+ * up by the session that registered it. Finished streams are kept for the retention
+ * period so reloaded frames can resume them, then dropped; a session's streams are
+ * cancelled and dropped when the session ends.
+ */
+@Service
+public class StreamRegistry implements HttpSessionListener {
+    private static final Logger logger = LoggerFactory.getLogger(StreamRegistry.class);
+
+    private static final long SWEEP_INTERVAL_MILLIS = 60_000;
+
+    @Value("${app.streaming.retention-seconds:300}")
+    private long retentionSeconds = 300;
+
+    @Value("${app.streaming.max-streams-per-session:8}")
+    private int maxStreamsPerSession = 8;
+
+    private final Map<String, Map<String, StreamState>> streamsByOwner = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private volatile long lastSweepAt = System.currentTimeMillis();
+
+    /**
+     * Register a new stream for an owner (the HTTP session).
+     */
+    public StreamState register(String ownerKey, String prompt) {
+        sweepIfDue();
+        StreamState streamState = new StreamState(newStreamId(), prompt);
+        Map<String, StreamState> streams = streamsByOwner.computeIfAbsent(ownerKey, k -> new ConcurrentHashMap<>());
+        streams.put(streamState.getId(), streamState);
+        trimOwner(streams);
+        return streamState;
+    }
+
+    /**
+     * @return the owner's stream with this id, or null if there is none or it has expired
+     */
+    public StreamState get(String ownerKey, String streamId) {
+        if (streamId == null) {
+            return null;
+        }
+        Map<String, StreamState> streams = streamsByOwner.get(ownerKey);
+        if (streams == null) {
+            return null;
+        }
+        StreamState streamState = streams.get(streamId);
+        if (streamState != null && isExpired(streamState, System.currentTimeMillis())) {
+            streams.remove(streamId, streamState);
+            return null;
+        }
+        return streamState;
+    }
+
+    /**
+     * @return the owner's most recently registered stream that has not completed, or null
+     */
+    public StreamState latestActive(String ownerKey) {
+        Map<String, StreamState> streams = streamsByOwner.get(ownerKey);
+        if (streams == null) {
+            return null;
+        }
+        return streams.values().stream()
+                .filter(streamState -> !streamState.isComplete())
+                .max(Comparator.comparingLong(StreamState::getCreatedAt))
+                .orElse(null);
+    }
+
+    public int size() {
+        return streamsByOwner.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * Drop a session's streams when it ends; running ones are cancelled so they free their slot.
+     */
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        Map<String, StreamState> streams = streamsByOwner.remove(event.getSession().getId());
+        if (streams != null) {
+            streams.values().forEach(StreamState::cancel);
+            logger.debug("Dropped {} streams of an ended session", streams.size());
+        }
+    }
+
+    private boolean isExpired(StreamState streamState, long now) {
+        long retentionMillis = retentionSeconds * 1000L;
+        if (streamState.isComplete()) {
+            return now - streamState.getCompletedAt() > retentionMillis;
+        }
+        // Registered but no frame ever started it
+        return !streamState.isStarted() && now - streamState.getCreatedAt() > retentionMillis;
+    }
+
+    /**
+     * Keep at most maxStreamsPerSession streams per owner, dropping the oldest finished ones.
+     */
+    private void trimOwner(Map<String, StreamState> streams) {
+        while (streams.size() > maxStreamsPerSession) {
+            StreamState oldest = streams.values().stream()
+                    .filter(StreamState::isComplete)
+                    .min(Comparator.comparingLong(StreamState::getCreatedAt))
+                    .orElse(null);
+            if (oldest == null) {
+                return;
+            }
+            streams.remove(oldest.getId(), oldest);
+        }
+    }
+
+    private void sweepIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweepAt < SWEEP_INTERVAL_MILLIS) {
+            return;
+        }
+        lastSweepAt = now;
+        // Owner maps themselves go away with their session
+        streamsByOwner.values().forEach(streams -> streams.values().removeIf(streamState -> isExpired(streamState, now)));
+    }
+
+    private String newStreamId() {
+        byte[] bytes = new byte[12];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,224 @@
+package com.chatapp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Admits and runs background streaming jobs.
+ * A job is a non-blocking pipeline (a Mono that completes when the stream ends), so an
+ * in-flight stream occupies a slot but no thread. The scheduler limits the number of
+ * concurrent streams, the number of queued streams and the number of streams a single
+ * user may have in flight, and drains gracefully on shutdown: queued jobs are told they
+ * were dropped, in-flight ones get the shutdown timeout to finish.
+ */
+@Service
+public class StreamingJobScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(StreamingJobScheduler.class);
+
+    @Value("${app.streaming.max-concurrent:256}")
+    private int maxConcurrent = 256;
+
+    @Value("${app.streaming.queue-capacity:512}")
+    private int queueCapacity = 512;
+
+    @Value("${app.streaming.max-per-user:2}")
+    private int maxPerUser = 2;
+
+    @Value("${app.streaming.shutdown-timeout-seconds:30}")
+    private int shutdownTimeoutSeconds = 30;
+
+    private final Object slotLock = new Object();
+    private final Deque<Job> queue = new ArrayDeque<>();
+    private int running;
+    private volatile boolean shuttingDown;
+
+    private final Map<Job, Disposable> activeJobs = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> jobsPerOwner = new ConcurrentHashMap<>();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private static final class Job {
+        private final String ownerKey;
+        private final AtomicInteger ownerJobs;
+        private final Supplier<Mono<Void>> pipeline;
+        private final Runnable onDropped;
+
+        private Job(String ownerKey, AtomicInteger ownerJobs, Supplier<Mono<Void>> pipeline, Runnable onDropped) {
+            this.ownerKey = ownerKey;
+            this.ownerJobs = ownerJobs;
+            this.pipeline = pipeline;
+            this.onDropped = onDropped;
+        }
+    }
+
+    /**
+     * Submit a streaming job on behalf of an owner (typically the HTTP session).
+     * The pipeline is subscribed as soon as a slot is free; the slot is held until it terminates.
+     *
+     * @param ownerKey key used for the per-user cap
+     * @param pipeline supplies the job's pipeline; called once, when the job starts
+     * @return true if the job was started or queued, false if it was rejected because the
+     *         owner, the slots and the queue are at capacity or the scheduler is shutting down
+     */
+    public boolean submit(String ownerKey, Supplier<Mono<Void>> pipeline) {
+        return submit(ownerKey, pipeline, null);
+    }
+
+    /**
+     * Submit a streaming job as above.
+     *
+     * @param onDropped called instead of the pipeline if the job is still queued when the
+     *                  scheduler shuts down, so whoever waits for it can be told; may be null
+     */
+    public boolean submit(String ownerKey, Supplier<Mono<Void>> pipeline, Runnable onDropped) {
+        if (shuttingDown) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        AtomicInteger ownerJobs = jobsPerOwner.computeIfAbsent(ownerKey, k -> new AtomicInteger());
+        if (ownerJobs.incrementAndGet() > maxPerUser) {
+            releaseOwner(ownerKey, ownerJobs);
+            rejected.incrementAndGet();
+            logger.warn("Rejected streaming job for {}: per-user limit of {} reached", ownerKey, maxPerUser);
+            return false;
+        }
+        Job job = new Job(ownerKey, ownerJobs, pipeline, onDropped);
+        boolean startNow;
+        synchronized (slotLock) {
+            if (running < maxConcurrent) {
+                running++;
+                startNow = true;
+            } else if (queue.size() < queueCapacity) {
+                queue.addLast(job);
+                startNow = false;
+            } else {
+                releaseOwner(ownerKey, ownerJobs);
+                rejected.incrementAndGet();
+                logger.warn("Rejected streaming job for {}: {} active, {} queued", ownerKey, running, queue.size());
+                return false;
+            }
+        }
+        if (startNow) {
+            start(job);
+        }
+        return true;
+    }
+
+    private void start(Job job) {
+        Disposable subscription = Mono.defer(job.pipeline)
+                .doFinally(signal -> finish(job))
+                .subscribe(null, error -> logger.error("Streaming job failed", error));
+        activeJobs.put(job, subscription);
+        // A job that already terminated has run finish(); don't keep it around
+        if (subscription.isDisposed()) {
+            activeJobs.remove(job);
+        }
+    }
+
+    private void finish(Job job) {
+        activeJobs.remove(job);
+        completed.incrementAndGet();
+        releaseOwner(job.ownerKey, job.ownerJobs);
+        Job next;
+        synchronized (slotLock) {
+            next = shuttingDown ? null : queue.pollFirst();
+            if (next == null) {
+                running--;
+                slotLock.notifyAll();
+            }
+        }
+        if (next != null) {
+            start(next);
+        }
+    }
+
+    private void releaseOwner(String ownerKey, AtomicInteger ownerJobs) {
+        if (ownerJobs.decrementAndGet() <= 0) {
+            jobsPerOwner.remove(ownerKey, ownerJobs);
+        }
+    }
+
+    public int getActiveCount() {
+        synchronized (slotLock) {
+            return running;
+        }
+    }
+
+    public int getQueuedCount() {
+        synchronized (slotLock) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Snapshot of the scheduler metrics, suitable for the health endpoint.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("active", getActiveCount());
+        metrics.put("queued", getQueuedCount());
+        metrics.put("completed", completed.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("maxConcurrent", maxConcurrent);
+        metrics.put("queueCapacity", queueCapacity);
+        metrics.put("maxPerUser", maxPerUser);
+        return metrics;
+    }
+
+    /**
+     * Stop accepting jobs, drop queued ones and let in-flight streams finish within the
+     * shutdown timeout; whatever is still running after that is cancelled.
+     */
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+        long deadline = System.currentTimeMillis() + shutdownTimeoutSeconds * 1000L;
+        List<Job> dropped;
+        synchronized (slotLock) {
+            logger.info("Draining streaming jobs ({} active, {} queued)", running, queue.size());
+            dropped = new ArrayList<>(queue);
+            queue.clear();
+        }
+        for (Job job : dropped) {
+            releaseOwner(job.ownerKey, job.ownerJobs);
+            if (job.onDropped != null) {
+                try {
+                    job.onDropped.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Could not notify a dropped streaming job: {}", e.getMessage());
+                }
+            }
+        }
+        synchronized (slotLock) {
+            try {
+                long remaining = deadline - System.currentTimeMillis();
+                while (running > 0 && remaining > 0) {
+                    slotLock.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!activeJobs.isEmpty()) {
+            logger.warn("{} streaming jobs did not finish within {}s, cancelling", activeJobs.size(), shutdownTimeoutSeconds);
+            activeJobs.values().forEach(Disposable::dispose);
+        }
+    }
+}
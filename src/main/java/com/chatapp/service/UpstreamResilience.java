@@ -0,0 +1,224 @@
+package com.chatapp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Timeouts, retries and circuit breaking for upstream (OpenRouter) calls.
+ * Retryable failures (rate limits, 5xx, connection errors) are retried with exponential
+ * backoff and jitter, waiting at least as long as the upstream's Retry-After asks. Each model
+ * has its own circuit breaker, so a degraded model fails fast with a readable error instead
+ * of piling up requests that wait for their timeout.
+ */
+@Service
+public class UpstreamResilience {
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamResilience.class);
+
+    private static final Set<Integer> RETRYABLE_STATUSES = Set.of(408, 429, 500, 502, 503, 504);
+
+    @Value("${app.upstream.first-byte-timeout-seconds:30}")
+    private long firstByteTimeoutSeconds = 30;
+
+    @Value("${app.upstream.idle-timeout-seconds:30}")
+    private long idleTimeoutSeconds = 30;
+
+    @Value("${app.upstream.total-timeout-seconds:180}")
+    private long totalTimeoutSeconds = 180;
+
+    @Value("${app.upstream.max-retries:2}")
+    private int maxRetries = 2;
+
+    @Value("${app.upstream.retry-initial-backoff-ms:500}")
+    private long initialBackoffMillis = 500;
+
+    @Value("${app.upstream.retry-max-backoff-ms:8000}")
+    private long maxBackoffMillis = 8000;
+
+    @Value("${app.upstream.circuit-failure-threshold:5}")
+    private int circuitFailureThreshold = 5;
+
+    @Value("${app.upstream.circuit-open-seconds:30}")
+    private long circuitOpenSeconds = 30;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Guard a single-response call: circuit breaker, retries and the total timeout.
+     */
+    public <T> Mono<T> guard(String model, Mono<T> call) {
+        return Mono.defer(() -> {
+                    CircuitBreaker breaker = breaker(model);
+                    if (!breaker.tryAcquire()) {
+                        return Mono.<T>error(circuitOpen(model, breaker));
+                    }
+                    return call
+                            .doOnSuccess(value -> breaker.onSuccess())
+                            .doOnError(error -> recordFailure(breaker, error));
+                })
+                .retryWhen(retry(() -> true))
+                .timeout(Duration.ofSeconds(totalTimeoutSeconds), Mono.error(() -> totalTimeout(model)));
+    }
+
+    /**
+     * Guard a streaming call: circuit breaker, retries until the first item (a stream that
+     * has produced output is never replayed) and the total timeout.
+     */
+    public <T> Flux<T> guardStream(String model, Flux<T> call) {
+        return Flux.defer(() -> {
+            AtomicBoolean emitted = new AtomicBoolean();
+            Flux<T> attempt = Flux.defer(() -> {
+                CircuitBreaker breaker = breaker(model);
+                if (!breaker.tryAcquire()) {
+                    return Flux.<T>error(circuitOpen(model, breaker));
+                }
+                return call
+                        .doOnNext(item -> {
+                            if (emitted.compareAndSet(false, true)) {
+                                breaker.onSuccess();
+                            }
+                        })
+                        .doOnComplete(breaker::onSuccess)
+                        .doOnError(error -> recordFailure(breaker, error));
+            });
+            return attempt
+                    .retryWhen(retry(() -> !emitted.get()))
+                    .takeUntilOther(Mono.delay(Duration.ofSeconds(totalTimeoutSeconds))
+                            .then(Mono.error(() -> totalTimeout(model))));
+        });
+    }
+
+    /**
+     * Longest wait for the first byte of a response.
+     */
+    public Duration getFirstByteTimeout() {
+        return Duration.ofSeconds(firstByteTimeoutSeconds);
+    }
+
+    /**
+     * Longest gap between two reads of a streaming response.
+     */
+    public Duration getIdleTimeout() {
+        return Duration.ofSeconds(idleTimeoutSeconds);
+    }
+
+    /**
+     * Retry counters and the state of every circuit that is not closed.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("retries", retries.sum());
+        metrics.put("rejected", rejected.sum());
+        Map<String, Object> circuits = new LinkedHashMap<>();
+        breakers.forEach((model, breaker) -> {
+            if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+                circuits.put(model, breaker.getState().name());
+            }
+        });
+        metrics.put("openCircuits", circuits);
+        return metrics;
+    }
+
+    CircuitBreaker breaker(String model) {
+        String key = model != null ? model : "default";
+        return breakers.computeIfAbsent(key, k -> new CircuitBreaker(circuitFailureThreshold, circuitOpenSeconds * 1000L));
+    }
+
+    private Retry retry(BooleanSupplier mayRetry) {
+        return Retry.from(signals -> signals.concatMap(signal -> {
+            Throwable failure = signal.failure();
+            if (signal.totalRetries() >= maxRetries || !isRetryable(failure) || !mayRetry.getAsBoolean()) {
+                return Mono.error(failure);
+            }
+            long delayMillis = backoffMillis(signal.totalRetries());
+            long retryAfterMillis = retryAfterMillis(failure);
+            if (retryAfterMillis > maxBackoffMillis) {
+                // The upstream asks for a longer pause than a user should wait for
+                return Mono.error(failure);
+            }
+            delayMillis = Math.max(delayMillis, retryAfterMillis);
+            retries.increment();
+            logger.warn("Retrying upstream call in {} ms after: {}", delayMillis, failure.getMessage());
+            return Mono.delay(Duration.ofMillis(delayMillis));
+        }));
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half the step is fixed, half is random.
+     */
+    long backoffMillis(long attempt) {
+        long step = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt, 20));
+        return step / 2 + ThreadLocalRandom.current().nextLong(step / 2 + 1);
+    }
+
+    static boolean isRetryable(Throwable error) {
+        if (error instanceof WebClientResponseException responseException) {
+            return RETRYABLE_STATUSES.contains(responseException.getStatusCode().value());
+        }
+        return error instanceof WebClientRequestException;
+    }
+
+    /**
+     * @return the delay the upstream asked for in a Retry-After header (seconds or HTTP date), or 0
+     */
+    static long retryAfterMillis(Throwable error) {
+        if (!(error instanceof WebClientResponseException responseException) || responseException.getHeaders() == null) {
+            return 0;
+        }
+        String retryAfter = responseException.getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000L);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, at.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException ignored) {
+                return 0;
+            }
+        }
+    }
+
+    private void recordFailure(CircuitBreaker breaker, Throwable error) {
+        // Client errors (bad request, auth) say nothing about the upstream's health
+        if (isRetryable(error) || error instanceof UpstreamUnavailableException) {
+            breaker.onFailure();
+        }
+    }
+
+    private UpstreamUnavailableException circuitOpen(String model, CircuitBreaker breaker) {
+        rejected.increment();
+        long seconds = Math.max(1, (breaker.getRetryInMillis() + 999) / 1000);
+        return new UpstreamUnavailableException("The model " + model + " is currently unavailable after repeated upstream failures. "
+                + "Please try again in " + seconds + " seconds or choose another model.");
+    }
+
+    private UpstreamUnavailableException totalTimeout(String model) {
+        return new UpstreamUnavailableException("The model " + model + " did not finish its response within "
+                + totalTimeoutSeconds + " seconds.");
+    }
+}
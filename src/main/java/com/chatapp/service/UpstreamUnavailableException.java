@@ -0,0 +1,13 @@
+package com.chatapp.service;
+
+/**
+ * The upstream did not answer in time or is known to be degraded.
+ * The message is meant to be shown to the user as is.
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public UpstreamUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,273 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.AiApiResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token usage and latency of upstream completions, by session, by user and by model.
+ * Counters are lock-free adders updated on the callers' threads. The model and user totals
+ * are appended to a local file as deltas (one tab-separated line per changed key) by a
+ * background task every flush interval and on shutdown, never on a recording thread, and
+ * summed back up on startup; session totals live only as long as their session.
+ */
+@Service
+public class UsageAccounting implements HttpSessionListener {
+    private static final Logger logger = LoggerFactory.getLogger(UsageAccounting.class);
+
+    public static final String ANONYMOUS_USER = "anonymous";
+
+    private static final String MODEL = "model";
+    private static final String USER = "user";
+
+    // Empty disables the file: totals then only cover this run
+    @Value("${app.usage.file:}")
+    private String file = "";
+
+    @Value("${app.usage.flush-interval-seconds:60}")
+    private long flushIntervalSeconds = 60;
+
+    private final Map<String, Totals> bySession = new ConcurrentHashMap<>();
+    private final Map<String, Totals> byUser = new ConcurrentHashMap<>();
+    private final Map<String, Totals> byModel = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+    private Disposable flushTask;
+
+    /**
+     * Who a completion was made for; either part may be null when it is not known. The user
+     * must be a verified identity: totals by user are kept across restarts and shown to them.
+     */
+    public static final class Account {
+        private final String sessionId;
+        private final String user;
+
+        public Account(String sessionId, String user) {
+            this.sessionId = sessionId;
+            this.user = user;
+        }
+    }
+
+    /**
+     * Running totals of one key. The flushed fields are only touched under the flush lock.
+     */
+    private static final class Totals {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder promptTokens = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        private final LongAdder latencyMillis = new LongAdder();
+        private final long[] flushed = new long[4];
+
+        private void add(long requestCount, long prompt, long completion, long latency) {
+            requests.add(requestCount);
+            promptTokens.add(prompt);
+            completionTokens.add(completion);
+            latencyMillis.add(latency);
+        }
+
+        private long[] sums() {
+            return new long[]{requests.sum(), promptTokens.sum(), completionTokens.sum(), latencyMillis.sum()};
+        }
+
+        private Summary summary() {
+            long[] sums = sums();
+            return new Summary(sums[0], sums[1], sums[2], sums[3]);
+        }
+    }
+
+    /**
+     * A snapshot of the totals of one key, for display.
+     */
+    public static final class Summary {
+        private final long requests;
+        private final long promptTokens;
+        private final long completionTokens;
+        private final long latencyMillis;
+
+        public Summary(long requests, long promptTokens, long completionTokens, long latencyMillis) {
+            this.requests = requests;
+            this.promptTokens = promptTokens;
+            this.completionTokens = completionTokens;
+            this.latencyMillis = latencyMillis;
+        }
+
+        public long getRequests() { return requests; }
+
+        public long getPromptTokens() { return promptTokens; }
+
+        public long getCompletionTokens() { return completionTokens; }
+
+        public long getAverageLatencyMillis() { return requests > 0 ? latencyMillis / requests : 0; }
+    }
+
+    @PostConstruct
+    public void init() {
+        load();
+        if (path() != null) {
+            flushTask = Schedulers.boundedElastic().schedulePeriodically(this::flush,
+                    flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (flushTask != null) {
+            flushTask.dispose();
+        }
+        flush();
+    }
+
+    /**
+     * Sum the totals already in the file, so they survive restarts.
+     */
+    public void load() {
+        Path path = path();
+        if (path == null || !Files.exists(path)) {
+            return;
+        }
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 7) {
+                    continue;
+                }
+                Map<String, Totals> totals = MODEL.equals(fields[1]) ? byModel : USER.equals(fields[1]) ? byUser : null;
+                if (totals == null) {
+                    continue;
+                }
+                try {
+                    Totals loaded = totals.computeIfAbsent(fields[2], k -> new Totals());
+                    loaded.add(Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]), Long.parseLong(fields[6]));
+                    System.arraycopy(loaded.sums(), 0, loaded.flushed, 0, loaded.flushed.length);
+                    lines++;
+                } catch (NumberFormatException e) {
+                    logger.debug("Skipping malformed usage line: {}", line);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read usage file {}: {}", path, e.getMessage());
+        }
+        logger.info("Loaded {} usage records from {}", lines, path);
+    }
+
+    /**
+     * Record one completion.
+     *
+     * @param account who it was for, may be null
+     * @param usage the upstream's token usage, null if it reported none
+     */
+    public void record(Account account, String model, AiApiResponse.Usage usage, long latencyMillis) {
+        long prompt = usage != null && usage.getPromptTokens() != null ? usage.getPromptTokens() : 0;
+        long completion = usage != null && usage.getCompletionTokens() != null ? usage.getCompletionTokens() : 0;
+        if (model != null) {
+            byModel.computeIfAbsent(model, k -> new Totals()).add(1, prompt, completion, latencyMillis);
+        }
+        if (account != null) {
+            if (account.sessionId != null) {
+                bySession.computeIfAbsent(account.sessionId, k -> new Totals()).add(1, prompt, completion, latencyMillis);
+            }
+            String user = account.user != null ? account.user : ANONYMOUS_USER;
+            byUser.computeIfAbsent(user, k -> new Totals()).add(1, prompt, completion, latencyMillis);
+        }
+    }
+
+    public Summary getSessionSummary(String sessionId) {
+        Totals totals = sessionId != null ? bySession.get(sessionId) : null;
+        return totals != null ? totals.summary() : new Summary(0, 0, 0, 0);
+    }
+
+    public Summary getUserSummary(String user) {
+        Totals totals = byUser.get(user != null ? user : ANONYMOUS_USER);
+        return totals != null ? totals.summary() : new Summary(0, 0, 0, 0);
+    }
+
+    /**
+     * @return the totals of every model, sorted by model id
+     */
+    public Map<String, Summary> getModelSummaries() {
+        Map<String, Summary> summaries = new TreeMap<>();
+        byModel.forEach((model, totals) -> summaries.put(model, totals.summary()));
+        return summaries;
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        bySession.remove(event.getSession().getId());
+    }
+
+    /**
+     * Append what changed since the last flush to the file.
+     */
+    public void flush() {
+        Path path = path();
+        if (path == null) {
+            return;
+        }
+        synchronized (flushLock) {
+            StringBuilder lines = new StringBuilder();
+            Map<Totals, long[]> written = new HashMap<>();
+            appendDeltas(lines, written, MODEL, byModel);
+            appendDeltas(lines, written, USER, byUser);
+            if (lines.length() == 0) {
+                return;
+            }
+            try {
+                if (path.getParent() != null) {
+                    Files.createDirectories(path.getParent());
+                }
+                try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.write(lines.toString());
+                }
+                written.forEach((totals, sums) -> System.arraycopy(sums, 0, totals.flushed, 0, sums.length));
+            } catch (IOException e) {
+                // The deltas stay pending and are retried on the next flush
+                logger.warn("Could not write usage file {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private static void appendDeltas(StringBuilder lines, Map<Totals, long[]> written, String dimension, Map<String, Totals> totals) {
+        long now = System.currentTimeMillis();
+        totals.forEach((key, keyTotals) -> {
+            long[] sums = keyTotals.sums();
+            long[] flushed = keyTotals.flushed;
+            if (sums[0] == flushed[0] && sums[1] == flushed[1] && sums[2] == flushed[2] && sums[3] == flushed[3]) {
+                return;
+            }
+            lines.append(now).append('\t').append(dimension).append('\t').append(key.replaceAll("\\s", "_"));
+            for (int i = 0; i < sums.length; i++) {
+                lines.append('\t').append(sums[i] - flushed[i]);
+            }
+            lines.append('\n');
+            written.put(keyTotals, sums);
+        });
+    }
+
+    private Path path() {
+        return file == null || file.isBlank() ? null : Path.of(file);
+    }
+}
@@ -2,26 +2,42 @@ package com.chatapp.service.impl;
 
 import com.chatapp.dto.AiApiRequest;
 import com.chatapp.dto.AiApiResponse;
+import com.chatapp.dto.TokenEvent;
 import com.chatapp.service.AiService;
+import com.chatapp.service.UpstreamResilience;
+import com.chatapp.service.UpstreamUnavailableException;
+import com.chatapp.service.UsageAccounting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ClientHttpRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
-import java.util.ArrayList;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 import com.chatapp.model.ChatMessage;
 import java.util.function.Consumer;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  * Implementation of the AI service using WebClient for HTTP communication.
- * This service makes blocking calls to OpenRouter API and waits for complete responses.
+ * The reactive methods never block; the blocking variants wait on them for callers
+ * that need a complete response.
  */
 @Service
 public class AiServiceImpl implements AiService {
@@ -41,68 +57,58 @@ public class AiServiceImpl implements AiService {
 
     private final WebClient webClient;
 
+    private final UpstreamResilience resilience;
+
+    private final UsageAccounting usageAccounting;
+
+    // Longest SSE line accepted from the upstream; longer lines are dropped as malformed
+    private static final int MAX_SSE_LINE_BYTES = 1024 * 1024;
+
+    // SSE counters across all streams, updated when a stream terminates
+    private final LongAdder sseEvents = new LongAdder();
+    private final LongAdder sseComments = new LongAdder();
+    private final LongAdder sseMalformedFrames = new LongAdder();
+
     public AiServiceImpl() {
-        this.webClient = WebClient.builder()
+        this(WebClient.builder()
                 .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                .build();
+                .build(), new UpstreamResilience(), new UsageAccounting());
+    }
+
+    /**
+     * @param upstreamWebClient the shared, pooled upstream client
+     * @param resilience timeouts, retries and circuit breakers for upstream calls
+     * @param usageAccounting where the token usage of non-streaming completions is counted
+     */
+    @Autowired
+    public AiServiceImpl(WebClient upstreamWebClient, UpstreamResilience resilience, UsageAccounting usageAccounting) {
+        this.webClient = upstreamWebClient;
+        this.resilience = resilience;
+        this.usageAccounting = usageAccounting;
     }
 
     @Override
     public AiApiResponse callAiApi(AiApiRequest request) {
         logger.info("Calling OpenRouter API");
+        return blockingCall(callAiApiReactive(request));
+    }
 
-        // Check if API key is configured
-        if (aiApiKey == null || aiApiKey.trim().isEmpty()) {
-            logger.error("OpenRouter API key is not configured. Please set the OPENROUTER_API_KEY environment variable.");
-            throw new RuntimeException("OpenRouter API key is not configured. Please set the OPENROUTER_API_KEY environment variable.");
-        }
-
-        try {
-            String url = aiApiUrl;
-            logger.debug("Making request to: {}", url);
-
-            return webClient.post()
-                    .uri(url)
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + aiApiKey)
-                    .bodyValue(request)
-                    .retrieve()
-                    .bodyToMono(AiApiResponse.class)
-                    .block(); // This makes it a blocking call
-        } catch (WebClientResponseException e) {
-            logger.error("OpenRouter API call failed with status: {}, body: {}", e.getStatusCode(), e.getResponseBodyAsString());
-            throw new RuntimeException("OpenRouter API call failed: " + e.getMessage(), e);
-        } catch (Exception e) {
-            logger.error("Unexpected error during OpenRouter API call", e);
-            throw new RuntimeException("Unexpected error during OpenRouter API call", e);
-        }
+    @Override
+    public Mono<AiApiResponse> callAiApiReactive(AiApiRequest request) {
+        return complete(request.getModel(), null, BodyInserters.fromValue(request));
     }
 
     @Override
     public String generateResponse(String userPrompt, String model, int maxTokens, double temperature, String systemPrompt) {
+        return generateResponse(userPrompt, model, maxTokens, temperature, systemPrompt, null);
+    }
+
+    @Override
+    public String generateResponse(String userPrompt, String model, int maxTokens, double temperature, String systemPrompt, UsageAccounting.Account account) {
         logger.info("Generating OpenRouter AI response for prompt: {}", userPrompt);
         logger.info("Using model: {}", model);
         logger.info("Using maxTokens: {}, temperature: {}", maxTokens, temperature);
-        List<AiApiRequest.Message> messages = new ArrayList<>();
-        
-        // Add system prompt if provided
-        if (systemPrompt != null && !systemPrompt.trim().isEmpty()) {
-            List<AiApiRequest.Message.Part> systemParts = new ArrayList<>();
-            systemParts.add(new AiApiRequest.Message.Part("text", systemPrompt, null));
-            messages.add(new AiApiRequest.Message("system", systemParts));
-        }
-        
-        List<AiApiRequest.Message.Part> parts = new ArrayList<>();
-        parts.add(new AiApiRequest.Message.Part("text", userPrompt, null));
-        messages.add(new AiApiRequest.Message("user", parts));
-        AiApiRequest request = new AiApiRequest(
-                model,
-                messages,
-                maxTokens,
-                temperature,
-                null, // top_p
-                null  // stop
-        );
-        AiApiResponse response = callAiApi(request);
+        AiApiResponse response = blockingCall(complete(model, account, requestBody(model, systemPrompt, null, userPrompt, maxTokens, temperature, false)));
         String aiResponse = response.getAiResponse();
         if (aiResponse == null || aiResponse.trim().isEmpty()) {
             throw new RuntimeException("OpenRouter API returned empty response");
@@ -113,62 +119,15 @@ public class AiServiceImpl implements AiService {
 
     @Override
     public String generateResponseWithHistory(String userPrompt, List<ChatMessage> conversationHistory, String model, int maxTokens, double temperature, String systemPrompt) {
+        return generateResponseWithHistory(userPrompt, conversationHistory, model, maxTokens, temperature, systemPrompt, null);
+    }
+
+    @Override
+    public String generateResponseWithHistory(String userPrompt, List<ChatMessage> conversationHistory, String model, int maxTokens, double temperature, String systemPrompt, UsageAccounting.Account account) {
         logger.info("Generating OpenRouter AI response with history for prompt: {}", userPrompt);
         logger.info("Using model: {}", model);
         logger.info("Using maxTokens: {}, temperature: {}", maxTokens, temperature);
-        List<AiApiRequest.Message> messages = new ArrayList<>();
-        
-        // Add system prompt if provided
-        if (systemPrompt != null && !systemPrompt.trim().isEmpty()) {
-            List<AiApiRequest.Message.Part> systemParts = new ArrayList<>();
-            systemParts.add(new AiApiRequest.Message.Part("text", systemPrompt, null));
-            messages.add(new AiApiRequest.Message("system", systemParts));
-        }
-        
-        if (conversationHistory != null && !conversationHistory.isEmpty()) {
-            for (ChatMessage message : conversationHistory) {
-                String role = (message.getType() == ChatMessage.MessageType.USER) ? "user" : "assistant";
-                List<AiApiRequest.Message.Part> parts = new ArrayList<>();
-                if (message.getContent() != null && !message.getContent().isEmpty()) {
-                    parts.add(new AiApiRequest.Message.Part("text", message.getContent(), null));
-                }
-                if (message.getImageBase64() != null && !message.getImageBase64().isEmpty()) {
-                    AiApiRequest.Message.Part.ImageUrl imageUrlObj = new AiApiRequest.Message.Part.ImageUrl(
-                        "data:image/png;base64," + message.getImageBase64(), "auto");
-                    parts.add(new AiApiRequest.Message.Part("image_url", null, imageUrlObj));
-                }
-                messages.add(new AiApiRequest.Message(role, parts));
-            }
-        }
-        
-        // Check if the last message in conversation history is already the current user prompt
-        boolean shouldAddCurrentPrompt = true;
-        if (conversationHistory != null && !conversationHistory.isEmpty()) {
-            ChatMessage lastMessage = conversationHistory.get(conversationHistory.size() - 1);
-            if (lastMessage.getType() == ChatMessage.MessageType.USER && 
-                userPrompt != null && 
-                userPrompt.equals(lastMessage.getContent())) {
-                shouldAddCurrentPrompt = false;
-                logger.debug("Skipping duplicate user prompt: {}", userPrompt);
-            }
-        }
-        
-        // Add the current user prompt as the last message if it's not already there
-        if (shouldAddCurrentPrompt && userPrompt != null && !userPrompt.trim().isEmpty()) {
-            List<AiApiRequest.Message.Part> parts = new ArrayList<>();
-            parts.add(new AiApiRequest.Message.Part("text", userPrompt, null));
-            messages.add(new AiApiRequest.Message("user", parts));
-        }
-        
-        AiApiRequest request = new AiApiRequest(
-                model,
-                messages,
-                maxTokens,
-                temperature,
-                null, // top_p
-                null  // stop
-        );
-        AiApiResponse response = callAiApi(request);
+        AiApiResponse response = blockingCall(complete(model, account, requestBody(model, systemPrompt, conversationHistory, userPrompt, maxTokens, temperature, false)));
         String aiResponse = response.getAiResponse();
         if (aiResponse == null || aiResponse.trim().isEmpty()) {
             throw new RuntimeException("OpenRouter API returned empty response");
@@ -177,6 +136,66 @@ public class AiServiceImpl implements AiService {
         return aiResponse;
     }
 
+    /**
+     * Wait for a completion, translating upstream failures into this service's errors.
+     */
+    private AiApiResponse blockingCall(Mono<AiApiResponse> call) {
+        // Check if API key is configured
+        if (aiApiKey == null || aiApiKey.trim().isEmpty()) {
+            logger.error("OpenRouter API key is not configured. Please set the OPENROUTER_API_KEY environment variable.");
+            throw new RuntimeException("OpenRouter API key is not configured. Please set the OPENROUTER_API_KEY environment variable.");
+        }
+
+        try {
+            return call.block(); // Bounded by the total upstream timeout
+        } catch (UpstreamUnavailableException e) {
+            logger.warn("OpenRouter API unavailable: {}", e.getMessage());
+            throw e;
+        } catch (WebClientResponseException e) {
+            logger.error("OpenRouter API call failed with status: {}, body: {}", e.getStatusCode(), e.getResponseBodyAsString());
+            throw new RuntimeException("OpenRouter API call failed: " + e.getMessage(), e);
+        } catch (Exception e) {
+            logger.error("Unexpected error during OpenRouter API call", e);
+            throw new RuntimeException("Unexpected error during OpenRouter API call", e);
+        }
+    }
+
+    /**
+     * A non-streaming completion request, guarded by the upstream timeouts, retries and circuit breaker.
+     * Its usage is counted against the account, if known, and always against the model.
+     */
+    private Mono<AiApiResponse> complete(String model, UsageAccounting.Account account, BodyInserter<?, ? super ClientHttpRequest> body) {
+        if (aiApiKey == null || aiApiKey.trim().isEmpty()) {
+            return Mono.error(new RuntimeException("OpenRouter API key is not configured. Please set the OPENROUTER_API_KEY environment variable."));
+        }
+        String url = aiApiUrl;
+        logger.debug("Making request to: {}", url);
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return resilience.guard(model, webClient.post()
+                            .uri(url)
+                            .header(HttpHeaders.AUTHORIZATION, "Bearer " + aiApiKey)
+                            .body(body)
+                            .retrieve()
+                            .bodyToMono(AiApiResponse.class))
+                    .doOnSuccess(response -> {
+                        if (response != null) {
+                            usageAccounting.record(account, model, response.getUsage(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+                        }
+                    });
+        });
+    }
+
+    /**
+     * The request body, written from the history into a buffer of the connection's (pooled)
+     * allocator when the request is sent, so every retry writes a fresh body.
+     */
+    private static BodyInserter<Object, ClientHttpRequest> requestBody(String model, String systemPrompt, List<ChatMessage> history,
+                                                                       String userPrompt, int maxTokens, double temperature, boolean stream) {
+        return (outputMessage, context) -> outputMessage.writeWith(Mono.fromCallable(() -> ChatRequestWriter.write(
+                outputMessage.bufferFactory(), model, systemPrompt, history, userPrompt, maxTokens, temperature, stream)));
+    }
+
     @Override
     public void streamResponseReal(String userPrompt, List<ChatMessage> conversationHistory, String model, int maxTokens, double temperature, String systemPrompt, Consumer<String> tokenConsumer) {
         logger.info("Starting real streaming API call for prompt: {}", userPrompt);
@@ -186,116 +205,88 @@ public class AiServiceImpl implements AiService {
             throw new RuntimeException("OpenRouter API key is not configured. Please set the OPENROUTER_API_KEY environment variable.");
         }
         try {
-            // Prepare messages for the API request
-            List<AiApiRequest.Message> messages = new ArrayList<>();
-            
-            // Add system prompt if provided
-            if (systemPrompt != null && !systemPrompt.trim().isEmpty()) {
-                List<AiApiRequest.Message.Part> systemParts = new ArrayList<>();
-                systemParts.add(new AiApiRequest.Message.Part("text", systemPrompt, null));
-                messages.add(new AiApiRequest.Message("system", systemParts));
-            }
-            
-            if (conversationHistory != null && !conversationHistory.isEmpty()) {
-                for (ChatMessage message : conversationHistory) {
-                    String role = (message.getType() == ChatMessage.MessageType.USER) ? "user" : "assistant";
-                    List<AiApiRequest.Message.Part> parts = new ArrayList<>();
-                    if (message.getContent() != null && !message.getContent().isEmpty()) {
-                        parts.add(new AiApiRequest.Message.Part("text", message.getContent(), null));
-                    }
-                    if (message.getImageBase64() != null && !message.getImageBase64().isEmpty()) {
-                        AiApiRequest.Message.Part.ImageUrl imageUrlObj = new AiApiRequest.Message.Part.ImageUrl(
-                            "data:image/png;base64," + message.getImageBase64(), "auto");
-                        parts.add(new AiApiRequest.Message.Part("image_url", null, imageUrlObj));
-                    }
-                    messages.add(new AiApiRequest.Message(role, parts));
-                }
-            }
-            
-            // Check if the last message in conversation history is already the current user prompt
-            boolean shouldAddCurrentPrompt = true;
-            if (conversationHistory != null && !conversationHistory.isEmpty()) {
-                ChatMessage lastMessage = conversationHistory.get(conversationHistory.size() - 1);
-                if (lastMessage.getType() == ChatMessage.MessageType.USER && 
-                    userPrompt != null && 
-                    userPrompt.equals(lastMessage.getContent())) {
-                    shouldAddCurrentPrompt = false;
-                    logger.debug("Skipping duplicate user prompt in streaming: {}", userPrompt);
-                }
-            }
-            
-            // Add the current user prompt as the last message if it's not already there
-            if (shouldAddCurrentPrompt && userPrompt != null && !userPrompt.trim().isEmpty()) {
-                List<AiApiRequest.Message.Part> parts = new ArrayList<>();
-                parts.add(new AiApiRequest.Message.Part("text", userPrompt, null));
-                messages.add(new AiApiRequest.Message("user", parts));
+            streamTokens(userPrompt, conversationHistory, model, maxTokens, temperature, systemPrompt)
+                    .filter(TokenEvent::hasContent)
+                    .doOnNext(event -> tokenConsumer.accept(event.getContent()))
+                    .blockLast(); // This makes it blocking
+        } catch (Exception e) {
+            logger.error("Unexpected error during streaming API call", e);
+            throw new RuntimeException("Unexpected error during streaming API call", e);
+        }
+    }
+
+    @Override
+    public Flux<TokenEvent> streamTokens(String userPrompt, List<ChatMessage> conversationHistory, String model, int maxTokens, double temperature, String systemPrompt) {
+        // Each retry re-runs the deferred request with a fresh frame decoder
+        return resilience.guardStream(model, Flux.defer(() -> {
+            logger.info("Starting reactive streaming API call for prompt: {}", userPrompt);
+            if (aiApiKey == null || aiApiKey.trim().isEmpty()) {
+                logger.error("OpenRouter API key is not configured. Please set the OPENROUTER_API_KEY environment variable.");
+                return Flux.error(new RuntimeException("OpenRouter API key is not configured. Please set the OPENROUTER_API_KEY environment variable."));
             }
-            
-            // Create streaming request
-            AiApiRequest request = new AiApiRequest(
-                    model,
-                    messages,
-                    maxTokens,
-                    temperature,
-                    null, // top_p
-                    null, // stop
-                    true  // stream
-            );
-            // Make streaming API call and block until completion
-            webClient.post()
+            SseFrameDecoder frameDecoder = new SseFrameDecoder(MAX_SSE_LINE_BYTES);
+            return webClient.post()
                     .uri(aiApiUrl)
                     .header(HttpHeaders.AUTHORIZATION, "Bearer " + aiApiKey)
-                    .bodyValue(request)
+                    .body(requestBody(model, systemPrompt, conversationHistory, userPrompt, maxTokens, temperature, true))
                     .retrieve()
-                    .bodyToFlux(String.class)
-                    .doOnNext(chunk -> {
-                        logger.info("[SSE] Received chunk: {}", chunk);
-                        // Handle [DONE] message
-                        if ("[DONE]".equals(chunk.trim())) {
-                            logger.info("Stream completed");
-                            return;
-                        }
-                        // Handle comments like ": OPENROUTER PROCESSING"
-                        if (chunk.startsWith(": ")) {
-                            logger.debug("SSE comment: {}", chunk);
-                            return;
-                        }
-                        // Process JSON chunks (both "data: {...}" and direct JSON)
-                        String jsonData = chunk;
-                        if (chunk.startsWith("data: ")) {
-                            jsonData = chunk.substring(6).trim();
-                        }
+                    .bodyToFlux(DataBuffer.class)
+                    // Upstream keep-alive comments count as reads, so slow models are not cut off
+                    .timeout(Mono.delay(resilience.getFirstByteTimeout())
+                                    .then(Mono.error(() -> new UpstreamUnavailableException("The model " + model + " did not start responding within "
+                                            + resilience.getFirstByteTimeout().toSeconds() + " seconds."))),
+                            buffer -> Mono.delay(resilience.getIdleTimeout())
+                                    .then(Mono.error(() -> new UpstreamUnavailableException("The model " + model + " stopped responding for "
+                                            + resilience.getIdleTimeout().toSeconds() + " seconds."))))
+                    .<SseFrameDecoder.Event>handle((buffer, sink) -> {
                         try {
-                            // Parse JSON response
-                            ObjectMapper mapper = new ObjectMapper();
-                            JsonNode jsonNode = mapper.readTree(jsonData);
-                            // Extract content from delta
-                            JsonNode choices = jsonNode.get("choices");
-                            if (choices != null && choices.isArray() && choices.size() > 0) {
-                                JsonNode delta = choices.get(0).get("delta");
-                                if (delta != null && delta.has("content")) {
-                                    String content = delta.get("content").asText();
-                                    if (content != null && !content.isEmpty()) {
-                                        logger.info("[SSE] Streaming token: {}", content);
-                                        tokenConsumer.accept(content);
-                                    }
-                                }
-                            }
-                        } catch (Exception e) {
-                            logger.debug("Error parsing SSE chunk: {}", e.getMessage());
+                            frameDecoder.feed(buffer, sink::next);
+                        } finally {
+                            DataBufferUtils.release(buffer);
                         }
                     })
-                    .doOnError(error -> {
-                        logger.error("Error during streaming", error);
-                        throw new RuntimeException("Streaming API call failed: " + error.getMessage(), error);
-                    })
-                    .doOnComplete(() -> {
-                        logger.info("Streaming completed successfully");
+                    .<TokenEvent>handle((frame, sink) -> {
+                        TokenEvent event = decodeFrame(frame);
+                        if (event != null) {
+                            sink.next(event);
+                        }
                     })
-                    .blockLast(); // This makes it blocking
-        } catch (Exception e) {
-            logger.error("Unexpected error during streaming API call", e);
-            throw new RuntimeException("Unexpected error during streaming API call", e);
+                    .doOnError(error -> logger.error("Error during streaming", error))
+                    .doOnComplete(() -> logger.info("Streaming completed successfully"))
+                    .doFinally(signal -> {
+                        frameDecoder.finish();
+                        sseEvents.add(frameDecoder.getEventCount());
+                        sseComments.add(frameDecoder.getCommentCount());
+                        sseMalformedFrames.add(frameDecoder.getMalformedCount());
+                    });
+        }));
+    }
+
+    /**
+     * Decode the JSON data of one SSE event; [DONE] and data that is not valid JSON yield null,
+     * the latter counted as a malformed frame.
+     */
+    private TokenEvent decodeFrame(SseFrameDecoder.Event frame) {
+        String data = frame.getData();
+        if ("[DONE]".equals(data)) {
+            logger.info("Stream completed");
+            return null;
         }
+        try {
+            return SseDeltaDecoder.decodeData(data);
+        } catch (IOException e) {
+            sseMalformedFrames.increment();
+            logger.warn("Malformed SSE frame: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStreamMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("events", sseEvents.sum());
+        metrics.put("comments", sseComments.sum());
+        metrics.put("malformed", sseMalformedFrames.sum());
+        return metrics;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,414 @@
+package com.chatapp.service.impl;
+
+import com.chatapp.model.ChatMessage;
+import com.chatapp.model.ImageBlob;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Writes the JSON body of an OpenRouter chat completion request straight from the chat
+ * history, with a streaming generator into a (pooled) data buffer.
+ * No request DTO graph is built. History messages are encoded once and their bytes cached
+ * on the message, so a new turn only encodes the new prompt and copies the rest. An image
+ * from the image store is the exception: only its message's text is cached, and the image
+ * is encoded into each request from the store's buffer, so no Base64 copy stays on the
+ * heap. The output
+ * is the same JSON the {@link com.chatapp.dto.AiApiRequest} DTO serializes to. Stateless and
+ * thread-safe: the generator factory is shared.
+ */
+public final class ChatRequestWriter {
+
+    // The mapper is only used for its configured factory; generators are created per request
+    private static final JsonFactory JSON_FACTORY = new ObjectMapper().getFactory();
+
+    // For images of unknown type: those sent as Base64 strings, or read back without their type
+    private static final String DEFAULT_IMAGE_TYPE = "image/png";
+
+    // Image bytes encoded to Base64 at a time; a multiple of 3, so only the last chunk is padded
+    private static final int IMAGE_CHUNK = 3 * 4096;
+
+    // JSON structure around the request and each message, for sizing the buffer up front
+    private static final int REQUEST_OVERHEAD = 128;
+    private static final int MESSAGE_OVERHEAD = 64;
+
+    private ChatRequestWriter() {
+    }
+
+    /**
+     * Write a request into a buffer from the factory; the caller owns (and must release) the buffer.
+     *
+     * @param history previous messages, may be null; the prompt is not repeated if it is the last of them
+     */
+    public static DataBuffer write(DataBufferFactory bufferFactory, String model, String systemPrompt, List<ChatMessage> history,
+                                   String userPrompt, int maxTokens, double temperature, boolean stream) {
+        DataBuffer buffer = bufferFactory.allocateBuffer(estimateSize(systemPrompt, history, userPrompt));
+        try {
+            try (JsonGenerator generator = JSON_FACTORY.createGenerator(buffer.asOutputStream())) {
+                write(generator, model, systemPrompt, history, userPrompt, maxTokens, temperature, stream);
+            }
+            return buffer;
+        } catch (IOException e) {
+            DataBufferUtils.release(buffer);
+            throw new UncheckedIOException("Failed to write chat request", e);
+        } catch (RuntimeException e) {
+            DataBufferUtils.release(buffer);
+            throw e;
+        }
+    }
+
+    /**
+     * Write a request to a generator.
+     */
+    public static void write(JsonGenerator generator, String model, String systemPrompt, List<ChatMessage> history,
+                             String userPrompt, int maxTokens, double temperature, boolean stream) throws IOException {
+        generator.writeStartObject();
+        if (model != null) {
+            generator.writeStringField("model", model);
+        }
+        generator.writeArrayFieldStart("messages");
+        if (systemPrompt != null && !systemPrompt.trim().isEmpty()) {
+            writeTextMessage(generator, "system", systemPrompt);
+        }
+        if (history != null) {
+            for (ChatMessage message : history) {
+                writeMessage(generator, message);
+            }
+        }
+        if (shouldAppendPrompt(history, userPrompt)) {
+            writeTextMessage(generator, "user", userPrompt);
+        }
+        generator.writeEndArray();
+        generator.writeNumberField("max_tokens", maxTokens);
+        generator.writeNumberField("temperature", temperature);
+        if (stream) {
+            generator.writeBooleanField("stream", true);
+            // Have the last chunk carry the token usage
+            generator.writeObjectFieldStart("stream_options");
+            generator.writeBooleanField("include_usage", true);
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * The encoded JSON cached on one history message: the whole message, or for a message
+     * with an image blob only its text part, empty if it has no text.
+     */
+    public static byte[] messageFragment(ChatMessage message) {
+        return message.requestFragment(ChatRequestWriter::encodeMessage);
+    }
+
+    /**
+     * Write one history message from its cached fragment, encoding and caching it first if
+     * needed. The image of an image blob is encoded here, from the blob's buffer.
+     */
+    static void writeMessage(JsonGenerator generator, ChatMessage message) throws IOException {
+        ImageBlob image = message.getImage();
+        if (image == null) {
+            generator.writeRawValue(new RawJson(messageFragment(message)));
+            return;
+        }
+        byte[] textPart = messageFragment(message);
+        generator.writeStartObject();
+        generator.writeStringField("role", role(message));
+        generator.writeArrayFieldStart("content");
+        if (textPart.length > 0) {
+            generator.writeRawValue(new RawJson(textPart));
+        }
+        writeImagePart(generator, "data:" + imageType(message) + ";base64,", new Base64Reader(image.contents()), -1);
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    /**
+     * Encode one history message: its text part and, if it has one, its image part. For an
+     * image blob only the text part is encoded.
+     */
+    private static byte[] encodeMessage(ChatMessage message) {
+        boolean imageBlob = message.getImage() != null;
+        ByteArrayBuilder bytes = new ByteArrayBuilder((int) Math.min(Integer.MAX_VALUE - 8,
+                MESSAGE_OVERHEAD + length(message.getContent()) + (imageBlob ? 0 : imageLength(message))));
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(bytes)) {
+            if (imageBlob) {
+                if (message.getContent() != null && !message.getContent().isEmpty()) {
+                    writeTextPart(generator, message.getContent());
+                }
+            } else {
+                generator.writeStartObject();
+                generator.writeStringField("role", role(message));
+                generator.writeArrayFieldStart("content");
+                if (message.getContent() != null && !message.getContent().isEmpty()) {
+                    writeTextPart(generator, message.getContent());
+                }
+                String imageBase64 = message.getImageBase64();
+                if (imageBase64 != null && !imageBase64.isEmpty()) {
+                    writeImagePart(generator, "data:" + imageType(message) + ";base64,", new StringReader(imageBase64), imageBase64.length());
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode chat message", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String role(ChatMessage message) {
+        return message.getType() == ChatMessage.MessageType.USER ? "user" : "assistant";
+    }
+
+    /**
+     * Write an image part whose data URL is the prefix followed by the reader's Base64.
+     *
+     * @param length the reader's length, or -1 to read it to the end
+     */
+    private static void writeImagePart(JsonGenerator generator, String urlPrefix, Reader base64, int length) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", "image_url");
+        generator.writeObjectFieldStart("image_url");
+        generator.writeFieldName("url");
+        generator.writeString(new PrefixedReader(urlPrefix, base64), length < 0 ? -1 : urlPrefix.length() + length);
+        generator.writeStringField("detail", "auto");
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    private static void writeTextMessage(JsonGenerator generator, String role, String text) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("role", role);
+        generator.writeArrayFieldStart("content");
+        writeTextPart(generator, text);
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private static void writeTextPart(JsonGenerator generator, String text) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", "text");
+        generator.writeStringField("text", text);
+        generator.writeEndObject();
+    }
+
+    /**
+     * The prompt is sent as the last message unless it is blank or already the last message of the history.
+     */
+    private static boolean shouldAppendPrompt(List<ChatMessage> history, String userPrompt) {
+        if (userPrompt == null || userPrompt.trim().isEmpty()) {
+            return false;
+        }
+        if (history == null || history.isEmpty()) {
+            return true;
+        }
+        ChatMessage lastMessage = history.get(history.size() - 1);
+        return !(lastMessage.getType() == ChatMessage.MessageType.USER && userPrompt.equals(lastMessage.getContent()));
+    }
+
+    private static int estimateSize(String systemPrompt, List<ChatMessage> history, String userPrompt) {
+        long size = REQUEST_OVERHEAD + length(systemPrompt) + length(userPrompt);
+        if (history != null) {
+            for (ChatMessage message : history) {
+                size += MESSAGE_OVERHEAD + length(message.getContent()) + imageLength(message);
+            }
+        }
+        // An estimate only: the buffer grows if escaping or multi-byte characters need more
+        return (int) Math.min(Integer.MAX_VALUE - 8, size);
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    /**
+     * The media type of the message's image, as its image blob has it.
+     */
+    private static String imageType(ChatMessage message) {
+        ImageBlob image = message.getImage();
+        String type = image != null ? image.getContentType() : null;
+        return type != null && type.startsWith("image/") ? type : DEFAULT_IMAGE_TYPE;
+    }
+
+    /**
+     * Length of the message's image in Base64, without encoding an image blob.
+     */
+    private static long imageLength(ChatMessage message) {
+        ImageBlob image = message.getImage();
+        return image != null ? (image.getSize() + 2) / 3 * 4 : length(message.getImageBase64());
+    }
+
+    /**
+     * A prefix, then the characters of another reader.
+     */
+    private static final class PrefixedReader extends Reader {
+        private final String prefix;
+        private final Reader rest;
+        private int prefixRead;
+
+        PrefixedReader(String prefix, Reader rest) {
+            this.prefix = prefix;
+            this.rest = rest;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (prefixRead < prefix.length()) {
+                int count = Math.min(length, prefix.length() - prefixRead);
+                prefix.getChars(prefixRead, prefixRead + count, buffer, offset);
+                prefixRead += count;
+                return count;
+            }
+            return rest.read(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            rest.close();
+        }
+    }
+
+    /**
+     * The Base64 of an image's bytes, encoded a chunk at a time as it is read, so the image
+     * is never held encoded in full.
+     */
+    private static final class Base64Reader extends Reader {
+        private final ByteBuffer image;
+        private final byte[] chunk = new byte[IMAGE_CHUNK];
+        private final byte[] encoded = new byte[IMAGE_CHUNK / 3 * 4];
+        private int encodedRead;
+        private int encodedLength;
+
+        Base64Reader(ByteBuffer image) {
+            this.image = image;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (encodedRead == encodedLength) {
+                if (!image.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(chunk.length, image.remaining());
+                image.get(chunk, 0, count);
+                encodedLength = Base64.getEncoder().encode(count == chunk.length ? chunk : Arrays.copyOf(chunk, count), encoded);
+                encodedRead = 0;
+            }
+            int count = Math.min(length, encodedLength - encodedRead);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (char) encoded[encodedRead + i];
+            }
+            encodedRead += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Already encoded JSON, written as is. Only the methods the generator uses for raw
+     * UTF-8 output are supported.
+     */
+    private static final class RawJson implements SerializableString {
+        private final byte[] utf8;
+
+        RawJson(byte[] utf8) {
+            this.utf8 = utf8;
+        }
+
+        @Override
+        public byte[] asUnquotedUTF8() {
+            return utf8;
+        }
+
+        @Override
+        public int appendUnquotedUTF8(byte[] buffer, int offset) {
+            if (offset + utf8.length > buffer.length) {
+                return -1;
+            }
+            System.arraycopy(utf8, 0, buffer, offset, utf8.length);
+            return utf8.length;
+        }
+
+        @Override
+        public int writeUnquotedUTF8(OutputStream out) throws IOException {
+            out.write(utf8);
+            return utf8.length;
+        }
+
+        @Override
+        public int putUnquotedUTF8(ByteBuffer buffer) {
+            if (buffer.remaining() < utf8.length) {
+                return -1;
+            }
+            buffer.put(utf8);
+            return utf8.length;
+        }
+
+        @Override
+        public String getValue() {
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int charLength() {
+            return getValue().length();
+        }
+
+        @Override
+        public char[] asQuotedChars() {
+            throw new UnsupportedOperationException("Raw JSON is not a string value");
+        }
+
+        @Override
+        public byte[] asQuotedUTF8() {
+            throw new UnsupportedOperationException("Raw JSON is not a string value");
+        }
+
+        @Override
+        public int appendQuotedUTF8(byte[] buffer, int offset) {
+            throw new UnsupportedOperationException("Raw JSON is not a string value");
+        }
+
+        @Override
+        public int appendQuoted(char[] buffer, int offset) {
+            throw new UnsupportedOperationException("Raw JSON is not a string value");
+        }
+
+        @Override
+        public int appendUnquoted(char[] buffer, int offset) {
+            String value = getValue();
+            if (offset + value.length() > buffer.length) {
+                return -1;
+            }
+            value.getChars(0, value.length(), buffer, offset);
+            return value.length();
+        }
+
+        @Override
+        public int writeQuotedUTF8(OutputStream out) {
+            throw new UnsupportedOperationException("Raw JSON is not a string value");
+        }
+
+        @Override
+        public int putQuotedUTF8(ByteBuffer buffer) {
+            throw new UnsupportedOperationException("Raw JSON is not a string value");
+        }
+    }
+}
@@ -2,8 +2,13 @@ package com.chatapp.service.impl;
 
 import com.chatapp.model.ChatMessage;
 import com.chatapp.model.ChatConfig;
+import com.chatapp.model.Conversation;
+import com.chatapp.model.ImageBlob;
 import com.chatapp.service.AiService;
 import com.chatapp.service.ChatService;
+import com.chatapp.service.ModelRouter;
+import com.chatapp.service.UpstreamUnavailableException;
+import com.chatapp.service.UsageAccounting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,8 +16,6 @@ import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -24,24 +27,30 @@ public class ChatServiceImpl implements ChatService {
     
     private static final Logger logger = LoggerFactory.getLogger(ChatServiceImpl.class);
     
-    // Ordered list to preserve message order
-    private final List<ChatMessage> messageHistory = new ArrayList<>();
-    // Map for fast lookup by ID
-    private final Map<String, ChatMessage> messages = new ConcurrentHashMap<>();
+    // Messages in order, indexed by ID; guarded by itself
+    private final Conversation messageHistory = new Conversation();
     private final AtomicLong messageIdCounter = new AtomicLong(1);
     
     private final AiService aiService;
+    private final ModelRouter modelRouter;
     
-    @Autowired
     public ChatServiceImpl(AiService aiService) {
+        this(aiService, new ModelRouter(aiService));
+    }
+    
+    /**
+     * @param modelRouter falls back over the config's model chain, as for streams
+     */
+    @Autowired
+    public ChatServiceImpl(AiService aiService, ModelRouter modelRouter) {
         this.aiService = aiService;
+        this.modelRouter = modelRouter;
     }
     
     @Override
     public ChatMessage addMessage(ChatMessage message) {
         String id = "msg-" + messageIdCounter.getAndIncrement();
         message.setId(id);
-        messages.put(id, message);
         synchronized (messageHistory) {
             messageHistory.add(message);
         }
@@ -58,12 +67,14 @@ public class ChatServiceImpl implements ChatService {
     
     @Override
     public ChatMessage getMessageById(String messageId) {
-        return messages.get(messageId);
+        synchronized (messageHistory) {
+            return messageHistory.findById(messageId);
+        }
     }
     
     @Override
     public ChatMessage updateMessage(String messageId, String newContent, String imageBase64) {
-        ChatMessage message = messages.get(messageId);
+        ChatMessage message = getMessageById(messageId);
         if (message == null) {
             throw new IllegalArgumentException("Message not found with ID: " + messageId);
         }
@@ -91,10 +102,10 @@ public class ChatServiceImpl implements ChatService {
         // Get conversation history for context (respecting config settings)
         List<ChatMessage> conversationHistory = new ArrayList<>();
         if (config != null && config.isHistoryEnabled()) {
-            List<ChatMessage> allMessages = getAllMessages();
             int maxTurns = config.getMaxHistoryTurns();
-            int startIndex = Math.max(0, allMessages.size() - (maxTurns * 2)); // *2 because each turn has user + AI message
-            conversationHistory = allMessages.subList(startIndex, allMessages.size());
+            synchronized (messageHistory) {
+                conversationHistory = new ArrayList<>(messageHistory.lastTurns(maxTurns));
+            }
             logger.debug("Using {} messages from history (max turns: {})", conversationHistory.size(), maxTurns);
         } else {
             logger.debug("Chat history is disabled");
@@ -104,10 +115,15 @@ public class ChatServiceImpl implements ChatService {
         String aiResponseText;
         try {
             if (config != null && config.isHistoryEnabled() && !conversationHistory.isEmpty()) {
-                aiResponseText = aiService.generateResponseWithHistory(userPrompt, conversationHistory, config.getAiModel(), config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt());
+                List<ChatMessage> history = conversationHistory;
+                aiResponseText = modelRouter.complete(config, model -> aiService.generateResponseWithHistory(userPrompt, history, model, config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt()));
             } else {
-                aiResponseText = aiService.generateResponse(userPrompt, config.getAiModel(), config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt());
+                aiResponseText = modelRouter.complete(config, model -> aiService.generateResponse(userPrompt, model, config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt()));
             }
+        } catch (UpstreamUnavailableException e) {
+            // Upstream degraded or too slow: say so rather than a generic error
+            logger.warn("AI response unavailable: {}", e.getMessage());
+            aiResponseText = e.getMessage();
         } catch (Exception e) {
             logger.error("Failed to generate AI response", e);
             aiResponseText = "Sorry, I encountered an error while processing your request. Please try again.";
@@ -131,7 +147,6 @@ public class ChatServiceImpl implements ChatService {
         synchronized (messageHistory) {
             messageHistory.clear();
         }
-        messages.clear();
         messageIdCounter.set(1);
         logger.info("Cleared all messages from chat history");
     }
@@ -140,14 +155,12 @@ public class ChatServiceImpl implements ChatService {
     public void importMessages(List<ChatMessage> importedMessages) {
         synchronized (messageHistory) {
             messageHistory.clear();
-            messages.clear();
             messageIdCounter.set(1);
             for (ChatMessage msg : importedMessages) {
                 // Assign new ID to each imported message
                 String id = "msg-" + messageIdCounter.getAndIncrement();
                 msg.setId(id);
                 messageHistory.add(msg);
-                messages.put(id, msg);
             }
         }
         logger.info("Imported {} messages into chat history", importedMessages.size());
@@ -162,11 +175,11 @@ public class ChatServiceImpl implements ChatService {
     
     @Override
     public boolean deleteMessage(String messageId) {
-        ChatMessage removed = messages.remove(messageId);
-        if (removed != null) {
-            synchronized (messageHistory) {
-                messageHistory.removeIf(msg -> messageId.equals(msg.getId()));
-            }
+        boolean removed;
+        synchronized (messageHistory) {
+            removed = messageHistory.removeById(messageId);
+        }
+        if (removed) {
             logger.info("Deleted message with ID: {}", messageId);
             return true;
         }
@@ -182,7 +195,7 @@ public class ChatServiceImpl implements ChatService {
         }
         addMessage(userMessage);
         List<ChatMessage> conversationHistory = getConversationHistory(config);
-        String aiResponse = aiService.generateResponseWithHistory(prompt, conversationHistory, config.getAiModel(), config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt());
+        String aiResponse = modelRouter.complete(config, model -> aiService.generateResponseWithHistory(prompt, conversationHistory, model, config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt()));
         ChatMessage aiMessage = new ChatMessage(aiResponse, ChatMessage.MessageType.AI);
         addMessage(aiMessage);
     }
@@ -190,30 +203,21 @@ public class ChatServiceImpl implements ChatService {
     private List<ChatMessage> getConversationHistory(ChatConfig config) {
         List<ChatMessage> conversationHistory = new ArrayList<>();
         if (config != null && config.isHistoryEnabled()) {
-            List<ChatMessage> allMessages = getAllMessages();
-            int maxTurns = config.getMaxHistoryTurns();
-            int startIndex = Math.max(0, allMessages.size() - (maxTurns * 2));
-            conversationHistory = allMessages.subList(startIndex, allMessages.size());
+            synchronized (messageHistory) {
+                conversationHistory = new ArrayList<>(messageHistory.lastTurns(config.getMaxHistoryTurns()));
+            }
         }
         return conversationHistory;
     }
     
     @Override
     public void regenerateAiMessage(String messageId, ChatConfig config) {
-        ChatMessage aiMessage = messages.get(messageId);
-        if (aiMessage == null || aiMessage.getType() != ChatMessage.MessageType.AI) {
-            throw new IllegalArgumentException("AI message not found with ID: " + messageId);
-        }
-        // Find the index of the AI message in the history
-        int aiIndex = -1;
         synchronized (messageHistory) {
-            for (int i = 0; i < messageHistory.size(); i++) {
-                if (messageHistory.get(i).getId().equals(messageId)) {
-                    aiIndex = i;
-                    break;
-                }
+            int aiIndex = messageHistory.indexOfId(messageId);
+            ChatMessage aiMessage = aiIndex >= 0 ? messageHistory.get(aiIndex) : null;
+            if (aiMessage == null || aiMessage.getType() != ChatMessage.MessageType.AI) {
+                throw new IllegalArgumentException("AI message not found with ID: " + messageId);
             }
-            if (aiIndex == -1) throw new IllegalArgumentException("AI message not found in history");
             // Find the preceding user message (and all prior context)
             int userIndex = -1;
             for (int i = aiIndex - 1; i >= 0; i--) {
@@ -229,9 +233,9 @@ public class ChatServiceImpl implements ChatService {
             // Generate new AI response
             String aiResponse;
             if (config != null && config.isHistoryEnabled() && !context.isEmpty()) {
-                aiResponse = aiService.generateResponseWithHistory(userMessage.getContent(), context, config.getAiModel(), config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt());
+                aiResponse = modelRouter.complete(config, model -> aiService.generateResponseWithHistory(userMessage.getContent(), context, model, config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt()));
             } else {
-                aiResponse = aiService.generateResponse(userMessage.getContent(), config.getAiModel(), config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt());
+                aiResponse = modelRouter.complete(config, model -> aiService.generateResponse(userMessage.getContent(), model, config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt()));
             }
             aiMessage.setContent(aiResponse);
             // Optionally, update imageBase64 if you want to support vision models
@@ -241,7 +245,12 @@ public class ChatServiceImpl implements ChatService {
 
     // Add session-scoped overloads for multi-user support
     @Override
-    public void processUserMessage(String userPrompt, com.chatapp.model.ChatConfig config, String imageBase64, List<ChatMessage> messages) {
+    public void processUserMessage(String userPrompt, com.chatapp.model.ChatConfig config, ImageBlob image, List<ChatMessage> messages) {
+        processUserMessage(userPrompt, config, image, messages, null);
+    }
+
+    @Override
+    public void processUserMessage(String userPrompt, com.chatapp.model.ChatConfig config, ImageBlob image, List<ChatMessage> messages, UsageAccounting.Account account) {
         // Validate inputs
         if (userPrompt == null || userPrompt.trim().isEmpty()) {
             throw new IllegalArgumentException("User prompt cannot be null or empty");
@@ -256,16 +265,15 @@ public class ChatServiceImpl implements ChatService {
         logger.info("Processing user message (session-scoped): {}", userPrompt);
         // Create and add user message
         ChatMessage userMessage = new ChatMessage(userPrompt, ChatMessage.MessageType.USER);
-        if (imageBase64 != null) {
-            userMessage.setImageBase64(imageBase64);
+        if (image != null) {
+            userMessage.setImage(image);
         }
         messages.add(userMessage);
         // Get conversation history for context (respecting config settings)
         List<ChatMessage> conversationHistory = new ArrayList<>();
         if (config != null && config.isHistoryEnabled()) {
             int maxTurns = config.getMaxHistoryTurns();
-            int startIndex = Math.max(0, messages.size() - (maxTurns * 2));
-            conversationHistory = messages.subList(startIndex, messages.size());
+            conversationHistory = lastTurns(messages, maxTurns);
             logger.debug("Using {} messages from history (max turns: {})", conversationHistory.size(), maxTurns);
         } else {
             logger.debug("Chat history is disabled");
@@ -274,10 +282,15 @@ public class ChatServiceImpl implements ChatService {
         String aiResponseText;
         try {
             if (config != null && config.isHistoryEnabled() && !conversationHistory.isEmpty()) {
-                aiResponseText = aiService.generateResponseWithHistory(userPrompt, conversationHistory, config.getAiModel(), config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt());
+                List<ChatMessage> history = conversationHistory;
+                aiResponseText = modelRouter.complete(config, model -> aiService.generateResponseWithHistory(userPrompt, history, model, config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt(), account));
             } else {
-                aiResponseText = aiService.generateResponse(userPrompt, config.getAiModel(), config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt());
+                aiResponseText = modelRouter.complete(config, model -> aiService.generateResponse(userPrompt, model, config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt(), account));
             }
+        } catch (UpstreamUnavailableException e) {
+            // Upstream degraded or too slow: say so rather than a generic error
+            logger.warn("AI response unavailable: {}", e.getMessage());
+            aiResponseText = e.getMessage();
         } catch (Exception e) {
             logger.error("Failed to generate AI response", e);
             aiResponseText = "Sorry, I encountered an error while processing your request. Please try again.";
@@ -288,51 +301,65 @@ public class ChatServiceImpl implements ChatService {
     }
 
     @Override
-    public ChatMessage updateMessage(String messageId, String newContent, String imageBase64, List<ChatMessage> messages) {
-        ChatMessage message = messages.stream().filter(m -> m.getId().equals(messageId)).findFirst().orElse(null);
+    public ChatMessage updateMessage(String messageId, String newContent, ImageBlob image, List<ChatMessage> messages) {
+        int index = indexOf(messages, messageId);
+        ChatMessage message = index >= 0 ? messages.get(index) : null;
         if (message == null) {
             throw new IllegalArgumentException("Message not found with ID: " + messageId);
         }
         message.setContent(newContent);
-        if (imageBase64 != null) {
-            message.setImageBase64(imageBase64);
+        if (image != null) {
+            message.setImage(image);
         }
-        logger.info("Updated message with ID: {} (with image: {})", messageId, imageBase64 != null);
+        // Set again so a stored conversation records the edit
+        messages.set(index, message);
+        logger.info("Updated message with ID: {} (with image: {})", messageId, image != null);
         return message;
     }
 
     @Override
     public boolean deleteMessage(String messageId, List<ChatMessage> messages) {
-        return messages.removeIf(m -> m.getId().equals(messageId));
+        int index = indexOf(messages, messageId);
+        if (index < 0) {
+            return false;
+        }
+        messages.remove(index);
+        return true;
     }
 
     @Override
     public void regenerateAiMessage(String messageId, com.chatapp.model.ChatConfig config, List<ChatMessage> messages) {
-        ChatMessage userMessage = messages.stream()
-            .filter(m -> m.getId().equals(messageId) && m.getType() == ChatMessage.MessageType.USER)
-            .findFirst().orElse(null);
-        if (userMessage == null) {
+        regenerateAiMessage(messageId, config, messages, null);
+    }
+
+    @Override
+    public void regenerateAiMessage(String messageId, com.chatapp.model.ChatConfig config, List<ChatMessage> messages, UsageAccounting.Account account) {
+        int userIndex = indexOf(messages, messageId);
+        ChatMessage userMessage = userIndex >= 0 ? messages.get(userIndex) : null;
+        if (userMessage == null || userMessage.getType() != ChatMessage.MessageType.USER) {
             throw new IllegalArgumentException("User message not found with ID: " + messageId);
         }
         // Remove the AI message that follows this user message, if any
-        int userIndex = messages.indexOf(userMessage);
-        if (userIndex >= 0 && userIndex + 1 < messages.size() && messages.get(userIndex + 1).getType() == ChatMessage.MessageType.AI) {
+        if (userIndex + 1 < messages.size() && messages.get(userIndex + 1).getType() == ChatMessage.MessageType.AI) {
             messages.remove(userIndex + 1);
         }
         // Generate new AI response
         List<ChatMessage> conversationHistory = new ArrayList<>();
         if (config != null && config.isHistoryEnabled()) {
-            int maxTurns = config.getMaxHistoryTurns();
-            int startIndex = Math.max(0, messages.size() - (maxTurns * 2));
-            conversationHistory = messages.subList(startIndex, messages.size());
+            conversationHistory = lastTurns(messages, config.getMaxHistoryTurns());
         }
         String aiResponseText;
         try {
             if (config != null && config.isHistoryEnabled() && !conversationHistory.isEmpty()) {
-                aiResponseText = aiService.generateResponseWithHistory(userMessage.getContent(), conversationHistory, config.getAiModel(), config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt());
+                List<ChatMessage> history = conversationHistory;
+                aiResponseText = modelRouter.complete(config, model -> aiService.generateResponseWithHistory(userMessage.getContent(), history, model, config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt(), account));
             } else {
-                aiResponseText = aiService.generateResponse(userMessage.getContent(), config.getAiModel(), config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt());
+                aiResponseText = modelRouter.complete(config, model -> aiService.generateResponse(userMessage.getContent(), model, config.getMaxTokens(), config.getTemperature(), config.getSystemPrompt(), account));
             }
+        } catch (UpstreamUnavailableException e) {
+            // Upstream degraded or too slow: say so rather than a generic error
+            logger.warn("AI response unavailable: {}", e.getMessage());
+            aiResponseText = e.getMessage();
         } catch (Exception e) {
             logger.error("Failed to regenerate AI response", e);
             aiResponseText = "Sorry, I encountered an error while regenerating your request. Please try again.";
@@ -341,4 +368,27 @@ public class ChatServiceImpl implements ChatService {
         // Insert the new AI message after the user message
         messages.add(userIndex + 1, aiMessage);
     }
-} 
\ No newline at end of file
+
+    /**
+     * Position of a message in a session's list: looked up in a {@link Conversation}'s
+     * index, scanned for in any other list.
+     */
+    private static int indexOf(List<ChatMessage> messages, String messageId) {
+        if (messages instanceof Conversation) {
+            return ((Conversation) messages).indexOfId(messageId);
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i).getId().equals(messageId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<ChatMessage> lastTurns(List<ChatMessage> messages, int maxTurns) {
+        if (messages instanceof Conversation) {
+            return ((Conversation) messages).lastTurns(maxTurns);
+        }
+        return messages.subList(Math.max(0, messages.size() - (maxTurns * 2)), messages.size());
+    }
+}
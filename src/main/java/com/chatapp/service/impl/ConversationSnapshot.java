@@ -0,0 +1,124 @@
+package com.chatapp.service.impl;
+
+import com.chatapp.model.ChatMessage;
+import com.chatapp.model.ImageBlob;
+import com.chatapp.model.SessionStateCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The binary form of a conversation snapshot: a header (format, key, change number), then
+ * the messages as {@link SessionStateCodec} writes them, with images as their raw bytes.
+ * Snapshots in the first format, with fixed-size fields, are still read. Stateless.
+ */
+public final class ConversationSnapshot {
+
+    private static final int MAGIC = 0x43484353; // "CHCS"
+    private static final byte VERSION = 2;
+    private static final byte VERSION_FIXED_FIELDS = 1;
+
+    private static final byte IMAGE_BYTES = 1;
+    private static final byte IMAGE_BASE64 = 2;
+
+    private static final ChatMessage.MessageType[] TYPES = ChatMessage.MessageType.values();
+
+    private final String key;
+    private final long seq;
+    private final List<ChatMessage> messages;
+
+    private ConversationSnapshot(String key, long seq, List<ChatMessage> messages) {
+        this.key = key;
+        this.seq = seq;
+        this.messages = messages;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the number of the last change the snapshot includes
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    public List<ChatMessage> getMessages() {
+        return messages;
+    }
+
+    public static void write(DataOutput out, String key, long seq, List<ChatMessage> messages) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(key);
+        out.writeLong(seq);
+        out.writeByte(SessionStateCodec.VERSION);
+        SessionStateCodec.writeMessages(out, messages);
+    }
+
+    /**
+     * @param images stores an image's bytes, or returns null to keep the image as Base64
+     * @throws IOException if the input is not a snapshot in this format
+     */
+    public static ConversationSnapshot read(DataInput in, Function<byte[], ImageBlob> images) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a conversation snapshot");
+        }
+        byte version = in.readByte();
+        if (version != VERSION && version != VERSION_FIXED_FIELDS) {
+            throw new IOException("Unsupported conversation snapshot version " + version);
+        }
+        String key = in.readUTF();
+        long seq = in.readLong();
+        if (version == VERSION) {
+            SessionStateCodec.checkVersion(in.readByte());
+            return new ConversationSnapshot(key, seq, SessionStateCodec.readMessages(in, images));
+        }
+        // A snapshot from before the session state codec
+        int count = in.readInt();
+        List<ChatMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ChatMessage message = new ChatMessage();
+            message.setId(readString(in));
+            int type = in.readByte();
+            message.setType(type >= 0 && type < TYPES.length ? TYPES[type] : null);
+            message.setContent(readString(in));
+            message.setTimestamp(in.readBoolean() ? LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC) : null);
+            message.setEditing(in.readBoolean());
+            byte image = in.readByte();
+            if (image == IMAGE_BYTES) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                ImageBlob blob = images.apply(bytes);
+                if (blob != null) {
+                    message.setImage(blob);
+                } else {
+                    message.setImageBase64(Base64.getEncoder().encodeToString(bytes));
+                }
+            } else if (image == IMAGE_BASE64) {
+                message.setImageBase64(readString(in));
+            }
+            messages.add(message);
+        }
+        return new ConversationSnapshot(key, seq, messages);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,937 @@
+package com.chatapp.service.impl;
+
+import com.chatapp.model.ChatMessage;
+import com.chatapp.model.Conversation;
+import com.chatapp.model.ImageBlob;
+import com.chatapp.service.BlobStore;
+import com.chatapp.service.ConversationRepository;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Conversations kept in local files, so they survive restarts. Each conversation has a
+ * snapshot (all its messages, in the binary {@link ConversationSnapshot} form) and an
+ * append-only log of the changes made since, one JSON line per insert, replacement,
+ * removal or clear, numbered in order. Every change is appended as it is made; after a
+ * number of changes the conversation is written out as a new snapshot, which replaces the
+ * old one atomically, and its log is started afresh. Reading a conversation back replays
+ * its log over its snapshot, skipping changes the snapshot already has and stopping at a
+ * line cut short by a crash; on startup such lines are cut off.
+ *
+ * How often appends are forced to disk is set by the fsync policy: on every change, once
+ * per interval by a background task (so a crash loses at most about an interval of
+ * changes), or left to the operating system. A conversation in memory keeps its log open.
+ * An image in a logged change is written once, to a file named by its hash, and the change
+ * refers to it by that hash; the file is deleted as soon as no log refers to it any more
+ * (once every log that did is snapshotted or deleted), and on startup.
+ *
+ * Conversations in memory share a heap budget, counted in estimated bytes. When it is
+ * exceeded, the least recently used conversations are written out as snapshots and
+ * dropped from memory, as are conversations not used for a while; they are read back when
+ * next opened. A change made to a dropped conversation by someone still holding it (a
+ * stream finishing, say) takes it back into memory, or is passed on to the copy read back
+ * since, so nothing is lost.
+ *
+ * Only a verified user's conversation is kept this way, under the user and beyond their
+ * sessions. A session's conversation ends with the session, so it is never logged or
+ * synced: it is only spilled, as a snapshot, when it leaves memory, and its files are
+ * deleted when the session ends and on startup. Sign-in does not verify emails yet, so
+ * the chat keys every conversation by session for now. With no directory configured,
+ * every conversation is kept by session, spilled to a temporary directory that is deleted
+ * on shutdown.
+ */
+@Service
+public class LogConversationRepository implements ConversationRepository, HttpSessionListener {
+    private static final Logger logger = LoggerFactory.getLogger(LogConversationRepository.class);
+
+    private static final String USER_PREFIX = "u-";
+    private static final String SESSION_PREFIX = "s-";
+    private static final String SESSION_KEY_PREFIX = "session:";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String IMAGE_PREFIX = "i-";
+    private static final String IMAGE_SUFFIX = ".image";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long SWEEP_INTERVAL_MS = 60_000;
+    // Per message: the object, its id and timestamp, and its list and index slots
+    private static final long MESSAGE_OVERHEAD = 160;
+    private static final Pattern IMAGE_HASH = Pattern.compile("[0-9a-f]{64}");
+
+    enum FsyncPolicy { ALWAYS, INTERVAL, NEVER }
+
+    // Empty keeps conversations by session and spills them to a temporary directory
+    @Value("${app.conversations.dir:}")
+    private String dir = "";
+
+    @Value("${app.conversations.fsync:interval}")
+    private String fsync = "interval";
+
+    @Value("${app.conversations.fsync-interval-ms:1000}")
+    private long fsyncIntervalMs = 1000;
+
+    @Value("${app.conversations.snapshot-every:200}")
+    private int snapshotEvery = 200;
+
+    @Value("${app.conversations.idle-minutes:30}")
+    private long idleMinutes = 30;
+
+    @Value("${app.conversations.max-memory-bytes:268435456}")
+    private long maxMemoryBytes = 256L << 20;
+
+    private final BlobStore blobStore;
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    // Writes messages without their image, which a logged change refers to by hash instead
+    private final ObjectMapper imageByHashMapper = mapper.copy().addMixIn(ChatMessage.class, WithoutImage.class);
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+    private final Object evictionLock = new Object();
+    // Image hash -> number of logs referring to it; guarded by itself
+    private final Map<String, Integer> imageRefs = new HashMap<>();
+    private Path root;
+    private boolean persistent;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+    private volatile long lastSweepAt = System.currentTimeMillis();
+    private Disposable syncTask;
+
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder evictedForMemory = new LongAdder();
+    private final LongAdder evictedBytes = new LongAdder();
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder imagesWritten = new LongAdder();
+    private final LongAdder snapshots = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+
+    @Autowired
+    public LogConversationRepository(BlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    @JsonIgnoreProperties("imageBase64")
+    private abstract static class WithoutImage {
+    }
+
+    /**
+     * A conversation in memory, and the writer of its changes.
+     */
+    private final class Entry implements Conversation.Listener {
+        private final String key;
+        // Logged and synced; else only spilled when it leaves memory
+        private final boolean durable;
+        private final Conversation conversation;
+        private final Path snapshot;
+        private final Path log;
+        private volatile long lastUsedAt = System.currentTimeMillis();
+        private volatile boolean evicted;
+        private volatile boolean deleted;
+        // Guarded by this
+        private long seq;
+        private int unsnapshotted;
+        private long weight;
+        private FileChannel channel;
+        private boolean unsynced;
+        // Images the log refers to
+        private final Set<String> loggedImages = new HashSet<>();
+
+        private Entry(String key, Conversation conversation) {
+            this.key = key;
+            this.durable = persistent && !key.startsWith(SESSION_KEY_PREFIX);
+            this.conversation = conversation;
+            this.snapshot = snapshotPath(key);
+            this.log = logPath(key);
+        }
+
+        @Override
+        public void put(int index, ChatMessage message) {
+            Entry current = current();
+            if (current == this) {
+                changed(() -> {
+                    ObjectNode record = mapper.createObjectNode().put("op", "put").put("index", index);
+                    ImageBlob image = message.getImage();
+                    if (image == null) {
+                        record.set("message", mapper.valueToTree(message));
+                        return record;
+                    }
+                    logImage(this, image);
+                    record.set("message", imageByHashMapper.valueToTree(message));
+                    record.put("image", image.getHash());
+                    if (image.getContentType() != null) {
+                        record.put("imageType", image.getContentType());
+                    }
+                    return record;
+                });
+            } else if (current != null) {
+                LogConversationRepository.put(current.conversation, index, message);
+            }
+        }
+
+        @Override
+        public void removed(ChatMessage message) {
+            Entry current = current();
+            if (current == this) {
+                changed(() -> mapper.createObjectNode().put("op", "remove").put("id", message.getId()));
+            } else if (current != null) {
+                current.conversation.removeById(message.getId());
+            }
+        }
+
+        @Override
+        public void cleared() {
+            Entry current = current();
+            if (current == this) {
+                changed(() -> mapper.createObjectNode().put("op", "clear"));
+            } else if (current != null) {
+                current.conversation.clear();
+            }
+        }
+
+        /**
+         * The entry a change to this conversation belongs to: this one, unless it was dropped
+         * from memory, in which case it is taken back, or the copy read back since takes it.
+         */
+        private Entry current() {
+            if (deleted) {
+                return null;
+            }
+            if (!evicted) {
+                return this;
+            }
+            return entries.compute(key, (k, existing) -> {
+                if (existing != null) {
+                    return existing;
+                }
+                evicted = false;
+                return this;
+            });
+        }
+
+        private synchronized void changed(Supplier<ObjectNode> change) {
+            try {
+                long previous = weight;
+                weight = weigh(conversation);
+                LogConversationRepository.this.weight.addAndGet(weight - previous);
+                unsnapshotted++;
+                if (!durable) {
+                    return;
+                }
+                ObjectNode record = change.get();
+                record.put("seq", ++seq);
+                writeLine(record);
+                appended.increment();
+                if (unsnapshotted >= snapshotEvery) {
+                    snapshot();
+                }
+            } catch (IOException | RuntimeException e) {
+                writeErrors.increment();
+                logger.warn("Could not store a change to conversation {}: {}", log.getFileName(), e.getMessage());
+            }
+        }
+
+        private void writeLine(ObjectNode record) throws IOException {
+            ByteBuffer line = ByteBuffer.wrap((mapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8));
+            if (channel == null) {
+                channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            long length = channel.size();
+            try {
+                while (line.hasRemaining()) {
+                    channel.write(line);
+                }
+            } catch (IOException e) {
+                // Don't leave half a line for the next change to be appended to
+                channel.truncate(length);
+                throw e;
+            }
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                channel.force(false);
+            } else if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+                unsynced = true;
+            }
+        }
+
+        /**
+         * Force the changes appended since the last sync to disk.
+         */
+        private synchronized void sync() {
+            if (!unsynced || channel == null) {
+                return;
+            }
+            try {
+                channel.force(false);
+                unsynced = false;
+                syncs.increment();
+            } catch (IOException e) {
+                writeErrors.increment();
+                logger.warn("Could not sync conversation {}: {}", log.getFileName(), e.getMessage());
+            }
+        }
+
+        /**
+         * Close the log, forcing what is not on disk yet; the next change opens it again.
+         */
+        private synchronized void closeLog() {
+            if (channel == null) {
+                return;
+            }
+            try (FileChannel closing = channel) {
+                if (unsynced) {
+                    closing.force(false);
+                    syncs.increment();
+                }
+            } catch (IOException e) {
+                writeErrors.increment();
+                logger.warn("Could not close conversation {}: {}", log.getFileName(), e.getMessage());
+            }
+            channel = null;
+            unsynced = false;
+        }
+
+        /**
+         * Write all messages as the new snapshot, then drop the log it covers. A crash before
+         * the log is gone leaves changes the snapshot already has, which are skipped by number.
+         */
+        private synchronized void snapshot() throws IOException {
+            Path temp = snapshot.resolveSibling(snapshot.getFileName() + TEMP_SUFFIX);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                ConversationSnapshot.write(out, key, seq, new ArrayList<>(conversation));
+                out.flush();
+                if (durable) {
+                    channel.force(true);
+                }
+            }
+            Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // The snapshot has every change: the log it replaces needs no sync
+            unsynced = false;
+            closeLog();
+            Files.deleteIfExists(log);
+            releaseImages(loggedImages);
+            loggedImages.clear();
+            unsnapshotted = 0;
+            snapshots.increment();
+        }
+
+        /**
+         * Snapshot unsaved changes, so the conversation is quick to read back.
+         *
+         * @return whether everything is saved
+         */
+        private synchronized boolean flush() {
+            if (unsnapshotted == 0) {
+                return true;
+            }
+            try {
+                snapshot();
+                return true;
+            } catch (IOException | RuntimeException e) {
+                writeErrors.increment();
+                logger.warn("Could not snapshot conversation {}: {}", snapshot.getFileName(), e.getMessage());
+                return false;
+            }
+        }
+
+        /**
+         * Stop counting this conversation against the budget.
+         */
+        private synchronized long release() {
+            long released = weight;
+            LogConversationRepository.this.weight.addAndGet(-released);
+            weight = 0;
+            return released;
+        }
+    }
+
+    /**
+     * Cut off changes a crash left half-written, and drop what no session can reach again.
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        fsyncPolicy = FsyncPolicy.valueOf(fsync.trim().toUpperCase(Locale.ROOT));
+        if (dir == null || dir.isBlank()) {
+            root = Files.createTempDirectory("chatapp-conversations");
+            logger.info("Keeping conversations by session, spilled to {} past {} bytes", root, maxMemoryBytes);
+            return;
+        }
+        root = Files.createDirectories(Path.of(dir));
+        persistent = true;
+        List<Path> images = new ArrayList<>();
+        try (Stream<Path> files = Files.list(root)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX) || name.startsWith(SESSION_PREFIX)) {
+                    // A file cut short, or the conversation of a session of the last run
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(LOG_SUFFIX)) {
+                    for (String hash : recover(file)) {
+                        imageRefs.merge(hash, 1, Integer::sum);
+                    }
+                } else if (name.startsWith(IMAGE_PREFIX) && name.endsWith(IMAGE_SUFFIX)) {
+                    images.add(file);
+                }
+            }
+        }
+        for (Path image : images) {
+            if (!imageRefs.containsKey(imageHash(image))) {
+                Files.deleteIfExists(image);
+            }
+        }
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            syncTask = Schedulers.boundedElastic().schedulePeriodically(this::syncAll,
+                    fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        logger.info("Storing conversations in {} (fsync {}, snapshot every {} changes, {} bytes in memory)",
+                root, fsyncPolicy, snapshotEvery, maxMemoryBytes);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (persistent) {
+            if (syncTask != null) {
+                syncTask.dispose();
+            }
+            for (Entry entry : entries.values()) {
+                if (entry.durable) {
+                    entry.flush();
+                    entry.closeLog();
+                }
+            }
+            return;
+        }
+        try (Stream<Path> files = Files.list(root)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(root);
+        } catch (IOException e) {
+            logger.warn("Could not delete spilled conversations in {}: {}", root, e.getMessage());
+        }
+    }
+
+    @Override
+    public String key(String sessionId, String user) {
+        return persistent && user != null ? "user:" + user : SESSION_KEY_PREFIX + sessionId;
+    }
+
+    @Override
+    public Conversation open(String key) {
+        evictIdleIfDue();
+        Entry entry = entries.computeIfAbsent(key, this::load);
+        entry.lastUsedAt = System.currentTimeMillis();
+        evictOverBudget(entry);
+        return entry.conversation;
+    }
+
+    @Override
+    public Conversation adopt(String key, Conversation conversation) {
+        Entry entry = new Entry(key, conversation);
+        synchronized (entry) {
+            entry.weight = weigh(conversation);
+            weight.addAndGet(entry.weight);
+            // Written out whole, over whatever was stored under the key
+            entry.unsnapshotted = 1;
+            if (entry.durable) {
+                try {
+                    // The log this replaces, and so the images it refers to, go with the snapshot
+                    entry.loggedImages.addAll(imagesOf(readLog(entry.log).records));
+                } catch (IOException e) {
+                    logger.debug("Could not read the log {} replaces: {}", entry.log.getFileName(), e.getMessage());
+                }
+                entry.flush();
+            }
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            forget(previous);
+        }
+        conversation.setListener(entry);
+        evictOverBudget(entry);
+        return conversation;
+    }
+
+    @Override
+    public void delete(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            forget(entry);
+        }
+        try {
+            Files.deleteIfExists(snapshotPath(key));
+            Path log = logPath(key);
+            if (entry != null) {
+                synchronized (entry) {
+                    Files.deleteIfExists(log);
+                    releaseImages(entry.loggedImages);
+                    entry.loggedImages.clear();
+                }
+            } else if (Files.exists(log)) {
+                // Not in memory: the images its log refers to were counted on startup
+                Set<String> images = imagesOf(readLog(log).records);
+                Files.deleteIfExists(log);
+                releaseImages(images);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not delete conversation {}: {}", fileName(key), e.getMessage());
+        }
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        delete(key(event.getSession().getId(), null));
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("persistent", persistent);
+        metrics.put("fsync", fsyncPolicy.name().toLowerCase(Locale.ROOT));
+        metrics.put("inMemory", entries.size());
+        metrics.put("memoryBytes", weight.get());
+        metrics.put("maxMemoryBytes", maxMemoryBytes);
+        metrics.put("loaded", loaded.sum());
+        metrics.put("evicted", evicted.sum());
+        metrics.put("evictedForMemory", evictedForMemory.sum());
+        metrics.put("evictedBytes", evictedBytes.sum());
+        metrics.put("appended", appended.sum());
+        metrics.put("syncs", syncs.sum());
+        metrics.put("imagesWritten", imagesWritten.sum());
+        metrics.put("snapshots", snapshots.sum());
+        metrics.put("recovered", recovered.sum());
+        metrics.put("writeErrors", writeErrors.sum());
+        return metrics;
+    }
+
+    /**
+     * Read a conversation back: its snapshot, then the changes logged after it.
+     */
+    private Entry load(String key) {
+        Path snapshot = snapshotPath(key);
+        try {
+            List<ChatMessage> messages = new ArrayList<>();
+            long snapshotSeq = 0;
+            boolean stored = Files.exists(snapshot);
+            if (stored) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+                    ConversationSnapshot contents = ConversationSnapshot.read(in, this::storeImage);
+                    snapshotSeq = contents.getSeq();
+                    messages = contents.getMessages();
+                }
+            }
+            Entry entry = new Entry(key, new Conversation(messages));
+            entry.seq = snapshotSeq;
+            List<JsonNode> records = entry.durable ? readLog(entry.log).records : List.of();
+            for (JsonNode record : records) {
+                long seq = record.path("seq").asLong();
+                if (seq > snapshotSeq) {
+                    apply(entry.conversation, record);
+                    entry.seq = seq;
+                    entry.unsnapshotted++;
+                }
+            }
+            if (stored || !records.isEmpty()) {
+                loaded.increment();
+            }
+            // Counted when the log was found on startup
+            entry.loggedImages.addAll(imagesOf(records));
+            storeImages(entry.conversation);
+            entry.weight = weigh(entry.conversation);
+            weight.addAndGet(entry.weight);
+            entry.conversation.setListener(entry);
+            return entry;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read conversation " + snapshot.getFileName(), e);
+        }
+    }
+
+    private void apply(Conversation conversation, JsonNode record) throws JsonProcessingException {
+        switch (record.path("op").asText()) {
+            case "put" -> {
+                ChatMessage message = mapper.treeToValue(record.get("message"), ChatMessage.class);
+                if (record.hasNonNull("image")) {
+                    ImageBlob image = readImage(record.path("image").asText(), record.path("imageType").asText(null));
+                    if (image != null) {
+                        message.setImage(image);
+                    }
+                }
+                put(conversation, record.path("index").asInt(), message);
+            }
+            case "remove" -> conversation.removeById(record.path("id").asText());
+            case "clear" -> conversation.clear();
+            default -> logger.warn("Skipping unknown change {} in conversation log", record.path("op").asText());
+        }
+    }
+
+    /**
+     * Replace the message with the same id, or insert it at the index.
+     */
+    private static void put(Conversation conversation, int index, ChatMessage message) {
+        int existing = conversation.indexOfId(message.getId());
+        if (existing >= 0) {
+            conversation.set(existing, message);
+        } else {
+            conversation.add(Math.min(index, conversation.size()), message);
+        }
+    }
+
+    private ImageBlob storeImage(byte[] bytes) {
+        return storeImage(bytes, null);
+    }
+
+    private ImageBlob storeImage(byte[] bytes, String contentType) {
+        try {
+            return blobStore.put(bytes, contentType);
+        } catch (IOException e) {
+            // Kept as the Base64 string, which still displays
+            logger.debug("Could not store image of a conversation: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Keep an image a change of the entry refers to in a file named by its hash, unless an
+     * earlier change already did, and count the entry's log as referring to it.
+     */
+    private void logImage(Entry entry, ImageBlob image) {
+        synchronized (imageRefs) {
+            writeImage(image);
+            if (entry.loggedImages.add(image.getHash())) {
+                imageRefs.merge(image.getHash(), 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * A log referring to these images is gone; delete those no other log refers to.
+     */
+    private void releaseImages(Set<String> hashes) {
+        synchronized (imageRefs) {
+            for (String hash : hashes) {
+                Integer refs = imageRefs.get(hash);
+                if (refs != null && refs > 1) {
+                    imageRefs.put(hash, refs - 1);
+                    continue;
+                }
+                imageRefs.remove(hash);
+                try {
+                    Files.deleteIfExists(imagePath(hash));
+                } catch (IOException e) {
+                    // Deleted on the next startup
+                    logger.debug("Could not delete image {}: {}", hash, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void writeImage(ImageBlob image) {
+        Path file = imagePath(image.getHash());
+        if (Files.exists(file)) {
+            return;
+        }
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(root, IMAGE_PREFIX, TEMP_SUFFIX);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer contents = image.contents();
+                while (contents.hasRemaining()) {
+                    channel.write(contents);
+                }
+                // On disk before any change that refers to it
+                if (fsyncPolicy != FsyncPolicy.NEVER) {
+                    channel.force(true);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            imagesWritten.increment();
+        } catch (IOException e) {
+            try {
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException ignored) {
+                // Deleted on the next startup
+            }
+            throw new UncheckedIOException("Could not write image " + image.getHash(), e);
+        }
+    }
+
+    /**
+     * A logged image, from the image store if it is still there, else from its file.
+     */
+    private ImageBlob readImage(String hash, String contentType) {
+        ImageBlob stored = blobStore.get(hash);
+        if (stored != null || !IMAGE_HASH.matcher(hash).matches()) {
+            return stored;
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(imagePath(hash));
+        } catch (IOException e) {
+            logger.warn("Could not read image {} of a conversation: {}", hash, e.getMessage());
+            return null;
+        }
+        ImageBlob image = storeImage(bytes, contentType);
+        return image != null ? image : ImageBlob.of(bytes, contentType);
+    }
+
+    /**
+     * Logged images are stored by value; move them back into the image store.
+     */
+    private void storeImages(Conversation conversation) {
+        for (ChatMessage message : conversation) {
+            if (message.getImage() == null && message.getImageBase64() != null) {
+                try {
+                    ImageBlob image = storeImage(Base64.getDecoder().decode(message.getImageBase64()));
+                    if (image != null) {
+                        message.setImage(image);
+                    }
+                } catch (IllegalArgumentException e) {
+                    logger.debug("Image of message {} is not Base64: {}", message.getId(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Rough heap size of a conversation: two bytes a character of text and about one more
+     * for its cached request encoding, plus images held as strings. Images in the image
+     * store are off the heap, and left out of the cached request encoding, so not counted.
+     */
+    private static long weigh(Conversation conversation) {
+        long total = 0;
+        for (ChatMessage message : conversation) {
+            total += MESSAGE_OVERHEAD;
+            if (message.getContent() != null) {
+                total += 3L * message.getContent().length();
+            }
+            if (message.getImage() == null && message.getImageBase64() != null) {
+                total += message.getImageBase64().length();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Drop conversations not opened for the idle time from memory, at most once a minute.
+     */
+    private void evictIdleIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweepAt < SWEEP_INTERVAL_MS) {
+            return;
+        }
+        lastSweepAt = now;
+        long idleSince = now - idleMinutes * 60_000;
+        for (Entry entry : entries.values()) {
+            if (entry.lastUsedAt <= idleSince) {
+                evict(entry);
+            }
+        }
+    }
+
+    /**
+     * Drop the least recently used conversations, other than the one just opened, until the
+     * rest fit the budget.
+     */
+    private void evictOverBudget(Entry opened) {
+        if (weight.get() <= maxMemoryBytes) {
+            return;
+        }
+        synchronized (evictionLock) {
+            // Use times are copied first, as they change while sorting
+            List<Map.Entry<Long, Entry>> byLastUse = new ArrayList<>(entries.size());
+            for (Entry entry : entries.values()) {
+                byLastUse.add(Map.entry(entry.lastUsedAt, entry));
+            }
+            byLastUse.sort(Map.Entry.comparingByKey());
+            for (Map.Entry<Long, Entry> candidate : byLastUse) {
+                if (weight.get() <= maxMemoryBytes) {
+                    break;
+                }
+                if (candidate.getValue() != opened && evict(candidate.getValue())) {
+                    evictedForMemory.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Save a conversation and drop it from memory. Saved first and under its lock, so
+     * whoever reads it back next gets every change made so far.
+     *
+     * @return whether it was dropped; it stays if it could not be saved
+     */
+    private boolean evict(Entry entry) {
+        synchronized (entry) {
+            if (entry.evicted || entry.deleted || !entry.flush() || !entries.remove(entry.key, entry)) {
+                return false;
+            }
+            entry.closeLog();
+            entry.evicted = true;
+            evictedBytes.add(entry.release());
+        }
+        evicted.increment();
+        return true;
+    }
+
+    private void forget(Entry entry) {
+        entry.deleted = true;
+        entry.conversation.setListener(null);
+        entry.closeLog();
+        entry.release();
+    }
+
+    private void syncAll() {
+        for (Entry entry : entries.values()) {
+            entry.sync();
+        }
+    }
+
+    /**
+     * Cut off a change left half-written at the end of a log.
+     *
+     * @return the hashes of the images its changes refer to
+     */
+    private Set<String> recover(Path log) throws IOException {
+        LogContents contents = readLog(log);
+        Set<String> images = imagesOf(contents.records);
+        if (contents.validLength < contents.length) {
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                channel.truncate(contents.validLength);
+                channel.force(true);
+            }
+            recovered.increment();
+            logger.warn("Dropped {} bytes of an unfinished change at the end of {}",
+                    contents.length - contents.validLength, log.getFileName());
+        }
+        return images;
+    }
+
+    private static Set<String> imagesOf(List<JsonNode> records) {
+        Set<String> images = new HashSet<>();
+        for (JsonNode record : records) {
+            if (record.hasNonNull("image")) {
+                images.add(record.path("image").asText());
+            }
+        }
+        return images;
+    }
+
+    private static final class LogContents {
+        private final List<JsonNode> records;
+        private final long validLength;
+        private final long length;
+
+        private LogContents(List<JsonNode> records, long validLength, long length) {
+            this.records = records;
+            this.validLength = validLength;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The records of a log up to the first line that is unfinished or unreadable.
+     */
+    private LogContents readLog(Path log) throws IOException {
+        List<JsonNode> records = new ArrayList<>();
+        if (!Files.exists(log)) {
+            return new LogContents(records, 0, 0);
+        }
+        byte[] bytes = Files.readAllBytes(log);
+        int start = 0;
+        for (int end = indexOfNewline(bytes, start); end >= 0; end = indexOfNewline(bytes, start)) {
+            JsonNode record;
+            try {
+                record = mapper.readTree(bytes, start, end - start);
+            } catch (JsonProcessingException e) {
+                break;
+            }
+            if (record == null || !record.isObject()) {
+                break;
+            }
+            records.add(record);
+            start = end + 1;
+        }
+        return new LogContents(records, start, bytes.length);
+    }
+
+    private static int indexOfNewline(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Path snapshotPath(String key) {
+        return root.resolve(fileName(key) + SNAPSHOT_SUFFIX);
+    }
+
+    private Path logPath(String key) {
+        return root.resolve(fileName(key) + LOG_SUFFIX);
+    }
+
+    private Path imagePath(String hash) {
+        return root.resolve(IMAGE_PREFIX + hash + IMAGE_SUFFIX);
+    }
+
+    private static String imageHash(Path image) {
+        String name = image.getFileName().toString();
+        return name.substring(IMAGE_PREFIX.length(), name.length() - IMAGE_SUFFIX.length());
+    }
+
+    /**
+     * Keys are hashed so file names don't carry user names; the prefix tells session
+     * conversations apart.
+     */
+    private static String fileName(String key) {
+        String prefix = key.startsWith(SESSION_KEY_PREFIX) ? SESSION_PREFIX : USER_PREFIX;
+        return prefix + ImageBlob.sha256(key.getBytes(StandardCharsets.UTF_8));
+    }
+}
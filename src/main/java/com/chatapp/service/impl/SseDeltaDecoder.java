@@ -0,0 +1,138 @@
+package com.chatapp.service.impl;
+
+import com.chatapp.dto.AiApiResponse;
+import com.chatapp.dto.TokenEvent;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Decodes the data of OpenAI-style streaming completion chunks into token events.
+ * Only choices[0].delta.content, choices[0].finish_reason and usage are read, in a single
+ * forward pass over a streaming parser; everything else is skipped without building a tree.
+ * Stateless and thread-safe: the parser factory is shared.
+ */
+public final class SseDeltaDecoder {
+
+    // The mapper is only used for its configured factory; parsers are created per chunk
+    private static final JsonFactory JSON_FACTORY = new ObjectMapper().getFactory();
+
+    private SseDeltaDecoder() {
+    }
+
+    /**
+     * Decode one SSE chunk, with or without its "data: " prefix.
+     *
+     * @return the event, or null for [DONE], comments, malformed JSON and chunks with no
+     *         content, finish reason or usage
+     */
+    public static TokenEvent decode(String chunk) {
+        if (chunk == null) {
+            return null;
+        }
+        String data = chunk.startsWith("data:") ? chunk.substring(5).trim() : chunk.trim();
+        if (data.isEmpty() || data.charAt(0) != '{') {
+            // [DONE], ": OPENROUTER PROCESSING" comments and anything that is not a JSON object
+            return null;
+        }
+        try {
+            return decodeData(data);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decode the data of one event (the JSON object, without the "data: " prefix).
+     *
+     * @return the event, or null if the chunk has no content, finish reason or usage
+     * @throws IOException if the data is not well-formed JSON
+     */
+    public static TokenEvent decodeData(String data) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(data)) {
+            return readChunk(parser);
+        }
+    }
+
+    private static TokenEvent readChunk(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        String[] choice = new String[2];
+        AiApiResponse.Usage usage = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("choices".equals(field) && value == JsonToken.START_ARRAY) {
+                readFirstChoice(parser, choice);
+            } else if ("usage".equals(field) && value == JsonToken.START_OBJECT) {
+                usage = readUsage(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        String content = choice[0];
+        String finishReason = choice[1];
+        if ((content == null || content.isEmpty()) && finishReason == null && usage == null) {
+            return null;
+        }
+        return new TokenEvent(content, finishReason, usage);
+    }
+
+    /**
+     * Read content and finish_reason of the first choice into result[0] and result[1];
+     * the parser is left on the END_ARRAY of choices.
+     */
+    private static void readFirstChoice(JsonParser parser, String[] result) throws IOException {
+        boolean first = true;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            if (!first || token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            first = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("delta".equals(field) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String deltaField = parser.getCurrentName();
+                        JsonToken deltaValue = parser.nextToken();
+                        if ("content".equals(deltaField) && deltaValue == JsonToken.VALUE_STRING) {
+                            result[0] = parser.getText();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else if ("finish_reason".equals(field) && value == JsonToken.VALUE_STRING) {
+                    result[1] = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static AiApiResponse.Usage readUsage(JsonParser parser) throws IOException {
+        AiApiResponse.Usage usage = new AiApiResponse.Usage();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value != JsonToken.VALUE_NUMBER_INT) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "prompt_tokens" -> usage.setPromptTokens(parser.getIntValue());
+                case "completion_tokens" -> usage.setCompletionTokens(parser.getIntValue());
+                case "total_tokens" -> usage.setTotalTokens(parser.getIntValue());
+                default -> { }
+            }
+        }
+        return usage;
+    }
+}
@@ -0,0 +1,217 @@
+package com.chatapp.service.impl;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Byte-level decoder for a text/event-stream body.
+ * Bytes are fed as they arrive, in buffers split at arbitrary points; lines are reassembled
+ * across buffers and an event is emitted on each blank line, per the SSE spec:
+ * multi-line data fields are joined with '\n', event and id fields are kept, comment lines
+ * (": OPENROUTER PROCESSING") are skipped without being decoded, and CR, LF and CRLF all
+ * end a line. An event still incomplete when the stream ends is discarded.
+ * One instance per stream; not thread-safe.
+ */
+public class SseFrameDecoder {
+
+    private static final byte[] FIELD_DATA = "data".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIELD_EVENT = "event".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIELD_ID = "id".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * A dispatched server-sent event.
+     */
+    public static final class Event {
+        private final String type;
+        private final String id;
+        private final String data;
+
+        Event(String type, String id, String data) {
+            this.type = type;
+            this.id = id;
+            this.data = data;
+        }
+
+        /** The event type, "message" when the frame had no event field. */
+        public String getType() { return type; }
+
+        public String getId() { return id; }
+
+        public String getData() { return data; }
+
+        @Override
+        public String toString() {
+            return "Event{type='" + type + "', id='" + id + "', data='" + data + "'}";
+        }
+    }
+
+    private final int maxLineLength;
+
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private boolean discardingLine;
+    private boolean skipLineFeed;
+    private byte[] scratch = new byte[0];
+
+    private final StringBuilder data = new StringBuilder();
+    private boolean hasData;
+    private String eventType;
+    private String lastEventId;
+
+    private long events;
+    private long comments;
+    private long malformed;
+
+    /**
+     * @param maxLineLength longest line accepted; longer lines are dropped and counted as malformed
+     */
+    public SseFrameDecoder(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * Feed the readable bytes of a buffer. The buffer is consumed but not released.
+     */
+    public void feed(DataBuffer buffer, Consumer<Event> sink) {
+        int count = buffer.readableByteCount();
+        if (scratch.length < count) {
+            scratch = new byte[Math.max(count, 4096)];
+        }
+        buffer.read(scratch, 0, count);
+        feed(scratch, 0, count, sink);
+    }
+
+    public void feed(byte[] bytes, int offset, int length, Consumer<Event> sink) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = bytes[i];
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (b == '\n') {
+                    continue;
+                }
+            }
+            if (b == '\n' || b == '\r') {
+                skipLineFeed = b == '\r';
+                endLine(sink);
+            } else if (!discardingLine) {
+                appendToLine(b);
+            }
+        }
+    }
+
+    /**
+     * Signal the end of the stream. A partially received event is discarded and counted as malformed.
+     */
+    public void finish() {
+        if (lineLength > 0 || discardingLine || hasData) {
+            malformed++;
+        }
+        lineLength = 0;
+        discardingLine = false;
+        resetEvent();
+    }
+
+    private void appendToLine(byte b) {
+        if (lineLength == maxLineLength) {
+            discardingLine = true;
+            lineLength = 0;
+            return;
+        }
+        if (lineLength == line.length) {
+            byte[] grown = new byte[Math.min(line.length * 2, maxLineLength)];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+        line[lineLength++] = b;
+    }
+
+    private void endLine(Consumer<Event> sink) {
+        if (discardingLine) {
+            discardingLine = false;
+            malformed++;
+            return;
+        }
+        int length = lineLength;
+        lineLength = 0;
+        if (length == 0) {
+            dispatch(sink);
+            return;
+        }
+        if (line[0] == ':') {
+            comments++;
+            return;
+        }
+        int colon = indexOf(line, length, (byte) ':');
+        int nameEnd = colon < 0 ? length : colon;
+        int valueStart = colon < 0 ? length : colon + 1;
+        if (valueStart < length && line[valueStart] == ' ') {
+            valueStart++;
+        }
+        if (fieldIs(FIELD_DATA, nameEnd)) {
+            if (hasData) {
+                data.append('\n');
+            }
+            data.append(new String(line, valueStart, length - valueStart, StandardCharsets.UTF_8));
+            hasData = true;
+        } else if (fieldIs(FIELD_EVENT, nameEnd)) {
+            eventType = new String(line, valueStart, length - valueStart, StandardCharsets.UTF_8);
+        } else if (fieldIs(FIELD_ID, nameEnd)) {
+            lastEventId = new String(line, valueStart, length - valueStart, StandardCharsets.UTF_8);
+        }
+        // retry and unknown fields are ignored
+    }
+
+    private void dispatch(Consumer<Event> sink) {
+        if (!hasData) {
+            // A blank line without data only resets the event type
+            eventType = null;
+            return;
+        }
+        Event event = new Event(eventType != null ? eventType : "message", lastEventId, data.toString());
+        resetEvent();
+        events++;
+        sink.accept(event);
+    }
+
+    private void resetEvent() {
+        data.setLength(0);
+        hasData = false;
+        eventType = null;
+    }
+
+    private boolean fieldIs(byte[] name, int nameLength) {
+        if (nameLength != name.length) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (line[i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, int length, byte value) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long getEventCount() {
+        return events;
+    }
+
+    public long getCommentCount() {
+        return comments;
+    }
+
+    public long getMalformedCount() {
+        return malformed;
+    }
+}
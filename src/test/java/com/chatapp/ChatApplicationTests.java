@@ -17,6 +17,8 @@ import static org.junit.jupiter.api.Assertions.*;
 @TestPropertySource(properties = {
     "ai.api.key=test-key",
     "CHATAPP_NO_AUTH=1",
+    "app.usage.file=",
+    "app.conversations.dir=",
     "logging.level.com.chatapp=DEBUG"
 })
 @ActiveProfiles("test")
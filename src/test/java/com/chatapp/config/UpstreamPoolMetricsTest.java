@@ -0,0 +1,44 @@
+package com.chatapp.config;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import reactor.netty.resources.ConnectionPoolMetrics;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("UpstreamPoolMetrics Tests")
+class UpstreamPoolMetricsTest {
+
+    @Test
+    @DisplayName("Should report registered pools until they are deregistered")
+    @SuppressWarnings("unchecked")
+    void shouldReportRegisteredPools() {
+        // Given
+        UpstreamPoolMetrics poolMetrics = new UpstreamPoolMetrics();
+        ConnectionPoolMetrics metrics = mock(ConnectionPoolMetrics.class);
+        when(metrics.acquiredSize()).thenReturn(3);
+        when(metrics.idleSize()).thenReturn(2);
+        when(metrics.allocatedSize()).thenReturn(5);
+        when(metrics.maxAllocatedSize()).thenReturn(200);
+        InetSocketAddress remote = InetSocketAddress.createUnresolved("openrouter.ai", 443);
+
+        // When
+        poolMetrics.registerMetrics("upstream", "1", remote, metrics);
+        Map<String, Object> snapshot = poolMetrics.snapshot();
+
+        // Then
+        assertEquals(1, snapshot.size());
+        Map<String, Object> pool = (Map<String, Object>) snapshot.values().iterator().next();
+        assertEquals(3, pool.get("acquired"));
+        assertEquals(2, pool.get("idle"));
+        assertEquals(5, pool.get("allocated"));
+        assertEquals(200, pool.get("maxAllocated"));
+
+        poolMetrics.deRegisterMetrics("upstream", "1", remote);
+        assertTrue(poolMetrics.snapshot().isEmpty());
+    }
+}
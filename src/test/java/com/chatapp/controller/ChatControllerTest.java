@@ -1,11 +1,25 @@
 package com.chatapp.controller;
 
+import com.chatapp.config.UpstreamPoolMetrics;
+import com.chatapp.dto.TokenEvent;
 import com.chatapp.model.ChatConfig;
 import com.chatapp.model.ChatMessage;
+import com.chatapp.model.Conversation;
+import com.chatapp.model.ConversationHandle;
+import com.chatapp.model.ImageBlob;
 import com.chatapp.model.OpenRouterModel;
 import com.chatapp.service.ChatService;
 import com.chatapp.service.OpenRouterModelService;
 import com.chatapp.service.AiService;
+import com.chatapp.service.BlobStore;
+import com.chatapp.service.StreamingJobScheduler;
+import com.chatapp.service.ModelRouter;
+import com.chatapp.service.ResponseCache;
+import com.chatapp.service.StreamCoalescer;
+import com.chatapp.service.StreamRegistry;
+import com.chatapp.service.UpstreamResilience;
+import com.chatapp.service.UsageAccounting;
+import com.chatapp.service.impl.LogConversationRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
@@ -13,15 +27,24 @@ import org.junit.jupiter.api.Nested;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpSession;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -29,7 +52,9 @@ import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@WebMvcTest(ChatController.class)
+@WebMvcTest(value = ChatController.class, properties = "app.conversations.dir=")
+@Import({StreamRegistry.class, ModelRouter.class, StreamCoalescer.class, ResponseCache.class, BlobStore.class,
+        LogConversationRepository.class})
 @DisplayName("ChatController Integration Tests")
 class ChatControllerTest {
 
@@ -45,6 +70,24 @@ class ChatControllerTest {
     @MockBean
     private AiService aiService;
 
+    @MockBean
+    private StreamingJobScheduler streamingJobScheduler;
+
+    @MockBean
+    private UpstreamPoolMetrics upstreamPoolMetrics;
+
+    @MockBean
+    private UpstreamResilience upstreamResilience;
+
+    @MockBean
+    private UsageAccounting usageAccounting;
+
+    @Autowired
+    private StreamRegistry streamRegistry;
+
+    @Autowired
+    private BlobStore blobStore;
+
     private MockMvc mockMvc;
     private MockHttpSession session;
 
@@ -130,6 +173,31 @@ class ChatControllerTest {
                     .andExpect(model().attribute("showDataMenu", false));
         }
 
+        @Test
+        @DisplayName("Should bind a conversation handle again once its session is read back")
+        void shouldRebindDeserializedHandle() throws Exception {
+            // Given
+            List<ChatMessage> messages = new ArrayList<>();
+            messages.add(new ChatMessage("Hello", ChatMessage.MessageType.USER));
+            session.setAttribute("chatMessages", messages);
+            when(openRouterModelService.getCachedModels()).thenReturn(new ArrayList<>());
+            mockMvc.perform(get("/").session(session)).andExpect(status().isOk());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(session.getAttribute("chatMessages"));
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                session.setAttribute("chatMessages", in.readObject());
+            }
+            assertFalse(((ConversationHandle) session.getAttribute("chatMessages")).isBound());
+
+            // When & Then
+            mockMvc.perform(get("/").session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(model().attribute("messages", messages));
+            assertTrue(((ConversationHandle) session.getAttribute("chatMessages")).isBound());
+        }
+
         @Test
         @DisplayName("Should initialize session data when empty")
         void shouldInitializeSessionDataWhenEmpty() throws Exception {
@@ -180,7 +248,7 @@ class ChatControllerTest {
         void shouldProcessValidMessageSubmission() throws Exception {
             // Given
             String prompt = "Hello, how are you?";
-            doNothing().when(chatService).processUserMessage(eq(prompt), any(ChatConfig.class), isNull(), anyList());
+            doNothing().when(chatService).processUserMessage(eq(prompt), any(ChatConfig.class), isNull(), anyList(), any());
 
             // When & Then
             mockMvc.perform(post("/chat")
@@ -189,7 +257,7 @@ class ChatControllerTest {
                     .andExpect(status().is3xxRedirection())
                     .andExpect(redirectedUrl("/#chat-bottom"));
 
-            verify(chatService, times(1)).processUserMessage(eq(prompt), any(ChatConfig.class), isNull(), anyList());
+            verify(chatService, times(1)).processUserMessage(eq(prompt), any(ChatConfig.class), isNull(), anyList(), any());
         }
 
         @Test
@@ -203,7 +271,7 @@ class ChatControllerTest {
                 "image/jpeg", 
                 "fake-image-data".getBytes()
             );
-            doNothing().when(chatService).processUserMessage(eq(prompt), any(ChatConfig.class), anyString(), anyList());
+            doNothing().when(chatService).processUserMessage(eq(prompt), any(ChatConfig.class), any(ImageBlob.class), anyList(), any());
 
             // When & Then
             mockMvc.perform(multipart("/chat")
@@ -213,7 +281,7 @@ class ChatControllerTest {
                     .andExpect(status().is3xxRedirection())
                     .andExpect(redirectedUrl("/#chat-bottom"));
 
-            verify(chatService, times(1)).processUserMessage(eq(prompt), any(ChatConfig.class), anyString(), anyList());
+            verify(chatService, times(1)).processUserMessage(eq(prompt), any(ChatConfig.class), any(ImageBlob.class), anyList(), any());
         }
 
         @Test
@@ -229,7 +297,7 @@ class ChatControllerTest {
                     .andExpect(status().is3xxRedirection())
                     .andExpect(redirectedUrl("/#chat-bottom"));
 
-            verify(chatService, never()).processUserMessage(anyString(), any(ChatConfig.class), anyString(), anyList());
+            verify(chatService, never()).processUserMessage(anyString(), any(ChatConfig.class), any(), anyList(), any());
         }
 
         @Test
@@ -241,7 +309,7 @@ class ChatControllerTest {
                             .session(session))
                     .andExpect(status().isBadRequest());
 
-            verify(chatService, never()).processUserMessage(anyString(), any(ChatConfig.class), anyString(), anyList());
+            verify(chatService, never()).processUserMessage(anyString(), any(ChatConfig.class), any(), anyList(), any());
         }
 
         @Test
@@ -249,7 +317,7 @@ class ChatControllerTest {
         void shouldHandleServiceException() throws Exception {
             // Given
             String prompt = "Hello";
-            doThrow(new RuntimeException("Service error")).when(chatService).processUserMessage(anyString(), any(ChatConfig.class), anyString(), anyList());
+            doThrow(new RuntimeException("Service error")).when(chatService).processUserMessage(anyString(), any(ChatConfig.class), any(), anyList(), any());
 
             // When & Then
             mockMvc.perform(post("/chat")
@@ -333,6 +401,63 @@ class ChatControllerTest {
         }
     }
 
+    @Nested
+    @DisplayName("Image Blob Tests")
+    class ImageBlobTests {
+
+        @Test
+        @DisplayName("Should keep an uploaded image as a blob and serve it by hash")
+        void shouldStoreAndServeUploadedImage() throws Exception {
+            // Given
+            when(openRouterModelService.getCachedModels()).thenReturn(new ArrayList<>());
+            byte[] png = {(byte) 0x89, 'P', 'N', 'G', 1, 2, 3};
+            mockMvc.perform(multipart("/chat/stream")
+                            .file(new MockMultipartFile("image", "photo.png", "image/png", png))
+                            .param("prompt", "What is this?")
+                            .session(session))
+                    .andExpect(status().isOk());
+            ImageBlob image = ((List<ChatMessage>) session.getAttribute("chatMessages")).get(0).getImage();
+            String etag = "\"" + image.getHash() + "\"";
+
+            // When & Then
+            mockMvc.perform(get("/blob/" + image.getHash()).session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType("image/png"))
+                    .andExpect(content().bytes(png))
+                    .andExpect(header().string("ETag", etag));
+            mockMvc.perform(get("/blob/" + image.getHash()).header("If-None-Match", etag).session(session))
+                    .andExpect(status().isNotModified());
+        }
+
+        @Test
+        @DisplayName("Should serve a blob only to a session whose conversation holds it")
+        void shouldNotServeOtherSessionsBlobs() throws Exception {
+            // Given
+            when(openRouterModelService.getCachedModels()).thenReturn(new ArrayList<>());
+            mockMvc.perform(multipart("/chat/stream")
+                            .file(new MockMultipartFile("image", "photo.png", "image/png", new byte[]{(byte) 0x89, 'P', 'N', 'G'}))
+                            .param("prompt", "What is this?")
+                            .session(session))
+                    .andExpect(status().isOk());
+            ImageBlob image = ((List<ChatMessage>) session.getAttribute("chatMessages")).get(0).getImage();
+            MockHttpSession otherSession = new MockHttpSession();
+            otherSession.setAttribute("authenticated", true);
+
+            // When & Then
+            mockMvc.perform(get("/blob/" + image.getHash()).session(otherSession))
+                    .andExpect(status().isNotFound());
+        }
+
+        @Test
+        @DisplayName("Should not serve unknown blobs")
+        void shouldNotServeUnknownBlobs() throws Exception {
+            mockMvc.perform(get("/blob/" + "0".repeat(64)).session(session))
+                    .andExpect(status().isNotFound());
+            mockMvc.perform(get("/blob/not-a-hash").session(session))
+                    .andExpect(status().isNotFound());
+        }
+    }
+
     @Nested
     @DisplayName("Configuration Tests")
     class ConfigurationTests {
@@ -384,6 +509,29 @@ class ChatControllerTest {
             assertEquals(temperature, config.getTemperature());
             assertEquals(systemPrompt, config.getSystemPrompt());
         }
+
+        @Test
+        @DisplayName("Should keep only known fallback models in the given order")
+        void shouldKeepOnlyKnownFallbackModels() throws Exception {
+            // Given
+            OpenRouterModel first = new OpenRouterModel();
+            first.setId("a/first");
+            OpenRouterModel second = new OpenRouterModel();
+            second.setId("b/second");
+            when(openRouterModelService.getCachedModels()).thenReturn(List.of(first, second));
+
+            // When
+            mockMvc.perform(post("/config/ai")
+                            .param("fallbackModels", "b/second, unknown/model, a/first, b/second")
+                            .param("hedgingEnabled", "true")
+                            .session(session))
+                    .andExpect(status().is3xxRedirection());
+
+            // Then
+            ChatConfig config = (ChatConfig) session.getAttribute("chatConfig");
+            assertEquals(List.of("b/second", "a/first"), config.getFallbackModels());
+            assertTrue(config.isHedgingEnabled());
+        }
     }
 
     @Nested
@@ -440,6 +588,36 @@ class ChatControllerTest {
                     .andExpect(header().string("Content-Disposition", "attachment; filename=\"chat-export.json\""))
                     .andExpect(content().contentType(MediaType.APPLICATION_OCTET_STREAM));
         }
+
+        @Test
+        @DisplayName("Should import a binary export with its images")
+        void shouldImportBinaryExport() throws Exception {
+            // Given
+            List<ChatMessage> messages = new ArrayList<>();
+            ChatMessage question = new ChatMessage("What is this?", ChatMessage.MessageType.USER);
+            question.setImage(ImageBlob.of(new byte[]{1, 2, 3}, "image/png"));
+            messages.add(question);
+            messages.add(new ChatMessage("A picture", ChatMessage.MessageType.AI));
+            session.setAttribute("chatMessages", messages);
+            byte[] export = mockMvc.perform(post("/chat/export").param("format", "binary").session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("Content-Disposition", "attachment; filename=\"chat-export.chat\""))
+                    .andReturn().getResponse().getContentAsByteArray();
+            MockHttpSession importing = new MockHttpSession();
+            importing.setAttribute("authenticated", true);
+
+            // When
+            mockMvc.perform(multipart("/chat/import")
+                            .file(new MockMultipartFile("file", "chat-export.chat", "application/octet-stream", export))
+                            .session(importing))
+                    .andExpect(status().is3xxRedirection());
+
+            // Then
+            List<ChatMessage> imported = (List<ChatMessage>) importing.getAttribute("chatMessages");
+            assertEquals(List.of("What is this?", "A picture"), imported.stream().map(ChatMessage::getContent).toList());
+            assertEquals(question.getTimestamp(), imported.get(0).getTimestamp());
+            assertSame(imported.get(0).getImage(), blobStore.get(question.getImage().getHash()));
+        }
     }
 
     @Nested
@@ -471,7 +649,7 @@ class ChatControllerTest {
         void shouldRegenerateMessage() throws Exception {
             // Given
             String messageId = "msg-1";
-            doNothing().when(chatService).regenerateAiMessage(eq(messageId), any(ChatConfig.class), anyList());
+            doNothing().when(chatService).regenerateAiMessage(eq(messageId), any(ChatConfig.class), anyList(), any());
 
             // When & Then
             mockMvc.perform(post("/chat/message/" + messageId + "/regenerate")
@@ -479,7 +657,343 @@ class ChatControllerTest {
                     .andExpect(status().is3xxRedirection())
                     .andExpect(redirectedUrl("/#chat-bottom"));
 
-            verify(chatService, times(1)).regenerateAiMessage(eq(messageId), any(ChatConfig.class), anyList());
+            verify(chatService, times(1)).regenerateAiMessage(eq(messageId), any(ChatConfig.class), anyList(), any());
+        }
+    }
+
+    @Nested
+    @DisplayName("Streaming Tests")
+    class StreamingTests {
+
+        @Test
+        @DisplayName("Should flush escaped tokens on the live stream and save the AI message")
+        void shouldFlushEscapedTokensOnLiveStream() throws Exception {
+            // Given
+            Conversation messages = new Conversation();
+            messages.add(new ChatMessage("Hello", ChatMessage.MessageType.USER));
+            session.setAttribute("chatMessages", messages);
+            com.chatapp.model.StreamState streamState = streamRegistry.register(session.getId(), "Hello");
+            when(aiService.streamTokens(anyString(), anyList(), any(), anyInt(), anyDouble(), any()))
+                    .thenReturn(Flux.just(TokenEvent.token("Hi "), TokenEvent.token("<there>"), new TokenEvent(null, "stop", null)));
+            when(streamingJobScheduler.submit(anyString(), any(), any())).thenAnswer(invocation -> {
+                Supplier<Mono<Void>> pipeline = invocation.getArgument(1);
+                pipeline.get().block();
+                return true;
+            });
+
+            // When
+            MvcResult result = mockMvc.perform(get("/chat/stream-live").param("s", streamState.getId()).session(session))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+
+            // Then
+            String body = result.getResponse().getContentAsString();
+            assertTrue(body.contains("Hi &lt;there&gt;"));
+            assertTrue(body.contains("Show conversation"));
+            assertFalse(body.contains("http-equiv=\"refresh\""));
+            assertEquals(2, messages.size());
+            assertEquals("Hi <there>", messages.get(1).getContent());
+            assertTrue(streamState.isComplete());
+            assertEquals("Hi <there>", streamState.getBuffer().toString());
+        }
+
+        @Test
+        @DisplayName("Should point the stream iframe at the live endpoint by default")
+        void shouldPointStreamIframeAtLiveEndpoint() throws Exception {
+            // Given
+            when(openRouterModelService.getCachedModels()).thenReturn(new ArrayList<>());
+
+            // When
+            MvcResult result = mockMvc.perform(post("/chat/stream")
+                            .param("prompt", "Hello")
+                            .session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(model().attribute("streamingActive", true))
+                    .andReturn();
+
+            // Then
+            String streamId = (String) result.getModelAndView().getModel().get("streamId");
+            assertNotNull(streamRegistry.get(session.getId(), streamId));
+            assertTrue(result.getResponse().getContentAsString().contains("src=\"/chat/stream-live?s=" + streamId + "&amp;o=0\""));
+        }
+
+        @Test
+        @DisplayName("Should show the running stream when the prompt is resubmitted")
+        void shouldReuseRunningStreamOnResubmit() throws Exception {
+            // Given
+            when(openRouterModelService.getCachedModels()).thenReturn(new ArrayList<>());
+            MvcResult first = mockMvc.perform(post("/chat/stream").param("prompt", "Hello").session(session))
+                    .andExpect(status().isOk())
+                    .andReturn();
+
+            // When
+            MvcResult second = mockMvc.perform(post("/chat/stream").param("prompt", "Hello").session(session))
+                    .andExpect(status().isOk())
+                    .andReturn();
+
+            // Then
+            List<ChatMessage> messages = (List<ChatMessage>) session.getAttribute("chatMessages");
+            assertEquals(1, messages.size());
+            assertEquals(first.getModelAndView().getModel().get("streamId"), second.getModelAndView().getModel().get("streamId"));
+        }
+
+        @Test
+        @DisplayName("Should add a repeated prompt once the previous one was answered")
+        void shouldAddRepeatedPromptAfterAnswer() throws Exception {
+            // Given
+            when(openRouterModelService.getCachedModels()).thenReturn(new ArrayList<>());
+            Conversation messages = new Conversation();
+            messages.add(new ChatMessage("Continue", ChatMessage.MessageType.USER));
+            messages.add(new ChatMessage("Once upon a time", ChatMessage.MessageType.AI));
+            session.setAttribute("chatMessages", messages);
+
+            // When
+            mockMvc.perform(post("/chat/stream").param("prompt", "Continue").session(session))
+                    .andExpect(status().isOk());
+
+            // Then
+            assertEquals(3, messages.size());
+            assertEquals("Continue", messages.get(2).getContent());
+        }
+
+        @Test
+        @DisplayName("Should render busy fragment when the scheduler rejects the stream")
+        void shouldRenderBusyFragmentWhenSchedulerRejects() throws Exception {
+            // Given
+            com.chatapp.model.StreamState streamState = streamRegistry.register(session.getId(), "Hello");
+            when(streamingJobScheduler.submit(anyString(), any(), any())).thenReturn(false);
+
+            // When & Then
+            mockMvc.perform(get("/chat/stream-live").param("s", streamState.getId()).session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("The server is busy")))
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("url=/chat/stream-live")));
+
+            assertFalse(streamState.isStarted());
+        }
+
+        @Test
+        @DisplayName("Should send only the text after the resume offset")
+        void shouldSendOnlyTextAfterResumeOffset() throws Exception {
+            // Given
+            com.chatapp.model.StreamState streamState = streamRegistry.register(session.getId(), "Hello");
+            streamState.tryStart();
+            streamState.append("Already shown. ");
+            streamState.append("New text");
+
+            // When & Then
+            mockMvc.perform(get("/chat/stream-frame").param("s", streamState.getId()).param("o", "15").session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("<div id=\"ai-stream\">\nNew text")))
+                    .andExpect(content().string(org.hamcrest.Matchers.not(org.hamcrest.Matchers.containsString("Already shown"))))
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("url=/chat/stream-frame?s=" + streamState.getId() + "&o=15&c=23&d=1#stream-bottom")));
+        }
+
+        @Test
+        @DisplayName("Should render received text and resume the frame after it on reload")
+        void shouldResumeRunningStreamOnReload() throws Exception {
+            // Given
+            when(openRouterModelService.getCachedModels()).thenReturn(new ArrayList<>());
+            com.chatapp.model.StreamState streamState = streamRegistry.register(session.getId(), "Hello");
+            streamState.tryStart();
+            streamState.append("Partial <answer>");
+
+            // When & Then
+            mockMvc.perform(get("/").session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(model().attribute("streamingActive", true))
+                    .andExpect(model().attribute("streamingOffset", 16))
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("Partial &lt;answer&gt;")))
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("src=\"/chat/stream-live?s=" + streamState.getId() + "&amp;o=16\"")));
+        }
+
+        @Test
+        @DisplayName("Should drop a finished stream after the retention period")
+        void shouldDropFinishedStreamAfterRetention() throws Exception {
+            // Given
+            com.chatapp.model.StreamState streamState = streamRegistry.register(session.getId(), "Hello");
+            streamState.tryStart();
+            streamState.append("Done");
+            streamState.markComplete();
+            org.springframework.test.util.ReflectionTestUtils.setField(streamState, "completedAt", System.currentTimeMillis() - 3_600_000L);
+
+            // When & Then
+            mockMvc.perform(get("/chat/stream-frame").param("s", streamState.getId()).session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("<body></body>")));
+
+            assertNull(streamRegistry.get(session.getId(), streamState.getId()));
+        }
+
+        @Test
+        @DisplayName("Should abort the upstream and save the partial answer when stopped")
+        void shouldAbortUpstreamAndSavePartialAnswerWhenStopped() throws Exception {
+            // Given
+            Conversation messages = new Conversation();
+            messages.add(new ChatMessage("Hello", ChatMessage.MessageType.USER));
+            session.setAttribute("chatMessages", messages);
+            com.chatapp.model.StreamState streamState = streamRegistry.register(session.getId(), "Hello");
+            java.util.concurrent.atomic.AtomicBoolean upstreamCancelled = new java.util.concurrent.atomic.AtomicBoolean(false);
+            when(aiService.streamTokens(anyString(), anyList(), any(), anyInt(), anyDouble(), any()))
+                    .thenReturn(Flux.concat(Flux.just(TokenEvent.token("Partial")), Flux.<TokenEvent>never())
+                            .doOnCancel(() -> upstreamCancelled.set(true)));
+            java.util.concurrent.CompletableFuture<Void> job = new java.util.concurrent.CompletableFuture<>();
+            when(streamingJobScheduler.submit(anyString(), any(), any())).thenAnswer(invocation -> {
+                Supplier<Mono<Void>> pipeline = invocation.getArgument(1);
+                pipeline.get().subscribe(null, job::completeExceptionally, () -> job.complete(null));
+                return true;
+            });
+            mockMvc.perform(get("/chat/stream-frame").param("s", streamState.getId()).session(session)).andExpect(status().isOk());
+            assertTrue(streamState.isInProgress());
+
+            // When & Then
+            mockMvc.perform(post("/chat/stream/cancel").param("s", streamState.getId()).session(session))
+                    .andExpect(status().is3xxRedirection())
+                    .andExpect(redirectedUrl("/#chat-bottom"));
+
+            assertTrue(upstreamCancelled.get());
+            // The partial answer is saved off the canceling thread
+            job.get(5, java.util.concurrent.TimeUnit.SECONDS);
+            assertTrue(streamState.isComplete());
+            assertEquals(2, messages.size());
+            assertEquals("Partial", messages.get(1).getContent());
+        }
+
+        @Test
+        @DisplayName("Should complete a stopped stream that was never started")
+        void shouldCompleteStoppedStreamNeverStarted() throws Exception {
+            // Given
+            com.chatapp.model.StreamState streamState = streamRegistry.register(session.getId(), "Hello");
+
+            // When
+            mockMvc.perform(post("/chat/stream/cancel").param("s", streamState.getId()).session(session))
+                    .andExpect(status().is3xxRedirection());
+
+            // Then
+            assertTrue(streamState.isCancelled());
+            assertTrue(streamState.isComplete());
+            verify(streamingJobScheduler, never()).submit(anyString(), any(), any());
+        }
+
+        @Test
+        @DisplayName("Should stop a stream no frame is watching after the idle timeout")
+        void shouldStopStreamAfterIdleTimeout() throws Exception {
+            // Given
+            org.springframework.test.util.ReflectionTestUtils.setField(
+                    webApplicationContext.getBean(ChatController.class), "streamIdleTimeoutSeconds", 0L);
+            com.chatapp.model.StreamState streamState = streamRegistry.register(session.getId(), "Hello");
+            java.util.concurrent.CountDownLatch upstreamCancelled = new java.util.concurrent.CountDownLatch(1);
+            when(aiService.streamTokens(anyString(), anyList(), any(), anyInt(), anyDouble(), any()))
+                    .thenReturn(Flux.<TokenEvent>never().doOnCancel(upstreamCancelled::countDown));
+            when(streamingJobScheduler.submit(anyString(), any(), any())).thenAnswer(invocation -> {
+                Supplier<Mono<Void>> pipeline = invocation.getArgument(1);
+                pipeline.get().subscribe();
+                return true;
+            });
+
+            try {
+                // When
+                mockMvc.perform(get("/chat/stream-frame").param("s", streamState.getId()).session(session)).andExpect(status().isOk());
+
+                // Then
+                assertTrue(upstreamCancelled.await(5, java.util.concurrent.TimeUnit.SECONDS));
+                // The partial answer is saved right after the upstream is cancelled
+                long deadline = System.currentTimeMillis() + 5000;
+                while (!streamState.isComplete() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertTrue(streamState.isComplete());
+            } finally {
+                org.springframework.test.util.ReflectionTestUtils.setField(
+                        webApplicationContext.getBean(ChatController.class), "streamIdleTimeoutSeconds", 60L);
+            }
+        }
+
+        @Test
+        @DisplayName("Should back off the refresh delay while nothing new arrives")
+        void shouldBackOffRefreshDelayWhileNothingNew() throws Exception {
+            // Given
+            com.chatapp.model.StreamState streamState = streamRegistry.register(session.getId(), "Hello");
+            streamState.tryStart();
+            streamState.append("Some text");
+
+            // When & Then
+            mockMvc.perform(get("/chat/stream-frame").param("s", streamState.getId()).param("o", "0").param("c", "9").param("d", "2").session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("content=\"4;url=/chat/stream-frame?s=" + streamState.getId() + "&o=0&c=9&d=4#stream-bottom")));
+            mockMvc.perform(get("/chat/stream-frame").param("s", streamState.getId()).param("o", "0").param("c", "9").param("d", "8").session(session))
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("content=\"10;url=/chat/stream-frame?s=" + streamState.getId() + "&o=0&c=9&d=10#stream-bottom")));
+        }
+
+        @Test
+        @DisplayName("Should size the refresh delay from the observed token rate")
+        void shouldSizeRefreshDelayFromTokenRate() throws Exception {
+            // Given
+            com.chatapp.model.StreamState streamState = streamRegistry.register(session.getId(), "Hello");
+            streamState.tryStart();
+            streamState.append("a");
+            streamState.append("b");
+            org.springframework.test.util.ReflectionTestUtils.setField(streamState, "tokenIntervalMillis", 500.0);
+
+            // When & Then
+            mockMvc.perform(get("/chat/stream-frame").param("s", streamState.getId()).param("o", "0").param("c", "1").param("d", "10").session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("content=\"4;url=/chat/stream-frame?s=" + streamState.getId() + "&o=0&c=2&d=4#stream-bottom")));
+        }
+
+        @Test
+        @DisplayName("Should answer an unchanged stream with 304 Not Modified")
+        void shouldAnswerUnchangedStreamWithNotModified() throws Exception {
+            // Given
+            com.chatapp.model.StreamState streamState = streamRegistry.register(session.getId(), "Hello");
+            streamState.tryStart();
+            streamState.append("Some text");
+            String etag = mockMvc.perform(get("/chat/stream-frame").param("s", streamState.getId()).param("o", "0").param("c", "9").param("d", "10").session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("Cache-Control", "private, no-cache"))
+                    .andReturn().getResponse().getHeader("ETag");
+            assertNotNull(etag);
+
+            // When & Then
+            mockMvc.perform(get("/chat/stream-frame").param("s", streamState.getId()).param("o", "0").param("c", "9").param("d", "10")
+                            .header("If-None-Match", etag).session(session))
+                    .andExpect(status().isNotModified())
+                    .andExpect(content().string(""));
+
+            streamState.append(" and more");
+            mockMvc.perform(get("/chat/stream-frame").param("s", streamState.getId()).param("o", "0").param("c", "9").param("d", "10")
+                            .header("If-None-Match", etag).session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("Some text and more")));
+        }
+
+        @Test
+        @DisplayName("Should keep backing off an unchanged stream instead of answering 304")
+        void shouldBackOffUnchangedStreamBeforeNotModified() throws Exception {
+            // Given
+            com.chatapp.model.StreamState streamState = streamRegistry.register(session.getId(), "Hello");
+            streamState.tryStart();
+            streamState.append("Some text");
+            String etag = mockMvc.perform(get("/chat/stream-frame").param("s", streamState.getId()).param("o", "0").param("c", "9").param("d", "1").session(session))
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("content=\"2;")))
+                    .andReturn().getResponse().getHeader("ETag");
+
+            // When & Then - the refresh the cached frame carries is followed, with a longer delay
+            mockMvc.perform(get("/chat/stream-frame").param("s", streamState.getId()).param("o", "0").param("c", "9").param("d", "2")
+                            .header("If-None-Match", etag).session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("content=\"4;")));
+        }
+
+        @Test
+        @DisplayName("Should render empty frame when no stream is pending")
+        void shouldRenderEmptyFrameWhenNoStreamPending() throws Exception {
+            // When & Then
+            mockMvc.perform(get("/chat/stream-live").param("s", "unknown").session(session))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(org.hamcrest.Matchers.containsString("<body></body>")));
+
+            verify(aiService, never()).streamTokens(anyString(), anyList(), any(), anyInt(), anyDouble(), any());
         }
     }
 
@@ -495,7 +1009,9 @@ class ChatControllerTest {
                     .andExpect(status().isOk())
                     .andExpect(content().contentType(MediaType.APPLICATION_JSON))
                     .andExpect(jsonPath("$.status").value("UP"))
-                    .andExpect(jsonPath("$.timestamp").exists());
+                    .andExpect(jsonPath("$.timestamp").exists())
+                    .andExpect(jsonPath("$.jvm.heapUsedBytes").isNumber())
+                    .andExpect(jsonPath("$.jvm.threads").isNumber());
         }
     }
 
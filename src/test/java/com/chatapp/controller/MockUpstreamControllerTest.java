@@ -0,0 +1,147 @@
+package com.chatapp.controller;
+
+import com.chatapp.dto.TokenEvent;
+import com.chatapp.service.impl.SseDeltaDecoder;
+import com.chatapp.service.impl.SseFrameDecoder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("MockUpstreamController Tests")
+class MockUpstreamControllerTest {
+
+    private MockUpstreamController controller;
+
+    @BeforeEach
+    void setUp() {
+        controller = new MockUpstreamController();
+        ReflectionTestUtils.setField(controller, "tokensPerSecond", 0.0);
+    }
+
+    private List<String> chunks(boolean includeUsage, boolean disconnect) {
+        List<String> writes = new ArrayList<>();
+        try {
+            controller.chunks("mock/model", List.of("Hello", " there", " friend"), 12, includeUsage, Duration.ZERO, disconnect)
+                    .doOnNext(writes::add)
+                    .blockLast(Duration.ofSeconds(5));
+        } catch (RuntimeException e) {
+            // An injected disconnect; the writes before it are kept
+        }
+        return writes;
+    }
+
+    /**
+     * Decode the writes the way the app decodes the upstream stream.
+     */
+    private static List<TokenEvent> decode(List<String> writes) throws Exception {
+        SseFrameDecoder frames = new SseFrameDecoder(1024 * 1024);
+        List<TokenEvent> events = new ArrayList<>();
+        for (String write : writes) {
+            frames.feed(DefaultDataBufferFactory.sharedInstance.wrap(write.getBytes(StandardCharsets.UTF_8)), frame -> {
+                if (!"[DONE]".equals(frame.getData())) {
+                    try {
+                        events.add(SseDeltaDecoder.decodeData(frame.getData()));
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+        }
+        return events;
+    }
+
+    @Nested
+    @DisplayName("Stream Tests")
+    class StreamTests {
+
+        @Test
+        @DisplayName("Should stream the answer, the finish reason and the usage")
+        void shouldStreamAnswerAndUsage() throws Exception {
+            // When
+            List<String> writes = chunks(true, false);
+            List<TokenEvent> events = decode(writes);
+
+            // Then
+            assertEquals(6, writes.size());
+            assertEquals("data: [DONE]\n\n", writes.get(5));
+            assertEquals("Hello there friend", events.stream().filter(TokenEvent::hasContent).map(TokenEvent::getContent).reduce("", String::concat));
+            assertEquals("stop", events.get(3).getFinishReason());
+            assertEquals(3, events.get(4).getUsage().getCompletionTokens());
+        }
+
+        @Test
+        @DisplayName("Should decode to the same events whatever the chunking")
+        void shouldDecodeSameEventsForEveryChunking() throws Exception {
+            // Given
+            List<TokenEvent> expected = decode(chunks(false, false));
+
+            for (String chunking : List.of("batched", "split")) {
+                // When
+                ReflectionTestUtils.setField(controller, "chunking", chunking);
+                List<String> writes = chunks(false, false);
+
+                // Then
+                assertNotEquals(5, writes.size(), chunking);
+                assertEquals(expected.toString(), decode(writes).toString(), chunking);
+            }
+        }
+
+        @Test
+        @DisplayName("Should cut an injected disconnect off halfway")
+        void shouldDisconnectHalfway() {
+            // When
+            List<String> writes = chunks(false, true);
+
+            // Then
+            assertEquals(2, writes.size());
+            assertFalse(writes.contains("data: [DONE]\n\n"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Catalog and Latency Tests")
+    class CatalogTests {
+
+        @Test
+        @DisplayName("Should serve a catalog of the configured size")
+        void shouldServeConfiguredCatalog() {
+            // Given
+            ReflectionTestUtils.setField(controller, "modelCount", 1000);
+
+            // When
+            List<?> data = (List<?>) controller.models().get("data");
+
+            // Then
+            assertEquals(1000, data.size());
+            assertEquals("mock/model-0", ((Map<?, ?>) data.get(0)).get("id"));
+        }
+
+        @Test
+        @DisplayName("Should sample latency from the configured distribution")
+        void shouldSampleLatency() {
+            // Given
+            Random random = new Random(42);
+            ReflectionTestUtils.setField(controller, "latencyDistribution", "uniform");
+
+            // When & Then
+            for (int i = 0; i < 100; i++) {
+                long latency = controller.sampleLatencyMillis(random);
+                assertTrue(latency >= 200 && latency <= 600, "latency " + latency);
+            }
+            ReflectionTestUtils.setField(controller, "latencyDistribution", "fixed");
+            assertEquals(400, controller.sampleLatencyMillis(random));
+        }
+    }
+}
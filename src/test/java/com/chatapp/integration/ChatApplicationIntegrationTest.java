@@ -32,7 +32,9 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @AutoConfigureWebMvc
 @TestPropertySource(properties = {
     "ai.api.key=test-key",
-    "CHATAPP_NO_AUTH=1"
+    "CHATAPP_NO_AUTH=1",
+    "app.usage.file=",
+    "app.conversations.dir="
 })
 @DisplayName("Chat Application Integration Tests")
 class ChatApplicationIntegrationTest {
@@ -5,6 +5,8 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 
 import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -226,6 +228,82 @@ class ChatMessageTest {
         }
     }
 
+    @Nested
+    @DisplayName("Request Fragment Tests")
+    class RequestFragmentTests {
+
+        @Test
+        @DisplayName("Should encode the request fragment once until the message changes")
+        void shouldCacheFragmentUntilChanged() {
+            // Given
+            ChatMessage message = new ChatMessage("Test", ChatMessage.MessageType.USER);
+            AtomicInteger encodings = new AtomicInteger();
+            Function<ChatMessage, byte[]> encoder = m -> {
+                encodings.incrementAndGet();
+                return m.getContent().getBytes();
+            };
+
+            // When
+            byte[] first = message.requestFragment(encoder);
+            byte[] second = message.requestFragment(encoder);
+            message.setContent("Edited");
+            byte[] afterEdit = message.requestFragment(encoder);
+            message.setImageBase64("aGVsbG8=");
+            message.requestFragment(encoder);
+
+            // Then
+            assertSame(first, second);
+            assertArrayEquals("Edited".getBytes(), afterEdit);
+            assertEquals(3, encodings.get());
+        }
+
+        @Test
+        @DisplayName("Should not cache a fragment encoded while the message changed")
+        void shouldNotCacheStaleFragment() {
+            // Given
+            ChatMessage message = new ChatMessage("Test", ChatMessage.MessageType.USER);
+
+            // When
+            byte[] stale = message.requestFragment(m -> {
+                byte[] encoded = m.getContent().getBytes();
+                m.setContent("Changed meanwhile");
+                return encoded;
+            });
+            byte[] fresh = message.requestFragment(m -> m.getContent().getBytes());
+
+            // Then
+            assertArrayEquals("Test".getBytes(), stale);
+            assertArrayEquals("Changed meanwhile".getBytes(), fresh);
+        }
+
+        @Test
+        @DisplayName("Should cache an image blob's fragment until the image changes")
+        void shouldCacheImageBlobFragment() {
+            // Given
+            ChatMessage message = new ChatMessage("Look", ChatMessage.MessageType.USER);
+            message.setImageBase64("c3RhbGU=");
+            message.requestFragment(m -> m.getImageBase64().getBytes());
+            AtomicInteger encodings = new AtomicInteger();
+            Function<ChatMessage, byte[]> encoder = m -> {
+                encodings.incrementAndGet();
+                return m.getImageBase64().getBytes();
+            };
+
+            // When
+            message.setImage(ImageBlob.of("hello".getBytes(), "image/png"));
+            byte[] first = message.requestFragment(encoder);
+            byte[] second = message.requestFragment(encoder);
+            message.setImage(ImageBlob.of("world".getBytes(), "image/png"));
+            byte[] afterChange = message.requestFragment(encoder);
+
+            // Then
+            assertArrayEquals("aGVsbG8=".getBytes(), first);
+            assertSame(first, second);
+            assertArrayEquals("d29ybGQ=".getBytes(), afterChange);
+            assertEquals(2, encodings.get());
+        }
+    }
+
     @Nested
     @DisplayName("Timestamp Tests")
     class TimestampTests {
@@ -0,0 +1,154 @@
+package com.chatapp.model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Conversation Model Tests")
+class ConversationTest {
+
+    private Conversation conversation;
+
+    @BeforeEach
+    void setUp() {
+        conversation = new Conversation();
+        for (int i = 0; i < 6; i++) {
+            conversation.add(message("m" + i, i % 2 == 0 ? ChatMessage.MessageType.USER : ChatMessage.MessageType.AI));
+        }
+    }
+
+    private static ChatMessage message(String id, ChatMessage.MessageType type) {
+        ChatMessage message = new ChatMessage("Message " + id, type);
+        message.setId(id);
+        return message;
+    }
+
+    /**
+     * Every message must be found at its position.
+     */
+    private void assertIndexed() {
+        for (int i = 0; i < conversation.size(); i++) {
+            assertEquals(i, conversation.indexOfId(conversation.get(i).getId()), conversation.get(i).getId());
+        }
+    }
+
+    @Nested
+    @DisplayName("Lookup Tests")
+    class LookupTests {
+
+        @Test
+        @DisplayName("Should find messages and their turns by id")
+        void shouldFindByIdAndTurn() {
+            assertEquals(3, conversation.indexOfId("m3"));
+            assertSame(conversation.get(3), conversation.findById("m3"));
+            assertEquals(3, conversation.indexOf(conversation.get(3)));
+            assertEquals(-1, conversation.indexOfId("missing"));
+            assertNull(conversation.findById(null));
+        }
+
+        @Test
+        @DisplayName("Should index the messages it is created from")
+        void shouldIndexInitialMessages() {
+            // When
+            Conversation copy = new Conversation(conversation);
+
+            // Then
+            assertEquals(conversation, copy);
+            assertEquals(5, copy.indexOfId("m5"));
+        }
+
+        @Test
+        @DisplayName("Should view the last turns")
+        void shouldViewLastTurns() {
+            assertEquals(List.of("m2", "m3", "m4", "m5"), conversation.lastTurns(2).stream().map(ChatMessage::getId).toList());
+            assertEquals(6, conversation.lastTurns(10).size());
+            assertTrue(conversation.lastTurns(0).isEmpty());
+        }
+    }
+
+    @Nested
+    @DisplayName("Mutation Tests")
+    class MutationTests {
+
+        @Test
+        @DisplayName("Should renumber after inserts and removals in the middle")
+        void shouldRenumberAfterMiddleChanges() {
+            // When
+            conversation.add(2, message("new", ChatMessage.MessageType.AI));
+            assertTrue(conversation.removeById("m0"));
+            conversation.remove(conversation.findById("m4"));
+
+            // Then
+            assertEquals(List.of("m1", "new", "m2", "m3", "m5"), conversation.stream().map(ChatMessage::getId).toList());
+            assertEquals(-1, conversation.indexOfId("m0"));
+            assertEquals(-1, conversation.indexOfId("m4"));
+            assertFalse(conversation.removeById("m0"));
+            assertIndexed();
+        }
+
+        @Test
+        @DisplayName("Should keep the index through bulk removals and replacement")
+        void shouldKeepIndexThroughBulkChanges() {
+            // When
+            conversation.removeIf(m -> m.getType() == ChatMessage.MessageType.AI);
+            conversation.set(0, message("replaced", ChatMessage.MessageType.USER));
+            conversation.subList(1, 2).clear();
+
+            // Then
+            assertEquals(List.of("replaced", "m4"), conversation.stream().map(ChatMessage::getId).toList());
+            assertEquals(-1, conversation.indexOfId("m0"));
+            assertEquals(-1, conversation.indexOfId("m2"));
+            assertIndexed();
+
+            conversation.clear();
+            assertEquals(-1, conversation.indexOfId("m4"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Listener Tests")
+    class ListenerTests {
+
+        @Test
+        @DisplayName("Should report every change to its listener")
+        void shouldReportChanges() {
+            // Given
+            List<String> changes = new ArrayList<>();
+            conversation.setListener(new Conversation.Listener() {
+                @Override
+                public void put(int index, ChatMessage message) {
+                    changes.add("put " + index + " " + message.getId());
+                }
+
+                @Override
+                public void removed(ChatMessage message) {
+                    changes.add("removed " + message.getId());
+                }
+
+                @Override
+                public void cleared() {
+                    changes.add("cleared");
+                }
+            });
+
+            // When
+            conversation.add(1, message("new", ChatMessage.MessageType.AI));
+            conversation.set(0, conversation.get(0));
+            conversation.set(2, message("replaced", ChatMessage.MessageType.AI));
+            conversation.removeById("m2");
+            conversation.removeIf(m -> m.getId().equals("m3") || m.getId().equals("m5"));
+            conversation.subList(0, 1).clear();
+            conversation.clear();
+
+            // Then
+            assertEquals(List.of("put 1 new", "put 0 m0", "removed m1", "put 2 replaced", "removed m2",
+                    "removed m3", "removed m5", "removed m0", "cleared"), changes);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.chatapp.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("SessionStateCodec Tests")
+class SessionStateCodecTest {
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] write(Writer writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream in(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T javaRoundTrip(T value) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+    private static List<ChatMessage> turns(int count) {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            messages.add(new ChatMessage("Question " + i + ": how does this work?", ChatMessage.MessageType.USER));
+            messages.add(new ChatMessage("It works like this, step " + i + " of many. ".repeat(8), ChatMessage.MessageType.AI));
+        }
+        return messages;
+    }
+
+    @Nested
+    @DisplayName("Message Tests")
+    class MessageTests {
+
+        @Test
+        @DisplayName("Should read back every kind of message it wrote")
+        void shouldRoundTripMessages() throws IOException {
+            // Given
+            ChatMessage question = new ChatMessage("Was ist das? 🤔", ChatMessage.MessageType.USER);
+            question.setImage(ImageBlob.of(new byte[300], "image/png"));
+            ChatMessage answer = new ChatMessage(null, ChatMessage.MessageType.AI);
+            answer.setId("not-a-uuid");
+            answer.setEditing(true);
+            answer.setTimestamp(null);
+            ChatMessage inline = new ChatMessage("", null);
+            inline.setImageBase64("aGVsbG8=");
+            inline.setTimestamp(LocalDateTime.of(1969, 7, 20, 20, 17, 40, 123_000_000));
+            List<ChatMessage> messages = List.of(question, answer, inline);
+
+            // When
+            List<ChatMessage> read = SessionStateCodec.readMessages(
+                    in(write(out -> SessionStateCodec.writeMessages(out, messages))),
+                    image -> ImageBlob.of(image, "image/png"));
+
+            // Then
+            assertEquals(messages, read);
+        }
+
+        @Test
+        @DisplayName("Should keep new messages' timestamps exactly")
+        void shouldKeepTimestamps() throws IOException {
+            // Given
+            ChatMessage message = new ChatMessage("Now", ChatMessage.MessageType.USER);
+
+            // When
+            ChatMessage read = SessionStateCodec.readMessage(
+                    in(write(out -> SessionStateCodec.writeMessage(out, message))), image -> null);
+
+            // Then
+            assertEquals(message.getTimestamp(), read.getTimestamp());
+        }
+
+        @Test
+        @DisplayName("Should be much smaller than JSON for a long conversation")
+        void shouldBeSmallerThanJson() throws IOException {
+            // Given
+            List<ChatMessage> messages = turns(100);
+            ObjectMapper mapper = new ObjectMapper();
+            mapper.registerModule(new JavaTimeModule());
+
+            // When
+            byte[] binary = write(out -> SessionStateCodec.writeMessages(out, messages));
+            byte[] json = mapper.writeValueAsBytes(messages);
+
+            // Then
+            assertTrue(binary.length * 3 < json.length * 2, binary.length + " vs " + json.length);
+        }
+
+        @Test
+        @DisplayName("Should fail on input that ends early")
+        void shouldFailOnTruncatedInput() throws IOException {
+            // Given
+            byte[] bytes = write(out -> SessionStateCodec.writeMessages(out, turns(2)));
+            byte[] truncated = Arrays.copyOf(bytes, bytes.length - 10);
+
+            // When & Then
+            assertThrows(IOException.class, () -> SessionStateCodec.readMessages(in(truncated), image -> null));
+        }
+    }
+
+    @Nested
+    @DisplayName("Config Tests")
+    class ConfigTests {
+
+        @Test
+        @DisplayName("Should read back settings and share model ids between sessions")
+        void shouldRoundTripConfig() throws IOException {
+            // Given
+            ChatConfig config = new ChatConfig(false, -1, "openai/gpt-4o-mini");
+            config.setTemperature(1.25);
+            config.setMaxTokens(100_000);
+            config.setStreamingEnabled(true);
+            config.setLiveStreamingEnabled(false);
+            config.setHedgingEnabled(true);
+            config.setSystemPrompt("Réponds en français.");
+            config.setFallbackModels(List.of("anthropic/claude-3-haiku", "openai/gpt-4o-mini"));
+            byte[] bytes = write(out -> SessionStateCodec.writeConfig(out, config));
+
+            // When
+            ChatConfig first = SessionStateCodec.readConfig(in(bytes));
+            ChatConfig second = SessionStateCodec.readConfig(in(bytes));
+
+            // Then
+            assertFalse(first.isHistoryEnabled());
+            assertEquals(-1, first.getMaxHistoryTurns());
+            assertEquals("openai/gpt-4o-mini", first.getAiModel());
+            assertEquals(1.25, first.getTemperature());
+            assertEquals(100_000, first.getMaxTokens());
+            assertTrue(first.isStreamingEnabled());
+            assertFalse(first.isLiveStreamingEnabled());
+            assertTrue(first.isHedgingEnabled());
+            assertEquals("Réponds en français.", first.getSystemPrompt());
+            assertEquals(config.getFallbackModels(), first.getFallbackModels());
+            assertSame(first.getAiModel(), second.getAiModel());
+            assertSame(first.getAiModel(), second.getFallbackModels().get(1));
+        }
+    }
+
+    @Nested
+    @DisplayName("Session Serialization Tests")
+    class SessionSerializationTests {
+
+        @Test
+        @DisplayName("Should serialize messages and settings as a session store does")
+        void shouldSerializeForSessionStore() throws Exception {
+            // Given
+            ArrayList<ChatMessage> messages = new ArrayList<>(turns(3));
+            messages.get(0).setImage(ImageBlob.of(new byte[]{1, 2, 3}, "image/png"));
+            ChatConfig config = new ChatConfig(true, 5, "google/gemini-flash-1.5-8b");
+
+            // When
+            List<ChatMessage> readMessages = javaRoundTrip(messages);
+            ChatConfig readConfig = javaRoundTrip(config);
+
+            // Then
+            assertEquals(messages, readMessages);
+            assertEquals(messages.get(0).getImage().getHash(), readMessages.get(0).getImage().getHash());
+            assertEquals(5, readConfig.getMaxHistoryTurns());
+            assertEquals("google/gemini-flash-1.5-8b", readConfig.getAiModel());
+        }
+    }
+
+    @Nested
+    @DisplayName("Export Tests")
+    class ExportTests {
+
+        @Test
+        @DisplayName("Should recognize its exports and leave the input unread")
+        void shouldRecognizeExports() throws IOException {
+            // Given
+            List<ChatMessage> messages = turns(2);
+            byte[] export = write(out -> SessionStateCodec.writeConversation(out, messages));
+            BufferedInputStream binary = new BufferedInputStream(new ByteArrayInputStream(export));
+
+            // When & Then
+            assertTrue(SessionStateCodec.isConversation(binary));
+            assertEquals(messages, SessionStateCodec.readConversation(new DataInputStream(binary), image -> null));
+            assertFalse(SessionStateCodec.isConversation(new BufferedInputStream(new ByteArrayInputStream("[]".getBytes()))));
+            assertThrows(IOException.class, () -> SessionStateCodec.readConversation(in("[{}]".getBytes()), image -> null));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.chatapp.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("StreamBuffer Model Tests")
+class StreamBufferTest {
+
+    @Nested
+    @DisplayName("Append Tests")
+    class AppendTests {
+
+        @Test
+        @DisplayName("Should track length and token count")
+        void shouldTrackLengthAndTokenCount() {
+            // Given
+            StreamBuffer buffer = new StreamBuffer();
+
+            // When
+            buffer.append("Hello");
+            buffer.append(", ");
+            buffer.append("world");
+
+            // Then
+            assertEquals(12, buffer.length());
+            assertEquals(3, buffer.tokenCount());
+            assertEquals("Hello, world", buffer.toString());
+        }
+
+        @Test
+        @DisplayName("Should ignore null and empty tokens")
+        void shouldIgnoreNullAndEmptyTokens() {
+            // Given
+            StreamBuffer buffer = new StreamBuffer();
+
+            // When
+            buffer.append(null);
+            buffer.append("");
+
+            // Then
+            assertEquals(0, buffer.length());
+            assertEquals(0, buffer.tokenCount());
+            assertEquals("", buffer.toString());
+        }
+
+        @Test
+        @DisplayName("Should grow across many chunks")
+        void shouldGrowAcrossManyChunks() {
+            // Given
+            StreamBuffer buffer = new StreamBuffer();
+            StringBuilder expected = new StringBuilder();
+
+            // When
+            for (int i = 0; i < 5000; i++) {
+                String token = "t" + i + " ";
+                buffer.append(token);
+                expected.append(token);
+            }
+
+            // Then
+            assertEquals(5000, buffer.tokenCount());
+            assertEquals(expected.length(), buffer.length());
+            assertEquals(expected.toString(), buffer.toString());
+        }
+    }
+
+    @Nested
+    @DisplayName("Offset Read Tests")
+    class OffsetReadTests {
+
+        @Test
+        @DisplayName("Should return only text after the offset")
+        void shouldReturnOnlyTextAfterOffset() {
+            // Given
+            StreamBuffer buffer = new StreamBuffer();
+            buffer.append("abc");
+            buffer.append("def");
+            buffer.append("ghi");
+
+            // When & Then
+            assertEquals("defghi", buffer.contentSince(3));
+            assertEquals("efghi", buffer.contentSince(4));
+            assertEquals("", buffer.contentSince(9));
+            assertEquals("abcdefghi", buffer.contentSince(-5));
+        }
+
+        @Test
+        @DisplayName("Should deliver whole tokens except a split first token")
+        void shouldDeliverWholeTokensExceptSplitFirstToken() {
+            // Given
+            StreamBuffer buffer = new StreamBuffer();
+            buffer.append("abc");
+            buffer.append("def");
+            buffer.append("ghi");
+            List<String> received = new ArrayList<>();
+
+            // When
+            long next = buffer.forEachSince(4, received::add);
+
+            // Then
+            assertEquals(List.of("ef", "ghi"), received);
+            assertEquals(9, next);
+        }
+
+        @Test
+        @DisplayName("Should stop at the given limit")
+        void shouldStopAtLimit() {
+            // Given
+            StreamBuffer buffer = new StreamBuffer();
+            buffer.append("abc");
+            buffer.append("def");
+            buffer.append("ghi");
+            List<String> received = new ArrayList<>();
+
+            // When
+            long next = buffer.forEachSince(1, 7, received::add);
+
+            // Then
+            assertEquals(List.of("bc", "def", "g"), received);
+            assertEquals(7, next);
+        }
+
+        @Test
+        @DisplayName("Should return current offset when nothing is new")
+        void shouldReturnCurrentOffsetWhenNothingNew() {
+            // Given
+            StreamBuffer buffer = new StreamBuffer();
+            buffer.append("abc");
+            List<String> received = new ArrayList<>();
+
+            // When
+            long next = buffer.forEachSince(3, received::add);
+
+            // Then
+            assertTrue(received.isEmpty());
+            assertEquals(3, next);
+            assertEquals(0, new StreamBuffer().forEachSince(0, received::add));
+        }
+    }
+
+    @Nested
+    @DisplayName("Concurrency Tests")
+    class ConcurrencyTests {
+
+        @Test
+        @DisplayName("Should give readers a consistent prefix while writing")
+        void shouldGiveReadersConsistentPrefixWhileWriting() throws Exception {
+            // Given
+            StreamBuffer buffer = new StreamBuffer();
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 20000; i++) {
+                expected.append((char) ('a' + (i % 26)));
+            }
+            String full = expected.toString();
+            AtomicBoolean inconsistent = new AtomicBoolean(false);
+
+            // When
+            Thread reader = new Thread(() -> {
+                while (buffer.length() < full.length()) {
+                    String snapshot = buffer.toString();
+                    if (!full.startsWith(snapshot)) {
+                        inconsistent.set(true);
+                    }
+                }
+            });
+            reader.start();
+            for (int i = 0; i < full.length(); i++) {
+                buffer.append(String.valueOf(full.charAt(i)));
+            }
+            reader.join(10000);
+
+            // Then
+            assertFalse(inconsistent.get());
+            assertEquals(full, buffer.toString());
+        }
+    }
+}
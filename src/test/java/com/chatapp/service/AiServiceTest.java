@@ -13,11 +13,14 @@ import org.mockito.Mock;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.BodyInserter;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
@@ -38,7 +41,6 @@ class AiServiceTest {
     private WebClient.RequestBodyUriSpec requestBodyUriSpec;
     private WebClient.RequestHeadersSpec requestBodySpec;
     private WebClient.ResponseSpec responseSpec;
-    private Mono<AiApiResponse> responseMono;
 
     @BeforeEach
     void setUp() {
@@ -47,7 +49,6 @@ class AiServiceTest {
         requestBodyUriSpec = Mockito.mock(WebClient.RequestBodyUriSpec.class);
         requestBodySpec = Mockito.mock(WebClient.RequestHeadersSpec.class, Mockito.withSettings().extraInterfaces(WebClient.RequestBodySpec.class));
         responseSpec = Mockito.mock(WebClient.ResponseSpec.class);
-        responseMono = Mockito.mock(Mono.class);
         ReflectionTestUtils.setField(aiService, "aiApiKey", "test-api-key");
         ReflectionTestUtils.setField(aiService, "aiApiUrl", "https://test-api.com/v1/chat/completions");
         ReflectionTestUtils.setField(aiService, "maxTokens", 1000);
@@ -59,20 +60,18 @@ class AiServiceTest {
         Mockito.when(webClient.post()).thenReturn(requestBodyUriSpec);
         Mockito.when(requestBodyUriSpec.uri(Mockito.anyString())).thenReturn(requestBodyUriSpec);
         Mockito.when(requestBodyUriSpec.header(Mockito.anyString(), Mockito.anyString())).thenReturn(requestBodyUriSpec);
-        Mockito.when(requestBodyUriSpec.bodyValue(Mockito.any())).thenReturn(requestBodySpec);
+        Mockito.when(requestBodyUriSpec.body(Mockito.any(BodyInserter.class))).thenReturn(requestBodySpec);
         Mockito.when(((WebClient.RequestBodySpec) requestBodySpec).retrieve()).thenReturn(responseSpec);
-        Mockito.when(responseSpec.bodyToMono(Mockito.eq(AiApiResponse.class))).thenReturn(responseMono);
-        Mockito.when(responseMono.block()).thenReturn(response);
+        Mockito.when(responseSpec.bodyToMono(Mockito.eq(AiApiResponse.class))).thenReturn(Mono.justOrEmpty(response));
     }
 
     private void mockWebClientChainException(Exception exception) {
         Mockito.when(webClient.post()).thenReturn(requestBodyUriSpec);
         Mockito.when(requestBodyUriSpec.uri(Mockito.anyString())).thenReturn(requestBodyUriSpec);
         Mockito.when(requestBodyUriSpec.header(Mockito.anyString(), Mockito.anyString())).thenReturn(requestBodyUriSpec);
-        Mockito.when(requestBodyUriSpec.bodyValue(Mockito.any())).thenReturn(requestBodySpec);
+        Mockito.when(requestBodyUriSpec.body(Mockito.any(BodyInserter.class))).thenReturn(requestBodySpec);
         Mockito.when(((WebClient.RequestBodySpec) requestBodySpec).retrieve()).thenReturn(responseSpec);
-        Mockito.when(responseSpec.bodyToMono(Mockito.eq(AiApiResponse.class))).thenReturn(responseMono);
-        Mockito.when(responseMono.block()).thenThrow(exception);
+        Mockito.when(responseSpec.bodyToMono(Mockito.eq(AiApiResponse.class))).thenReturn(Mono.error(exception));
     }
 
     @Nested
@@ -142,6 +141,39 @@ class AiServiceTest {
             );
             assertTrue(exception.getMessage().contains("Unexpected error during OpenRouter API call"));
         }
+
+        @Test
+        @DisplayName("Should pass upstream unavailability through with its message")
+        void shouldPassUpstreamUnavailabilityThrough() {
+            // Given
+            AiApiRequest request = new AiApiRequest("test-model", new ArrayList<>(), 100, 0.7, null, null);
+            mockWebClientChainException(new UpstreamUnavailableException("The model test-model is currently unavailable"));
+
+            // When & Then
+            UpstreamUnavailableException exception = assertThrows(UpstreamUnavailableException.class, () ->
+                aiService.callAiApi(request)
+            );
+            assertEquals("The model test-model is currently unavailable", exception.getMessage());
+        }
+
+        @Test
+        @DisplayName("Should time out a stream that never sends its first byte")
+        void shouldTimeOutStreamWithoutFirstByte() {
+            // Given
+            Mockito.when(webClient.post()).thenReturn(requestBodyUriSpec);
+            Mockito.when(requestBodyUriSpec.uri(Mockito.anyString())).thenReturn(requestBodyUriSpec);
+            Mockito.when(requestBodyUriSpec.header(Mockito.anyString(), Mockito.anyString())).thenReturn(requestBodyUriSpec);
+            Mockito.when(requestBodyUriSpec.body(Mockito.any(BodyInserter.class))).thenReturn(requestBodySpec);
+            Mockito.when(((WebClient.RequestBodySpec) requestBodySpec).retrieve()).thenReturn(responseSpec);
+            Mockito.when(responseSpec.bodyToFlux(Mockito.eq(DataBuffer.class))).thenReturn(Flux.never());
+            ReflectionTestUtils.setField(ReflectionTestUtils.getField(aiService, "resilience"), "firstByteTimeoutSeconds", 1L);
+
+            // When & Then
+            UpstreamUnavailableException exception = assertThrows(UpstreamUnavailableException.class, () ->
+                aiService.streamTokens("Hello", null, "test-model", 100, 0.7, null).blockLast()
+            );
+            assertTrue(exception.getMessage().contains("did not start responding"));
+        }
     }
 
     @Nested
@@ -0,0 +1,119 @@
+package com.chatapp.service;
+
+import com.chatapp.model.ImageBlob;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("BlobStore Tests")
+class BlobStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private BlobStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new BlobStore();
+        ReflectionTestUtils.setField(store, "dir", tempDir.toString());
+        ReflectionTestUtils.setField(store, "maxBytes", 10L);
+        store.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Nested
+    @DisplayName("Storage Tests")
+    class StorageTests {
+
+        @Test
+        @DisplayName("Should store an image once under its SHA-256 and read it back")
+        void shouldStoreByContentHash() throws IOException {
+            // When
+            ImageBlob first = store.put("hello".getBytes(), "image/png");
+            ImageBlob second = store.put("hello".getBytes(), "image/jpeg");
+
+            // Then
+            assertSame(first, second);
+            assertEquals("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824", first.getHash());
+            assertArrayEquals("hello".getBytes(), bytes(first.contents()));
+            assertEquals("aGVsbG8=", first.toBase64());
+            assertTrue(Files.exists(tempDir.resolve(first.getHash())));
+            assertEquals(1L, store.getMetrics().get("deduplicated"));
+            assertSame(first, store.get(first.getHash()));
+            assertNull(store.get("../" + first.getHash()));
+        }
+
+        @Test
+        @DisplayName("Should serve only plain image types")
+        void shouldServeOnlyPlainImageTypes() {
+            assertEquals("image/png", BlobStore.servableType(new byte[]{(byte) 0x89, 'P', 'N', 'G', 0}, "text/html"));
+            assertEquals("image/avif", BlobStore.servableType(new byte[]{1, 2}, "image/avif"));
+            assertEquals("application/octet-stream", BlobStore.servableType("<svg/>".getBytes(), "image/svg+xml"));
+            assertEquals("application/octet-stream", BlobStore.servableType(new byte[0], null));
+        }
+    }
+
+    @Nested
+    @DisplayName("Quota Tests")
+    class QuotaTests {
+
+        @Test
+        @DisplayName("Should refuse an image when referenced images fill the quota")
+        void shouldRefuseWhenReferencedImagesFillQuota() throws IOException {
+            // Given
+            ImageBlob held = store.put("123456".getBytes(), null);
+
+            // When & Then
+            assertThrows(IOException.class, () -> store.put("abcdef".getBytes(), null));
+            assertThrows(IOException.class, () -> store.put("too large for it".getBytes(), null));
+            assertArrayEquals("123456".getBytes(), bytes(held.contents()));
+            assertEquals(2L, store.getMetrics().get("rejected"));
+        }
+
+        @Test
+        @DisplayName("Should evict an image once no message references it")
+        void shouldEvictUnreferencedImage() throws Exception {
+            // Given
+            String hash = store.put("123456".getBytes(), null).getHash();
+
+            // When - the only reference is gone once the collector has run
+            ImageBlob stored = null;
+            for (int i = 0; i < 50 && stored == null; i++) {
+                System.gc();
+                try {
+                    stored = store.put("abcdef".getBytes(), null);
+                } catch (IOException e) {
+                    Thread.sleep(20);
+                }
+            }
+
+            // Then
+            assertNotNull(stored);
+            assertFalse(Files.exists(tempDir.resolve(hash)));
+            assertNull(store.get(hash));
+            assertEquals(1L, store.getMetrics().get("evicted"));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.AiApiRequest;
+import com.chatapp.model.ChatMessage;
+import com.chatapp.model.ImageBlob;
+import com.chatapp.service.impl.ChatRequestWriter;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("ChatRequestWriter Tests")
+class ChatRequestWriterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private JsonNode write(String systemPrompt, List<ChatMessage> history, String userPrompt, boolean stream) throws Exception {
+        DataBuffer buffer = ChatRequestWriter.write(DefaultDataBufferFactory.sharedInstance, "test/model",
+                systemPrompt, history, userPrompt, 500, 0.3, stream);
+        try {
+            return objectMapper.readTree(buffer.toString(StandardCharsets.UTF_8));
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    private static AiApiRequest.Message textMessage(String role, String text) {
+        List<AiApiRequest.Message.Part> parts = new ArrayList<>();
+        parts.add(new AiApiRequest.Message.Part("text", text, null));
+        return new AiApiRequest.Message(role, parts);
+    }
+
+    @Nested
+    @DisplayName("Body Tests")
+    class BodyTests {
+
+        @Test
+        @DisplayName("Should write the same JSON as the request DTO")
+        void shouldWriteSameJsonAsDto() throws Exception {
+            // Given
+            ChatMessage question = new ChatMessage("What is \"this\"?\n", ChatMessage.MessageType.USER);
+            question.setImageBase64("aGVsbG8=");
+            ChatMessage answer = new ChatMessage("A greeting — 你好", ChatMessage.MessageType.AI);
+            List<AiApiRequest.Message> messages = new ArrayList<>();
+            messages.add(textMessage("system", "Be brief"));
+            List<AiApiRequest.Message.Part> questionParts = new ArrayList<>();
+            questionParts.add(new AiApiRequest.Message.Part("text", "What is \"this\"?\n", null));
+            questionParts.add(new AiApiRequest.Message.Part("image_url", null,
+                    new AiApiRequest.Message.Part.ImageUrl("data:image/png;base64,aGVsbG8=", "auto")));
+            messages.add(new AiApiRequest.Message("user", questionParts));
+            messages.add(textMessage("assistant", "A greeting — 你好"));
+            messages.add(textMessage("user", "Thanks"));
+            AiApiRequest expected = new AiApiRequest("test/model", messages, 500, 0.3, null, null, true);
+            expected.setStreamOptions(new AiApiRequest.StreamOptions(true));
+
+            // When
+            JsonNode written = write("Be brief", List.of(question, answer), "Thanks", true);
+
+            // Then - the writer leaves out null fields of the parts
+            ObjectMapper nonNullMapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+            assertEquals(nonNullMapper.valueToTree(expected), written);
+        }
+
+        @Test
+        @DisplayName("Should write a changed message from its new content")
+        void shouldWriteChangedMessage() throws Exception {
+            // Given
+            ChatMessage question = new ChatMessage("Original", ChatMessage.MessageType.USER);
+            ChatMessage answer = new ChatMessage("Answer", ChatMessage.MessageType.AI);
+            write(null, List.of(question, answer), "Next", false);
+
+            // When
+            question.setContent("Edited");
+            JsonNode written = write(null, List.of(question, answer), "Next", false);
+
+            // Then
+            JsonNode messages = written.get("messages");
+            assertEquals(3, messages.size());
+            assertEquals("Edited", messages.get(0).get("content").get(0).get("text").asText());
+            assertEquals("assistant", messages.get(1).get("role").asText());
+        }
+
+        @Test
+        @DisplayName("Should send an image as a data URL of its own type")
+        void shouldUseImageContentType() throws Exception {
+            // Given
+            ChatMessage jpeg = new ChatMessage("Look", ChatMessage.MessageType.USER);
+            jpeg.setImage(ImageBlob.of("hello".getBytes(), "image/jpeg"));
+            ChatMessage untyped = new ChatMessage("And this", ChatMessage.MessageType.USER);
+            untyped.setImage(ImageBlob.of("hello".getBytes(), null));
+
+            // When
+            JsonNode written = write(null, List.of(jpeg, untyped), null, false);
+
+            // Then
+            JsonNode messages = written.get("messages");
+            assertEquals("data:image/jpeg;base64,aGVsbG8=", messages.get(0).get("content").get(1).get("image_url").get("url").asText());
+            assertEquals("data:image/png;base64,aGVsbG8=", messages.get(1).get("content").get(1).get("image_url").get("url").asText());
+        }
+
+        @Test
+        @DisplayName("Should encode an image blob into each request and cache only the message's text")
+        void shouldNotCacheImageBlobBase64() throws Exception {
+            // Given - larger than one encoding chunk, and not a multiple of 3
+            byte[] bytes = new byte[20_000];
+            new java.util.Random(1).nextBytes(bytes);
+            ChatMessage message = new ChatMessage("Look", ChatMessage.MessageType.USER);
+            message.setImage(ImageBlob.of(bytes, "image/jpeg"));
+
+            // When
+            JsonNode first = write(null, List.of(message), null, false);
+            JsonNode second = write(null, List.of(message), null, false);
+
+            // Then
+            String url = "data:image/jpeg;base64," + java.util.Base64.getEncoder().encodeToString(bytes);
+            assertEquals(url, first.get("messages").get(0).get("content").get(1).get("image_url").get("url").asText());
+            assertEquals(first, second);
+            assertEquals("{\"type\":\"text\",\"text\":\"Look\"}",
+                    new String(ChatRequestWriter.messageFragment(message), StandardCharsets.UTF_8));
+        }
+
+        @Test
+        @DisplayName("Should not repeat a prompt that is already the last history message")
+        void shouldNotRepeatPromptInHistory() throws Exception {
+            // Given
+            List<ChatMessage> history = List.of(new ChatMessage("Hello", ChatMessage.MessageType.USER));
+
+            // When
+            JsonNode written = write("", history, "Hello", false);
+
+            // Then
+            assertEquals(1, written.get("messages").size());
+            assertFalse(written.has("stream"));
+        }
+
+        @Test
+        @DisplayName("Should grow the buffer past its estimate for escaped and multi-byte text")
+        void shouldGrowBufferPastEstimate() throws Exception {
+            // Given
+            String prompt = "\"\\\u0001€".repeat(2000);
+
+            // When
+            JsonNode written = write(null, null, prompt, false);
+
+            // Then
+            assertEquals(prompt, written.get("messages").get(0).get("content").get(0).get("text").asText());
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.chatapp.service;
 
 import com.chatapp.model.ChatMessage;
 import com.chatapp.model.ChatConfig;
+import com.chatapp.model.ImageBlob;
 import com.chatapp.service.impl.ChatServiceImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -36,11 +37,11 @@ class ChatServiceTest {
         doAnswer(invocation -> {
             System.out.println("[MOCK] generateResponse called with: " + java.util.Arrays.toString(invocation.getArguments()));
             return "Default AI response";
-        }).when(aiService).generateResponse(any(), any(), anyInt(), anyDouble(), any());
+        }).when(aiService).generateResponse(any(), any(), anyInt(), anyDouble(), any(), any());
         doAnswer(invocation -> {
             System.out.println("[MOCK] generateResponseWithHistory called with: " + java.util.Arrays.toString(invocation.getArguments()));
             return "Default AI response with history";
-        }).when(aiService).generateResponseWithHistory(any(), any(), any(), anyInt(), anyDouble(), any());
+        }).when(aiService).generateResponseWithHistory(any(), any(), any(), anyInt(), anyDouble(), any(), any());
     }
 
     @Nested
@@ -154,7 +155,7 @@ class ChatServiceTest {
             List<ChatMessage> messages = new ArrayList<>();
             
             doReturn("I'm doing well, thank you for asking!")
-                .when(aiService).generateResponseWithHistory(eq(userPrompt), ArgumentMatchers.<List<ChatMessage>>any(), eq("test-model"), eq(100), eq(0.7), nullable(String.class));
+                .when(aiService).generateResponseWithHistory(eq(userPrompt), ArgumentMatchers.<List<ChatMessage>>any(), eq("test-model"), eq(100), eq(0.7), nullable(String.class), any());
 
             // When
             chatService.processUserMessage(userPrompt, config, null, messages);
@@ -174,7 +175,26 @@ class ChatServiceTest {
             assertEquals(ChatMessage.MessageType.AI, aiMessage.getType());
             assertNotNull(aiMessage.getId());
             
-            verify(aiService, times(1)).generateResponseWithHistory(eq(userPrompt), ArgumentMatchers.<List<ChatMessage>>any(), eq("test-model"), eq(100), eq(0.7), nullable(String.class));
+            verify(aiService, times(1)).generateResponseWithHistory(eq(userPrompt), ArgumentMatchers.<List<ChatMessage>>any(), eq("test-model"), eq(100), eq(0.7), nullable(String.class), any());
+        }
+
+        @Test
+        @DisplayName("Should count the completion against the sender's account")
+        void shouldCountCompletionAgainstAccount() {
+            // Given
+            ChatConfig config = new ChatConfig();
+            config.setAiModel("test-model");
+            List<ChatMessage> messages = new ArrayList<>();
+            UsageAccounting.Account account = new UsageAccounting.Account("s1", null);
+            when(aiService.generateResponseWithHistory(eq("Hello"), anyList(), eq("test-model"), anyInt(), anyDouble(), any(), same(account)))
+                .thenReturn("Hi");
+
+            // When
+            chatService.processUserMessage("Hello", config, null, messages, account);
+
+            // Then
+            assertEquals("Hi", messages.get(1).getContent());
+            verify(aiService).generateResponseWithHistory(eq("Hello"), anyList(), eq("test-model"), anyInt(), anyDouble(), any(), same(account));
         }
 
         @Test
@@ -182,18 +202,18 @@ class ChatServiceTest {
         void shouldProcessUserMessageWithImage() {
             // Given
             String userPrompt = "What's in this image?";
-            String imageBase64 = "base64-image-data";
+            ImageBlob image = ImageBlob.of("image-data".getBytes(), "image/png");
             ChatConfig config = new ChatConfig();
             config.setAiModel("test-model");
             config.setMaxTokens(100);
             config.setTemperature(0.7);
             List<ChatMessage> messages = new ArrayList<>();
             
-            when(aiService.generateResponse(eq(userPrompt), eq("test-model"), eq(100), eq(0.7), isNull()))
+            when(aiService.generateResponse(eq(userPrompt), eq("test-model"), eq(100), eq(0.7), isNull(), any()))
                 .thenReturn("I can see an image in your message.");
 
             // When
-            chatService.processUserMessage(userPrompt, config, imageBase64, messages);
+            chatService.processUserMessage(userPrompt, config, image, messages);
 
             // Then
             assertEquals(2, messages.size());
@@ -201,7 +221,8 @@ class ChatServiceTest {
             // Check user message has image
             ChatMessage userMessage = messages.get(0);
             assertEquals(userPrompt, userMessage.getContent());
-            assertEquals(imageBase64, userMessage.getImageBase64());
+            assertSame(image, userMessage.getImage());
+            assertEquals(java.util.Base64.getEncoder().encodeToString("image-data".getBytes()), userMessage.getImageBase64());
             assertEquals(ChatMessage.MessageType.USER, userMessage.getType());
         }
 
@@ -222,14 +243,14 @@ class ChatServiceTest {
             messages.add(new ChatMessage("Hi there!", ChatMessage.MessageType.AI));
             
             doReturn("You said 'Hello' and I responded with 'Hi there!'")
-                .when(aiService).generateResponseWithHistory(eq(userPrompt), ArgumentMatchers.<List<ChatMessage>>any(), eq("test-model"), eq(100), eq(0.7), nullable(String.class));
+                .when(aiService).generateResponseWithHistory(eq(userPrompt), ArgumentMatchers.<List<ChatMessage>>any(), eq("test-model"), eq(100), eq(0.7), nullable(String.class), any());
 
             // When
             chatService.processUserMessage(userPrompt, config, null, messages);
 
             // Then
             assertEquals(4, messages.size()); // 2 existing + 2 new messages
-            verify(aiService, times(1)).generateResponseWithHistory(eq(userPrompt), ArgumentMatchers.<List<ChatMessage>>any(), eq("test-model"), eq(100), eq(0.7), nullable(String.class));
+            verify(aiService, times(1)).generateResponseWithHistory(eq(userPrompt), ArgumentMatchers.<List<ChatMessage>>any(), eq("test-model"), eq(100), eq(0.7), nullable(String.class), any());
         }
 
         @Test
@@ -243,7 +264,7 @@ class ChatServiceTest {
             config.setTemperature(0.7);
             List<ChatMessage> messages = new ArrayList<>();
             
-            when(aiService.generateResponseWithHistory(anyString(), anyList(), anyString(), anyInt(), anyDouble(), any()))
+            when(aiService.generateResponseWithHistory(anyString(), anyList(), anyString(), anyInt(), anyDouble(), any(), any()))
                 .thenThrow(new RuntimeException("AI service error"));
 
             // When
@@ -254,6 +275,26 @@ class ChatServiceTest {
             assertEquals(userPrompt, messages.get(0).getContent());
             assertEquals("Sorry, I encountered an error while processing your request. Please try again.", messages.get(1).getContent());
         }
+
+        @Test
+        @DisplayName("Should fall back to the next model when the model fails")
+        void shouldFallBackToNextModel() {
+            // Given
+            ChatConfig config = new ChatConfig();
+            config.setAiModel("primary/model");
+            config.setFallbackModels(List.of("backup/model"));
+            List<ChatMessage> messages = new ArrayList<>();
+            when(aiService.generateResponseWithHistory(anyString(), anyList(), eq("primary/model"), anyInt(), anyDouble(), any(), any()))
+                .thenThrow(new UpstreamUnavailableException("The model primary/model is currently unavailable"));
+            when(aiService.generateResponseWithHistory(anyString(), anyList(), eq("backup/model"), anyInt(), anyDouble(), any(), any()))
+                .thenReturn("Backup answer");
+
+            // When
+            chatService.processUserMessage("Hello", config, null, messages);
+
+            // Then
+            assertEquals("Backup answer", messages.get(1).getContent());
+        }
     }
 
     @Nested
@@ -281,7 +322,7 @@ class ChatServiceTest {
             messages.add(aiMessage);
             
             doReturn("New response")
-                .when(aiService).generateResponseWithHistory(eq("Hello"), anyList(), eq("test-model"), eq(100), eq(0.7), any());
+                .when(aiService).generateResponseWithHistory(eq("Hello"), anyList(), eq("test-model"), eq(100), eq(0.7), any(), any());
 
             // When
             chatService.regenerateAiMessage(messageId, config, messages);
@@ -290,7 +331,7 @@ class ChatServiceTest {
             assertEquals(2, messages.size());
             assertEquals("Hello", messages.get(0).getContent());
             assertEquals("New response", messages.get(1).getContent());
-            verify(aiService, times(1)).generateResponseWithHistory(eq("Hello"), anyList(), eq("test-model"), eq(100), eq(0.7), any());
+            verify(aiService, times(1)).generateResponseWithHistory(eq("Hello"), anyList(), eq("test-model"), eq(100), eq(0.7), any(), any());
         }
 
         @Test
@@ -318,7 +359,7 @@ class ChatServiceTest {
             messages.add(aiMessage);
             
             doReturn("New response with context")
-                .when(aiService).generateResponseWithHistory(eq("Second message"), ArgumentMatchers.<List<ChatMessage>>any(), eq("test-model"), eq(100), eq(0.7), nullable(String.class));
+                .when(aiService).generateResponseWithHistory(eq("Second message"), ArgumentMatchers.<List<ChatMessage>>any(), eq("test-model"), eq(100), eq(0.7), nullable(String.class), any());
 
             // When
             chatService.regenerateAiMessage(messageId, config, messages);
@@ -327,7 +368,7 @@ class ChatServiceTest {
             assertEquals(4, messages.size());
             assertEquals("Second message", messages.get(2).getContent());
             assertEquals("New response with context", messages.get(3).getContent());
-            verify(aiService, times(1)).generateResponseWithHistory(eq("Second message"), ArgumentMatchers.<List<ChatMessage>>any(), eq("test-model"), eq(100), eq(0.7), nullable(String.class));
+            verify(aiService, times(1)).generateResponseWithHistory(eq("Second message"), ArgumentMatchers.<List<ChatMessage>>any(), eq("test-model"), eq(100), eq(0.7), nullable(String.class), any());
         }
 
         @Test
@@ -376,7 +417,7 @@ class ChatServiceTest {
             List<ChatMessage> messages = new ArrayList<>();
             
             doReturn("Response")
-                .when(aiService).generateResponseWithHistory(eq(userPrompt), ArgumentMatchers.<List<ChatMessage>>any(), eq("google/gemini-flash-1.5-8b"), eq(1000), eq(0.7), nullable(String.class));
+                .when(aiService).generateResponseWithHistory(eq(userPrompt), ArgumentMatchers.<List<ChatMessage>>any(), eq("google/gemini-flash-1.5-8b"), eq(1000), eq(0.7), nullable(String.class), any());
 
             // When
             chatService.processUserMessage(userPrompt, config, null, messages);
@@ -397,14 +438,14 @@ class ChatServiceTest {
             config.setSystemPrompt("You are a helpful assistant");
             List<ChatMessage> messages = new ArrayList<>();
             
-            when(aiService.generateResponseWithHistory(eq(userPrompt), anyList(), eq("custom-model"), eq(500), eq(0.5), eq("You are a helpful assistant")))
+            when(aiService.generateResponseWithHistory(eq(userPrompt), anyList(), eq("custom-model"), eq(500), eq(0.5), eq("You are a helpful assistant"), any()))
                 .thenReturn("Response");
 
             // When
             chatService.processUserMessage(userPrompt, config, null, messages);
 
             // Then
-            verify(aiService, times(1)).generateResponseWithHistory(eq(userPrompt), anyList(), eq("custom-model"), eq(500), eq(0.5), eq("You are a helpful assistant"));
+            verify(aiService, times(1)).generateResponseWithHistory(eq(userPrompt), anyList(), eq("custom-model"), eq(500), eq(0.5), eq("You are a helpful assistant"), any());
         }
     }
 
@@ -476,7 +517,7 @@ class ChatServiceTest {
             config.setTemperature(0.7);
             List<ChatMessage> messages = new ArrayList<>();
             
-            when(aiService.generateResponseWithHistory(eq(userPrompt), anyList(), eq("test-model"), eq(100), eq(0.7), isNull()))
+            when(aiService.generateResponseWithHistory(eq(userPrompt), anyList(), eq("test-model"), eq(100), eq(0.7), isNull(), any()))
                 .thenReturn("Response");
 
             // When
@@ -0,0 +1,112 @@
+package com.chatapp.service;
+
+import com.chatapp.model.ChatMessage;
+import com.chatapp.model.ImageBlob;
+import com.chatapp.service.impl.ConversationSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("ConversationSnapshot Tests")
+class ConversationSnapshotTest {
+
+    private static byte[] write(List<ChatMessage> messages) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            ConversationSnapshot.write(out, "user:a@example.com", 42, messages);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    @DisplayName("Should read back what it wrote, with images as raw bytes")
+    void shouldRoundTrip() throws IOException {
+        // Given
+        ChatMessage question = new ChatMessage("Was ist das? 🤔", ChatMessage.MessageType.USER);
+        question.setImage(ImageBlob.of(new byte[3000], "image/png"));
+        ChatMessage answer = new ChatMessage(null, ChatMessage.MessageType.AI);
+        answer.setEditing(true);
+        answer.setTimestamp(null);
+        ChatMessage inline = new ChatMessage("Inline", ChatMessage.MessageType.USER);
+        inline.setImageBase64("aGVsbG8=");
+
+        // When
+        byte[] bytes = write(List.of(question, answer, inline));
+        ConversationSnapshot snapshot = ConversationSnapshot.read(new DataInputStream(new ByteArrayInputStream(bytes)),
+                image -> ImageBlob.of(image, "image/png"));
+
+        // Then - smaller than the image alone as Base64
+        assertTrue(bytes.length < question.getImageBase64().length());
+        assertEquals("user:a@example.com", snapshot.getKey());
+        assertEquals(42, snapshot.getSeq());
+        assertEquals(List.of(question, answer, inline), snapshot.getMessages());
+        assertEquals(question.getImage().getHash(), snapshot.getMessages().get(0).getImage().getHash());
+    }
+
+    @Test
+    @DisplayName("Should keep an image as Base64 when it cannot be stored")
+    void shouldKeepUnstoredImageAsBase64() throws IOException {
+        // Given
+        ChatMessage message = new ChatMessage("Look", ChatMessage.MessageType.USER);
+        message.setImage(ImageBlob.of("hello".getBytes(), "image/png"));
+
+        // When
+        ChatMessage read = ConversationSnapshot.read(new DataInputStream(new ByteArrayInputStream(write(List.of(message)))),
+                image -> null).getMessages().get(0);
+
+        // Then
+        assertNull(read.getImage());
+        assertEquals(Base64.getEncoder().encodeToString("hello".getBytes()), read.getImageBase64());
+    }
+
+    @Test
+    @DisplayName("Should still read snapshots in the first format")
+    void shouldReadFirstFormat() throws IOException {
+        // Given
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0x43484353);
+            out.writeByte(1);
+            out.writeUTF("user:a@example.com");
+            out.writeLong(7);
+            out.writeInt(1);
+            out.writeInt(2);
+            out.writeBytes("m1");
+            out.writeByte(ChatMessage.MessageType.USER.ordinal());
+            out.writeInt(5);
+            out.writeBytes("Hello");
+            out.writeBoolean(true);
+            out.writeLong(1_700_000_000L);
+            out.writeInt(123_456_789);
+            out.writeBoolean(false);
+            out.writeByte(0);
+        }
+
+        // When
+        ConversationSnapshot snapshot = ConversationSnapshot.read(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), image -> null);
+
+        // Then
+        assertEquals(7, snapshot.getSeq());
+        ChatMessage message = snapshot.getMessages().get(0);
+        assertEquals("m1", message.getId());
+        assertEquals("Hello", message.getContent());
+        assertEquals(123_456_789, message.getTimestamp().getNano());
+    }
+
+    @Test
+    @DisplayName("Should refuse input that is not a snapshot")
+    void shouldRefuseOtherInput() {
+        assertThrows(IOException.class, () -> ConversationSnapshot.read(
+                new DataInputStream(new ByteArrayInputStream("{\"messages\":[]}".getBytes())), image -> null));
+    }
+}
@@ -0,0 +1,375 @@
+package com.chatapp.service;
+
+import com.chatapp.model.ChatMessage;
+import com.chatapp.model.Conversation;
+import com.chatapp.model.ImageBlob;
+import com.chatapp.service.impl.LogConversationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import jakarta.servlet.http.HttpSessionEvent;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("LogConversationRepository Tests")
+class LogConversationRepositoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private BlobStore blobStore;
+    private LogConversationRepository repository;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        blobStore = new BlobStore();
+        blobStore.init();
+        repository = newRepository(tempDir.toString(), 200);
+    }
+
+    @AfterEach
+    void tearDown() {
+        blobStore.close();
+    }
+
+    /**
+     * A repository over the same files, as after a restart; the old one is not closed, as in a crash.
+     */
+    private LogConversationRepository newRepository(String dir, int snapshotEvery) throws IOException {
+        LogConversationRepository conversationRepository = new LogConversationRepository(blobStore);
+        ReflectionTestUtils.setField(conversationRepository, "dir", dir);
+        ReflectionTestUtils.setField(conversationRepository, "fsync", "always");
+        ReflectionTestUtils.setField(conversationRepository, "snapshotEvery", snapshotEvery);
+        conversationRepository.init();
+        return conversationRepository;
+    }
+
+    private static ChatMessage message(String id, String content) {
+        ChatMessage message = new ChatMessage(content, ChatMessage.MessageType.USER);
+        message.setId(id);
+        return message;
+    }
+
+    private List<Path> files(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.filter(file -> file.toString().endsWith(suffix)).toList();
+        }
+    }
+
+    @Nested
+    @DisplayName("Persistence Tests")
+    class PersistenceTests {
+
+        @Test
+        @DisplayName("Should keep a user's conversation across a restart")
+        void shouldKeepConversationAcrossRestart() throws IOException {
+            // Given
+            String key = repository.key("s1", "a@example.com");
+            Conversation conversation = repository.open(key);
+            conversation.add(message("m1", "Hello"));
+            conversation.add(message("m2", "Answer"));
+            conversation.add(1, message("m3", "Inserted"));
+            ChatMessage edited = conversation.findById("m1");
+            edited.setContent("Hello again");
+            conversation.set(0, edited);
+            conversation.removeById("m2");
+
+            // When
+            Conversation reloaded = newRepository(tempDir.toString(), 200).open(repository.key("s2", "a@example.com"));
+
+            // Then
+            assertNotSame(conversation, reloaded);
+            assertEquals(conversation, reloaded);
+            assertEquals(List.of("m1", "m3"), reloaded.stream().map(ChatMessage::getId).toList());
+            assertEquals("Hello again", reloaded.get(0).getContent());
+            assertEquals(5L, repository.getMetrics().get("appended"));
+        }
+
+        @Test
+        @DisplayName("Should snapshot and start a new log after a number of changes")
+        void shouldSnapshotAfterChanges() throws IOException {
+            // Given
+            repository = newRepository(tempDir.toString(), 3);
+            Conversation conversation = repository.open(repository.key("s1", "a@example.com"));
+
+            // When
+            for (int i = 0; i < 4; i++) {
+                conversation.add(message("m" + i, "Message " + i));
+            }
+
+            // Then
+            assertEquals(1, files(".snapshot").size());
+            assertEquals(1, Files.readAllLines(files(".log").get(0)).size());
+            assertEquals(1L, repository.getMetrics().get("snapshots"));
+            assertEquals(conversation, newRepository(tempDir.toString(), 3).open(repository.key("s1", "a@example.com")));
+        }
+
+        @Test
+        @DisplayName("Should store images by value and put them back in the image store")
+        void shouldRestoreImages() throws IOException {
+            // Given
+            ChatMessage withImage = message("m1", "Look");
+            withImage.setImage(ImageBlob.of("image bytes".getBytes(), "image/png"));
+            repository.open(repository.key("s1", "a@example.com")).add(withImage);
+
+            // When
+            ChatMessage reloaded = newRepository(tempDir.toString(), 200).open(repository.key("s2", "a@example.com")).get(0);
+
+            // Then
+            assertNotNull(reloaded.getImage());
+            assertEquals(withImage.getImage().getHash(), reloaded.getImage().getHash());
+            assertSame(reloaded.getImage(), blobStore.get(reloaded.getImage().getHash()));
+        }
+
+        @Test
+        @DisplayName("Should write a logged image once and refer to it by hash")
+        void shouldLogImagesByHash() throws IOException {
+            // Given
+            ChatMessage withImage = message("m1", "Look");
+            withImage.setImage(ImageBlob.of("image bytes".getBytes(), "image/jpeg"));
+            Conversation conversation = repository.open(repository.key("s1", "a@example.com"));
+            conversation.add(withImage);
+
+            // When
+            withImage.setContent("Look again");
+            conversation.set(0, withImage);
+            BlobStore restartedStore = new BlobStore();
+            restartedStore.init();
+            LogConversationRepository restarted = new LogConversationRepository(restartedStore);
+            ReflectionTestUtils.setField(restarted, "dir", tempDir.toString());
+            restarted.init();
+            ChatMessage reloaded = restarted.open(restarted.key("s2", "a@example.com")).get(0);
+
+            // Then
+            assertEquals(1, files(".image").size());
+            assertEquals(1L, repository.getMetrics().get("imagesWritten"));
+            assertFalse(Files.readString(files(".log").get(0)).contains(withImage.getImageBase64()));
+            assertEquals("Look again", reloaded.getContent());
+            assertEquals(withImage.getImageBase64(), reloaded.getImageBase64());
+            assertEquals("image/jpeg", reloaded.getImage().getContentType());
+            restartedStore.close();
+        }
+
+        @Test
+        @DisplayName("Should delete an image file once no log refers to it")
+        void shouldDeleteUnloggedImages() throws IOException {
+            // Given
+            repository = newRepository(tempDir.toString(), 2);
+            ChatMessage withImage = message("m1", "Look");
+            withImage.setImage(ImageBlob.of("image bytes".getBytes(), "image/png"));
+            ChatMessage sameImage = message("m2", "Again");
+            sameImage.setImage(withImage.getImage());
+            String first = repository.key("s1", "a@example.com");
+            String second = repository.key("s2", "b@example.com");
+            repository.open(first).add(withImage);
+            repository.open(second).add(sameImage);
+            assertEquals(1, files(".image").size());
+
+            // When - the first log is snapshotted away, then the second conversation deleted
+            repository.open(first).add(message("m3", "Snapshot now"));
+            boolean keptForSecond = files(".image").size() == 1;
+            repository.delete(second);
+
+            // Then
+            assertTrue(keptForSecond);
+            assertTrue(files(".image").isEmpty());
+            assertEquals("Look", newRepository(tempDir.toString(), 2).open(first).get(0).getContent());
+        }
+
+        @Test
+        @DisplayName("Should sync the last changes of an idle conversation within the interval")
+        void shouldSyncIdleConversation() throws Exception {
+            // Given
+            LogConversationRepository interval = new LogConversationRepository(blobStore);
+            ReflectionTestUtils.setField(interval, "dir", tempDir.toString());
+            ReflectionTestUtils.setField(interval, "fsyncIntervalMs", 20L);
+            interval.init();
+
+            // When
+            interval.open(interval.key("s1", "a@example.com")).add(message("m1", "Last words"));
+
+            // Then
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((Long) interval.getMetrics().get("syncs") == 0L && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1L, interval.getMetrics().get("syncs"));
+            interval.close();
+        }
+    }
+
+    @Nested
+    @DisplayName("Recovery Tests")
+    class RecoveryTests {
+
+        @Test
+        @DisplayName("Should cut off a change left half-written by a crash")
+        void shouldCutOffUnfinishedChange() throws IOException {
+            // Given
+            Conversation conversation = repository.open(repository.key("s1", "a@example.com"));
+            conversation.add(message("m1", "Kept"));
+            Path log = files(".log").get(0);
+            long length = Files.size(log);
+            Files.write(log, "{\"op\":\"clear\",\"se".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            // When
+            LogConversationRepository restarted = newRepository(tempDir.toString(), 200);
+            Conversation reloaded = restarted.open(restarted.key("s2", "a@example.com"));
+            reloaded.add(message("m2", "After"));
+
+            // Then
+            assertEquals(1L, restarted.getMetrics().get("recovered"));
+            assertEquals(List.of("m1", "m2"), reloaded.stream().map(ChatMessage::getId).toList());
+            assertTrue(Files.size(log) > length);
+            assertEquals(reloaded, newRepository(tempDir.toString(), 200).open(restarted.key("s3", "a@example.com")));
+        }
+
+        @Test
+        @DisplayName("Should only spill session conversations, and drop them when the session ends and on startup")
+        void shouldDropSessionConversations() throws IOException {
+            // Given
+            MockHttpSession session = new MockHttpSession();
+            repository.open(repository.key(session.getId(), null)).add(message("m1", "Anonymous"));
+            repository.open(repository.key("other", null)).add(message("m2", "Anonymous"));
+            ReflectionTestUtils.setField(repository, "maxMemoryBytes", 0L);
+            repository.open(repository.key("third", null));
+            assertTrue(files(".log").isEmpty());
+            assertEquals(0L, repository.getMetrics().get("appended"));
+            assertEquals(2, files(".snapshot").size());
+
+            // When
+            repository.sessionDestroyed(new HttpSessionEvent(session));
+
+            // Then
+            assertEquals(1, files(".snapshot").size());
+            newRepository(tempDir.toString(), 200);
+            assertTrue(files(".snapshot").isEmpty());
+        }
+    }
+
+    @Nested
+    @DisplayName("Memory Tests")
+    class MemoryTests {
+
+        @Test
+        @DisplayName("Should drop idle conversations from memory and read them back when opened")
+        void shouldEvictIdleConversations() {
+            // Given
+            String key = repository.key("s1", "a@example.com");
+            Conversation conversation = repository.open(key);
+            conversation.add(message("m1", "Cold"));
+            ReflectionTestUtils.setField(repository, "idleMinutes", 0L);
+            ReflectionTestUtils.setField(repository, "lastSweepAt", 0L);
+
+            // When
+            Conversation reloaded = repository.open(key);
+
+            // Then
+            assertNotSame(conversation, reloaded);
+            assertEquals(conversation, reloaded);
+            assertEquals(1L, repository.getMetrics().get("evicted"));
+            assertEquals(1L, repository.getMetrics().get("loaded"));
+        }
+
+        @Test
+        @DisplayName("Should drop the least recently used conversations past the memory budget")
+        void shouldEvictPastMemoryBudget() {
+            // Given - room for two of these conversations
+            ReflectionTestUtils.setField(repository, "maxMemoryBytes", 2000L);
+            List<String> keys = List.of(repository.key("s1", "a@example.com"), repository.key("s2", "b@example.com"),
+                    repository.key("s3", "c@example.com"), repository.key("s4", "d@example.com"));
+
+            // When
+            for (String key : keys) {
+                repository.open(key).add(message(key, "x".repeat(200)));
+            }
+            repository.open(keys.get(0));
+
+            // Then
+            assertTrue((Long) repository.getMetrics().get("evictedForMemory") >= 2L);
+            assertTrue((Long) repository.getMetrics().get("memoryBytes") <= 2000L);
+            assertTrue((Long) repository.getMetrics().get("evictedBytes") > 0L);
+            for (String key : keys) {
+                assertEquals(List.of(key), repository.open(key).stream().map(ChatMessage::getId).toList());
+            }
+            assertTrue((Long) repository.getMetrics().get("loaded") >= 2L);
+        }
+
+        @Test
+        @DisplayName("Should not lose a change made to a conversation after it was dropped")
+        void shouldKeepChangesToDroppedConversation() {
+            // Given
+            String key = repository.key("s1", "a@example.com");
+            Conversation held = repository.open(key);
+            held.add(message("m1", "Question"));
+            ReflectionTestUtils.setField(repository, "idleMinutes", 0L);
+            ReflectionTestUtils.setField(repository, "lastSweepAt", 0L);
+            Conversation reloaded = repository.open(key);
+
+            // When - a stream still holding the dropped copy finishes
+            held.add(message("m2", "Answer"));
+
+            // Then
+            assertNotSame(held, reloaded);
+            assertEquals(List.of("m1", "m2"), reloaded.stream().map(ChatMessage::getId).toList());
+            assertSame(reloaded, repository.open(key));
+        }
+
+        @Test
+        @DisplayName("Should take a dropped conversation back when it changes before being read back")
+        void shouldReadmitChangedConversation() {
+            // Given
+            String key = repository.key("s1", "a@example.com");
+            Conversation held = repository.open(key);
+            held.add(message("m1", "Question"));
+            ReflectionTestUtils.setField(repository, "idleMinutes", 0L);
+            ReflectionTestUtils.setField(repository, "lastSweepAt", 0L);
+            repository.open(repository.key("s2", "b@example.com"));
+
+            // When
+            held.add(message("m2", "Answer"));
+
+            // Then
+            assertEquals(1L, repository.getMetrics().get("evicted"));
+            assertSame(held, repository.open(key));
+            assertEquals(2, held.size());
+        }
+
+        @Test
+        @DisplayName("Should keep conversations by session and spill them without a directory")
+        void shouldSpillWithoutDirectory() throws IOException {
+            // Given
+            LogConversationRepository spilling = newRepository("", 200);
+            String key = spilling.key("s1", "a@example.com");
+            Conversation conversation = spilling.open(key);
+            conversation.add(message("m1", "Hello"));
+            ReflectionTestUtils.setField(spilling, "maxMemoryBytes", 0L);
+
+            // When
+            spilling.open(spilling.key("s2", null));
+            Conversation reloaded = spilling.open(key);
+
+            // Then
+            assertEquals(spilling.key("s1", null), key);
+            assertNotSame(conversation, reloaded);
+            assertEquals(conversation, reloaded);
+            assertEquals(false, spilling.getMetrics().get("persistent"));
+            assertEquals(0L, spilling.getMetrics().get("appended"));
+            assertTrue(files("").isEmpty());
+            spilling.close();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.TokenEvent;
+import com.chatapp.model.ChatConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("ModelRouter Tests")
+class ModelRouterTest {
+
+    private AiService aiService;
+    private ModelRouter router;
+    private ChatConfig config;
+
+    @BeforeEach
+    void setUp() {
+        aiService = Mockito.mock(AiService.class);
+        router = new ModelRouter(aiService);
+        ReflectionTestUtils.setField(router, "initialHedgeDelayMillis", 100L);
+        ReflectionTestUtils.setField(router, "minHedgeDelayMillis", 10L);
+        config = new ChatConfig();
+        config.setAiModel("primary/model");
+        config.setFallbackModels(List.of("backup/model"));
+    }
+
+    private void stream(String model, Flux<TokenEvent> events) {
+        when(aiService.streamTokens(anyString(), any(), eq(model), anyInt(), anyDouble(), any())).thenReturn(events);
+    }
+
+    private String collect(Flux<TokenEvent> events) {
+        return events.filter(TokenEvent::hasContent)
+                .map(TokenEvent::getContent)
+                .collect(Collectors.joining())
+                .block(Duration.ofSeconds(5));
+    }
+
+    @Nested
+    @DisplayName("Fallback Tests")
+    class FallbackTests {
+
+        @Test
+        @DisplayName("Should fall back when the model fails before its first token")
+        void shouldFallBackOnEarlyFailure() {
+            // Given
+            stream("primary/model", Flux.error(new UpstreamUnavailableException("down")));
+            stream("backup/model", Flux.just(TokenEvent.token("backup")));
+
+            // When
+            String answer = collect(router.streamTokens(config, "Hello", List.of()));
+
+            // Then
+            assertEquals("backup", answer);
+            assertEquals(1L, router.getMetrics().get("fallbacks"));
+        }
+
+        @Test
+        @DisplayName("Should not switch models once output was produced")
+        void shouldNotFallBackAfterFirstToken() {
+            // Given
+            stream("primary/model", Flux.concat(Flux.just(TokenEvent.token("partial")),
+                    Flux.error(new UpstreamUnavailableException("down"))));
+            stream("backup/model", Flux.just(TokenEvent.token("backup")));
+
+            // When & Then
+            assertThrows(UpstreamUnavailableException.class, () -> collect(router.streamTokens(config, "Hello", List.of())));
+            verify(aiService, never()).streamTokens(anyString(), any(), eq("backup/model"), anyInt(), anyDouble(), any());
+        }
+
+        @Test
+        @DisplayName("Should use only the model without fallback models")
+        void shouldUseOnlyModelWithoutFallbacks() {
+            // Given
+            config.setFallbackModels(List.of());
+            stream("primary/model", Flux.error(new UpstreamUnavailableException("down")));
+
+            // When & Then
+            UpstreamUnavailableException error = assertThrows(UpstreamUnavailableException.class,
+                    () -> collect(router.streamTokens(config, "Hello", List.of())));
+            assertEquals("down", error.getMessage());
+        }
+
+        @Test
+        @DisplayName("Should fall back in a blocking completion as in a stream")
+        void shouldFallBackInBlockingCompletion() {
+            // When
+            String answer = router.complete(config, model -> {
+                if (model.equals("primary/model")) {
+                    throw new UpstreamUnavailableException("down");
+                }
+                return "from " + model;
+            });
+
+            // Then
+            assertEquals("from backup/model", answer);
+            assertEquals(1L, router.getMetrics().get("fallbacks"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Measurement Tests")
+    class MeasurementTests {
+
+        @Test
+        @DisplayName("Should measure only the stream that made the upstream request")
+        void shouldNotMeasureJoinedStream() {
+            // Given
+            UsageAccounting usageAccounting = new UsageAccounting();
+            router = new ModelRouter(new StreamCoalescer(aiService), usageAccounting);
+            stream("primary/model", Flux.just(TokenEvent.token("shared")).delaySubscription(Duration.ofMillis(50)));
+
+            // When
+            String answers = collect(Flux.merge(
+                    router.streamTokens(config, "Hello", List.of(), new UsageAccounting.Account("s1", null)),
+                    router.streamTokens(config, "Hello", List.of(), new UsageAccounting.Account("s2", null))));
+
+            // Then
+            assertEquals("sharedshared", answers);
+            verify(aiService, times(1)).streamTokens(anyString(), any(), eq("primary/model"), anyInt(), anyDouble(), any());
+            assertEquals(1L, usageAccounting.getModelSummaries().get("primary/model").getRequests());
+            assertEquals(1L, usageAccounting.getSessionSummary("s1").getRequests());
+            assertEquals(0L, usageAccounting.getSessionSummary("s2").getRequests());
+        }
+    }
+
+    @Nested
+    @DisplayName("Hedging Tests")
+    class HedgingTests {
+
+        @BeforeEach
+        void enableHedging() {
+            config.setHedgingEnabled(true);
+        }
+
+        @Test
+        @DisplayName("Should take the hedge and cancel a model that is slow to start")
+        void shouldTakeHedgeWhenModelSlow() {
+            // Given
+            AtomicBoolean primaryCancelled = new AtomicBoolean();
+            stream("primary/model", Flux.<TokenEvent>never().doOnCancel(() -> primaryCancelled.set(true)));
+            stream("backup/model", Flux.just(TokenEvent.token("fast "), TokenEvent.token("answer")));
+
+            // When
+            String answer = collect(router.streamTokens(config, "Hello", List.of()));
+
+            // Then
+            assertEquals("fast answer", answer);
+            assertTrue(primaryCancelled.get());
+            assertEquals(1L, router.getMetrics().get("hedgesWon"));
+        }
+
+        @Test
+        @DisplayName("Should not start the hedge when the model answers in time")
+        void shouldNotHedgeWhenModelFast() {
+            // Given
+            stream("primary/model", Flux.just(TokenEvent.token("primary")));
+            stream("backup/model", Flux.just(TokenEvent.token("backup")));
+
+            // When
+            String answer = collect(router.streamTokens(config, "Hello", List.of()));
+
+            // Then
+            assertEquals("primary", answer);
+            assertEquals(0L, router.getMetrics().get("hedges"));
+        }
+
+        @Test
+        @DisplayName("Should count the request of the model that lost the race")
+        void shouldRecordLosingModelUsage() {
+            // Given
+            UsageAccounting usageAccounting = new UsageAccounting();
+            router = new ModelRouter(new StreamCoalescer(aiService), usageAccounting);
+            ReflectionTestUtils.setField(router, "initialHedgeDelayMillis", 100L);
+            ReflectionTestUtils.setField(router, "minHedgeDelayMillis", 10L);
+            stream("primary/model", Flux.never());
+            stream("backup/model", Flux.just(TokenEvent.token("fast")));
+
+            // When
+            String answer = collect(router.streamTokens(config, "Hello", List.of(), new UsageAccounting.Account("s1", null)));
+
+            // Then
+            assertEquals("fast", answer);
+            assertEquals(1L, usageAccounting.getModelSummaries().get("primary/model").getRequests());
+            assertEquals(1L, usageAccounting.getModelSummaries().get("backup/model").getRequests());
+            assertEquals(2L, usageAccounting.getSessionSummary("s1").getRequests());
+        }
+
+        @Test
+        @DisplayName("Should not hedge a model that completes with an empty answer")
+        void shouldNotHedgeEmptyCompletion() {
+            // Given
+            stream("primary/model", Flux.empty());
+            stream("backup/model", Flux.just(TokenEvent.token("backup")));
+
+            // When
+            String answer = collect(router.streamTokens(config, "Hello", List.of()));
+
+            // Then
+            assertEquals("", answer);
+            assertEquals(0L, router.getMetrics().get("hedges"));
+            verify(aiService, never()).streamTokens(anyString(), any(), eq("backup/model"), anyInt(), anyDouble(), any());
+        }
+
+        @Test
+        @DisplayName("Should decide the race by the first real token")
+        void shouldIgnoreEmptyDeltasInRace() {
+            // Given
+            stream("primary/model", Flux.concat(Flux.just(new TokenEvent("", null, null)), Flux.never()));
+            stream("backup/model", Flux.just(TokenEvent.token("backup")));
+
+            // When
+            String answer = collect(router.streamTokens(config, "Hello", List.of()));
+
+            // Then
+            assertEquals("backup", answer);
+        }
+
+        @Test
+        @DisplayName("Should report the last error when every model fails")
+        void shouldReportLastErrorWhenAllFail() {
+            // Given
+            stream("primary/model", Flux.error(new UpstreamUnavailableException("primary down")));
+            stream("backup/model", Flux.error(new UpstreamUnavailableException("backup down")));
+
+            // When & Then
+            UpstreamUnavailableException error = assertThrows(UpstreamUnavailableException.class,
+                    () -> collect(router.streamTokens(config, "Hello", List.of())));
+            assertEquals("backup down", error.getMessage());
+        }
+
+        @Test
+        @DisplayName("Should derive the hedge delay from recent times to first token")
+        void shouldDeriveHedgeDelayFromPercentile() {
+            // Given
+            ReflectionTestUtils.setField(router, "minHedgeDelayMillis", 0L);
+            ModelRouter.LatencyWindow window = new ModelRouter.LatencyWindow(128);
+            for (int i = 1; i <= 100; i++) {
+                window.record(i * 10L);
+            }
+            @SuppressWarnings("unchecked")
+            java.util.Map<String, ModelRouter.LatencyWindow> latencies =
+                    (java.util.Map<String, ModelRouter.LatencyWindow>) ReflectionTestUtils.getField(router, "firstTokenLatencies");
+            latencies.put("primary/model", window);
+
+            // When & Then
+            assertEquals(Duration.ofMillis(950), router.hedgeDelay("primary/model"));
+            assertEquals(Duration.ofMillis(100), router.hedgeDelay("unknown/model"));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.TokenEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("ResponseCache Tests")
+class ResponseCacheTest {
+
+    private ResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new ResponseCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        cache.init();
+    }
+
+    private static List<TokenEvent> collect(Flux<TokenEvent> events) {
+        return events.collectList().block(Duration.ofSeconds(5));
+    }
+
+    private static String text(List<TokenEvent> events) {
+        return events.stream().filter(TokenEvent::hasContent).map(TokenEvent::getContent).collect(Collectors.joining());
+    }
+
+    @Nested
+    @DisplayName("Caching Tests")
+    class CachingTests {
+
+        @Test
+        @DisplayName("Should only cache temperature-0 requests when enabled")
+        void shouldOnlyCacheDeterministicRequests() {
+            assertTrue(cache.isCacheable(0));
+            assertFalse(cache.isCacheable(0.7));
+            assertFalse(new ResponseCache().isCacheable(0));
+        }
+
+        @Test
+        @DisplayName("Should replay a completed answer token by token")
+        void shouldReplayCompletedAnswer() {
+            // Given
+            collect(cache.recording("key", Flux.just(TokenEvent.token("Paris "), TokenEvent.token("is the capital."),
+                    new TokenEvent(null, "stop", null))));
+
+            // When
+            List<TokenEvent> replayed = collect(cache.replay("key"));
+
+            // Then
+            assertEquals(3, replayed.size());
+            assertEquals("Paris is the capital.", text(replayed));
+            assertEquals("stop", replayed.get(2).getFinishReason());
+            assertEquals(1L, cache.getMetrics().get("hits"));
+        }
+
+        @Test
+        @DisplayName("Should not cache failed or unfinished answers")
+        void shouldNotCacheFailedAnswers() {
+            // Given
+            assertThrows(RuntimeException.class, () -> collect(cache.recording("failed",
+                    Flux.concat(Flux.just(TokenEvent.token("Par")), Flux.error(new UpstreamUnavailableException("down"))))));
+            collect(cache.recording("unfinished", Flux.just(TokenEvent.token("Par"))));
+            collect(cache.recording("error", Flux.just(TokenEvent.token("Par"), new TokenEvent(null, "error", null))));
+
+            // When & Then
+            assertNull(cache.replay("failed"));
+            assertNull(cache.replay("unfinished"));
+            assertNull(cache.replay("error"));
+            assertEquals(3L, cache.getMetrics().get("misses"));
+        }
+
+        @Test
+        @DisplayName("Should answer a repeated temperature-0 request without calling upstream")
+        void shouldServeRepeatedRequestFromCache() {
+            // Given
+            AiService aiService = Mockito.mock(AiService.class);
+            when(aiService.streamTokens(anyString(), any(), anyString(), anyInt(), anyDouble(), any()))
+                    .thenReturn(Flux.just(TokenEvent.token("42"), new TokenEvent(null, "stop", null)));
+            StreamCoalescer coalescer = new StreamCoalescer(aiService, cache);
+
+            // When
+            String first = text(collect(coalescer.streamTokens("Answer?", List.of(), "test/model", 100, 0, null)));
+            String second = text(collect(coalescer.streamTokens("Answer?", List.of(), "test/model", 100, 0, null)));
+            collect(coalescer.streamTokens("Answer?", List.of(), "test/model", 100, 0.5, null));
+
+            // Then
+            assertEquals("42", first);
+            assertEquals("42", second);
+            verify(aiService, times(2)).streamTokens(anyString(), any(), anyString(), anyInt(), anyDouble(), any());
+        }
+    }
+}
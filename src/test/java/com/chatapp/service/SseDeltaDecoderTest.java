@@ -0,0 +1,117 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.TokenEvent;
+import com.chatapp.service.impl.SseDeltaDecoder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("SseDeltaDecoder Tests")
+class SseDeltaDecoderTest {
+
+    @Nested
+    @DisplayName("Chunk Decoding Tests")
+    class ChunkDecodingTests {
+
+        @Test
+        @DisplayName("Should read the delta content of the first choice")
+        void shouldReadDeltaContentOfFirstChoice() {
+            // Given
+            String chunk = "data: {\"id\":\"gen-1\",\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"Hello\"},\"finish_reason\":null},"
+                    + "{\"index\":1,\"delta\":{\"content\":\"ignored\"},\"finish_reason\":\"stop\"}]}";
+
+            // When
+            TokenEvent event = SseDeltaDecoder.decode(chunk);
+
+            // Then
+            assertNotNull(event);
+            assertEquals("Hello", event.getContent());
+            assertNull(event.getFinishReason());
+            assertNull(event.getUsage());
+        }
+
+        @Test
+        @DisplayName("Should read finish reason and usage")
+        void shouldReadFinishReasonAndUsage() {
+            // Given
+            String chunk = "{\"choices\":[{\"delta\":{\"content\":\"\"},\"finish_reason\":\"stop\"}],"
+                    + "\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":30,\"total_tokens\":42,\"cost\":{\"usd\":0.1}}}";
+
+            // When
+            TokenEvent event = SseDeltaDecoder.decode(chunk);
+
+            // Then
+            assertNotNull(event);
+            assertFalse(event.hasContent());
+            assertEquals("stop", event.getFinishReason());
+            assertEquals(12, event.getUsage().getPromptTokens());
+            assertEquals(30, event.getUsage().getCompletionTokens());
+            assertEquals(42, event.getUsage().getTotalTokens());
+        }
+
+        @Test
+        @DisplayName("Should unescape JSON string content")
+        void shouldUnescapeJsonStringContent() {
+            // Given
+            String chunk = "data: {\"choices\":[{\"delta\":{\"content\":\"line\\n\\\"quoted\\\" \\u00e9\"}}]}";
+
+            // When
+            TokenEvent event = SseDeltaDecoder.decode(chunk);
+
+            // Then
+            assertEquals("line\n\"quoted\" \u00e9", event.getContent());
+        }
+
+        @Test
+        @DisplayName("Should ignore done markers, comments, empty deltas and malformed JSON")
+        void shouldIgnoreNonContentChunks() {
+            // When & Then
+            assertNull(SseDeltaDecoder.decode("data: [DONE]"));
+            assertNull(SseDeltaDecoder.decode(": OPENROUTER PROCESSING"));
+            assertNull(SseDeltaDecoder.decode(""));
+            assertNull(SseDeltaDecoder.decode(null));
+            assertNull(SseDeltaDecoder.decode("data: {\"choices\":[{\"delta\":{\"role\":\"assistant\",\"content\":\"\"},\"finish_reason\":null}]}"));
+            assertNull(SseDeltaDecoder.decode("data: {\"choices\":[{\"delta\":{\"content\":\"cut"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Recorded Stream Tests")
+    class RecordedStreamTests {
+
+        @Test
+        @DisplayName("Should reassemble a recorded OpenRouter stream")
+        void shouldReassembleRecordedStream() throws Exception {
+            // Given
+            String stream;
+            try (InputStream in = getClass().getResourceAsStream("/sse/openrouter-stream.txt")) {
+                stream = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            List<TokenEvent> events = new ArrayList<>();
+
+            // When
+            for (String line : stream.split("\n")) {
+                TokenEvent event = SseDeltaDecoder.decode(line);
+                if (event != null) {
+                    events.add(event);
+                }
+            }
+
+            // Then
+            StringBuilder text = new StringBuilder();
+            events.stream().filter(TokenEvent::hasContent).forEach(e -> text.append(e.getContent()));
+            assertTrue(text.toString().startsWith("Server-sent events let the server push tokens"));
+            assertTrue(text.toString().contains("\n\nThat makes"));
+            TokenEvent last = events.get(events.size() - 1);
+            assertEquals("stop", last.getFinishReason());
+            assertEquals(98, last.getUsage().getTotalTokens());
+        }
+    }
+}
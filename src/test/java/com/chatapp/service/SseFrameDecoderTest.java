@@ -0,0 +1,174 @@
+package com.chatapp.service;
+
+import com.chatapp.service.impl.SseFrameDecoder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("SseFrameDecoder Tests")
+class SseFrameDecoderTest {
+
+    private static List<SseFrameDecoder.Event> decode(SseFrameDecoder decoder, String stream) {
+        List<SseFrameDecoder.Event> events = new ArrayList<>();
+        byte[] bytes = stream.getBytes(StandardCharsets.UTF_8);
+        decoder.feed(bytes, 0, bytes.length, events::add);
+        return events;
+    }
+
+    @Nested
+    @DisplayName("Field Tests")
+    class FieldTests {
+
+        @Test
+        @DisplayName("Should join multi-line data and keep event and id fields")
+        void shouldJoinMultiLineDataAndKeepFields() {
+            // Given
+            SseFrameDecoder decoder = new SseFrameDecoder(1024);
+
+            // When
+            List<SseFrameDecoder.Event> events = decode(decoder,
+                    "event: delta\nid: 7\ndata: first\ndata:second\n\ndata: plain\n\n");
+
+            // Then
+            assertEquals(2, events.size());
+            assertEquals("delta", events.get(0).getType());
+            assertEquals("7", events.get(0).getId());
+            assertEquals("first\nsecond", events.get(0).getData());
+            assertEquals("message", events.get(1).getType());
+            assertEquals("7", events.get(1).getId());
+            assertEquals("plain", events.get(1).getData());
+        }
+
+        @Test
+        @DisplayName("Should skip comments and blank lines without data")
+        void shouldSkipCommentsAndBlankLines() {
+            // Given
+            SseFrameDecoder decoder = new SseFrameDecoder(1024);
+
+            // When
+            List<SseFrameDecoder.Event> events = decode(decoder,
+                    ": OPENROUTER PROCESSING\n\n: OPENROUTER PROCESSING\n\nretry: 1000\n\ndata: {}\n\n");
+
+            // Then
+            assertEquals(1, events.size());
+            assertEquals("{}", events.get(0).getData());
+            assertEquals(2, decoder.getCommentCount());
+            assertEquals(1, decoder.getEventCount());
+        }
+
+        @Test
+        @DisplayName("Should accept CR, LF and CRLF line endings")
+        void shouldAcceptAllLineEndings() {
+            // Given
+            SseFrameDecoder decoder = new SseFrameDecoder(1024);
+
+            // When
+            List<SseFrameDecoder.Event> events = decode(decoder, "data: a\r\n\r\ndata: b\r\rdata: c\n\n");
+
+            // Then
+            assertEquals(3, events.size());
+            assertEquals("a", events.get(0).getData());
+            assertEquals("b", events.get(1).getData());
+            assertEquals("c", events.get(2).getData());
+        }
+    }
+
+    @Nested
+    @DisplayName("Reassembly Tests")
+    class ReassemblyTests {
+
+        @Test
+        @DisplayName("Should reassemble events split at every possible byte boundary")
+        void shouldReassembleEventsSplitAtAnyBoundary() {
+            // Given
+            String stream = "data: {\"content\":\"héllo 世界\"}\r\n\r\n: keep-alive\n\ndata: [DONE]\n\n";
+            byte[] bytes = stream.getBytes(StandardCharsets.UTF_8);
+
+            for (int split = 0; split <= bytes.length; split++) {
+                SseFrameDecoder decoder = new SseFrameDecoder(1024);
+                List<SseFrameDecoder.Event> events = new ArrayList<>();
+
+                // When
+                decoder.feed(bytes, 0, split, events::add);
+                decoder.feed(bytes, split, bytes.length - split, events::add);
+
+                // Then
+                assertEquals(2, events.size(), "split at " + split);
+                assertEquals("{\"content\":\"héllo 世界\"}", events.get(0).getData(), "split at " + split);
+                assertEquals("[DONE]", events.get(1).getData(), "split at " + split);
+            }
+        }
+
+        @Test
+        @DisplayName("Should decode a recorded stream fed one byte per buffer")
+        void shouldDecodeRecordedStreamByteByByte() throws Exception {
+            // Given
+            byte[] bytes;
+            try (InputStream in = getClass().getResourceAsStream("/sse/openrouter-stream.txt")) {
+                bytes = in.readAllBytes();
+            }
+            SseFrameDecoder decoder = new SseFrameDecoder(64 * 1024);
+            DefaultDataBufferFactory factory = DefaultDataBufferFactory.sharedInstance;
+            List<SseFrameDecoder.Event> events = new ArrayList<>();
+
+            // When
+            for (byte b : bytes) {
+                DataBuffer buffer = factory.wrap(new byte[] {b});
+                decoder.feed(buffer, events::add);
+                assertEquals(0, buffer.readableByteCount());
+            }
+            decoder.finish();
+
+            // Then
+            assertEquals(60, events.size());
+            assertEquals("[DONE]", events.get(events.size() - 1).getData());
+            assertEquals(1, decoder.getCommentCount());
+            assertEquals(0, decoder.getMalformedCount());
+        }
+    }
+
+    @Nested
+    @DisplayName("Malformed Frame Tests")
+    class MalformedFrameTests {
+
+        @Test
+        @DisplayName("Should drop oversized lines and keep decoding")
+        void shouldDropOversizedLines() {
+            // Given
+            SseFrameDecoder decoder = new SseFrameDecoder(16);
+
+            // When
+            List<SseFrameDecoder.Event> events = decode(decoder,
+                    "data: this line is far too long\n\ndata: ok\n\n");
+
+            // Then
+            assertEquals(1, events.size());
+            assertEquals("ok", events.get(0).getData());
+            assertEquals(1, decoder.getMalformedCount());
+        }
+
+        @Test
+        @DisplayName("Should discard an event truncated by the end of the stream")
+        void shouldDiscardTruncatedEvent() {
+            // Given
+            SseFrameDecoder decoder = new SseFrameDecoder(1024);
+
+            // When
+            List<SseFrameDecoder.Event> events = decode(decoder, "data: complete\n\ndata: {\"cut");
+            decoder.finish();
+
+            // Then
+            assertEquals(1, events.size());
+            assertEquals(1, decoder.getMalformedCount());
+        }
+    }
+}
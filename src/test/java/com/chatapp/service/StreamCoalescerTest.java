@@ -0,0 +1,162 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.TokenEvent;
+import com.chatapp.model.ChatMessage;
+import com.chatapp.model.ImageBlob;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.mockito.Mockito;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("StreamCoalescer Tests")
+class StreamCoalescerTest {
+
+    private AiService aiService;
+    private StreamCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        aiService = Mockito.mock(AiService.class);
+        coalescer = new StreamCoalescer(aiService);
+    }
+
+    private Flux<TokenEvent> stream(String prompt, List<ChatMessage> history) {
+        return coalescer.streamTokens(prompt, history, "test/model", 100, 0.7, null);
+    }
+
+    private static String collect(Flux<TokenEvent> events) {
+        return events.map(TokenEvent::getContent)
+                .collect(Collectors.joining())
+                .block(Duration.ofSeconds(5));
+    }
+
+    @Nested
+    @DisplayName("Coalescing Tests")
+    class CoalescingTests {
+
+        @Test
+        @DisplayName("Should share one upstream call between identical in-flight requests")
+        void shouldShareIdenticalInFlightRequests() {
+            // Given
+            Sinks.Many<TokenEvent> upstream = Sinks.many().unicast().onBackpressureBuffer();
+            when(aiService.streamTokens(anyString(), any(), anyString(), anyInt(), anyDouble(), any())).thenReturn(upstream.asFlux());
+            List<ChatMessage> history = List.of(new ChatMessage("Hi", ChatMessage.MessageType.USER),
+                    new ChatMessage("Hello!", ChatMessage.MessageType.AI));
+            StringBuilder first = new StringBuilder();
+            StringBuilder second = new StringBuilder();
+
+            // When
+            stream("Again", history).subscribe(event -> first.append(event.getContent()));
+            upstream.tryEmitNext(TokenEvent.token("Same "));
+            stream("Again", List.of(new ChatMessage("Hi", ChatMessage.MessageType.USER),
+                    new ChatMessage("Hello!", ChatMessage.MessageType.AI)))
+                    .subscribe(event -> second.append(event.getContent()));
+            upstream.tryEmitNext(TokenEvent.token("answer"));
+            upstream.tryEmitComplete();
+
+            // Then
+            assertEquals("Same answer", first.toString());
+            assertEquals("Same answer", second.toString());
+            verify(aiService, times(1)).streamTokens(anyString(), any(), anyString(), anyInt(), anyDouble(), any());
+            assertEquals(1L, coalescer.getMetrics().get("coalesced"));
+            assertEquals(0, coalescer.getMetrics().get("inFlight"));
+        }
+
+        @Test
+        @DisplayName("Should not share requests that differ in history or parameters")
+        void shouldNotShareDifferentRequests() {
+            // Given
+            when(aiService.streamTokens(anyString(), any(), anyString(), anyInt(), anyDouble(), any()))
+                    .thenReturn(Flux.<TokenEvent>never());
+            ChatMessage image = new ChatMessage("Look", ChatMessage.MessageType.USER);
+            image.setImageBase64("aGVsbG8=");
+
+            // When
+            Disposable a = stream("Hello", List.of()).subscribe();
+            Disposable b = stream("Hello", List.of(new ChatMessage("Look", ChatMessage.MessageType.USER))).subscribe();
+            Disposable c = stream("Hello", List.of(image)).subscribe();
+            Disposable d = coalescer.streamTokens("Hello", List.of(), "test/model", 100, 0.2, null).subscribe();
+
+            // Then
+            verify(aiService, times(4)).streamTokens(anyString(), any(), anyString(), anyInt(), anyDouble(), any());
+            assertEquals(0L, coalescer.getMetrics().get("coalesced"));
+            a.dispose();
+            b.dispose();
+            c.dispose();
+            d.dispose();
+        }
+
+        @Test
+        @DisplayName("Should key image messages by the image hash without reading the image")
+        void shouldKeyImagesByHash() {
+            // Given
+            when(aiService.streamTokens(anyString(), any(), anyString(), anyInt(), anyDouble(), any()))
+                    .thenReturn(Flux.<TokenEvent>never());
+            ChatMessage first = new ChatMessage("Look", ChatMessage.MessageType.USER);
+            first.setImage(new ImageBlob("aaaa", 5, "image/png", () -> { throw new AssertionError("image was read"); }));
+            ChatMessage same = new ChatMessage("Look", ChatMessage.MessageType.USER);
+            same.setImage(new ImageBlob("aaaa", 5, "image/png", () -> { throw new AssertionError("image was read"); }));
+            ChatMessage other = new ChatMessage("Look", ChatMessage.MessageType.USER);
+            other.setImage(new ImageBlob("bbbb", 5, "image/png", () -> { throw new AssertionError("image was read"); }));
+
+            // When
+            Disposable a = stream("Hello", List.of(first)).subscribe();
+            Disposable b = stream("Hello", List.of(same)).subscribe();
+            Disposable c = stream("Hello", List.of(other)).subscribe();
+
+            // Then
+            verify(aiService, times(2)).streamTokens(anyString(), any(), anyString(), anyInt(), anyDouble(), any());
+            assertEquals(1L, coalescer.getMetrics().get("coalesced"));
+            a.dispose();
+            b.dispose();
+            c.dispose();
+        }
+
+        @Test
+        @DisplayName("Should start a new call once the previous identical one has finished")
+        void shouldStartNewCallAfterCompletion() {
+            // Given
+            when(aiService.streamTokens(anyString(), any(), anyString(), anyInt(), anyDouble(), any()))
+                    .thenReturn(Flux.just(TokenEvent.token("first")), Flux.just(TokenEvent.token("second")));
+
+            // When
+            String first = collect(stream("Hello", List.of()));
+            String second = collect(stream("Hello", List.of()));
+
+            // Then
+            assertEquals("first", first);
+            assertEquals("second", second);
+        }
+
+        @Test
+        @DisplayName("Should cancel the upstream only when every waiter has cancelled")
+        void shouldCancelUpstreamWhenAllWaitersCancel() {
+            // Given
+            AtomicBoolean cancelled = new AtomicBoolean();
+            when(aiService.streamTokens(anyString(), any(), anyString(), anyInt(), anyDouble(), any()))
+                    .thenReturn(Flux.<TokenEvent>never().doOnCancel(() -> cancelled.set(true)));
+            Disposable first = stream("Hello", List.of()).subscribe();
+            Disposable second = stream("Hello", List.of()).subscribe();
+
+            // When & Then
+            first.dispose();
+            assertFalse(cancelled.get());
+            second.dispose();
+            assertTrue(cancelled.get());
+            assertEquals(0, coalescer.getMetrics().get("inFlight"));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.chatapp.service;
+
+import com.chatapp.model.StreamState;
+import jakarta.servlet.http.HttpSessionEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("StreamRegistry Tests")
+class StreamRegistryTest {
+
+    private StreamRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new StreamRegistry();
+        ReflectionTestUtils.setField(registry, "retentionSeconds", 300L);
+        ReflectionTestUtils.setField(registry, "maxStreamsPerSession", 3);
+    }
+
+    @Nested
+    @DisplayName("Lookup Tests")
+    class LookupTests {
+
+        @Test
+        @DisplayName("Should give each stream of a session its own state")
+        void shouldGiveEachStreamItsOwnState() {
+            // Given
+            StreamState first = registry.register("session-a", "First");
+            StreamState second = registry.register("session-a", "Second");
+
+            // When
+            first.append("one");
+
+            // Then
+            assertNotEquals(first.getId(), second.getId());
+            assertSame(first, registry.get("session-a", first.getId()));
+            assertSame(second, registry.get("session-a", second.getId()));
+            assertEquals(0, second.getBuffer().length());
+        }
+
+        @Test
+        @DisplayName("Should not expose a stream to another session")
+        void shouldNotExposeStreamToAnotherSession() {
+            // Given
+            StreamState stream = registry.register("session-a", "Hello");
+
+            // When & Then
+            assertNull(registry.get("session-b", stream.getId()));
+            assertNull(registry.get("session-a", null));
+            assertNull(registry.get("session-a", "unknown"));
+        }
+
+        @Test
+        @DisplayName("Should find the latest unfinished stream of a session")
+        void shouldFindLatestUnfinishedStream() throws Exception {
+            // Given
+            StreamState older = registry.register("session-a", "Older");
+            Thread.sleep(2);
+            StreamState newer = registry.register("session-a", "Newer");
+            newer.tryStart();
+            newer.markComplete();
+
+            // When & Then
+            assertSame(older, registry.latestActive("session-a"));
+            assertNull(registry.latestActive("session-b"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Start Tests")
+    class StartTests {
+
+        @Test
+        @DisplayName("Should let exactly one concurrent caller start a stream")
+        void shouldLetExactlyOneCallerStart() throws Exception {
+            // Given
+            StreamState stream = registry.register("session-a", "Hello");
+            int threads = 8;
+            java.util.concurrent.CountDownLatch ready = new java.util.concurrent.CountDownLatch(1);
+            java.util.concurrent.atomic.AtomicInteger starts = new java.util.concurrent.atomic.AtomicInteger();
+            Thread[] workers = new Thread[threads];
+
+            // When
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Thread(() -> {
+                    try {
+                        ready.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (registry.get("session-a", stream.getId()).tryStart()) {
+                        starts.incrementAndGet();
+                    }
+                });
+                workers[i].start();
+            }
+            ready.countDown();
+            for (Thread worker : workers) {
+                worker.join(5000);
+            }
+
+            // Then
+            assertEquals(1, starts.get());
+        }
+    }
+
+    @Nested
+    @DisplayName("Lifecycle Tests")
+    class LifecycleTests {
+
+        @Test
+        @DisplayName("Should drop finished streams after the retention period")
+        void shouldDropFinishedStreamsAfterRetention() {
+            // Given
+            StreamState stream = registry.register("session-a", "Hello");
+            stream.tryStart();
+            stream.markComplete();
+            assertNotNull(registry.get("session-a", stream.getId()));
+
+            // When
+            ReflectionTestUtils.setField(stream, "completedAt", System.currentTimeMillis() - 301_000L);
+
+            // Then
+            assertNull(registry.get("session-a", stream.getId()));
+            assertEquals(0, registry.size());
+        }
+
+        @Test
+        @DisplayName("Should drop the oldest finished streams beyond the per-session limit")
+        void shouldDropOldestFinishedStreamsBeyondLimit() throws Exception {
+            // Given
+            StreamState oldest = registry.register("session-a", "1");
+            oldest.tryStart();
+            oldest.markComplete();
+            Thread.sleep(2);
+            registry.register("session-a", "2");
+            registry.register("session-a", "3");
+
+            // When
+            StreamState latest = registry.register("session-a", "4");
+
+            // Then
+            assertEquals(3, registry.size());
+            assertNull(registry.get("session-a", oldest.getId()));
+            assertNotNull(registry.get("session-a", latest.getId()));
+        }
+
+        @Test
+        @DisplayName("Should cancel and drop the streams of an ended session")
+        void shouldCancelAndDropStreamsOfEndedSession() {
+            // Given
+            MockHttpSession session = new MockHttpSession();
+            StreamState stream = registry.register(session.getId(), "Hello");
+            stream.tryStart();
+
+            // When
+            registry.sessionDestroyed(new HttpSessionEvent(session));
+
+            // Then
+            assertTrue(stream.isCancelled());
+            assertNull(registry.get(session.getId(), stream.getId()));
+        }
+    }
+}
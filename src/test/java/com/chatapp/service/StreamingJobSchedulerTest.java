@@ -0,0 +1,202 @@
+package com.chatapp.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("StreamingJobScheduler Tests")
+class StreamingJobSchedulerTest {
+
+    private StreamingJobScheduler scheduler;
+    private Sinks.Empty<Void> release;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new StreamingJobScheduler();
+        ReflectionTestUtils.setField(scheduler, "maxConcurrent", 2);
+        ReflectionTestUtils.setField(scheduler, "queueCapacity", 1);
+        ReflectionTestUtils.setField(scheduler, "maxPerUser", 2);
+        ReflectionTestUtils.setField(scheduler, "shutdownTimeoutSeconds", 5);
+        release = Sinks.empty();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.tryEmitEmpty();
+        scheduler.shutdown();
+    }
+
+    private Mono<Void> pendingJob() {
+        return release.asMono();
+    }
+
+    @Nested
+    @DisplayName("Admission Tests")
+    class AdmissionTests {
+
+        @Test
+        @DisplayName("Should start accepted jobs without holding the caller")
+        void shouldStartAcceptedJobsWithoutHoldingCaller() {
+            // Given
+            AtomicBoolean subscribed = new AtomicBoolean(false);
+
+            // When
+            boolean accepted = scheduler.submit("user-a", () -> pendingJob().doOnSubscribe(s -> subscribed.set(true)));
+
+            // Then
+            assertTrue(accepted);
+            assertTrue(subscribed.get());
+            assertEquals(1, scheduler.getActiveCount());
+        }
+
+        @Test
+        @DisplayName("Should reject jobs beyond the per-user cap")
+        void shouldRejectJobsBeyondPerUserCap() {
+            // Given
+            assertTrue(scheduler.submit("user-a", StreamingJobSchedulerTest.this::pendingJob));
+            assertTrue(scheduler.submit("user-a", StreamingJobSchedulerTest.this::pendingJob));
+
+            // When
+            boolean accepted = scheduler.submit("user-a", StreamingJobSchedulerTest.this::pendingJob);
+
+            // Then
+            assertFalse(accepted);
+            assertEquals(1L, scheduler.getMetrics().get("rejected"));
+        }
+
+        @Test
+        @DisplayName("Should reject jobs when slots and queue are full")
+        void shouldRejectJobsWhenSlotsAndQueueAreFull() {
+            // Given
+            assertTrue(scheduler.submit("user-a", StreamingJobSchedulerTest.this::pendingJob));
+            assertTrue(scheduler.submit("user-b", StreamingJobSchedulerTest.this::pendingJob));
+            assertTrue(scheduler.submit("user-c", StreamingJobSchedulerTest.this::pendingJob));
+
+            // When
+            boolean accepted = scheduler.submit("user-d", StreamingJobSchedulerTest.this::pendingJob);
+
+            // Then
+            assertFalse(accepted);
+            assertEquals(2, scheduler.getActiveCount());
+            assertEquals(1, scheduler.getQueuedCount());
+        }
+    }
+
+    @Nested
+    @DisplayName("Lifecycle Tests")
+    class LifecycleTests {
+
+        @Test
+        @DisplayName("Should free the per-user slot when a job finishes")
+        void shouldFreePerUserSlotWhenJobFinishes() {
+            // Given
+            scheduler.submit("user-a", Mono::empty);
+            scheduler.submit("user-a", Mono::empty);
+
+            // When
+            boolean accepted = scheduler.submit("user-a", Mono::empty);
+
+            // Then
+            assertTrue(accepted);
+            assertEquals(0, scheduler.getActiveCount());
+            assertEquals(3L, scheduler.getMetrics().get("completed"));
+        }
+
+        @Test
+        @DisplayName("Should start a queued job when a slot is released")
+        void shouldStartQueuedJobWhenSlotReleased() {
+            // Given
+            Sinks.Empty<Void> first = Sinks.empty();
+            AtomicBoolean queuedStarted = new AtomicBoolean(false);
+            scheduler.submit("user-a", first::asMono);
+            scheduler.submit("user-b", StreamingJobSchedulerTest.this::pendingJob);
+            scheduler.submit("user-c", () -> pendingJob().doOnSubscribe(s -> queuedStarted.set(true)));
+            assertFalse(queuedStarted.get());
+
+            // When
+            first.tryEmitEmpty();
+
+            // Then
+            assertTrue(queuedStarted.get());
+            assertEquals(2, scheduler.getActiveCount());
+            assertEquals(0, scheduler.getQueuedCount());
+        }
+
+        @Test
+        @DisplayName("Should count failed jobs as finished")
+        void shouldCountFailedJobsAsFinished() {
+            // When
+            scheduler.submit("user-a", () -> Mono.error(new RuntimeException("boom")));
+
+            // Then
+            assertEquals(0, scheduler.getActiveCount());
+            assertEquals(1L, scheduler.getMetrics().get("completed"));
+        }
+
+        @Test
+        @DisplayName("Should drain in-flight jobs on shutdown")
+        void shouldDrainInFlightJobsOnShutdown() throws Exception {
+            // Given
+            CountDownLatch finished = new CountDownLatch(1);
+            scheduler.submit("user-a", () -> Mono.delay(Duration.ofMillis(200)).then(Mono.fromRunnable(finished::countDown)));
+
+            // When
+            scheduler.shutdown();
+
+            // Then
+            assertTrue(finished.await(1, TimeUnit.SECONDS));
+            Map<String, Object> metrics = scheduler.getMetrics();
+            assertEquals(1L, metrics.get("completed"));
+            assertFalse(scheduler.submit("user-b", Mono::empty));
+        }
+
+        @Test
+        @DisplayName("Should cancel jobs still running after the shutdown timeout")
+        void shouldCancelJobsAfterShutdownTimeout() {
+            // Given
+            ReflectionTestUtils.setField(scheduler, "shutdownTimeoutSeconds", 0);
+            AtomicBoolean cancelled = new AtomicBoolean(false);
+            scheduler.submit("user-a", () -> Mono.<Void>never().doOnCancel(() -> cancelled.set(true)));
+
+            // When
+            scheduler.shutdown();
+
+            // Then
+            assertTrue(cancelled.get());
+            assertEquals(0, scheduler.getActiveCount());
+        }
+
+        @Test
+        @DisplayName("Should tell queued jobs they were dropped on shutdown")
+        void shouldNotifyQueuedJobsDroppedOnShutdown() {
+            // Given
+            ReflectionTestUtils.setField(scheduler, "shutdownTimeoutSeconds", 0);
+            AtomicBoolean started = new AtomicBoolean(false);
+            AtomicBoolean dropped = new AtomicBoolean(false);
+            scheduler.submit("user-a", StreamingJobSchedulerTest.this::pendingJob);
+            scheduler.submit("user-b", StreamingJobSchedulerTest.this::pendingJob);
+            scheduler.submit("user-c", () -> pendingJob().doOnSubscribe(s -> started.set(true)), () -> dropped.set(true));
+
+            // When
+            scheduler.shutdown();
+
+            // Then
+            assertTrue(dropped.get());
+            assertFalse(started.get());
+            assertEquals(0, scheduler.getQueuedCount());
+        }
+    }
+}
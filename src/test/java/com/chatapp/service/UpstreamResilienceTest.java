@@ -0,0 +1,235 @@
+package com.chatapp.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("UpstreamResilience Tests")
+class UpstreamResilienceTest {
+
+    private UpstreamResilience resilience;
+
+    @BeforeEach
+    void setUp() {
+        resilience = new UpstreamResilience();
+        ReflectionTestUtils.setField(resilience, "initialBackoffMillis", 1L);
+        ReflectionTestUtils.setField(resilience, "maxBackoffMillis", 2000L);
+        ReflectionTestUtils.setField(resilience, "maxRetries", 2);
+        ReflectionTestUtils.setField(resilience, "circuitFailureThreshold", 3);
+        ReflectionTestUtils.setField(resilience, "circuitOpenSeconds", 30L);
+    }
+
+    private static WebClientResponseException status(int code, String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        if (retryAfter != null) {
+            headers.set(HttpHeaders.RETRY_AFTER, retryAfter);
+        }
+        return WebClientResponseException.create(code, "status " + code, headers, new byte[0], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A call that fails with the given errors, one per attempt, then succeeds.
+     */
+    private static Mono<String> failing(AtomicInteger attempts, Throwable... errors) {
+        return Mono.defer(() -> {
+            int attempt = attempts.getAndIncrement();
+            return attempt < errors.length ? Mono.error(errors[attempt]) : Mono.just("ok");
+        });
+    }
+
+    @Nested
+    @DisplayName("Retry Tests")
+    class RetryTests {
+
+        @Test
+        @DisplayName("Should retry rate limits and server errors")
+        void shouldRetryRetryableStatuses() {
+            // Given
+            AtomicInteger attempts = new AtomicInteger();
+
+            // When
+            String result = resilience.guard("m", failing(attempts, status(429, null), status(503, null))).block();
+
+            // Then
+            assertEquals("ok", result);
+            assertEquals(3, attempts.get());
+        }
+
+        @Test
+        @DisplayName("Should not retry client errors")
+        void shouldNotRetryClientErrors() {
+            // Given
+            AtomicInteger attempts = new AtomicInteger();
+
+            // When & Then
+            assertThrows(WebClientResponseException.class,
+                    () -> resilience.guard("m", failing(attempts, status(400, null))).block());
+            assertEquals(1, attempts.get());
+        }
+
+        @Test
+        @DisplayName("Should give up after the maximum number of retries")
+        void shouldGiveUpAfterMaxRetries() {
+            // Given
+            AtomicInteger attempts = new AtomicInteger();
+
+            // When & Then
+            assertThrows(WebClientResponseException.class, () -> resilience.guard("m",
+                    failing(attempts, status(502, null), status(502, null), status(502, null))).block());
+            assertEquals(3, attempts.get());
+        }
+
+        @Test
+        @DisplayName("Should wait at least as long as Retry-After asks")
+        void shouldHonorRetryAfter() {
+            // Given
+            AtomicInteger attempts = new AtomicInteger();
+            long start = System.nanoTime();
+
+            // When
+            resilience.guard("m", failing(attempts, status(429, "1"))).block();
+
+            // Then
+            assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 900);
+            assertEquals(2, attempts.get());
+        }
+
+        @Test
+        @DisplayName("Should not retry when Retry-After exceeds the maximum backoff")
+        void shouldNotRetryWhenRetryAfterTooLong() {
+            // Given
+            AtomicInteger attempts = new AtomicInteger();
+
+            // When & Then
+            assertThrows(WebClientResponseException.class,
+                    () -> resilience.guard("m", failing(attempts, status(429, "120"))).block());
+            assertEquals(1, attempts.get());
+        }
+
+        @Test
+        @DisplayName("Should retry a stream only before its first item")
+        void shouldRetryStreamOnlyBeforeFirstItem() {
+            // Given
+            AtomicInteger attempts = new AtomicInteger();
+            Flux<String> stream = Flux.defer(() -> attempts.getAndIncrement() == 0
+                    ? Flux.error(status(503, null))
+                    : Flux.concat(Flux.just("a", "b"), Flux.error(status(503, null))));
+
+            // When & Then
+            List<String> received = new java.util.ArrayList<>();
+            assertThrows(WebClientResponseException.class,
+                    () -> resilience.guardStream("m", stream).doOnNext(received::add).blockLast());
+            assertEquals(2, attempts.get());
+            assertEquals(List.of("a", "b"), received);
+        }
+    }
+
+    @Nested
+    @DisplayName("Timeout Tests")
+    class TimeoutTests {
+
+        @Test
+        @DisplayName("Should fail a stream that exceeds the total timeout")
+        void shouldFailStreamExceedingTotalTimeout() {
+            // Given
+            ReflectionTestUtils.setField(resilience, "totalTimeoutSeconds", 1L);
+
+            // When & Then
+            UpstreamUnavailableException error = assertThrows(UpstreamUnavailableException.class,
+                    () -> resilience.guardStream("m", Flux.interval(Duration.ofMillis(100))).blockLast());
+            assertTrue(error.getMessage().contains("did not finish"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Circuit Breaker Tests")
+    class CircuitBreakerTests {
+
+        @Test
+        @DisplayName("Should fail fast once a model keeps failing")
+        void shouldFailFastWhenCircuitOpen() {
+            // Given
+            ReflectionTestUtils.setField(resilience, "maxRetries", 0);
+            AtomicInteger attempts = new AtomicInteger();
+            for (int i = 0; i < 3; i++) {
+                assertThrows(WebClientResponseException.class,
+                        () -> resilience.guard("bad/model", Mono.defer(() -> {
+                            attempts.incrementAndGet();
+                            return Mono.error(status(500, null));
+                        })).block());
+            }
+
+            // When
+            UpstreamUnavailableException error = assertThrows(UpstreamUnavailableException.class,
+                    () -> resilience.guard("bad/model", failing(attempts)).block());
+
+            // Then
+            assertEquals(3, attempts.get());
+            assertTrue(error.getMessage().contains("bad/model"));
+            assertEquals("ok", resilience.guard("other/model", Mono.just("ok")).block());
+            assertEquals(1L, resilience.getMetrics().get("rejected"));
+        }
+
+        @Test
+        @DisplayName("Should not count client errors against the circuit")
+        void shouldNotCountClientErrors() {
+            // Given
+            for (int i = 0; i < 5; i++) {
+                assertThrows(WebClientResponseException.class,
+                        () -> resilience.guard("m", Mono.error(status(401, null))).block());
+            }
+
+            // When & Then
+            assertEquals(CircuitBreaker.State.CLOSED, resilience.breaker("m").getState());
+        }
+
+        @Test
+        @DisplayName("Should let one trial through after the open period and close on success")
+        void shouldCloseAfterSuccessfulTrial() {
+            // Given
+            CircuitBreaker breaker = new CircuitBreaker(1, 0);
+            breaker.onFailure();
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+            // When
+            boolean trial = breaker.tryAcquire();
+            breaker.onSuccess();
+
+            // Then
+            assertTrue(trial);
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        }
+
+        @Test
+        @DisplayName("Should re-open when the trial call fails")
+        void shouldReopenWhenTrialFails() {
+            // Given
+            CircuitBreaker breaker = new CircuitBreaker(5, 60_000);
+            ReflectionTestUtils.setField(breaker, "state", CircuitBreaker.State.OPEN);
+            ReflectionTestUtils.setField(breaker, "openedAt", System.currentTimeMillis() - 61_000);
+
+            // When
+            assertTrue(breaker.tryAcquire());
+            boolean second = breaker.tryAcquire();
+            breaker.onFailure();
+
+            // Then
+            assertFalse(second);
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+            assertFalse(breaker.tryAcquire());
+        }
+    }
+}
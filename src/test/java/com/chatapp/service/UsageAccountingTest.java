@@ -0,0 +1,133 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.AiApiResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("UsageAccounting Tests")
+class UsageAccountingTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path file;
+    private UsageAccounting accounting;
+
+    @BeforeEach
+    void setUp() {
+        file = tempDir.resolve("usage.tsv");
+        accounting = newAccounting();
+    }
+
+    private UsageAccounting newAccounting() {
+        UsageAccounting usageAccounting = new UsageAccounting();
+        ReflectionTestUtils.setField(usageAccounting, "file", file.toString());
+        ReflectionTestUtils.setField(usageAccounting, "flushIntervalSeconds", 3600L);
+        usageAccounting.load();
+        return usageAccounting;
+    }
+
+    private static AiApiResponse.Usage usage(int prompt, int completion) {
+        AiApiResponse.Usage usage = new AiApiResponse.Usage();
+        usage.setPromptTokens(prompt);
+        usage.setCompletionTokens(completion);
+        usage.setTotalTokens(prompt + completion);
+        return usage;
+    }
+
+    @Nested
+    @DisplayName("Counting Tests")
+    class CountingTests {
+
+        @Test
+        @DisplayName("Should count usage by session, user and model")
+        void shouldCountBySessionUserAndModel() {
+            // When
+            accounting.record(new UsageAccounting.Account("s1", "a@example.com"), "model/a", usage(10, 20), 100);
+            accounting.record(new UsageAccounting.Account("s2", "a@example.com"), "model/b", usage(5, 5), 300);
+            accounting.record(new UsageAccounting.Account("s1", null), "model/a", null, 50);
+            accounting.record(null, "model/a", usage(1, 1), 10);
+
+            // Then
+            UsageAccounting.Summary session = accounting.getSessionSummary("s1");
+            assertEquals(2, session.getRequests());
+            assertEquals(10, session.getPromptTokens());
+            assertEquals(20, session.getCompletionTokens());
+            assertEquals(75, session.getAverageLatencyMillis());
+            assertEquals(25, accounting.getUserSummary("a@example.com").getCompletionTokens());
+            assertEquals(1, accounting.getUserSummary(null).getRequests());
+            assertEquals(3, accounting.getModelSummaries().get("model/a").getRequests());
+            assertEquals(List.of("model/a", "model/b"), List.copyOf(accounting.getModelSummaries().keySet()));
+        }
+    }
+
+    @Nested
+    @DisplayName("File Tests")
+    class FileTests {
+
+        @Test
+        @DisplayName("Should append only what changed since the last flush")
+        void shouldAppendDeltas() throws Exception {
+            // Given
+            accounting.record(new UsageAccounting.Account("s1", "a@example.com"), "model/a", usage(10, 20), 100);
+            accounting.flush();
+
+            // When
+            accounting.record(null, "model/a", usage(1, 2), 10);
+            accounting.flush();
+            accounting.flush();
+
+            // Then
+            List<String> lines = Files.readAllLines(file);
+            assertEquals(3, lines.size());
+            assertTrue(lines.get(0).endsWith("\tmodel\tmodel/a\t1\t10\t20\t100"));
+            assertTrue(lines.get(1).endsWith("\tuser\ta@example.com\t1\t10\t20\t100"));
+            assertTrue(lines.get(2).endsWith("\tmodel\tmodel/a\t1\t1\t2\t10"));
+        }
+
+        @Test
+        @DisplayName("Should restore model and user totals from the file")
+        void shouldRestoreTotalsOnStartup() {
+            // Given
+            accounting.record(new UsageAccounting.Account("s1", "a@example.com"), "model/a", usage(10, 20), 100);
+            accounting.flush();
+
+            // When
+            UsageAccounting restarted = newAccounting();
+            restarted.flush();
+
+            // Then - restored totals are not written again
+            assertEquals(20, restarted.getModelSummaries().get("model/a").getCompletionTokens());
+            assertEquals(1, restarted.getUserSummary("a@example.com").getRequests());
+            assertEquals(0, restarted.getSessionSummary("s1").getRequests());
+            assertDoesNotThrow(() -> assertEquals(2, Files.readAllLines(file).size()));
+        }
+
+        @Test
+        @DisplayName("Should leave the file to the background flush and to shutdown")
+        void shouldNotWriteOnRecord() throws Exception {
+            // Given
+            ReflectionTestUtils.setField(accounting, "flushIntervalSeconds", 0L);
+            accounting.record(null, "model/a", usage(1, 1), 10);
+
+            // When
+            accounting.record(null, "model/a", usage(1, 1), 10);
+            boolean writtenOnRecord = Files.exists(file);
+            accounting.close();
+
+            // Then
+            assertFalse(writtenOnRecord);
+            assertEquals(1, Files.readAllLines(file).size());
+        }
+    }
+}